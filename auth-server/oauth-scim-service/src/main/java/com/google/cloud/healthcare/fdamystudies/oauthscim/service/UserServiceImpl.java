@@ -59,12 +59,14 @@ import com.google.cloud.healthcare.fdamystudies.beans.UpdateEmailStatusResponse;
 import com.google.cloud.healthcare.fdamystudies.beans.UserRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.UserResponse;
 import com.google.cloud.healthcare.fdamystudies.common.DateTimeUtils;
+import com.google.cloud.healthcare.fdamystudies.common.EmailTemplateRegistry;
 import com.google.cloud.healthcare.fdamystudies.common.ErrorCode;
 import com.google.cloud.healthcare.fdamystudies.common.IdGenerator;
 import com.google.cloud.healthcare.fdamystudies.common.MessageCode;
 import com.google.cloud.healthcare.fdamystudies.common.PasswordGenerator;
 import com.google.cloud.healthcare.fdamystudies.common.PlatformComponent;
 import com.google.cloud.healthcare.fdamystudies.common.TextEncryptor;
+import com.google.cloud.healthcare.fdamystudies.common.TokenRevokedEvent;
 import com.google.cloud.healthcare.fdamystudies.common.UserAccountStatus;
 import com.google.cloud.healthcare.fdamystudies.exceptions.ErrorCodeException;
 import com.google.cloud.healthcare.fdamystudies.oauthscim.common.AuthScimAuditHelper;
@@ -80,10 +82,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import javax.annotation.PostConstruct;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -96,6 +100,14 @@ import org.springframework.util.MultiValueMap;
 @Service
 public class UserServiceImpl implements UserService {
 
+  private static final String APP_NAME = "appName";
+
+  private static final String CONTACT_EMAIL = "contactEmail";
+
+  private static final String TEMP_PASSWORD = "tempPassword";
+
+  private static final String[] EMAIL_TEMPLATE_ARGS = {APP_NAME, CONTACT_EMAIL, TEMP_PASSWORD};
+
   private XLogger logger = XLoggerFactory.getXLogger(UserServiceImpl.class.getName());
 
   @Autowired private UserRepository repository;
@@ -110,6 +122,42 @@ public class UserServiceImpl implements UserService {
 
   @Autowired private TextEncryptor encryptor;
 
+  @Autowired private ApplicationEventPublisher eventPublisher;
+
+  @Autowired private EmailTemplateRegistry emailTemplateRegistry;
+
+  @PostConstruct
+  public void registerEmailTemplates() {
+    emailTemplateRegistry.register(
+        "mail.subject.reset-password",
+        appConfig.getMailResetPasswordSubject(),
+        EMAIL_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "mail.body.reset-password", appConfig.getMailResetPasswordBody(), EMAIL_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "mail.subject.reset-password-mobile",
+        appConfig.getMailResetPasswordSubjectForMobileApp(),
+        EMAIL_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "mail.body.reset-password-mobile",
+        appConfig.getMailResetPasswordBodyForMobileApp(),
+        EMAIL_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "mail.account.locked.subject",
+        appConfig.getMailAccountLockedSubject(),
+        EMAIL_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "mail.account.locked.content", appConfig.getMailAccountLockedBody(), EMAIL_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "mail.account.locked.subject-mobile",
+        appConfig.getMailAccountLockedSubjectForMobileApp(),
+        EMAIL_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "mail.account.locked.content-mobile",
+        appConfig.getMailAccountLockedBodyForMobileApp(),
+        EMAIL_TEMPLATE_ARGS);
+  }
+
   @Override
   @Transactional
   public UserResponse createUser(UserRequest userRequest) {
@@ -273,9 +321,9 @@ public class UserServiceImpl implements UserService {
             : appConfig.getMailResetPasswordBody();
 
     Map<String, String> templateArgs = new HashMap<>();
-    templateArgs.put("appName", appName);
-    templateArgs.put("contactEmail", appConfig.getContactEmail());
-    templateArgs.put("tempPassword", tempPassword);
+    templateArgs.put(APP_NAME, appName);
+    templateArgs.put(CONTACT_EMAIL, appConfig.getContactEmail());
+    templateArgs.put(TEMP_PASSWORD, tempPassword);
     EmailRequest emailRequest =
         new EmailRequest(
             appConfig.getFromEmail(),
@@ -448,9 +496,9 @@ public class UserServiceImpl implements UserService {
             : appConfig.getMailAccountLockedBody();
 
     Map<String, String> templateArgs = new HashMap<>();
-    templateArgs.put("appName", appName);
-    templateArgs.put("contactEmail", appConfig.getContactEmail());
-    templateArgs.put("tempPassword", tempPassword);
+    templateArgs.put(APP_NAME, appName);
+    templateArgs.put(CONTACT_EMAIL, appConfig.getContactEmail());
+    templateArgs.put(TEMP_PASSWORD, tempPassword);
     EmailRequest emailRequest =
         new EmailRequest(
             appConfig.getFromEmail(),
@@ -658,6 +706,8 @@ public class UserServiceImpl implements UserService {
       if (!response.getStatusCode().is2xxSuccessful()) {
         throw new ErrorCodeException(ErrorCode.APPLICATION_ERROR);
       }
+      // access tokens issued with the revoked refresh token are revoked along with it
+      eventPublisher.publishEvent(TokenRevokedEvent.ofUser(userId));
     }
 
     if (StringUtils.isEmpty(refreshToken)) {
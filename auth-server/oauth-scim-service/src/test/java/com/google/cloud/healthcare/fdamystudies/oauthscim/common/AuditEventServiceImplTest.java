@@ -0,0 +1,277 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.oauthscim.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.AuditLogOverflowPolicy;
+import com.google.cloud.healthcare.fdamystudies.config.AuditLogSinkConfiguration;
+import com.google.cloud.healthcare.fdamystudies.service.AuditEventServiceImpl;
+import com.google.cloud.healthcare.fdamystudies.service.AuditLogSink;
+import com.google.cloud.healthcare.fdamystudies.service.CloudLoggingAuditLogSink;
+import com.google.cloud.healthcare.fdamystudies.service.FileAuditLogSink;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class AuditEventServiceImplTest {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  @TempDir Path tempDir;
+
+  private MeterRegistry meterRegistry;
+
+  private BlockingAuditLogSink sink;
+
+  private AuditEventServiceImpl auditEventService;
+
+  @BeforeEach
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    sink = new BlockingAuditLogSink();
+  }
+
+  @AfterEach
+  public void shutdown() throws Exception {
+    sink.release.countDown();
+    if (auditEventService != null) {
+      auditEventService.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldDropEventWhenBufferIsFull() throws Exception {
+    auditEventService = newAuditEventService(AuditLogOverflowPolicy.DROP, 1, 1, 10000);
+    fillBuffer();
+
+    postEvent("EVENT_3");
+    assertEquals(1, count("audit.log.events.dropped"));
+
+    sink.release.countDown();
+    auditEventService.shutdown();
+    assertEquals(Arrays.asList("EVENT_1", "EVENT_2"), sink.eventCodes());
+  }
+
+  @Test
+  public void shouldSpillEventWhenBufferIsFull() throws Exception {
+    auditEventService = newAuditEventService(AuditLogOverflowPolicy.SPILL, 1, 1, 10000);
+    fillBuffer();
+
+    postEvent("EVENT_3");
+    assertEquals(1, count("audit.log.events.spilled"));
+    assertEquals(Collections.singletonList("EVENT_3"), spilledEventCodes());
+
+    sink.release.countDown();
+    auditEventService.shutdown();
+    assertEquals(Arrays.asList("EVENT_1", "EVENT_2"), sink.eventCodes());
+    assertEquals(0, count("audit.log.events.dropped"));
+  }
+
+  @Test
+  public void shouldBlockUntilBufferHasRoom() throws Exception {
+    auditEventService = newAuditEventService(AuditLogOverflowPolicy.BLOCK, 1, 1, 10000);
+    fillBuffer();
+
+    // Step 1: the caller waits while the sink is busy
+    CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> postEvent("EVENT_3"));
+    Thread.sleep(100);
+    assertFalse(blocked.isDone());
+
+    // Step 2: the event is buffered once the flusher takes the next event
+    sink.release.countDown();
+    blocked.get(10, TimeUnit.SECONDS);
+    auditEventService.shutdown();
+    assertEquals(Arrays.asList("EVENT_1", "EVENT_2", "EVENT_3"), sink.eventCodes());
+    assertEquals(0, count("audit.log.events.dropped"));
+  }
+
+  @Test
+  public void shouldDropEventAfterBlockTimeout() throws Exception {
+    auditEventService = newAuditEventService(AuditLogOverflowPolicy.BLOCK, 1, 1, 10);
+    fillBuffer();
+
+    postEvent("EVENT_3");
+    assertEquals(1, count("audit.log.events.dropped"));
+  }
+
+  @Test
+  public void shouldSpillBatchTheSinkFailedToWrite() throws Exception {
+    sink.fail = true;
+    auditEventService = newAuditEventService(AuditLogOverflowPolicy.SPILL, 10, 100, 10000);
+    sink.release.countDown();
+
+    postEvent("EVENT_1");
+    auditEventService.shutdown();
+
+    assertEquals(Collections.singletonList("EVENT_1"), spilledEventCodes());
+    assertEquals(1, count("audit.log.events.spilled"));
+    assertEquals(0, count("audit.log.events.failed"));
+  }
+
+  @Test
+  public void shouldCountBatchTheSinkFailedToWrite() throws Exception {
+    sink.fail = true;
+    auditEventService = newAuditEventService(AuditLogOverflowPolicy.DROP, 10, 100, 10000);
+    sink.release.countDown();
+
+    postEvent("EVENT_1");
+    auditEventService.shutdown();
+
+    assertEquals(1, count("audit.log.events.failed"));
+    assertFalse(Files.exists(tempDir.resolve("spill.jsonl")));
+  }
+
+  @Test
+  public void shouldFlushBufferedEventsOnShutdown() throws Exception {
+    auditEventService = newAuditEventService(AuditLogOverflowPolicy.BLOCK, 10, 100, 10000);
+    sink.release.countDown();
+
+    // neither the batch size nor the flush interval is reached before the shutdown
+    postEvent("EVENT_1");
+    postEvent("EVENT_2");
+    assertTrue(sink.eventCodes().isEmpty());
+
+    auditEventService.shutdown();
+    assertEquals(Arrays.asList("EVENT_1", "EVENT_2"), sink.eventCodes());
+  }
+
+  @Test
+  public void shouldSelectSinkFromProperty() throws IOException {
+    AuditLogSinkConfiguration configuration = new AuditLogSinkConfiguration();
+    ReflectionTestUtils.setField(
+        configuration, "filePath", tempDir.resolve("audit-log.jsonl").toString());
+
+    ReflectionTestUtils.setField(configuration, "sink", "file");
+    try (AuditLogSink fileSink = configuration.auditLogSink()) {
+      assertTrue(fileSink instanceof FileAuditLogSink);
+    }
+
+    // the Cloud Logging client is only created on first write
+    ReflectionTestUtils.setField(configuration, "sink", "cloud-logging");
+    try (AuditLogSink cloudLoggingSink = configuration.auditLogSink()) {
+      assertTrue(cloudLoggingSink instanceof CloudLoggingAuditLogSink);
+    }
+  }
+
+  @Test
+  public void shouldWriteEventsToFileSink() throws IOException {
+    Path path = tempDir.resolve("logs").resolve("audit-log.jsonl");
+    try (FileAuditLogSink fileSink = new FileAuditLogSink(path)) {
+      fileSink.write(Arrays.asList(event("EVENT_1"), event("EVENT_2")));
+      fileSink.append(event("EVENT_3"));
+    }
+
+    assertEquals(Arrays.asList("EVENT_1", "EVENT_2", "EVENT_3"), eventCodes(path));
+  }
+
+  private AuditEventServiceImpl newAuditEventService(
+      AuditLogOverflowPolicy overflowPolicy, int capacity, int batchSize, long blockTimeoutMillis) {
+    AuditEventServiceImpl service = new AuditEventServiceImpl();
+    ReflectionTestUtils.setField(service, "auditLogSink", sink);
+    ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+    ReflectionTestUtils.setField(service, "capacity", capacity);
+    ReflectionTestUtils.setField(service, "batchSize", batchSize);
+    ReflectionTestUtils.setField(service, "flushIntervalMillis", TimeUnit.HOURS.toMillis(1));
+    ReflectionTestUtils.setField(service, "overflowPolicy", overflowPolicy);
+    ReflectionTestUtils.setField(service, "blockTimeoutMillis", blockTimeoutMillis);
+    ReflectionTestUtils.setField(
+        service, "spillPath", tempDir.resolve("spill.jsonl").toString());
+    ReflectionTestUtils.setField(service, "shutdownTimeoutMillis", 10000L);
+    service.init();
+    return service;
+  }
+
+  /**
+   * The flusher takes the first event and waits in the sink, the second event takes the only slot
+   * of the buffer.
+   */
+  private void fillBuffer() throws InterruptedException {
+    postEvent("EVENT_1");
+    assertTrue(sink.writing.await(10, TimeUnit.SECONDS));
+    postEvent("EVENT_2");
+  }
+
+  private void postEvent(String eventCode) {
+    AuditLogEventRequest auditRequest = new AuditLogEventRequest();
+    auditRequest.setEventCode(eventCode);
+    auditEventService.postAuditLogEvent(auditRequest);
+  }
+
+  private double count(String name) {
+    return meterRegistry.counter(name).count();
+  }
+
+  private List<String> spilledEventCodes() throws IOException {
+    return eventCodes(tempDir.resolve("spill.jsonl"));
+  }
+
+  private Map<String, Object> event(String eventCode) {
+    return Collections.singletonMap("eventCode", eventCode);
+  }
+
+  private List<String> eventCodes(Path path) throws IOException {
+    List<String> eventCodes = new ArrayList<>();
+    for (String line : Files.readAllLines(path)) {
+      eventCodes.add(OBJECT_MAPPER.readTree(line).path("eventCode").textValue());
+    }
+    return eventCodes;
+  }
+
+  /** Records the written events, waits for the release latch and fails when set to. */
+  private static class BlockingAuditLogSink implements AuditLogSink {
+
+    private final CountDownLatch writing = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final List<String> eventCodes = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile boolean fail;
+
+    @Override
+    public void write(List<Map<String, Object>> events) throws IOException {
+      writing.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (fail) {
+        throw new IOException("sink unavailable");
+      }
+      events.forEach(event -> eventCodes.add((String) event.get("eventCode")));
+    }
+
+    private List<String> eventCodes() {
+      synchronized (eventCodes) {
+        return new ArrayList<>(eventCodes);
+      }
+    }
+  }
+}
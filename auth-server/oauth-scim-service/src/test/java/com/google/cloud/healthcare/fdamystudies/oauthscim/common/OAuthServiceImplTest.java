@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.oauthscim.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.service.OAuthServiceImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+public class OAuthServiceImplTest {
+
+  private static final String TOKEN_ENDPOINT = "http://localhost:8002/auth-server/oauth2/token";
+
+  private static final int CALLERS = 10;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final AtomicInteger tokenRequests = new AtomicInteger();
+
+  private RestTemplate restTemplate;
+
+  private MeterRegistry meterRegistry;
+
+  private OAuthServiceImpl oAuthService;
+
+  private ExecutorService callers;
+
+  private final CountDownLatch requested = new CountDownLatch(1);
+
+  /** When set, token requests wait on it so that concurrent callers arrive while one is sent */
+  private volatile CountDownLatch release;
+
+  @BeforeEach
+  public void setUp() {
+    restTemplate = mock(RestTemplate.class);
+    when(restTemplate.exchange(
+            eq(TOKEN_ENDPOINT), eq(HttpMethod.POST), any(HttpEntity.class), eq(JsonNode.class)))
+        .thenAnswer(
+            invocation -> {
+              int request = tokenRequests.incrementAndGet();
+              requested.countDown();
+              if (release != null) {
+                release.await(10, TimeUnit.SECONDS);
+              }
+              return new ResponseEntity<JsonNode>(
+                  objectMapper.createObjectNode().put("access_token", "token-" + request),
+                  HttpStatus.OK);
+            });
+
+    meterRegistry = new SimpleMeterRegistry();
+    oAuthService = new OAuthServiceImpl();
+    ReflectionTestUtils.setField(oAuthService, "restTemplate", restTemplate);
+    ReflectionTestUtils.setField(oAuthService, "meterRegistry", meterRegistry);
+    ReflectionTestUtils.setField(oAuthService, "tokenEndpoint", TOKEN_ENDPOINT);
+    ReflectionTestUtils.setField(oAuthService, "refreshBeforeExpirySeconds", 60L);
+    oAuthService.init();
+
+    callers = Executors.newFixedThreadPool(CALLERS);
+  }
+
+  @AfterEach
+  public void shutdown() {
+    callers.shutdownNow();
+    oAuthService.shutdown();
+  }
+
+  @Test
+  public void shouldShareOneRefreshBetweenConcurrentCallers() throws Exception {
+    release = new CountDownLatch(1);
+
+    // Step 1: concurrent callers need a token while the first token request is in flight
+    List<Future<String>> tokens = callConcurrently(oAuthService::getAccessToken);
+    assertTrue(requested.await(10, TimeUnit.SECONDS));
+    Thread.sleep(100);
+
+    // Step 2: verify all of them get the token of the single request
+    release.countDown();
+    for (Future<String> token : tokens) {
+      assertEquals("token-1", token.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(1, tokenRequests.get());
+    assertEquals(
+        1, meterRegistry.timer("oauth.service.token.refresh", "outcome", "success").count());
+  }
+
+  @Test
+  public void shouldRefreshOnceForBurstOfRejectedTokens() throws Exception {
+    assertEquals("token-1", oAuthService.getAccessToken());
+    release = new CountDownLatch(1);
+
+    // Step 1: concurrent requests are rejected with the same token
+    List<Future<String>> tokens =
+        callConcurrently(() -> oAuthService.getNewAccessToken("token-1"));
+    Thread.sleep(100);
+
+    // Step 2: verify a single refresh replaced the token for all of them
+    release.countDown();
+    for (Future<String> token : tokens) {
+      assertEquals("token-2", token.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(2, tokenRequests.get());
+  }
+
+  @Test
+  public void shouldNotRefreshAgainForStaleRejectedToken() {
+    assertEquals("token-1", oAuthService.getAccessToken());
+    assertEquals("token-2", oAuthService.getNewAccessToken("token-1"));
+
+    // a request sent with token-1 before the refresh is rejected after it
+    assertEquals("token-2", oAuthService.getNewAccessToken("token-1"));
+    assertEquals("token-2", oAuthService.getAccessToken());
+    verify(restTemplate, times(2))
+        .exchange(
+            eq(TOKEN_ENDPOINT), eq(HttpMethod.POST), any(HttpEntity.class), eq(JsonNode.class));
+  }
+
+  @Test
+  public void shouldRetryAfterFailedRefresh() {
+    doThrow(new ResourceAccessException("token endpoint unavailable"))
+        .doReturn(
+            new ResponseEntity<JsonNode>(
+                objectMapper.createObjectNode().put("access_token", "token-1"), HttpStatus.OK))
+        .when(restTemplate)
+        .exchange(
+            eq(TOKEN_ENDPOINT), eq(HttpMethod.POST), any(HttpEntity.class), eq(JsonNode.class));
+
+    assertThrows(ResourceAccessException.class, oAuthService::getAccessToken);
+    assertEquals("token-1", oAuthService.getAccessToken());
+    assertEquals(
+        1, meterRegistry.timer("oauth.service.token.refresh", "outcome", "failure").count());
+  }
+
+  private List<Future<String>> callConcurrently(Supplier<String> call) {
+    List<Future<String>> tokens = new ArrayList<>();
+    for (int i = 0; i < CALLERS; i++) {
+      tokens.add(callers.submit(call::get));
+    }
+    return tokens;
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.oauthscim.common;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.healthcare.fdamystudies.common.TokenRevokedEvent;
+import com.google.cloud.healthcare.fdamystudies.filter.TokenIntrospectionCache;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class TokenIntrospectionCacheTest {
+
+  private static final long MAX_TTL_SECONDS = 60;
+
+  private static final long NEGATIVE_TTL_SECONDS = 1;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private TokenIntrospectionCache cache;
+
+  @BeforeEach
+  public void setUp() {
+    cache = newCache(MAX_TTL_SECONDS);
+  }
+
+  @Test
+  public void shouldCacheActiveTokenUntilItExpires() throws InterruptedException {
+    long expiresAt = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 2;
+    ResponseEntity<JsonNode> expiring = introspection(true, "user-1", expiresAt);
+    ResponseEntity<JsonNode> lasting = introspection(true, "user-1", expiresAt + 3600);
+    cache.put("expiring-token", expiring);
+    cache.put("lasting-token", lasting);
+    assertSame(expiring, cache.get("expiring-token"));
+
+    // the entry is dropped at the exp of the token, before the max TTL
+    sleepUntil(TimeUnit.SECONDS.toMillis(expiresAt));
+    assertNull(cache.get("expiring-token"));
+    assertSame(lasting, cache.get("lasting-token"));
+  }
+
+  @Test
+  public void shouldNotCacheExpiredToken() {
+    long expiredAt = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - 1;
+    cache.put("expired-token", introspection(true, "user-1", expiredAt));
+
+    assertNull(cache.get("expired-token"));
+  }
+
+  @Test
+  public void shouldCapTtlAtMaxTtl() throws InterruptedException {
+    cache = newCache(1);
+    long expiresAt = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 3600;
+    ResponseEntity<JsonNode> response = introspection(true, "user-1", expiresAt);
+    cache.put("token", response);
+    long cachedAt = System.currentTimeMillis();
+    assertSame(response, cache.get("token"));
+
+    sleepUntil(cachedAt + TimeUnit.SECONDS.toMillis(1));
+    assertNull(cache.get("token"));
+  }
+
+  @Test
+  public void shouldCacheInactiveTokenForNegativeTtl() throws InterruptedException {
+    ResponseEntity<JsonNode> response = introspection(false, null, null);
+    cache.put("inactive-token", response);
+    long cachedAt = System.currentTimeMillis();
+
+    // an inactive token is answered from the cache, without calling the auth server again
+    assertSame(response, cache.get("inactive-token"));
+
+    sleepUntil(cachedAt + TimeUnit.SECONDS.toMillis(NEGATIVE_TTL_SECONDS));
+    assertNull(cache.get("inactive-token"));
+  }
+
+  @Test
+  public void shouldNotCacheFailedIntrospection() {
+    cache.put("token", new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE));
+    assertNull(cache.get("token"));
+
+    cache.put("token", new ResponseEntity<>(HttpStatus.OK));
+    assertNull(cache.get("token"));
+  }
+
+  @Test
+  public void shouldNotCacheWhenDisabled() {
+    ReflectionTestUtils.setField(cache, "enabled", false);
+    cache.put("token", introspection(true, "user-1", null));
+
+    assertNull(cache.get("token"));
+  }
+
+  @Test
+  public void shouldEvictTokensOnTokenRevokedEvent() {
+    ResponseEntity<JsonNode> firstToken = introspection(true, "user-1", null);
+    ResponseEntity<JsonNode> secondToken = introspection(true, "user-1", null);
+    ResponseEntity<JsonNode> otherUserToken = introspection(true, "user-2", null);
+    cache.put("first-token", firstToken);
+    cache.put("second-token", secondToken);
+    cache.put("other-user-token", otherUserToken);
+
+    // Step 1: a revoked token is evicted
+    cache.onTokenRevoked(new TokenRevokedEvent("first-token", null));
+    assertNull(cache.get("first-token"));
+    assertSame(secondToken, cache.get("second-token"));
+
+    // Step 2: the revoked tokens of a user are evicted, the tokens of other users are kept
+    cache.onTokenRevoked(TokenRevokedEvent.ofUser("user-1"));
+    assertNull(cache.get("second-token"));
+    assertSame(otherUserToken, cache.get("other-user-token"));
+  }
+
+  private TokenIntrospectionCache newCache(long maxTtlSeconds) {
+    TokenIntrospectionCache tokenIntrospectionCache = new TokenIntrospectionCache();
+    ReflectionTestUtils.setField(tokenIntrospectionCache, "enabled", true);
+    ReflectionTestUtils.setField(tokenIntrospectionCache, "maximumSize", 100L);
+    ReflectionTestUtils.setField(tokenIntrospectionCache, "maxTtlSeconds", maxTtlSeconds);
+    ReflectionTestUtils.setField(
+        tokenIntrospectionCache, "negativeTtlSeconds", NEGATIVE_TTL_SECONDS);
+    tokenIntrospectionCache.init();
+    return tokenIntrospectionCache;
+  }
+
+  private ResponseEntity<JsonNode> introspection(boolean active, String subject, Long expiresAt) {
+    ObjectNode body = objectMapper.createObjectNode();
+    body.put("active", active);
+    if (subject != null) {
+      body.put("sub", subject);
+    }
+    if (expiresAt != null) {
+      body.put("exp", expiresAt);
+    }
+    return new ResponseEntity<>(body, HttpStatus.OK);
+  }
+
+  private void sleepUntil(long millis) throws InterruptedException {
+    long now;
+    while ((now = System.currentTimeMillis()) <= millis) {
+      Thread.sleep(millis - now + 10);
+    }
+  }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.common;
+
+/** What to do with an audit log event when the audit log buffer is full. */
+public enum AuditLogOverflowPolicy {
+  /** Wait for room in the buffer, up to the configured block timeout, then drop the event. */
+  BLOCK,
+
+  /** Append the event to the local spill file. */
+  SPILL,
+
+  /** Drop the event, counted by the audit.log.events.dropped metric. */
+  DROP;
+}
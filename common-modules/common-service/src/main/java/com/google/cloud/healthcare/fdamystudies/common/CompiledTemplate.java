@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Text with {@code ${name}} and {@code {{name}}} placeholders, parsed once into the literal text
+ * between the placeholders and the placeholder names. Rendering appends the literals and values to
+ * a single buffer. A placeholder without a value is kept as is, as {@link PlaceholderReplacer} did
+ * with Spring's {@code PropertyPlaceholderHelper}. Values are inserted as they are, placeholders in
+ * a value are not replaced.
+ */
+public final class CompiledTemplate {
+
+  private static final String[][] DELIMITERS = {{"${", "}"}, {"{{", "}}"}};
+
+  /** One more literal than there are placeholders, literals[i] precedes placeholder i. */
+  private final String[] literals;
+
+  private final String[] names;
+
+  /** Placeholders as written in the text, rendered when there is no value. */
+  private final String[] placeholders;
+
+  private final int literalLength;
+
+  private final Set<String> variables;
+
+  private CompiledTemplate(String[] literals, String[] names, String[] placeholders) {
+    this.literals = literals;
+    this.names = names;
+    this.placeholders = placeholders;
+    int length = 0;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    this.literalLength = length;
+    this.variables = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(names)));
+  }
+
+  public static CompiledTemplate compile(String text) {
+    String[] literals = new String[8];
+    String[] names = new String[7];
+    String[] placeholders = new String[7];
+    int count = 0;
+    int position = 0;
+    while (true) {
+      int start = -1;
+      String[] delimiter = null;
+      for (String[] candidate : DELIMITERS) {
+        int index = text.indexOf(candidate[0], position);
+        if (index != -1 && (start == -1 || index < start)) {
+          start = index;
+          delimiter = candidate;
+        }
+      }
+      int end = start == -1 ? -1 : text.indexOf(delimiter[1], start + delimiter[0].length());
+      if (end == -1) {
+        break;
+      }
+
+      if (count == names.length) {
+        literals = Arrays.copyOf(literals, count * 2 + 1);
+        names = Arrays.copyOf(names, count * 2);
+        placeholders = Arrays.copyOf(placeholders, count * 2);
+      }
+      literals[count] = text.substring(position, start);
+      names[count] = text.substring(start + delimiter[0].length(), end);
+      position = end + delimiter[1].length();
+      placeholders[count] = text.substring(start, position);
+      count++;
+    }
+    literals[count] = text.substring(position);
+    return new CompiledTemplate(
+        Arrays.copyOf(literals, count + 1),
+        Arrays.copyOf(names, count),
+        Arrays.copyOf(placeholders, count));
+  }
+
+  /** Names of the placeholders in the text, in order of first use. */
+  public Set<String> getVariables() {
+    return variables;
+  }
+
+  public String render(Map<String, String> values) {
+    if (names.length == 0) {
+      return literals[0];
+    }
+    StringBuilder result = new StringBuilder(literalLength + names.length * 16);
+    for (int i = 0; i < names.length; i++) {
+      result.append(literals[i]);
+      String value = values.get(names[i]);
+      result.append(value != null ? value : placeholders[i]);
+    }
+    return result.append(literals[names.length]).toString();
+  }
+}
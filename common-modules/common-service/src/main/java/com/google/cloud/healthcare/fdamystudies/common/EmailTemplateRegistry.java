@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.common;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compiled email subjects and bodies, looked up by their text. The templates a module sends are
+ * registered on startup with the arguments their sender supplies, so that a template using an
+ * argument the sender does not supply fails the startup instead of every email. Any other text is
+ * compiled on its first use and kept in a bounded cache.
+ */
+@Component
+public class EmailTemplateRegistry {
+
+  private XLogger logger = XLoggerFactory.getXLogger(EmailTemplateRegistry.class.getName());
+
+  private static final int MAXIMUM_UNREGISTERED_TEMPLATES = 256;
+
+  private final Map<String, CompiledTemplate> registered = new ConcurrentHashMap<>();
+
+  private final Cache<String, CompiledTemplate> unregistered =
+      CacheBuilder.newBuilder().maximumSize(MAXIMUM_UNREGISTERED_TEMPLATES).build();
+
+  /**
+   * Compiles the template text and checks that every placeholder in it is one of the arguments.
+   *
+   * @throws IllegalStateException if the text has a placeholder that is not an argument
+   */
+  public CompiledTemplate register(String templateName, String text, String... arguments) {
+    CompiledTemplate template = CompiledTemplate.compile(text);
+    Set<String> missing = new LinkedHashSet<>(template.getVariables());
+    missing.removeAll(Arrays.asList(arguments));
+    if (!missing.isEmpty()) {
+      throw new IllegalStateException(
+          String.format(
+              "email template '%s' has placeholders without a value: %s", templateName, missing));
+    }
+    registered.put(text, template);
+    logger.info(
+        String.format(
+            "email template '%s' registered, placeholders=%s",
+            templateName, template.getVariables()));
+    return template;
+  }
+
+  public CompiledTemplate get(String text) {
+    CompiledTemplate template = registered.get(text);
+    if (template != null) {
+      return template;
+    }
+    try {
+      return unregistered.get(text, () -> CompiledTemplate.compile(text));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  public String render(String text, Map<String, String> values) {
+    return get(text).render(values);
+  }
+}
@@ -319,6 +319,15 @@ public enum ErrorCode {
       HttpStatus.GONE.toString(),
       "The token entered is no longer valid. Please contact the site coordinator for assistance."),
 
+  ENROLLMENT_TOKEN_ALREADY_USED(
+      403, "EC_0132", HttpStatus.FORBIDDEN.toString(), "Token already in use"),
+
+  INVALID_ENROLLMENT_TOKEN(
+      400,
+      "EC_0133",
+      Constants.BAD_REQUEST,
+      "Sorry, this token is invalid. Please enter a valid token to continue."),
+
   LOCATION_NAME_EXISTS(
       400, "EC_0068", Constants.BAD_REQUEST, "Sorry, a location with this name already exists"),
 
@@ -350,6 +359,8 @@ public enum ErrorCode {
   UNSUPPORTED_SORT_DIRECTION_VALUE(
       400, "EC_0077", HttpStatus.BAD_REQUEST.toString(), "Invalid sorting direction"),
 
+  INVALID_PAGE_CURSOR(400, "EC_0131", HttpStatus.BAD_REQUEST.toString(), "Invalid page cursor"),
+
   FEEDBACK_ERROR_MESSAGE(
       500,
       "EC_0073",
@@ -12,8 +12,6 @@ import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
-import org.springframework.util.PropertyPlaceholderHelper;
-import org.springframework.util.PropertyPlaceholderHelper.PlaceholderResolver;
 
 public final class PlaceholderReplacer {
 
@@ -21,25 +19,22 @@ public final class PlaceholderReplacer {
 
   private static XLogger logger = XLoggerFactory.getXLogger(PlaceholderReplacer.class.getName());
 
+  /**
+   * Replaces the {@code ${name}} and {@code {{name}}} placeholders of the text in one pass, see
+   * {@link CompiledTemplate}. Texts that are rendered repeatedly, like email templates, are better
+   * compiled once through the {@link EmailTemplateRegistry}.
+   */
   public static String replaceNamedPlaceholders(
       final String textWithNamedPlaceholders, Map<String, String> values) {
-
-    PlaceholderResolver placeholderResolver =
-        placeholderName -> {
-          String result = values.get(placeholderName);
-          if (StringUtils.isEmpty(result)) {
-            logger.error(
-                String.format(
-                    "missing value for placeholder: '%s' in '%s'",
-                    placeholderName, textWithNamedPlaceholders));
-          }
-          return result;
-        };
-    PropertyPlaceholderHelper helper = new PropertyPlaceholderHelper("${", "}");
-    String replacedTextResult =
-        helper.replacePlaceholders(textWithNamedPlaceholders, placeholderResolver);
-
-    helper = new PropertyPlaceholderHelper("{{", "}}");
-    return helper.replacePlaceholders(replacedTextResult, placeholderResolver);
+    CompiledTemplate template = CompiledTemplate.compile(textWithNamedPlaceholders);
+    for (String placeholderName : template.getVariables()) {
+      if (StringUtils.isEmpty(values.get(placeholderName))) {
+        logger.error(
+            String.format(
+                "missing value for placeholder: '%s' in '%s'",
+                placeholderName, textWithNamedPlaceholders));
+      }
+    }
+    return template.render(values);
   }
 }
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.common;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Published when tokens are revoked, either a single token or all tokens of a user, so that cached
+ * introspection results are dropped.
+ */
+@Getter
+@AllArgsConstructor
+public class TokenRevokedEvent {
+
+  private final String token;
+
+  private final String userId;
+
+  public static TokenRevokedEvent ofUser(String userId) {
+    return new TokenRevokedEvent(null, userId);
+  }
+}
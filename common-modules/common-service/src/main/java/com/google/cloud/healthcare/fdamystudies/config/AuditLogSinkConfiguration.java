@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.config;
+
+import com.google.cloud.healthcare.fdamystudies.service.AuditLogSink;
+import com.google.cloud.healthcare.fdamystudies.service.CloudLoggingAuditLogSink;
+import com.google.cloud.healthcare.fdamystudies.service.FileAuditLogSink;
+import java.nio.file.Paths;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(
+    value = "commonservice.auditlogevent.enabled",
+    havingValue = "true",
+    matchIfMissing = true)
+public class AuditLogSinkConfiguration {
+
+  private static final String FILE_SINK = "file";
+
+  @Value("${commonservice.auditlogevent.sink}")
+  private String sink;
+
+  @Value("${commonservice.auditlogevent.file.path}")
+  private String filePath;
+
+  /** Audit log destination, a module may replace it with a bean of the same name. */
+  @Bean
+  public AuditLogSink auditLogSink() {
+    if (FILE_SINK.equalsIgnoreCase(sink)) {
+      return new FileAuditLogSink(Paths.get(filePath));
+    }
+    return new CloudLoggingAuditLogSink();
+  }
+}
@@ -20,6 +20,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
@@ -37,6 +38,8 @@ public class CommonModuleConfiguration implements WebMvcConfigurer {
   @Autowired
   private RestTemplateAuthTokenModifierInterceptor restTemplateAuthTokenModifierInterceptor;
 
+  @Autowired private ClientHttpRequestFactory clientHttpRequestFactory;
+
   @Bean
   public ObjectMapper objectMapper() {
     return new ObjectMapper();
@@ -44,7 +47,7 @@ public class CommonModuleConfiguration implements WebMvcConfigurer {
 
   @Bean
   public RestTemplate restTemplate() {
-    RestTemplate restTemplate = new RestTemplate();
+    RestTemplate restTemplate = new RestTemplate(clientHttpRequestFactory);
 
     addInterceptors(restTemplate);
 
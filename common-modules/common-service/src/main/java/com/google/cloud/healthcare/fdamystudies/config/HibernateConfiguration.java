@@ -8,14 +8,16 @@
 
 package com.google.cloud.healthcare.fdamystudies.config;
 
+import com.zaxxer.hikari.HikariDataSource;
 import java.util.Properties;
 import javax.sql.DataSource;
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.SessionFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.orm.hibernate5.HibernateTransactionManager;
 import org.springframework.orm.hibernate5.LocalSessionFactoryBean;
 
@@ -52,20 +54,28 @@ public class HibernateConfiguration {
   @Value("${spring.jpa.properties.hibernate.hbm2ddl.import_files:}")
   private String dataSqlFile;
 
+  @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:0}")
+  private int batchSize;
+
+  /**
+   * Connection pool, tuned with the spring.datasource.hikari.* properties. Its pool metrics are
+   * registered with Micrometer by the Spring Boot actuator.
+   */
   @Bean
-  public DataSource dataSource() {
-    DriverManagerDataSource dataSource = new DriverManagerDataSource();
+  @ConfigurationProperties("spring.datasource.hikari")
+  public HikariDataSource dataSource() {
+    HikariDataSource dataSource = new HikariDataSource();
     dataSource.setDriverClassName(driverClassName);
-    dataSource.setUrl(url);
+    dataSource.setJdbcUrl(url);
     dataSource.setUsername(username);
     dataSource.setPassword(password);
     return dataSource;
   }
 
   @Bean(name = "entityManagerFactory")
-  public LocalSessionFactoryBean sessionFactory() {
+  public LocalSessionFactoryBean sessionFactory(DataSource dataSource) {
     LocalSessionFactoryBean sessionFactory = new LocalSessionFactoryBean();
-    sessionFactory.setDataSource(dataSource());
+    sessionFactory.setDataSource(dataSource);
     sessionFactory.setPackagesToScan(scanPackages);
     Properties hibernateProperties = new Properties();
     hibernateProperties.put("hibernate.dialect", dialect);
@@ -76,15 +86,22 @@ public class HibernateConfiguration {
       hibernateProperties.put("hibernate.hbm2ddl.import_files", dataSqlFile);
     }
 
+    if (batchSize > 0) {
+      // the statements of a flush are grouped by table and sent in JDBC batches
+      hibernateProperties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+      hibernateProperties.put("hibernate.order_inserts", "true");
+      hibernateProperties.put("hibernate.order_updates", "true");
+    }
+
     sessionFactory.setHibernateProperties(hibernateProperties);
 
     return sessionFactory;
   }
 
   @Bean
-  public HibernateTransactionManager transactionManager() {
+  public HibernateTransactionManager transactionManager(SessionFactory sessionFactory) {
     HibernateTransactionManager transactionManager = new HibernateTransactionManager();
-    transactionManager.setSessionFactory(sessionFactory().getObject());
+    transactionManager.setSessionFactory(sessionFactory);
     return transactionManager;
   }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+/**
+ * Pooled HTTP client behind the shared {@code RestTemplate}, so that service to service calls reuse
+ * kept-alive connections instead of opening a new TCP and TLS connection per request. The limits
+ * and timeouts default in common-application.properties and can be overridden per module.
+ */
+@Configuration
+public class HttpClientConfiguration {
+
+  private static final String POOL_METRIC_PREFIX = "http.client.pool.";
+
+  @Value("${http.client.pool.max-total}")
+  private int maxTotal;
+
+  @Value("${http.client.pool.max-per-route}")
+  private int maxPerRoute;
+
+  @Value("${http.client.pool.time-to-live-ms}")
+  private long timeToLiveMillis;
+
+  @Value("${http.client.pool.idle-timeout-ms}")
+  private long idleTimeoutMillis;
+
+  @Value("${http.client.pool.validate-after-inactivity-ms}")
+  private int validateAfterInactivityMillis;
+
+  @Value("${http.client.connect-timeout-ms}")
+  private int connectTimeoutMillis;
+
+  @Value("${http.client.read-timeout-ms}")
+  private int readTimeoutMillis;
+
+  @Value("${http.client.connection-request-timeout-ms}")
+  private int connectionRequestTimeoutMillis;
+
+  @Bean
+  public PoolingHttpClientConnectionManager httpClientConnectionManager() {
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager(timeToLiveMillis, TimeUnit.MILLISECONDS);
+    connectionManager.setMaxTotal(maxTotal);
+    connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+    connectionManager.setValidateAfterInactivity(validateAfterInactivityMillis);
+    return connectionManager;
+  }
+
+  @Bean(destroyMethod = "close")
+  public CloseableHttpClient httpClient() {
+    RequestConfig requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(connectTimeoutMillis)
+            .setSocketTimeout(readTimeoutMillis)
+            .setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+            .build();
+
+    // The client is shared by all callers, so it keeps no cookies, and it does not retry requests
+    // on its own, as the plain RestTemplate did not
+    return HttpClients.custom()
+        .setConnectionManager(httpClientConnectionManager())
+        .setDefaultRequestConfig(requestConfig)
+        .evictExpiredConnections()
+        .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+        .disableCookieManagement()
+        .disableAutomaticRetries()
+        .build();
+  }
+
+  @Bean
+  public ClientHttpRequestFactory clientHttpRequestFactory() {
+    return new HttpComponentsClientHttpRequestFactory(httpClient());
+  }
+
+  /** Exposes the pool usage, leased connections at max with pending requests means saturation. */
+  @Bean
+  public MeterBinder httpClientPoolMetrics() {
+    PoolingHttpClientConnectionManager connectionManager = httpClientConnectionManager();
+    return registry -> {
+      registerPoolGauge(registry, connectionManager, "leased", PoolStats::getLeased);
+      registerPoolGauge(registry, connectionManager, "available", PoolStats::getAvailable);
+      registerPoolGauge(registry, connectionManager, "pending", PoolStats::getPending);
+      registerPoolGauge(registry, connectionManager, "max", PoolStats::getMax);
+    };
+  }
+
+  private static void registerPoolGauge(
+      MeterRegistry registry,
+      PoolingHttpClientConnectionManager connectionManager,
+      String name,
+      ToDoubleFunction<PoolStats> value) {
+    Gauge.builder(
+            POOL_METRIC_PREFIX + name,
+            connectionManager,
+            manager -> value.applyAsDouble(manager.getTotalStats()))
+        .description("Connections of the shared RestTemplate pool: " + name)
+        .register(registry);
+  }
+}
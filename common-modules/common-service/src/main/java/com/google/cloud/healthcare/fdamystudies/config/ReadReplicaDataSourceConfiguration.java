@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import org.apache.commons.lang3.StringUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sends read-only work of a module to read replicas, enabled with
+ * spring.datasource.replica.enabled=true and the comma separated JDBC URLs of the replicas in
+ * spring.datasource.replica.urls. The module's dataSource bean, from {@link
+ * HibernateConfiguration} or Spring Boot, stays the primary and the replica pools copy its
+ * settings.
+ */
+@Configuration
+@ConditionalOnProperty(
+    value = "spring.datasource.replica.enabled",
+    havingValue = "true",
+    matchIfMissing = false)
+public class ReadReplicaDataSourceConfiguration {
+
+  private static final String DATA_SOURCE_BEAN_NAME = "dataSource";
+
+  @Bean
+  public static BeanPostProcessor readReplicaDataSourcePostProcessor(
+      Environment environment, ObjectProvider<MeterRegistry> meterRegistry) {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (DATA_SOURCE_BEAN_NAME.equals(beanName) && bean instanceof DataSource) {
+          return createRoutingDataSource(
+              (DataSource) bean, environment, meterRegistry.getIfAvailable());
+        }
+        return bean;
+      }
+    };
+  }
+
+  @Bean
+  public ReadReplicaAspect readReplicaAspect() {
+    return new ReadReplicaAspect();
+  }
+
+  private static DataSource createRoutingDataSource(
+      DataSource primary, Environment environment, MeterRegistry meterRegistry) {
+    String[] urls =
+        StringUtils.split(environment.getProperty("spring.datasource.replica.urls", ""), ',');
+    List<DataSource> replicas = new ArrayList<>();
+    for (int i = 0; i < urls.length; i++) {
+      replicas.add(createReplica(primary, urls[i].trim(), i, environment, meterRegistry));
+    }
+    if (primary instanceof HikariDataSource) {
+      setMetricsTracker((HikariDataSource) primary, meterRegistry);
+    }
+
+    ReadReplicaRoutingDataSource routingDataSource =
+        new ReadReplicaRoutingDataSource(
+            primary,
+            replicas,
+            environment.getProperty(
+                "spring.datasource.replica.route-read-only-transactions", Boolean.class, true),
+            environment.getProperty("spring.datasource.replica.max-lag-seconds", Long.class, 10L),
+            environment.getProperty(
+                "spring.datasource.replica.lag-query", "SHOW SLAVE STATUS"),
+            meterRegistry);
+    routingDataSource.afterPropertiesSet();
+    if (!replicas.isEmpty()) {
+      routingDataSource.startLagMonitor(
+          environment.getProperty(
+              "spring.datasource.replica.lag-check-interval-ms", Long.class, 5000L));
+    }
+    return new ClosingLazyConnectionDataSourceProxy(routingDataSource);
+  }
+
+  private static DataSource createReplica(
+      DataSource primary,
+      String url,
+      int index,
+      Environment environment,
+      MeterRegistry meterRegistry) {
+    HikariDataSource replica = new HikariDataSource();
+    if (primary instanceof HikariDataSource) {
+      HikariDataSource hikari = (HikariDataSource) primary;
+      hikari.copyStateTo(replica);
+      replica.setPoolName(
+          StringUtils.defaultIfEmpty(hikari.getPoolName(), "primary") + "-replica-" + index);
+    } else {
+      replica.setDriverClassName(environment.getProperty("spring.datasource.driverClassName"));
+      replica.setPoolName("replica-" + index);
+    }
+    replica.setJdbcUrl(url);
+    replica.setUsername(
+        environment.getProperty(
+            "spring.datasource.replica.username",
+            environment.getProperty("spring.datasource.username")));
+    replica.setPassword(
+        environment.getProperty(
+            "spring.datasource.replica.password",
+            environment.getProperty("spring.datasource.password")));
+    replica.setReadOnly(true);
+    replica.setMetricsTrackerFactory(null);
+    setMetricsTracker(replica, meterRegistry);
+    return replica;
+  }
+
+  /** The hikaricp.* metrics, as Spring Boot registers them for an unwrapped data source. */
+  private static void setMetricsTracker(HikariDataSource dataSource, MeterRegistry meterRegistry) {
+    if (meterRegistry != null
+        && dataSource.getMetricsTrackerFactory() == null
+        && dataSource.getMetricRegistry() == null) {
+      dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+    }
+  }
+
+  /** Closes the pools with the application context, as the unwrapped data source would be. */
+  private static class ClosingLazyConnectionDataSourceProxy extends LazyConnectionDataSourceProxy
+      implements Closeable {
+
+    private final ReadReplicaRoutingDataSource routingDataSource;
+
+    private ClosingLazyConnectionDataSourceProxy(ReadReplicaRoutingDataSource routingDataSource) {
+      super(routingDataSource);
+      this.routingDataSource = routingDataSource;
+    }
+
+    @Override
+    public void close() throws IOException {
+      routingDataSource.close();
+    }
+  }
+
+  /** Requests a replica connection for the {@code @ReadReplica} repository methods. */
+  @Aspect
+  public static class ReadReplicaAspect {
+
+    @Around("@annotation(com.google.cloud.healthcare.fdamystudies.common.ReadReplica)")
+    public Object routeToReplica(ProceedingJoinPoint joinPoint) throws Throwable {
+      // A read-write transaction has its primary connection already, or will write through it
+      if (TransactionSynchronizationManager.isActualTransactionActive()
+          && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+        return joinPoint.proceed();
+      }
+      Boolean previous = ReadReplicaRoutingDataSource.requestReplica();
+      try {
+        return joinPoint.proceed();
+      } finally {
+        ReadReplicaRoutingDataSource.restoreReplicaRequest(previous);
+      }
+    }
+  }
+}
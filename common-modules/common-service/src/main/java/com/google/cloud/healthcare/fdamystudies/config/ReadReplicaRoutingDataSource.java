@@ -0,0 +1,245 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routes connections of read-only transactions, and of {@code @ReadReplica} repository methods, to
+ * the read replicas in turn. A replica whose replication lag exceeds the limit, or whose lag can
+ * not be read, is skipped until the next lag check; without a usable replica, reads fall back to
+ * the primary. Every other connection is taken from the primary.
+ *
+ * <p>The routing decision is made when a connection is requested, so the data source has to be
+ * wrapped in a {@code LazyConnectionDataSourceProxy} for transactions to be routed by their
+ * read-only flag.
+ */
+public class ReadReplicaRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+  private static final XLogger logger =
+      XLoggerFactory.getXLogger(ReadReplicaRoutingDataSource.class.getName());
+
+  private static final String PRIMARY = "primary";
+
+  private static final String FALLBACK = "fallback";
+
+  private static final String SECONDS_BEHIND_MASTER = "Seconds_Behind_Master";
+
+  private static final ThreadLocal<Boolean> REPLICA_REQUESTED = new ThreadLocal<>();
+
+  private final DataSource primary;
+
+  private final List<Replica> replicas = new ArrayList<>();
+
+  private final boolean routeReadOnlyTransactions;
+
+  private final long maxLagSeconds;
+
+  private final String lagQuery;
+
+  private final AtomicInteger nextReplica = new AtomicInteger();
+
+  private final Map<String, Counter> routeCounters = new HashMap<>();
+
+  private ScheduledExecutorService lagMonitor;
+
+  public ReadReplicaRoutingDataSource(
+      DataSource primary,
+      List<DataSource> replicaDataSources,
+      boolean routeReadOnlyTransactions,
+      long maxLagSeconds,
+      String lagQuery,
+      MeterRegistry meterRegistry) {
+    this.primary = primary;
+    this.routeReadOnlyTransactions = routeReadOnlyTransactions;
+    this.maxLagSeconds = maxLagSeconds;
+    this.lagQuery = lagQuery;
+    // without a registry from the application context the meters are kept locally
+    if (meterRegistry == null) {
+      meterRegistry = new SimpleMeterRegistry();
+    }
+
+    Map<Object, Object> targetDataSources = new HashMap<>();
+    targetDataSources.put(PRIMARY, primary);
+    for (int i = 0; i < replicaDataSources.size(); i++) {
+      Replica replica = new Replica("replica-" + i, replicaDataSources.get(i));
+      replicas.add(replica);
+      targetDataSources.put(replica.name, replica.dataSource);
+      Gauge.builder("datasource.replica.lag", replica, r -> r.lagSeconds)
+          .tag("route", replica.name)
+          .baseUnit("seconds")
+          .register(meterRegistry);
+    }
+    setTargetDataSources(targetDataSources);
+    setDefaultTargetDataSource(primary);
+    setLenientFallback(false);
+
+    routeCounters.put(PRIMARY, routeCounter(meterRegistry, PRIMARY));
+    routeCounters.put(FALLBACK, routeCounter(meterRegistry, FALLBACK));
+    for (Replica replica : replicas) {
+      routeCounters.put(replica.name, routeCounter(meterRegistry, replica.name));
+    }
+  }
+
+  private static Counter routeCounter(MeterRegistry meterRegistry, String route) {
+    return Counter.builder("datasource.routing.connections")
+        .description("Connections handed out by the read replica routing data source")
+        .tag("route", route)
+        .register(meterRegistry);
+  }
+
+  /** Checks the replication lag of every replica now and then every interval. */
+  public void startLagMonitor(long intervalMillis) {
+    checkReplicationLag();
+    lagMonitor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "read-replica-lag-monitor");
+              thread.setDaemon(true);
+              return thread;
+            });
+    lagMonitor.scheduleWithFixedDelay(
+        this::checkReplicationLag, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Requests replica connections on this thread, returns the previous request to restore. */
+  static Boolean requestReplica() {
+    Boolean previous = REPLICA_REQUESTED.get();
+    REPLICA_REQUESTED.set(Boolean.TRUE);
+    return previous;
+  }
+
+  static void restoreReplicaRequest(Boolean previous) {
+    if (previous == null) {
+      REPLICA_REQUESTED.remove();
+    } else {
+      REPLICA_REQUESTED.set(previous);
+    }
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    boolean readOnly =
+        Boolean.TRUE.equals(REPLICA_REQUESTED.get())
+            || (routeReadOnlyTransactions
+                && TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+    String route = readOnly ? selectReplica() : PRIMARY;
+    routeCounters.get(route == null ? FALLBACK : route).increment();
+    return route == null ? PRIMARY : route;
+  }
+
+  private String selectReplica() {
+    int size = replicas.size();
+    int start = Math.abs(nextReplica.getAndIncrement() % size);
+    for (int i = 0; i < size; i++) {
+      Replica replica = replicas.get((start + i) % size);
+      if (replica.healthy) {
+        return replica.name;
+      }
+    }
+    return null;
+  }
+
+  void checkReplicationLag() {
+    for (Replica replica : replicas) {
+      try (Connection connection = replica.dataSource.getConnection();
+          Statement statement = connection.createStatement();
+          ResultSet resultSet = statement.executeQuery(lagQuery)) {
+        Long lagSeconds = readLagSeconds(resultSet);
+        replica.lagSeconds = lagSeconds == null ? Double.NaN : lagSeconds;
+        replica.healthy = lagSeconds != null && lagSeconds <= maxLagSeconds;
+      } catch (SQLException e) {
+        replica.lagSeconds = Double.NaN;
+        replica.healthy = false;
+        logger.error(String.format("lag check of %s failed with an exception", replica.name), e);
+      }
+      if (!replica.healthy) {
+        logger.warn(
+            String.format(
+                "%s skipped for reads, replication lag=%s seconds",
+                replica.name, replica.lagSeconds));
+      }
+    }
+  }
+
+  /**
+   * Reads the lag from the Seconds_Behind_Master column, or the first column of other lag queries.
+   * No row means the server is not replicating and has no lag, null means replication is broken.
+   */
+  private static Long readLagSeconds(ResultSet resultSet) throws SQLException {
+    if (!resultSet.next()) {
+      return 0L;
+    }
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    int column = 1;
+    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+      if (SECONDS_BEHIND_MASTER.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+        column = i;
+      }
+    }
+    long lagSeconds = resultSet.getLong(column);
+    return resultSet.wasNull() ? null : lagSeconds;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (lagMonitor != null) {
+      lagMonitor.shutdownNow();
+    }
+    for (Replica replica : replicas) {
+      close(replica.dataSource);
+    }
+    close(primary);
+  }
+
+  private static void close(DataSource dataSource) throws IOException {
+    if (dataSource instanceof Closeable) {
+      ((Closeable) dataSource).close();
+    }
+  }
+
+  private static class Replica {
+
+    private final String name;
+
+    private final DataSource dataSource;
+
+    private volatile boolean healthy = true;
+
+    private volatile double lagSeconds;
+
+    private Replica(String name, DataSource dataSource) {
+      this.name = name;
+      this.dataSource = dataSource;
+    }
+  }
+}
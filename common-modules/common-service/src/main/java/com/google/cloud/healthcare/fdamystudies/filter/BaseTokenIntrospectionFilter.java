@@ -21,6 +21,8 @@ import com.google.cloud.healthcare.fdamystudies.mapper.AuditEventMapper;
 import com.google.cloud.healthcare.fdamystudies.service.OAuthService;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -48,10 +50,16 @@ public abstract class BaseTokenIntrospectionFilter implements Filter {
 
   public static final String ACTIVE = "active";
 
+  /** Parsed uri templates, shared by the filters of all modules. */
+  private static final ConcurrentMap<String, PathPattern> PATH_PATTERNS =
+      new ConcurrentHashMap<>();
+
   @Autowired private OAuthService oauthService;
 
   @Autowired private AuditEventHelper auditEventHelper;
 
+  @Autowired private TokenIntrospectionCache tokenIntrospectionCache;
+
   @Override
   public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
       throws IOException, ServletException {
@@ -76,20 +84,25 @@ public abstract class BaseTokenIntrospectionFilter implements Filter {
 
   private boolean validatePathAndHttpMethod(HttpServletRequest req) {
     String method = req.getMethod().toUpperCase();
+    PathContainer path = PathContainer.parsePath(req.getRequestURI());
     for (Map.Entry<String, String[]> entry : getUriTemplateAndHttpMethodsMap().entrySet()) {
-      if (ArrayUtils.contains(entry.getValue(), method)
-          && checkPathMatches(entry.getKey(), req.getRequestURI())) {
+      if (ArrayUtils.contains(entry.getValue(), method) && checkPathMatches(entry.getKey(), path)) {
         return true;
       }
     }
     return false;
   }
 
-  private static boolean checkPathMatches(String uriTemplate, String path) {
-    PathPatternParser parser = new PathPatternParser();
-    parser.setMatchOptionalTrailingSeparator(true);
-    PathPattern p = parser.parse(uriTemplate);
-    return p.matches(PathContainer.parsePath(path));
+  private static boolean checkPathMatches(String uriTemplate, PathContainer path) {
+    PathPattern p =
+        PATH_PATTERNS.computeIfAbsent(
+            uriTemplate,
+            template -> {
+              PathPatternParser parser = new PathPatternParser();
+              parser.setMatchOptionalTrailingSeparator(true);
+              return parser.parse(template);
+            });
+    return p.matches(path);
   }
 
   private void validateOAuthToken(
@@ -101,7 +114,11 @@ public abstract class BaseTokenIntrospectionFilter implements Filter {
     String token = StringUtils.replace(auth, "Bearer", "").trim();
     ObjectNode params = getObjectNode();
     params.put(TOKEN, token);
-    ResponseEntity<JsonNode> oauthResponse = oauthService.introspectToken(params);
+    ResponseEntity<JsonNode> oauthResponse = tokenIntrospectionCache.get(token);
+    if (oauthResponse == null) {
+      oauthResponse = oauthService.introspectToken(params);
+      tokenIntrospectionCache.put(token, oauthResponse);
+    }
     if (oauthResponse.getStatusCode().is2xxSuccessful()) {
       if (oauthResponse.getBody().get(ACTIVE).booleanValue()) {
         chain.doFilter(request, response);
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.filter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.cloud.healthcare.fdamystudies.common.TokenRevokedEvent;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * Introspection results of access tokens, so that {@link BaseTokenIntrospectionFilter} only calls
+ * the auth server for tokens it has not seen recently. Entries are keyed on the SHA-256 of the
+ * token and live until the token expires, at most for the configured max TTL. Inactive tokens are
+ * cached for the shorter negative TTL. Failed introspection calls are not cached.
+ *
+ * <p>Revocation is only known to this service through a {@link TokenRevokedEvent}, published in
+ * the same application context; elsewhere a revoked token stays accepted for at most the max TTL.
+ */
+@Component
+public class TokenIntrospectionCache implements MeterBinder {
+
+  private XLogger logger = XLoggerFactory.getXLogger(TokenIntrospectionCache.class.getName());
+
+  private static final String ACTIVE = "active";
+
+  private static final String EXPIRES_AT = "exp";
+
+  private static final String SUBJECT = "sub";
+
+  @Value("${security.oauth2.introspection.cache.enabled}")
+  private boolean enabled;
+
+  @Value("${security.oauth2.introspection.cache.maximum-size}")
+  private long maximumSize;
+
+  @Value("${security.oauth2.introspection.cache.max-ttl-seconds}")
+  private long maxTtlSeconds;
+
+  @Value("${security.oauth2.introspection.cache.negative-ttl-seconds}")
+  private long negativeTtlSeconds;
+
+  private Cache<String, CachedIntrospection> cache;
+
+  @PostConstruct
+  public void init() {
+    cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(maxTtlSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+  }
+
+  /** Returns the cached introspection response of the token, or null if there is none. */
+  public ResponseEntity<JsonNode> get(String token) {
+    if (!enabled) {
+      return null;
+    }
+    String key = DigestUtils.sha256Hex(token);
+    CachedIntrospection cached = cache.getIfPresent(key);
+    if (cached == null) {
+      return null;
+    }
+    if (cached.isExpired(System.currentTimeMillis())) {
+      cache.invalidate(key);
+      return null;
+    }
+    return cached.response;
+  }
+
+  public void put(String token, ResponseEntity<JsonNode> response) {
+    if (!enabled || !response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+      return;
+    }
+    JsonNode body = response.getBody();
+    long now = System.currentTimeMillis();
+    long expiresAt;
+    if (body.path(ACTIVE).booleanValue()) {
+      expiresAt = now + TimeUnit.SECONDS.toMillis(maxTtlSeconds);
+      if (body.hasNonNull(EXPIRES_AT)) {
+        expiresAt = Math.min(expiresAt, TimeUnit.SECONDS.toMillis(body.get(EXPIRES_AT).asLong()));
+      }
+    } else {
+      expiresAt = now + TimeUnit.SECONDS.toMillis(negativeTtlSeconds);
+    }
+
+    if (expiresAt > now) {
+      cache.put(
+          DigestUtils.sha256Hex(token),
+          new CachedIntrospection(response, body.path(SUBJECT).textValue(), expiresAt));
+    }
+  }
+
+  @EventListener
+  public void onTokenRevoked(TokenRevokedEvent event) {
+    if (StringUtils.isNotEmpty(event.getToken())) {
+      cache.invalidate(DigestUtils.sha256Hex(event.getToken()));
+    }
+    if (StringUtils.isNotEmpty(event.getUserId())) {
+      cache.asMap().values().removeIf(cached -> event.getUserId().equals(cached.subject));
+    }
+    logger.info("evicted the cached introspection of revoked tokens");
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    GuavaCacheMetrics.monitor(registry, cache, "token.introspection");
+  }
+
+  private static class CachedIntrospection {
+
+    private final ResponseEntity<JsonNode> response;
+
+    private final String subject;
+
+    private final long expiresAt;
+
+    private CachedIntrospection(ResponseEntity<JsonNode> response, String subject, long expiresAt) {
+      this.response = response;
+      this.subject = subject;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isExpired(long now) {
+      return now >= expiresAt;
+    }
+  }
+}
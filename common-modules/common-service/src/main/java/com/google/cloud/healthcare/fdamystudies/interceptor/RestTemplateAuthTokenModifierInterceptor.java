@@ -31,7 +31,10 @@ public class RestTemplateAuthTokenModifierInterceptor implements ClientHttpReque
     if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
       String auth = request.getHeaders().getFirst("Authorization");
       if (StringUtils.startsWith(auth, "Bearer")) {
-        request.getHeaders().set("Authorization", "Bearer " + oauthService.getNewAccessToken());
+        String rejectedToken = StringUtils.removeStart(auth, "Bearer").trim();
+        request
+            .getHeaders()
+            .set("Authorization", "Bearer " + oauthService.getNewAccessToken(rejectedToken));
         return execution.execute(request, body);
       }
     }
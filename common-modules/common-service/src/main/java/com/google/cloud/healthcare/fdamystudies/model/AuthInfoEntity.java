@@ -17,6 +17,7 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -31,7 +32,13 @@ import org.hibernate.annotations.UpdateTimestamp;
 @Setter
 @Getter
 @Entity
-@Table(name = "auth_info")
+@Table(
+    name = "auth_info",
+    indexes = {
+      @Index(
+          name = "auth_info_app_info_id_device_type_idx",
+          columnList = "app_info_id,device_type,id")
+    })
 public class AuthInfoEntity implements Serializable {
 
   private static final long serialVersionUID = 4985607753888575491L;
@@ -9,6 +9,7 @@
 package com.google.cloud.healthcare.fdamystudies.model;
 
 import java.io.Serializable;
+import java.sql.Timestamp;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -61,4 +62,8 @@ public class InviteParticipantEntity implements Serializable {
 
   @Column(name = "app_version")
   private String appVersion;
+
+  /** Time the invitation email dispatcher claimed it, a claim older than the lease is reclaimed */
+  @Column(name = "claimed_time")
+  private Timestamp claimedTime;
 }
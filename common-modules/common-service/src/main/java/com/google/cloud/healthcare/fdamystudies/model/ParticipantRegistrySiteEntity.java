@@ -46,6 +46,18 @@ import org.hibernate.annotations.UpdateTimestamp;
       @Index(
           name = "participant_registry_site_site_id_onboarding_status_idx",
           columnList = "site_id,onboarding_status"),
+      @Index(
+          name = "participant_registry_site_site_id_created_time_idx",
+          columnList = "site_id,created_time,id"),
+      @Index(
+          name = "participant_registry_site_site_id_status_created_time_idx",
+          columnList = "site_id,onboarding_status,created_time,id"),
+      @Index(
+          name = "participant_registry_site_study_info_id_email_idx",
+          columnList = "study_info_id,email,id"),
+      @Index(
+          name = "participant_registry_site_study_info_id_onboarding_status_idx",
+          columnList = "study_info_id,onboarding_status,id"),
     },
     uniqueConstraints = {
       @UniqueConstraint(
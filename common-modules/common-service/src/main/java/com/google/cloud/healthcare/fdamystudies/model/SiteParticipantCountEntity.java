@@ -0,0 +1,49 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.model;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Invited and enrolled participants of a site. The Participant Manager recounts the rows of a site
+ * after it changes the onboarding status of its participants, and its reconciliation job repairs
+ * the rows of the sites changed by the other services.
+ */
+@ToString
+@Setter
+@Getter
+@Entity
+@Table(name = "site_participant_counts")
+public class SiteParticipantCountEntity implements Serializable {
+
+  private static final long serialVersionUID = -1836250446712331247L;
+
+  @Id
+  @Column(name = "site_id", updatable = false, nullable = false)
+  private String siteId;
+
+  /** Participants with onboarding status 'I' */
+  @Column(name = "invited_count", nullable = false)
+  private long invitedCount;
+
+  /** Participants with enrollment status 'enrolled' */
+  @Column(name = "enrolled_count", nullable = false)
+  private long enrolledCount;
+
+  @Column(name = "updated_time")
+  private Timestamp updatedTime;
+}
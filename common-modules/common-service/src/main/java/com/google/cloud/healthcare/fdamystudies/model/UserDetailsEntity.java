@@ -52,7 +52,11 @@ import org.hibernate.annotations.GenericGenerator;
           columnNames = {"user_id", "app_info_id"},
           name = "user_details_user_id_app_info_id_uidx")
     },
-    indexes = {@Index(name = "user_details_email_idx", columnList = "email")})
+    indexes = {
+      @Index(name = "user_details_email_idx", columnList = "email"),
+      @Index(name = "user_details_app_info_id_email_idx", columnList = "app_info_id,email,id"),
+      @Index(name = "user_details_app_info_id_status_idx", columnList = "app_info_id,status,id")
+    })
 public class UserDetailsEntity implements Serializable {
 
   private static final long serialVersionUID = -6971868842609206885L;
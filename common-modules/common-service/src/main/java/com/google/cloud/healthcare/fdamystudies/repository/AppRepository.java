@@ -145,7 +145,8 @@ public interface AppRepository extends JpaRepository<AppEntity, String> {
               + "         CASE :orderByCondition WHEN 'email_desc' THEN ud.email END DESC, "
               + "         CASE :orderByCondition WHEN 'registrationDate_desc' THEN ud.verification_time END DESC, "
               + "         CASE :orderByCondition WHEN 'registrationStatus_desc' THEN ud.status END DESC, "
-              + "peh.created_time DESC ",
+              + "         CASE :orderByCondition WHEN 'email_desc' THEN ud.id WHEN 'registrationStatus_desc' THEN ud.id END DESC, "
+              + "ud.id ASC, peh.created_time DESC ",
       nativeQuery = true)
   public List<AppParticipantsInfo> findUserDetailsByAppId(
       String appId, List<String> userDetailIds, String orderByCondition);
@@ -221,7 +222,9 @@ public interface AppRepository extends JpaRepository<AppEntity, String> {
               + "         CASE :orderByCondition WHEN 'registrationStatus_asc' THEN ud.status END ASC, "
               + "         CASE :orderByCondition WHEN 'email_desc' THEN ud.email END DESC, "
               + "         CASE :orderByCondition WHEN 'registrationDate_desc' THEN ud.verification_time END DESC, "
-              + "         CASE :orderByCondition WHEN 'registrationStatus_desc' THEN ud.status END DESC "
+              + "         CASE :orderByCondition WHEN 'registrationStatus_desc' THEN ud.status END DESC, "
+              + "         CASE :orderByCondition WHEN 'email_desc' THEN ud.id WHEN 'registrationStatus_desc' THEN ud.id END DESC, "
+              + "ud.id ASC "
               + "LIMIT :limit OFFSET :offset",
       nativeQuery = true)
   public List<String> findUserDetailIds(
@@ -232,6 +235,74 @@ public interface AppRepository extends JpaRepository<AppEntity, String> {
       String orderByCondition,
       String searchTerm);
 
+  @Query(
+      value =
+          "SELECT ud.id FROM user_details ud "
+              + "WHERE ud.app_info_id=:appId "
+              + "AND ud.status != :excludeStatus "
+              + "AND ud.email LIKE %:searchTerm% "
+              + "AND (ud.email > :lastEmail OR (ud.email = :lastEmail AND ud.id > :lastId)) "
+              + "ORDER BY ud.email ASC, ud.id ASC LIMIT :limit",
+      nativeQuery = true)
+  public List<String> findUserDetailIdsAfterEmail(
+      String appId,
+      Integer excludeStatus,
+      Integer limit,
+      String searchTerm,
+      String lastEmail,
+      String lastId);
+
+  @Query(
+      value =
+          "SELECT ud.id FROM user_details ud "
+              + "WHERE ud.app_info_id=:appId "
+              + "AND ud.status != :excludeStatus "
+              + "AND ud.email LIKE %:searchTerm% "
+              + "AND (ud.email < :lastEmail OR (ud.email = :lastEmail AND ud.id < :lastId)) "
+              + "ORDER BY ud.email DESC, ud.id DESC LIMIT :limit",
+      nativeQuery = true)
+  public List<String> findUserDetailIdsBeforeEmail(
+      String appId,
+      Integer excludeStatus,
+      Integer limit,
+      String searchTerm,
+      String lastEmail,
+      String lastId);
+
+  @Query(
+      value =
+          "SELECT ud.id FROM user_details ud "
+              + "WHERE ud.app_info_id=:appId "
+              + "AND ud.status != :excludeStatus "
+              + "AND ud.email LIKE %:searchTerm% "
+              + "AND (ud.status > :lastStatus OR (ud.status = :lastStatus AND ud.id > :lastId)) "
+              + "ORDER BY ud.status ASC, ud.id ASC LIMIT :limit",
+      nativeQuery = true)
+  public List<String> findUserDetailIdsAfterStatus(
+      String appId,
+      Integer excludeStatus,
+      Integer limit,
+      String searchTerm,
+      Integer lastStatus,
+      String lastId);
+
+  @Query(
+      value =
+          "SELECT ud.id FROM user_details ud "
+              + "WHERE ud.app_info_id=:appId "
+              + "AND ud.status != :excludeStatus "
+              + "AND ud.email LIKE %:searchTerm% "
+              + "AND (ud.status < :lastStatus OR (ud.status = :lastStatus AND ud.id < :lastId)) "
+              + "ORDER BY ud.status DESC, ud.id DESC LIMIT :limit",
+      nativeQuery = true)
+  public List<String> findUserDetailIdsBeforeStatus(
+      String appId,
+      Integer excludeStatus,
+      Integer limit,
+      String searchTerm,
+      Integer lastStatus,
+      String lastId);
+
   @Query(
       value =
           "SELECT COUNT(ud.id) FROM user_details ud "
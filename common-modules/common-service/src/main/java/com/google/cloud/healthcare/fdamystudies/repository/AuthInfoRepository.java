@@ -15,6 +15,7 @@ import java.util.Optional;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -30,4 +31,11 @@ public interface AuthInfoRepository extends JpaRepository<AuthInfoEntity, String
   public List<AuthInfoEntity> findDevicesTokens(List<String> appInfoIds);
 
   public Optional<AuthInfoEntity> findByUserDetails(UserDetailsEntity userDetails);
+
+  @Query(
+      "SELECT a FROM AuthInfoEntity a WHERE a.app.appId = :appId AND a.deviceType = :deviceType AND a.deviceToken IN (:deviceTokens)")
+  public List<AuthInfoEntity> findByAppIdAndDeviceTokens(
+      @Param("appId") String appId,
+      @Param("deviceType") String deviceType,
+      @Param("deviceTokens") List<String> deviceTokens);
 }
@@ -9,11 +9,18 @@
 package com.google.cloud.healthcare.fdamystudies.repository;
 
 import com.google.cloud.healthcare.fdamystudies.model.InviteParticipantEntity;
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -46,4 +53,61 @@ public interface InviteParticipantsEmailRepository
       nativeQuery = true)
   public int deleteByParticipantRegistryIdAndStudyIdAndAppId(
       String studyInfoId, String participantRegistryId, String appId);
+
+  /**
+   * Locks a page of the invites to send for the current transaction: the pending ones not released
+   * since the run started and the ones whose claim expired. A lock timeout of -2 is Hibernate's
+   * SKIP LOCKED, rows locked by another service instance are skipped where the dialect supports it
+   * (MySQL8Dialect), other dialects wait for the lock instead.
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "-2"))
+  @Query(
+      "SELECT invite FROM InviteParticipantEntity invite WHERE (invite.status = false "
+          + "AND (invite.claimedTime IS NULL OR invite.claimedTime < :runStart)) "
+          + "OR (invite.status = true "
+          + "AND (invite.claimedTime IS NULL OR invite.claimedTime < :claimExpiry)) "
+          + "ORDER BY invite.participantRegistrySite")
+  public List<InviteParticipantEntity> findPendingForUpdate(
+      @Param("runStart") Timestamp runStart,
+      @Param("claimExpiry") Timestamp claimExpiry,
+      Pageable pageable);
+
+  @Modifying
+  @Query(
+      "UPDATE InviteParticipantEntity invite SET invite.status = true, "
+          + "invite.claimedTime = :claimedTime WHERE invite.id IN (:ids)")
+  public int claimByIds(
+      @Param("ids") Collection<String> ids, @Param("claimedTime") Timestamp claimedTime);
+
+  /**
+   * Moves the claim of an invite to renewedTime, if it still holds the claim made at claimedTime.
+   * Returns 0 when the claim expired and another service instance claimed it.
+   */
+  @Modifying
+  @Query(
+      "UPDATE InviteParticipantEntity invite SET invite.claimedTime = :renewedTime "
+          + "WHERE invite.id = :id AND invite.status = true "
+          + "AND invite.claimedTime = :claimedTime")
+  public int renewClaim(
+      @Param("id") String id,
+      @Param("claimedTime") Timestamp claimedTime,
+      @Param("renewedTime") Timestamp renewedTime);
+
+  /**
+   * Makes the invites claimed at claimedTime pending again, the ones claimed again since then by
+   * another service instance are left to it. The claim time is kept so that the run does not claim
+   * them again.
+   */
+  @Modifying
+  @Query(
+      "UPDATE InviteParticipantEntity invite SET invite.status = false "
+          + "WHERE invite.id IN (:ids) AND invite.status = true "
+          + "AND invite.claimedTime = :claimedTime")
+  public int releaseByIds(
+      @Param("ids") Collection<String> ids, @Param("claimedTime") Timestamp claimedTime);
+
+  @Modifying
+  @Query("DELETE FROM InviteParticipantEntity invite WHERE invite.id IN (:ids)")
+  public int deleteByIds(@Param("ids") Collection<String> ids);
 }
@@ -10,6 +10,7 @@ package com.google.cloud.healthcare.fdamystudies.repository;
 import com.google.cloud.healthcare.fdamystudies.model.ParticipantRegistrySiteCount;
 import com.google.cloud.healthcare.fdamystudies.model.ParticipantRegistrySiteEntity;
 import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -63,6 +64,25 @@ public interface ParticipantRegistrySiteRepository
   @Query("SELECT pr FROM ParticipantRegistrySiteEntity pr WHERE pr.site.id =:siteId")
   public Page<ParticipantRegistrySiteEntity> findBySiteIdForPage(String siteId, Pageable pageable);
 
+  @Query(
+      "SELECT pr FROM ParticipantRegistrySiteEntity pr WHERE pr.site.id = :siteId "
+          + "and (pr.created < :lastCreated or (pr.created = :lastCreated and pr.id < :lastId)) "
+          + "order by pr.created desc, pr.id desc")
+  public List<ParticipantRegistrySiteEntity> findBySiteIdBefore(
+      String siteId, Timestamp lastCreated, String lastId, Pageable pageable);
+
+  @Query(
+      "SELECT pr FROM ParticipantRegistrySiteEntity pr "
+          + "where pr.site.id = :siteId and pr.onboardingStatus = :onboardingStatus "
+          + "and (pr.created < :lastCreated or (pr.created = :lastCreated and pr.id < :lastId)) "
+          + "order by pr.created desc, pr.id desc")
+  public List<ParticipantRegistrySiteEntity> findBySiteIdAndStatusBefore(
+      String siteId,
+      String onboardingStatus,
+      Timestamp lastCreated,
+      String lastId,
+      Pageable pageable);
+
   @Query("SELECT pr FROM ParticipantRegistrySiteEntity pr WHERE pr.site.id =:siteId")
   public List<ParticipantRegistrySiteEntity> findBySiteId(String siteId);
 
@@ -82,6 +102,18 @@ public interface ParticipantRegistrySiteRepository
   public void updateOnboardingStatus(
       @Param("status") String status, List<String> ids, Timestamp disabledDate);
 
+  @Modifying
+  @Query(
+      value =
+          "UPDATE participant_registry_site SET onboarding_status=:status, disabled_time=:disabledDate WHERE site_id=:siteId AND onboarding_status IN (:statuses) LIMIT :limit",
+      nativeQuery = true)
+  public int updateOnboardingStatusBySiteId(
+      @Param("status") String status,
+      Timestamp disabledDate,
+      String siteId,
+      List<String> statuses,
+      int limit);
+
   @Query("SELECT pr FROM ParticipantRegistrySiteEntity pr WHERE pr.study.id=:studyId")
   public List<ParticipantRegistrySiteEntity> findByStudyId(String studyId);
 
@@ -94,5 +126,17 @@ public interface ParticipantRegistrySiteRepository
   public Optional<ParticipantRegistrySiteEntity> findExistingRecordByStudyIdAndEmails(
       String studyId, List<String> emails);
 
+  @Query(
+      "SELECT COUNT(pr) FROM ParticipantRegistrySiteEntity pr WHERE (pr.onboardingStatus='N' OR pr.onboardingStatus='I') AND pr.study.id =:studyId AND pr.email IN (:emails)")
+  public long countExistingRecordsByStudyIdAndEmails(String studyId, List<String> emails);
+
   public Optional<ParticipantRegistrySiteEntity> findByEnrollmentToken(String enrollmentToken);
+
+  /** With the site, its location and its study and app, which the invitation emails need. */
+  @Query(
+      "SELECT pr FROM ParticipantRegistrySiteEntity pr LEFT JOIN FETCH pr.site site "
+          + "LEFT JOIN FETCH site.location LEFT JOIN FETCH site.study siteStudy "
+          + "LEFT JOIN FETCH siteStudy.app WHERE pr.id IN (:ids)")
+  public List<ParticipantRegistrySiteEntity> findWithSiteByIdIn(
+      @Param("ids") Collection<String> ids);
 }
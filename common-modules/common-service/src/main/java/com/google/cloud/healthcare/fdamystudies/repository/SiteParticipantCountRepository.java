@@ -0,0 +1,265 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.repository;
+
+import com.google.cloud.healthcare.fdamystudies.model.AppCount;
+import com.google.cloud.healthcare.fdamystudies.model.EnrolledInvitedCount;
+import com.google.cloud.healthcare.fdamystudies.model.EnrolledInvitedCountForStudy;
+import com.google.cloud.healthcare.fdamystudies.model.SiteParticipantCountEntity;
+import com.google.cloud.healthcare.fdamystudies.model.StudyCount;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Dashboard counts read from site_participant_counts. Each query returns what the query of the
+ * same name in {@link SiteRepository}, {@link StudyRepository} or {@link AppRepository} returns,
+ * summing the counters of the sites instead of counting the participants.
+ */
+@Repository
+@ConditionalOnProperty(
+    value = "participant.manager.repository.enabled",
+    havingValue = "true",
+    matchIfMissing = false)
+public interface SiteParticipantCountRepository
+    extends JpaRepository<SiteParticipantCountEntity, String> {
+
+  @Query(
+      value =
+          "SELECT c.site_id AS siteId, c.invited_count AS invitedCount, c.enrolled_count AS enrolledCount "
+              + "FROM site_participant_counts c, sites_permissions sp "
+              + "WHERE c.site_id=sp.site_id AND c.invited_count > 0 AND sp.ur_admin_user_id =:userId ",
+      nativeQuery = true)
+  public List<EnrolledInvitedCount> getEnrolledInvitedCountByUserId(@Param("userId") String userId);
+
+  @Query(
+      value =
+          "SELECT c.site_id AS siteId, c.invited_count AS invitedCount, c.enrolled_count AS enrolledCount "
+              + "FROM site_participant_counts c, sites si, study_info st "
+              + "WHERE c.site_id=si.id AND si.study_id=st.id AND st.type='CLOSE' AND c.invited_count > 0 ",
+      nativeQuery = true)
+  public List<EnrolledInvitedCount> getEnrolledInvitedCount();
+
+  @Query(
+      value =
+          "SELECT c.site_id AS siteId, c.enrolled_count AS enrolledCount "
+              + "FROM site_participant_counts c "
+              + "WHERE c.enrolled_count > 0 ",
+      nativeQuery = true)
+  public List<EnrolledInvitedCount> findEnrolledCountForOpenStudy();
+
+  @Query(
+      value =
+          "SELECT distinct invites.study_id AS siteId, invites.invitedCount , IFNULL(enrolled.enrolledCount, 0) AS enrolledCount "
+              + "FROM ( "
+              + "SELECT si.study_id, si.target_enrollment AS invitedCount "
+              + "FROM sites si, study_info st, sites_permissions sp "
+              + "WHERE si.study_id=st.id AND sp.ur_admin_user_id=:userId "
+              + "AND sp.study_id=si.study_id AND st.type='OPEN' "
+              + ") AS invites "
+              + "LEFT JOIN ( "
+              + "SELECT si.study_id, SUM(c.enrolled_count) AS enrolledCount "
+              + "FROM site_participant_counts c, sites si, sites_permissions sp "
+              + "WHERE c.site_id=si.id AND c.site_id=sp.site_id AND sp.ur_admin_user_id =:userId "
+              + "GROUP BY si.study_id) AS enrolled ON invites.study_id=enrolled.study_id ",
+      nativeQuery = true)
+  public List<EnrolledInvitedCount> getInvitedEnrolledCountForOpenStudy(
+      @Param("userId") String userId);
+
+  @Query(
+      value =
+          "SELECT si.study_id AS studyId, SUM(c.invited_count) AS invitedCount, SUM(c.enrolled_count) AS enrolledCount "
+              + "FROM site_participant_counts c, sites si, sites_permissions sp "
+              + "WHERE c.site_id=si.id AND c.site_id=sp.site_id AND sp.ur_admin_user_id =:userId "
+              + "GROUP BY si.study_id "
+              + "HAVING SUM(c.invited_count) > 0 ",
+      nativeQuery = true)
+  public List<EnrolledInvitedCountForStudy> getEnrolledInvitedCountForStudiesByUserId(
+      @Param("userId") String userId);
+
+  @Query(
+      value =
+          "SELECT distinct invites.study_id AS studyId, invites.invitedCount , IFNULL(enrolled.enrolledCount, 0) AS enrolledCount "
+              + "FROM ( "
+              + "SELECT si.study_id, si.target_enrollment AS invitedCount "
+              + "FROM sites si, study_info st, sites_permissions sp "
+              + "WHERE si.study_id=st.id AND sp.ur_admin_user_id=:userId "
+              + "AND sp.study_id=si.study_id AND st.type='OPEN' "
+              + ") AS invites "
+              + "LEFT JOIN ( "
+              + "SELECT si.study_id, SUM(c.enrolled_count) AS enrolledCount "
+              + "FROM site_participant_counts c, sites si, sites_permissions sp "
+              + "WHERE c.site_id=si.id AND c.site_id=sp.site_id AND sp.ur_admin_user_id =:userId "
+              + "GROUP BY si.study_id) AS enrolled ON invites.study_id=enrolled.study_id ",
+      nativeQuery = true)
+  public List<EnrolledInvitedCountForStudy> getInvitedEnrolledCountForOpenStudyForStudies(
+      @Param("userId") String userId);
+
+  @Query(
+      value =
+          "SELECT studyId, SUM(target_invited_count) AS COUNT "
+              + "FROM ( "
+              + "SELECT study.id AS studyId, SUM(site.target_enrollment) AS target_invited_count "
+              + "FROM study_info study, sites site "
+              + "WHERE study.id=site.study_id AND study.type='OPEN' "
+              + "GROUP BY study.id UNION ALL "
+              + "SELECT study.id AS studyId, SUM(c.invited_count) AS target_invited_count "
+              + "FROM study_info study, sites site, site_participant_counts c "
+              + "WHERE study.id=site.study_id AND site.id=c.site_id AND study.type='CLOSE' "
+              + "GROUP BY study.id "
+              + ") rstAlias "
+              + "GROUP BY studyId ",
+      nativeQuery = true)
+  public List<StudyCount> findInvitedCountByStudyId();
+
+  @Query(
+      value =
+          "SELECT site.study_id AS studyId, SUM(c.enrolled_count) AS COUNT "
+              + "FROM sites site, site_participant_counts c "
+              + "WHERE site.id=c.site_id "
+              + "GROUP BY site.study_id ",
+      nativeQuery = true)
+  public List<StudyCount> findEnrolledCountByStudyId();
+
+  @Query(
+      value =
+          "SELECT appId, SUM(target_invited_count) AS COUNT "
+              + "FROM ( "
+              + "SELECT app.id AS appId, SUM(site.target_enrollment) AS target_invited_count "
+              + "FROM app_info app, study_info AS si, sites site "
+              + "WHERE app.id=si.app_info_id AND si.id=site.study_id AND si.type='OPEN' "
+              + "GROUP BY app.id UNION ALL "
+              + "SELECT app.id AS appId, SUM(c.invited_count) AS target_invited_count "
+              + "FROM app_info app, study_info AS si, sites site, site_participant_counts c "
+              + "WHERE app.id=si.app_info_id AND si.id=site.study_id AND site.id=c.site_id "
+              + "AND si.type='CLOSE' "
+              + "GROUP BY app.id "
+              + ") rstAlias "
+              + "GROUP BY appId ",
+      nativeQuery = true)
+  public List<AppCount> findInvitedCountByAppId();
+
+  @Query(
+      value =
+          "SELECT appId, SUM(target_invited_count) AS COUNT "
+              + "FROM ( "
+              + "SELECT app.id AS appId, SUM(site.target_enrollment) AS target_invited_count "
+              + "FROM app_info app, study_info AS si, sites site, sites_permissions sp "
+              + "WHERE app.id=si.app_info_id AND si.id=site.study_id AND app.id=sp.app_info_id "
+              + "AND site.id=sp.site_id AND si.type='OPEN' AND sp.ur_admin_user_id = :userId "
+              + "GROUP BY app.id UNION ALL "
+              + "SELECT app.id AS appId, SUM(c.invited_count) AS target_invited_count "
+              + "FROM app_info app, study_info AS si, sites site, site_participant_counts c, sites_permissions sp "
+              + "WHERE app.id=si.app_info_id AND si.id=site.study_id AND site.id=c.site_id "
+              + "AND si.type='CLOSE' AND app.id=sp.app_info_id "
+              + "AND c.site_id=sp.site_id AND sp.ur_admin_user_id = :userId "
+              + "GROUP BY app.id "
+              + ") rstAlias "
+              + "GROUP BY appId ",
+      nativeQuery = true)
+  public List<AppCount> findInvitedCountByAppId(@Param("userId") String userId);
+
+  @Query(
+      value =
+          "SELECT si.app_info_id AS appId, SUM(c.enrolled_count) AS count "
+              + "FROM study_info AS si, sites site, site_participant_counts c "
+              + "WHERE si.id=site.study_id AND site.id=c.site_id "
+              + "GROUP BY si.app_info_id ",
+      nativeQuery = true)
+  public List<AppCount> findEnrolledCountByAppId();
+
+  @Query(
+      value =
+          "SELECT sp.app_info_id as appId, SUM(c.enrolled_count) AS count "
+              + "FROM site_participant_counts c, sites_permissions sp "
+              + "WHERE c.site_id=sp.site_id AND sp.ur_admin_user_id = :userId "
+              + "GROUP BY sp.app_info_id ",
+      nativeQuery = true)
+  public List<AppCount> findEnrolledCountByAppId(@Param("userId") String userId);
+
+  @Query(
+      value =
+          "SELECT sp.app_info_id as appId, SUM(c.enrolled_count) AS count "
+              + "FROM site_participant_counts c, sites_permissions sp, study_info si, sites st "
+              + "WHERE si.id=sp.study_id AND c.site_id=sp.site_id AND si.type='OPEN' AND st.id=sp.site_id "
+              + "AND (st.target_enrollment=0 OR st.target_enrollment IS NULL) "
+              + "AND sp.ur_admin_user_id = :userId "
+              + "GROUP BY sp.app_info_id",
+      nativeQuery = true)
+  public List<AppCount> findEnrolledWithoutTarget(@Param("userId") String userId);
+
+  @Query(
+      value =
+          "SELECT ai.id as appId, SUM(c.enrolled_count) AS count "
+              + "FROM site_participant_counts c, study_info si, sites st, app_info ai "
+              + "WHERE ai.id=si.app_info_id AND si.id=st.study_id AND c.site_id=st.id AND si.type='OPEN' "
+              + "AND (st.target_enrollment=0 OR st.target_enrollment IS NULL) "
+              + "GROUP BY appId",
+      nativeQuery = true)
+  public List<AppCount> findEnrolledWithoutTarget();
+
+  /** Sites without a counter row, or whose counters differ from a count of the participants. */
+  @Query(
+      value =
+          "SELECT si.id "
+              + "FROM sites si "
+              + "LEFT JOIN site_participant_counts c ON c.site_id=si.id "
+              + "LEFT JOIN ( "
+              + "SELECT site_id, COUNT(*) AS invitedCount FROM participant_registry_site "
+              + "WHERE onboarding_status='I' GROUP BY site_id) AS invites ON invites.site_id=si.id "
+              + "LEFT JOIN ( "
+              + "SELECT site_id, COUNT(*) AS enrolledCount FROM participant_study_info "
+              + "WHERE status='enrolled' GROUP BY site_id) AS enrolled ON enrolled.site_id=si.id "
+              + "WHERE c.site_id IS NULL "
+              + "OR c.invited_count <> IFNULL(invites.invitedCount, 0) "
+              + "OR c.enrolled_count <> IFNULL(enrolled.enrolledCount, 0) ",
+      nativeQuery = true)
+  public List<String> findSiteIdsWithDriftedCounts();
+
+  /**
+   * Recounts the participants of the sites, in a transaction of its own when there is none. A
+   * caller that has changed the participants recounts after its transaction is committed, so that
+   * the counter rows are locked for the recount only.
+   */
+  @Transactional
+  public default void recountSites(Collection<String> siteIds) {
+    insertMissingCounts(siteIds);
+    updateCounts(siteIds);
+  }
+
+  @Modifying
+  @Query(
+      value =
+          "INSERT INTO site_participant_counts (site_id, invited_count, enrolled_count, updated_time) "
+              + "SELECT si.id, 0, 0, NOW() "
+              + "FROM sites si "
+              + "WHERE si.id IN (:siteIds) "
+              + "AND NOT EXISTS (SELECT c.site_id FROM site_participant_counts c WHERE c.site_id=si.id)",
+      nativeQuery = true)
+  public int insertMissingCounts(@Param("siteIds") Collection<String> siteIds);
+
+  @Modifying
+  @Query(
+      value =
+          "UPDATE site_participant_counts "
+              + "SET invited_count=(SELECT COUNT(*) FROM participant_registry_site prs "
+              + "WHERE prs.site_id=site_participant_counts.site_id AND prs.onboarding_status='I'), "
+              + "enrolled_count=(SELECT COUNT(*) FROM participant_study_info ps "
+              + "WHERE ps.site_id=site_participant_counts.site_id AND ps.status='enrolled'), "
+              + "updated_time=NOW() "
+              + "WHERE site_id IN (:siteIds)",
+      nativeQuery = true)
+  public int updateCounts(@Param("siteIds") Collection<String> siteIds);
+}
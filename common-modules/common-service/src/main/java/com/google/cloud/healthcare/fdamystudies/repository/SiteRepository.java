@@ -8,6 +8,7 @@
 
 package com.google.cloud.healthcare.fdamystudies.repository;
 
+import com.google.cloud.healthcare.fdamystudies.common.ReadReplica;
 import com.google.cloud.healthcare.fdamystudies.model.EnrolledInvitedCount;
 import com.google.cloud.healthcare.fdamystudies.model.SiteCount;
 import com.google.cloud.healthcare.fdamystudies.model.SiteEntity;
@@ -89,6 +90,7 @@ public interface SiteRepository extends JpaRepository<SiteEntity, String> {
               + "GROUP BY ps.site_id "
               + ") AS enrolled ON invites.site_id=enrolled.site_id ",
       nativeQuery = true)
+  @ReadReplica
   public List<EnrolledInvitedCount> getEnrolledInvitedCount();
 
   @Query("SELECT site from SiteEntity site where site.study.id= :studyId")
@@ -125,6 +127,7 @@ public interface SiteRepository extends JpaRepository<SiteEntity, String> {
               + "WHERE study_id IN (:studyIds) AND (study_name LIKE %:searchTerm% OR custom_id LIKE %:searchTerm% OR (site_name LIKE %:searchTerm% AND TYPE='CLOSE'))  "
               + "ORDER BY study_created DESC",
       nativeQuery = true)
+  @ReadReplica
   public List<StudySiteInfo> getStudySiteDetails(
       String userId, List<String> studyIds, String searchTerm);
 
@@ -8,6 +8,7 @@
 
 package com.google.cloud.healthcare.fdamystudies.repository;
 
+import com.google.cloud.healthcare.fdamystudies.common.ReadReplica;
 import com.google.cloud.healthcare.fdamystudies.model.AppCount;
 import com.google.cloud.healthcare.fdamystudies.model.EnrolledInvitedCountForStudy;
 import com.google.cloud.healthcare.fdamystudies.model.LocationIdStudyNamesPair;
@@ -17,6 +18,7 @@ import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import com.google.cloud.healthcare.fdamystudies.model.StudyInfo;
 import com.google.cloud.healthcare.fdamystudies.model.StudyParticipantDetails;
 import com.google.cloud.healthcare.fdamystudies.model.StudySiteInfo;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -131,12 +133,95 @@ public interface StudyRepository extends JpaRepository<StudyEntity, String> {
               + "         CASE :orderByCondition WHEN 'locationName_desc' THEN loc.name END DESC, "
               + "         CASE :orderByCondition WHEN 'onboardingStatus_desc' THEN prs.onboarding_status END DESC, "
               + "         CASE :orderByCondition WHEN 'enrollmentStatus_desc' THEN psi.status END DESC, "
-              + "         CASE :orderByCondition WHEN 'enrollmentDate_desc' THEN psi.enrolled_timestamp END DESC "
+              + "         CASE :orderByCondition WHEN 'enrollmentDate_desc' THEN psi.enrolled_timestamp END DESC, "
+              + "         CASE :orderByCondition WHEN 'email_desc' THEN prs.id WHEN 'onboardingStatus_desc' THEN prs.id END DESC, "
+              + "prs.id ASC "
               + "LIMIT :limit OFFSET :offset",
       nativeQuery = true)
+  @ReadReplica
   public List<StudyParticipantDetails> getStudyParticipantDetailsForOpenStudy(
       String studyId, Integer limit, Integer offset, String orderByCondition, String searchTerm);
 
+  @Query(
+      value =
+          "SELECT prs.created_time AS createdTime, prs.email AS email, psi.enrolled_timestamp AS enrolledDate, psi.status AS enrolledStatus "
+              + ",prs.site_id AS siteId, prs.onboarding_status AS onboardingStatus, "
+              + "loc.name AS locationName, loc.custom_id AS locationCustomId, "
+              + "prs.invitation_time AS invitedDate, prs.id AS participantId, stu.type AS studyType "
+              + "FROM participant_registry_site prs "
+              + "LEFT JOIN participant_study_info psi ON prs.id=psi.participant_registry_site_id  "
+              + "LEFT JOIN study_info stu ON psi.study_info_id = stu.id  "
+              + "LEFT JOIN sites si ON si.id=prs.site_id "
+              + "LEFT JOIN locations loc ON loc.id=si.location_id "
+              + "WHERE prs.study_info_id=:studyId AND stu.type='OPEN' "
+              + "AND  (prs.email LIKE %:searchTerm% OR loc.name LIKE %:searchTerm% ) "
+              + "AND (prs.email > :lastEmail OR (prs.email = :lastEmail AND prs.id > :lastId)) "
+              + "ORDER BY prs.email ASC, prs.id ASC LIMIT :limit",
+      nativeQuery = true)
+  @ReadReplica
+  public List<StudyParticipantDetails> getOpenStudyParticipantsAfterEmail(
+      String studyId, Integer limit, String searchTerm, String lastEmail, String lastId);
+
+  @Query(
+      value =
+          "SELECT prs.created_time AS createdTime, prs.email AS email, psi.enrolled_timestamp AS enrolledDate, psi.status AS enrolledStatus "
+              + ",prs.site_id AS siteId, prs.onboarding_status AS onboardingStatus, "
+              + "loc.name AS locationName, loc.custom_id AS locationCustomId, "
+              + "prs.invitation_time AS invitedDate, prs.id AS participantId, stu.type AS studyType "
+              + "FROM participant_registry_site prs "
+              + "LEFT JOIN participant_study_info psi ON prs.id=psi.participant_registry_site_id  "
+              + "LEFT JOIN study_info stu ON psi.study_info_id = stu.id  "
+              + "LEFT JOIN sites si ON si.id=prs.site_id "
+              + "LEFT JOIN locations loc ON loc.id=si.location_id "
+              + "WHERE prs.study_info_id=:studyId AND stu.type='OPEN' "
+              + "AND  (prs.email LIKE %:searchTerm% OR loc.name LIKE %:searchTerm% ) "
+              + "AND (prs.email < :lastEmail OR (prs.email = :lastEmail AND prs.id < :lastId)) "
+              + "ORDER BY prs.email DESC, prs.id DESC LIMIT :limit",
+      nativeQuery = true)
+  @ReadReplica
+  public List<StudyParticipantDetails> getOpenStudyParticipantsBeforeEmail(
+      String studyId, Integer limit, String searchTerm, String lastEmail, String lastId);
+
+  @Query(
+      value =
+          "SELECT prs.created_time AS createdTime, prs.email AS email, psi.enrolled_timestamp AS enrolledDate, psi.status AS enrolledStatus "
+              + ",prs.site_id AS siteId, prs.onboarding_status AS onboardingStatus, "
+              + "loc.name AS locationName, loc.custom_id AS locationCustomId, "
+              + "prs.invitation_time AS invitedDate, prs.id AS participantId, stu.type AS studyType "
+              + "FROM participant_registry_site prs "
+              + "LEFT JOIN participant_study_info psi ON prs.id=psi.participant_registry_site_id  "
+              + "LEFT JOIN study_info stu ON psi.study_info_id = stu.id  "
+              + "LEFT JOIN sites si ON si.id=prs.site_id "
+              + "LEFT JOIN locations loc ON loc.id=si.location_id "
+              + "WHERE prs.study_info_id=:studyId AND stu.type='OPEN' "
+              + "AND  (prs.email LIKE %:searchTerm% OR loc.name LIKE %:searchTerm% ) "
+              + "AND (prs.onboarding_status > :lastStatus OR (prs.onboarding_status = :lastStatus AND prs.id > :lastId)) "
+              + "ORDER BY prs.onboarding_status ASC, prs.id ASC LIMIT :limit",
+      nativeQuery = true)
+  @ReadReplica
+  public List<StudyParticipantDetails> getOpenStudyParticipantsAfterStatus(
+      String studyId, Integer limit, String searchTerm, String lastStatus, String lastId);
+
+  @Query(
+      value =
+          "SELECT prs.created_time AS createdTime, prs.email AS email, psi.enrolled_timestamp AS enrolledDate, psi.status AS enrolledStatus "
+              + ",prs.site_id AS siteId, prs.onboarding_status AS onboardingStatus, "
+              + "loc.name AS locationName, loc.custom_id AS locationCustomId, "
+              + "prs.invitation_time AS invitedDate, prs.id AS participantId, stu.type AS studyType "
+              + "FROM participant_registry_site prs "
+              + "LEFT JOIN participant_study_info psi ON prs.id=psi.participant_registry_site_id  "
+              + "LEFT JOIN study_info stu ON psi.study_info_id = stu.id  "
+              + "LEFT JOIN sites si ON si.id=prs.site_id "
+              + "LEFT JOIN locations loc ON loc.id=si.location_id "
+              + "WHERE prs.study_info_id=:studyId AND stu.type='OPEN' "
+              + "AND  (prs.email LIKE %:searchTerm% OR loc.name LIKE %:searchTerm% ) "
+              + "AND (prs.onboarding_status < :lastStatus OR (prs.onboarding_status = :lastStatus AND prs.id < :lastId)) "
+              + "ORDER BY prs.onboarding_status DESC, prs.id DESC LIMIT :limit",
+      nativeQuery = true)
+  @ReadReplica
+  public List<StudyParticipantDetails> getOpenStudyParticipantsBeforeStatus(
+      String studyId, Integer limit, String searchTerm, String lastStatus, String lastId);
+
   @Query(
       value =
           "SELECT created_time AS createdTimestamp, study_id AS studyId, custom_id AS customId, name AS studyName, type , status, "
@@ -225,6 +310,7 @@ public interface StudyRepository extends JpaRepository<StudyEntity, String> {
               + "(stu.name LIKE %:searchTerm% OR stu.custom_id LIKE %:searchTerm% OR (loc.name LIKE %:searchTerm% AND stu.type='CLOSE')) "
               + ") AS site ON study.studyId= site.studyId ",
       nativeQuery = true)
+  @ReadReplica
   public List<StudySiteInfo> getStudySiteDetails(Integer limit, Integer offset, String searchTerm);
 
   @Query(
@@ -309,4 +395,9 @@ public interface StudyRepository extends JpaRepository<StudyEntity, String> {
           "SELECT * FROM study_info study where study.custom_id IN (:customIds) ORDER BY study.created_time  LIMIT 1",
       nativeQuery = true)
   public Optional<StudyEntity> findByCustomIds(List<String> customIds);
+
+  @Query(
+      "SELECT study FROM StudyEntity study LEFT JOIN FETCH study.app "
+          + "WHERE study.id IN (:studyIds)")
+  public List<StudyEntity> findWithAppByIdIn(@Param("studyIds") Collection<String> studyIds);
 }
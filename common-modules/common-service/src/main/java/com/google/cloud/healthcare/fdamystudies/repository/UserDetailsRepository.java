@@ -7,6 +7,7 @@
  */
 package com.google.cloud.healthcare.fdamystudies.repository;
 
+import com.google.cloud.healthcare.fdamystudies.common.ReadReplica;
 import com.google.cloud.healthcare.fdamystudies.model.AppCount;
 import com.google.cloud.healthcare.fdamystudies.model.UserDetailsEntity;
 import java.util.List;
@@ -27,6 +28,7 @@ public interface UserDetailsRepository extends JpaRepository<UserDetailsEntity,
   @Query(
       "SELECT ud.app.id AS appId,COUNT(ud.app.id) AS count FROM UserDetailsEntity ud "
           + "WHERE ud.app.id in (:appIds) and ud.status=1 GROUP BY ud.app.id")
+  @ReadReplica
   public List<AppCount> findAppUsersCount(@Param("appIds") List<String> usersAppsIds);
 
   @Query("SELECT ud FROM UserDetailsEntity ud WHERE ud.app.id = :appInfoId")
@@ -52,5 +54,6 @@ public interface UserDetailsRepository extends JpaRepository<UserDetailsEntity,
               + "FROM user_details ud, app_info app "
               + "WHERE app.id = ud.app_info_id and ud.status=1 GROUP BY app.id ",
       nativeQuery = true)
+  @ReadReplica
   public List<AppCount> findAppUsersCount();
 }
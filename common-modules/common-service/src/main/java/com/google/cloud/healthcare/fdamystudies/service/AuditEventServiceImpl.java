@@ -8,22 +8,38 @@
 
 package com.google.cloud.healthcare.fdamystudies.service;
 
-import static com.google.cloud.healthcare.fdamystudies.common.JsonUtils.getObjectMapper;
-
-import com.google.cloud.MonitoredResource;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
-import com.google.cloud.logging.LogEntry;
-import com.google.cloud.logging.Logging;
-import com.google.cloud.logging.LoggingOptions;
-import com.google.cloud.logging.Payload;
-import com.google.cloud.logging.Severity;
-import java.util.Collections;
+import com.google.cloud.healthcare.fdamystudies.common.AuditLogOverflowPolicy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+/**
+ * Buffers audit log events and writes them to the {@link AuditLogSink} in batches from a single
+ * flusher thread, so that callers only pay for a snapshot of the event. A batch is written when it
+ * is full or when its oldest event has waited for the flush interval. On shutdown the buffer is
+ * drained before the sink is closed.
+ */
 @Service
 @ConditionalOnProperty(
     value = "commonservice.auditlogevent.enabled",
@@ -33,32 +49,203 @@ public class AuditEventServiceImpl implements AuditEventService {
 
   private XLogger logger = XLoggerFactory.getXLogger(AuditEventServiceImpl.class.getName());
 
-  private static final String AUDIT_LOG_NAME = "application-audit-log";
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  @Autowired private AuditLogSink auditLogSink;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${commonservice.auditlogevent.buffer.capacity}")
+  private int capacity;
+
+  @Value("${commonservice.auditlogevent.batch.size}")
+  private int batchSize;
+
+  @Value("${commonservice.auditlogevent.flush.interval-ms}")
+  private long flushIntervalMillis;
+
+  @Value("${commonservice.auditlogevent.overflow.policy}")
+  private AuditLogOverflowPolicy overflowPolicy;
+
+  @Value("${commonservice.auditlogevent.overflow.block-timeout-ms}")
+  private long blockTimeoutMillis;
+
+  @Value("${commonservice.auditlogevent.spill.path}")
+  private String spillPath;
+
+  @Value("${commonservice.auditlogevent.shutdown.timeout-ms}")
+  private long shutdownTimeoutMillis;
+
+  /** Lock-free queue, bounded by the permits of {@link #freeSlots}. */
+  private final Queue<Map<String, Object>> buffer = new ConcurrentLinkedQueue<>();
+
+  private Semaphore freeSlots;
+
+  private FileAuditLogSink spillSink;
+
+  private Thread flusher;
+
+  private volatile boolean running;
+
+  private Timer flushTimer;
+
+  private Counter droppedEvents;
+
+  private Counter spilledEvents;
+
+  private Counter failedEvents;
+
+  @PostConstruct
+  public void init() {
+    freeSlots = new Semaphore(capacity);
+    spillSink = new FileAuditLogSink(Paths.get(spillPath));
+
+    Gauge.builder("audit.log.queue.depth", this, AuditEventServiceImpl::getQueueDepth)
+        .description("Audit log events waiting to be written")
+        .register(meterRegistry);
+    flushTimer =
+        Timer.builder("audit.log.flush")
+            .description("Time to write a batch of audit log events")
+            .register(meterRegistry);
+    droppedEvents = meterRegistry.counter("audit.log.events.dropped");
+    spilledEvents = meterRegistry.counter("audit.log.events.spilled");
+    failedEvents = meterRegistry.counter("audit.log.events.failed");
+
+    running = true;
+    flusher = new Thread(this::flushLoop, "audit-log-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
 
   @Override
   public void postAuditLogEvent(AuditLogEventRequest auditRequest) {
     logger.entry(
         String.format("begin postAuditLogEvent() for %s event", auditRequest.getEventCode()));
+    try {
+      // Callers reuse the request for their next event, the buffer keeps a snapshot of it
+      @SuppressWarnings("unchecked")
+      Map<String, Object> event = OBJECT_MAPPER.convertValue(auditRequest, Map.class);
+      enqueue(event, auditRequest.getEventCode());
+    } catch (Exception e) {
+      logger.error(String.format("%s failed with an exception", auditRequest.getEventCode()), e);
+    }
+    logger.exit(
+        String.format("postAuditLogEvent() for %s event finished", auditRequest.getEventCode()));
+  }
 
-    try (Logging logging = LoggingOptions.getDefaultInstance().getService()) {
+  private void enqueue(Map<String, Object> event, String eventCode) throws Exception {
+    if (running && freeSlots.tryAcquire()) {
+      offer(event);
+      return;
+    }
 
-      // The data to write to the log
-      Map<String, Object> jsonPayloadMap = getObjectMapper().convertValue(auditRequest, Map.class);
+    switch (overflowPolicy) {
+      case BLOCK:
+        if (running && freeSlots.tryAcquire(blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+          offer(event);
+          return;
+        }
+        break;
+      case SPILL:
+        spillSink.append(event);
+        spilledEvents.increment();
+        return;
+      default:
+        break;
+    }
+    droppedEvents.increment();
+    logger.error(String.format("%s event dropped, the audit log buffer is full", eventCode));
+  }
+
+  private void offer(Map<String, Object> event) {
+    buffer.offer(event);
+    if (getQueueDepth() >= batchSize) {
+      LockSupport.unpark(flusher);
+    }
+  }
 
-      LogEntry entry =
-          LogEntry.newBuilder(Payload.JsonPayload.of(jsonPayloadMap))
-              .setTimestamp(auditRequest.getOccurred().getTime())
-              .setSeverity(Severity.INFO)
-              .setLogName(AUDIT_LOG_NAME)
-              .setResource(MonitoredResource.newBuilder("global").build())
-              .build();
+  private int getQueueDepth() {
+    return capacity - freeSlots.availablePermits();
+  }
 
-      // Writes the log entry asynchronously
-      logging.write(Collections.singleton(entry));
+  private void flushLoop() {
+    long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+    long deadline = 0;
+    while (true) {
+      Map<String, Object> event = buffer.poll();
+      if (event != null) {
+        freeSlots.release();
+        if (batch.isEmpty()) {
+          deadline = System.nanoTime() + flushIntervalNanos;
+        }
+        batch.add(event);
+        if (batch.size() >= batchSize) {
+          flush(batch);
+        }
+      } else if (!running) {
+        flush(batch);
+        return;
+      } else if (batch.isEmpty()) {
+        LockSupport.parkNanos(this, flushIntervalNanos);
+      } else if (deadline - System.nanoTime() <= 0) {
+        flush(batch);
+      } else {
+        LockSupport.parkNanos(this, deadline - System.nanoTime());
+      }
+    }
+  }
+
+  private void flush(List<Map<String, Object>> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      auditLogSink.write(batch);
     } catch (Exception e) {
-      logger.error(String.format("%s failed with an exception", auditRequest.getEventCode()), e);
+      logger.error(
+          String.format(
+              "writing %d audit log events failed with an exception, event codes=%s",
+              batch.size(),
+              batch.stream().map(event -> event.get("eventCode")).collect(Collectors.toList())),
+          e);
+      spillFailedBatch(batch);
+    } finally {
+      flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      batch.clear();
     }
-    logger.exit(
-        String.format("postAuditLogEvent() for %s event finished", auditRequest.getEventCode()));
+  }
+
+  private void spillFailedBatch(List<Map<String, Object>> batch) {
+    if (overflowPolicy == AuditLogOverflowPolicy.SPILL) {
+      try {
+        spillSink.write(batch);
+        spilledEvents.increment(batch.size());
+        return;
+      } catch (Exception e) {
+        logger.error("spilling the audit log events failed with an exception", e);
+      }
+    }
+    failedEvents.increment(batch.size());
+  }
+
+  @PreDestroy
+  public void shutdown() throws Exception {
+    running = false;
+    LockSupport.unpark(flusher);
+    flusher.join(shutdownTimeoutMillis);
+    if (flusher.isAlive()) {
+      logger.error(
+          String.format("%d audit log events not written on shutdown", getQueueDepth()));
+    } else {
+      // Events offered while the flusher was finishing
+      List<Map<String, Object>> batch = new ArrayList<>();
+      for (Map<String, Object> event = buffer.poll(); event != null; event = buffer.poll()) {
+        batch.add(event);
+      }
+      flush(batch);
+    }
+    spillSink.close();
   }
 }
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Destination of the audit log events buffered by {@link AuditEventServiceImpl}. Events are the
+ * JSON payloads of {@code AuditLogEventRequest}, written in batches from a single thread.
+ */
+public interface AuditLogSink extends Closeable {
+
+  void write(List<Map<String, Object>> events) throws IOException;
+
+  @Override
+  default void close() throws IOException {}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.MonitoredResource;
+import com.google.cloud.logging.LogEntry;
+import com.google.cloud.logging.Logging;
+import com.google.cloud.logging.LoggingOptions;
+import com.google.cloud.logging.Payload;
+import com.google.cloud.logging.Severity;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Writes audit log events to the application-audit-log of Cloud Logging. */
+public class CloudLoggingAuditLogSink implements AuditLogSink {
+
+  private static final String AUDIT_LOG_NAME = "application-audit-log";
+
+  private static final String OCCURRED = "occurred";
+
+  private final MonitoredResource resource = MonitoredResource.newBuilder("global").build();
+
+  private Logging logging;
+
+  @Override
+  public void write(List<Map<String, Object>> events) {
+    List<LogEntry> entries = new ArrayList<>(events.size());
+    for (Map<String, Object> event : events) {
+      LogEntry.Builder entry =
+          LogEntry.newBuilder(Payload.JsonPayload.of(event))
+              .setSeverity(Severity.INFO)
+              .setLogName(AUDIT_LOG_NAME)
+              .setResource(resource);
+      Object occurred = event.get(OCCURRED);
+      if (occurred instanceof Number) {
+        entry.setTimestamp(((Number) occurred).longValue());
+      }
+      entries.add(entry.build());
+    }
+    getLogging().write(entries);
+  }
+
+  /** The client is created on first use, so that the application starts without credentials. */
+  private Logging getLogging() {
+    if (logging == null) {
+      logging = LoggingOptions.getDefaultInstance().getService();
+    }
+    return logging;
+  }
+
+  @Override
+  public void close() {
+    if (logging != null) {
+      try {
+        logging.close();
+      } catch (Exception e) {
+        throw new IllegalStateException("closing the Cloud Logging client failed", e);
+      }
+    }
+  }
+}
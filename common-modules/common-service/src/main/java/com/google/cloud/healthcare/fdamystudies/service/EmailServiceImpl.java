@@ -10,9 +10,9 @@ package com.google.cloud.healthcare.fdamystudies.service;
 
 import com.google.cloud.healthcare.fdamystudies.beans.EmailRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.EmailResponse;
+import com.google.cloud.healthcare.fdamystudies.common.EmailTemplateRegistry;
 import com.google.cloud.healthcare.fdamystudies.common.ErrorCode;
 import com.google.cloud.healthcare.fdamystudies.common.MessageCode;
-import com.google.cloud.healthcare.fdamystudies.common.PlaceholderReplacer;
 import java.util.Calendar;
 import javax.mail.internet.MimeMessage;
 import org.apache.commons.lang3.ArrayUtils;
@@ -36,6 +36,11 @@ public class EmailServiceImpl implements EmailService {
 
   @Autowired private JavaMailSender emailSender;
 
+  @Autowired private EmailTemplateRegistry emailTemplateRegistry;
+
+  @Autowired(required = false)
+  private SmtpTransportPool smtpTransportPool;
+
   @Override
   public EmailResponse sendMimeMail(EmailRequest emailRequest) {
     logger.entry("Begin sendMimeMail()");
@@ -56,7 +61,11 @@ public class EmailServiceImpl implements EmailService {
       message.setSubject(getSubject(emailRequest));
       message.setText(getBodyContent(emailRequest), "utf-8", "html");
       message.setSentDate(Calendar.getInstance().getTime());
-      emailSender.send(message);
+      if (smtpTransportPool != null && smtpTransportPool.isEnabled()) {
+        smtpTransportPool.send(message);
+      } else {
+        emailSender.send(message);
+      }
       logger.exit(String.format("status=%d", HttpStatus.ACCEPTED.value()));
       return new EmailResponse(MessageCode.EMAIL_ACCEPTED_BY_MAIL_SERVER);
     } catch (Exception e) {
@@ -67,7 +76,7 @@ public class EmailServiceImpl implements EmailService {
 
   private String getSubject(EmailRequest emailRequest) {
     if (emailRequest.getTemplateArgs() != null) {
-      return PlaceholderReplacer.replaceNamedPlaceholders(
+      return emailTemplateRegistry.render(
           emailRequest.getSubject(), emailRequest.getTemplateArgs());
     }
     return emailRequest.getSubject();
@@ -75,8 +84,7 @@ public class EmailServiceImpl implements EmailService {
 
   private String getBodyContent(EmailRequest emailRequest) {
     if (emailRequest.getTemplateArgs() != null) {
-      return PlaceholderReplacer.replaceNamedPlaceholders(
-          emailRequest.getBody(), emailRequest.getTemplateArgs());
+      return emailTemplateRegistry.render(emailRequest.getBody(), emailRequest.getTemplateArgs());
     }
     return emailRequest.getBody();
   }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends audit log events to a local file, one JSON object per line. Used for deployments without
+ * Cloud Logging, for local testing, and to spill events the audit log buffer has no room for.
+ */
+public class FileAuditLogSink implements AuditLogSink {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final Path path;
+
+  private BufferedWriter writer;
+
+  public FileAuditLogSink(Path path) {
+    this.path = path;
+  }
+
+  public void append(Map<String, Object> event) throws IOException {
+    write(Collections.singletonList(event));
+  }
+
+  @Override
+  public synchronized void write(List<Map<String, Object>> events) throws IOException {
+    if (writer == null) {
+      if (path.getParent() != null) {
+        Files.createDirectories(path.getParent());
+      }
+      writer =
+          Files.newBufferedWriter(
+              path,
+              StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.APPEND,
+              StandardOpenOption.WRITE);
+    }
+    for (Map<String, Object> event : events) {
+      writer.write(OBJECT_MAPPER.writeValueAsString(event));
+      writer.newLine();
+    }
+    writer.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (writer != null) {
+      writer.close();
+      writer = null;
+    }
+  }
+}
@@ -18,4 +18,7 @@ public interface OAuthService {
   public String getAccessToken();
 
   public String getNewAccessToken();
+
+  /** Returns a new access token, unless the rejected one has already been replaced. */
+  public String getNewAccessToken(String rejectedAccessToken);
 }
@@ -13,11 +13,19 @@ import static com.google.cloud.healthcare.fdamystudies.common.JsonUtils.addTextF
 import static com.google.cloud.healthcare.fdamystudies.common.JsonUtils.getTextValue;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.HttpHeaders;
@@ -53,7 +61,22 @@ public class OAuthServiceImpl extends BaseServiceImpl implements OAuthService {
 
   private static final String ACCESS_TOKEN = "access_token";
 
-  private String accessToken;
+  private static final String EXPIRES_IN = "expires_in";
+
+  private static final String REFRESH_METRIC = "oauth.service.token.refresh";
+
+  /** The service token, replaced as a whole so that readers see its value and expiry together. */
+  private volatile ServiceToken serviceToken = ServiceToken.NONE;
+
+  /** The token request in flight, concurrent refreshes wait for it instead of sending their own. */
+  private CompletableFuture<ServiceToken> refreshInFlight;
+
+  private ScheduledExecutorService refreshScheduler;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${security.oauth2.client.token-refresh-before-expiry-seconds}")
+  private long refreshBeforeExpirySeconds;
 
   @Value("${security.oauth2.client.client-id:}")
   private String clientId;
@@ -76,6 +99,18 @@ public class OAuthServiceImpl extends BaseServiceImpl implements OAuthService {
   public void init() {
     String credentials = clientId + ":" + clientSecret;
     encodedAuthorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+    refreshScheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "service-token-refresh");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    refreshScheduler.shutdownNow();
   }
 
   @Override
@@ -99,26 +134,127 @@ public class OAuthServiceImpl extends BaseServiceImpl implements OAuthService {
 
   @Override
   public String getAccessToken() {
-    if (StringUtils.isEmpty(accessToken)) {
-      this.accessToken = getNewAccessToken();
+    ServiceToken current = serviceToken;
+    if (StringUtils.isEmpty(current.value) || current.isExpired()) {
+      current = refresh(current);
     }
-    return this.accessToken;
+    return current.value;
   }
 
   @Override
   public String getNewAccessToken() {
+    return refresh(serviceToken).value;
+  }
+
+  @Override
+  public String getNewAccessToken(String rejectedAccessToken) {
+    ServiceToken current = serviceToken;
+    if (StringUtils.isNotEmpty(current.value) && !current.value.equals(rejectedAccessToken)) {
+      // Already replaced since the rejected request was sent
+      return current.value;
+    }
+    return refresh(current).value;
+  }
+
+  /**
+   * Replaces the stale token with a new one. Only one token request is sent at a time, callers
+   * arriving while it is in flight get its result, and callers holding a token that has been
+   * replaced in the meantime get the replacement.
+   */
+  private ServiceToken refresh(ServiceToken stale) {
+    CompletableFuture<ServiceToken> pending;
+    boolean owner = false;
+    synchronized (this) {
+      if (serviceToken != stale) {
+        return serviceToken;
+      }
+      if (refreshInFlight == null) {
+        refreshInFlight = new CompletableFuture<>();
+        owner = true;
+      }
+      pending = refreshInFlight;
+    }
+
+    if (owner) {
+      ServiceToken refreshed;
+      try {
+        refreshed = requestNewAccessToken(stale);
+      } catch (RuntimeException e) {
+        synchronized (this) {
+          refreshInFlight = null;
+        }
+        pending.completeExceptionally(e);
+        throw e;
+      }
+      completeRefresh(pending, refreshed);
+      return refreshed;
+    }
+
+    try {
+      return pending.join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+  }
+
+  private void completeRefresh(CompletableFuture<ServiceToken> pending, ServiceToken token) {
+    synchronized (this) {
+      serviceToken = token;
+      refreshInFlight = null;
+    }
+    pending.complete(token);
+  }
+
+  private ServiceToken requestNewAccessToken(ServiceToken stale) {
     logger.entry("begin getNewAccessToken()");
-    ResponseEntity<JsonNode> response = getToken();
-    if (isSuccessful(response)) {
-      this.accessToken = response.getBody().get(ACCESS_TOKEN).textValue();
-      logger.exit(String.format("status=%d", response.getStatusCodeValue()));
-    } else {
+    long start = System.nanoTime();
+    ResponseEntity<JsonNode> response = null;
+    try {
+      response = getToken();
+    } finally {
+      String outcome = response != null && isSuccessful(response) ? "success" : "failure";
+      meterRegistry
+          .timer(REFRESH_METRIC, "outcome", outcome)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    if (!isSuccessful(response)) {
       logger.error(
           String.format(
               "Get new access token from oauth scim service failed with status=%d and response=%s",
               response.getStatusCodeValue(), response.getBody()));
+      return stale;
+    }
+
+    ServiceToken token =
+        new ServiceToken(
+            response.getBody().get(ACCESS_TOKEN).textValue(),
+            response.getBody().path(EXPIRES_IN).asLong(0));
+    scheduleRefresh(token);
+    logger.exit(String.format("status=%d", response.getStatusCodeValue()));
+    return token;
+  }
+
+  /** Refreshes the token in the background before it expires, if the token endpoint tells when. */
+  private void scheduleRefresh(ServiceToken token) {
+    if (token.expiresAt == Long.MAX_VALUE) {
+      return;
     }
-    return this.accessToken;
+    long lifetimeMillis = token.expiresAt - System.currentTimeMillis();
+    long delayMillis =
+        Math.max(
+            lifetimeMillis - TimeUnit.SECONDS.toMillis(refreshBeforeExpirySeconds),
+            lifetimeMillis / 2);
+    refreshScheduler.schedule(
+        () -> {
+          try {
+            refresh(token);
+          } catch (RuntimeException e) {
+            logger.error("background refresh of the service access token failed", e);
+          }
+        },
+        delayMillis,
+        TimeUnit.MILLISECONDS);
   }
 
   private ResponseEntity<JsonNode> getToken() {
@@ -143,4 +279,25 @@ public class OAuthServiceImpl extends BaseServiceImpl implements OAuthService {
 
     return response;
   }
+
+  private static class ServiceToken {
+
+    private static final ServiceToken NONE = new ServiceToken(null, 0);
+
+    private final String value;
+
+    private final long expiresAt;
+
+    private ServiceToken(String value, long expiresInSeconds) {
+      this.value = value;
+      this.expiresAt =
+          expiresInSeconds > 0
+              ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresInSeconds)
+              : Long.MAX_VALUE;
+    }
+
+    private boolean isExpired() {
+      return System.currentTimeMillis() >= expiresAt;
+    }
+  }
 }
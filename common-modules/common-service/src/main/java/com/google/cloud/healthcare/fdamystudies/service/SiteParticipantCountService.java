@@ -0,0 +1,20 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import java.util.Collection;
+
+public interface SiteParticipantCountService {
+
+  /**
+   * Recounts the invited and enrolled participants of the sites once the current transaction is
+   * committed, or right away when there is no transaction.
+   */
+  public void recountAfterCommit(Collection<String> siteIds);
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.repository.SiteParticipantCountRepository;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Keeps the site_participant_counts rows of the sites changed by an enrollment or a withdrawal up
+ * to date. The recount runs after the commit, in a transaction of its own, so that the counter
+ * row of a site is not locked for the whole enrollment. When the recount fails, the
+ * reconciliation task of the Participant Manager repairs the counts.
+ */
+@Service
+@ConditionalOnProperty(
+    value = "participant.manager.repository.enabled",
+    havingValue = "true",
+    matchIfMissing = false)
+public class SiteParticipantCountServiceImpl implements SiteParticipantCountService {
+
+  private XLogger logger =
+      XLoggerFactory.getXLogger(SiteParticipantCountServiceImpl.class.getName());
+
+  @Autowired private SiteParticipantCountRepository siteParticipantCountRepository;
+
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  @Value("${participant.manager.enrollment-counters.enabled:false}")
+  private boolean enrollmentCountersEnabled;
+
+  private TransactionTemplate transactionTemplate;
+
+  @PostConstruct
+  public void init() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  @Override
+  public void recountAfterCommit(Collection<String> siteIds) {
+    if (!enrollmentCountersEnabled) {
+      return;
+    }
+    Set<String> distinctSiteIds =
+        siteIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+    if (distinctSiteIds.isEmpty()) {
+      return;
+    }
+
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      recount(distinctSiteIds);
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronizationAdapter() {
+          @Override
+          public void afterCommit() {
+            recount(distinctSiteIds);
+          }
+        });
+  }
+
+  private void recount(Set<String> siteIds) {
+    try {
+      transactionTemplate.execute(
+          status -> {
+            siteParticipantCountRepository.recountSites(siteIds);
+            return null;
+          });
+    } catch (RuntimeException e) {
+      logger.warn(String.format("participant counts of siteIds=%s not recounted", siteIds), e);
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Date;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Component;
+
+/**
+ * Connected SMTP transports of the {@link JavaMailSenderImpl}, reused across messages instead of
+ * the connect, TLS handshake and login that {@code JavaMailSender.send} does for every message. A
+ * transport is leased by one sender at a time, and closed after a failed send, after the maximum
+ * number of messages, or when it has been idle for too long.
+ *
+ * <p>Enabled with commonservice.email.smtp-pool.enabled=true. Other {@link JavaMailSender}
+ * implementations, like the mocks of the tests, are not pooled and {@link #isEnabled()} is false.
+ */
+@Component
+@ConditionalOnProperty(
+    value = "commonservice.email.smtp-pool.enabled",
+    havingValue = "true",
+    matchIfMissing = false)
+public class SmtpTransportPool {
+
+  private XLogger logger = XLoggerFactory.getXLogger(SmtpTransportPool.class.getName());
+
+  private static final String DEFAULT_PROTOCOL = "smtp";
+
+  private static final long WAIT_SLICE_MILLIS = 100;
+
+  @Autowired private JavaMailSender mailSender;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${commonservice.email.smtp-pool.max-size}")
+  private int maxSize;
+
+  @Value("${commonservice.email.smtp-pool.borrow-timeout-ms}")
+  private long borrowTimeoutMillis;
+
+  @Value("${commonservice.email.smtp-pool.idle-timeout-ms}")
+  private long idleTimeoutMillis;
+
+  @Value("${commonservice.email.smtp-pool.validate-after-inactivity-ms}")
+  private long validateAfterInactivityMillis;
+
+  @Value("${commonservice.email.smtp-pool.max-messages-per-connection}")
+  private int maxMessagesPerConnection;
+
+  private final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+
+  /** Permits for the open transports, idle or leased. */
+  private Semaphore connections;
+
+  private Counter createdConnections;
+
+  @PostConstruct
+  public void init() {
+    connections = new Semaphore(maxSize);
+    Gauge.builder("mail.smtp.pool.active", this, pool -> pool.getOpenCount() - idle.size())
+        .description("SMTP connections sending a message")
+        .register(meterRegistry);
+    Gauge.builder("mail.smtp.pool.idle", idle, BlockingDeque::size)
+        .description("SMTP connections waiting for a message")
+        .register(meterRegistry);
+    createdConnections = meterRegistry.counter("mail.smtp.pool.connections.created");
+  }
+
+  public boolean isEnabled() {
+    return mailSender instanceof JavaMailSenderImpl;
+  }
+
+  /** Sends the message over a pooled transport, as {@code JavaMailSenderImpl} would send it. */
+  public void send(MimeMessage message) throws MessagingException {
+    PooledTransport transport = borrow();
+    boolean reusable = false;
+    try {
+      if (message.getSentDate() == null) {
+        message.setSentDate(new Date());
+      }
+      String messageId = message.getMessageID();
+      message.saveChanges();
+      if (messageId != null) {
+        // saveChanges replaced the Message-ID set by the caller
+        message.setHeader("Message-ID", messageId);
+      }
+      transport.transport.sendMessage(message, message.getAllRecipients());
+      transport.messageCount++;
+      reusable = transport.messageCount < maxMessagesPerConnection;
+    } finally {
+      if (reusable) {
+        transport.lastUsed = System.currentTimeMillis();
+        idle.offerFirst(transport);
+      } else {
+        close(transport);
+      }
+    }
+  }
+
+  private PooledTransport borrow() throws MessagingException {
+    long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+    while (true) {
+      PooledTransport transport;
+      while ((transport = idle.pollFirst()) != null) {
+        if (isUsable(transport)) {
+          return transport;
+        }
+        close(transport);
+      }
+
+      try {
+        // In slices, a transport returned to the idle deque does not release a permit
+        if (connections.tryAcquire(WAIT_SLICE_MILLIS, TimeUnit.MILLISECONDS)) {
+          return connect();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new MessagingException("interrupted while waiting for an SMTP connection", e);
+      }
+      if (System.currentTimeMillis() >= deadline) {
+        throw new MessagingException(
+            String.format("no SMTP connection available within %d ms", borrowTimeoutMillis));
+      }
+    }
+  }
+
+  private boolean isUsable(PooledTransport transport) {
+    long idleFor = System.currentTimeMillis() - transport.lastUsed;
+    if (idleFor >= idleTimeoutMillis) {
+      return false;
+    }
+    // isConnected sends a NOOP, only worth it after the server may have dropped the connection
+    return idleFor < validateAfterInactivityMillis || transport.transport.isConnected();
+  }
+
+  private PooledTransport connect() throws MessagingException {
+    JavaMailSenderImpl sender = (JavaMailSenderImpl) mailSender;
+    try {
+      Session session = sender.getSession();
+      String protocol = sender.getProtocol();
+      if (protocol == null) {
+        protocol = session.getProperty("mail.transport.protocol");
+      }
+      Transport transport = session.getTransport(protocol != null ? protocol : DEFAULT_PROTOCOL);
+
+      String username = sender.getUsername();
+      String password = sender.getPassword();
+      if ("".equals(username)) {
+        username = null;
+        if ("".equals(password)) {
+          password = null;
+        }
+      }
+      transport.connect(sender.getHost(), sender.getPort(), username, password);
+      createdConnections.increment();
+      return new PooledTransport(transport);
+    } catch (MessagingException | RuntimeException e) {
+      connections.release();
+      throw e;
+    }
+  }
+
+  private void close(PooledTransport transport) {
+    try {
+      transport.transport.close();
+    } catch (MessagingException e) {
+      logger.warn("closing an SMTP connection failed", e);
+    } finally {
+      connections.release();
+    }
+  }
+
+  private int getOpenCount() {
+    return maxSize - connections.availablePermits();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    for (PooledTransport transport = idle.pollFirst();
+        transport != null;
+        transport = idle.pollFirst()) {
+      close(transport);
+    }
+  }
+
+  private static class PooledTransport {
+
+    private final Transport transport;
+
+    private int messageCount;
+
+    private long lastUsed = System.currentTimeMillis();
+
+    private PooledTransport(Transport transport) {
+      this.transport = transport;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/* Participant counts per site for the participant manager dashboards, instead of counting the
+ participants of every site on each page load */
+CREATE TABLE IF NOT EXISTS `site_participant_counts` (
+  `site_id` varchar(255) NOT NULL,
+  `invited_count` bigint(20) NOT NULL DEFAULT '0',
+  `enrolled_count` bigint(20) NOT NULL DEFAULT '0',
+  `updated_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`site_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The counters are recounted by the participant manager once its onboarding status changes are
+-- committed, and by its reconciliation job for the sites whose counts no longer match, for example
+-- after an enrollment or a withdrawal in the mobile app. They are not maintained by triggers, so
+-- that an import does not lock the row of its site until it commits, and so that the scripts need
+-- neither SUPER nor log_bin_trust_function_creators on a server with binary logging
+
+-- Counts of the participants already in the tables, the reconciliation job of the participant
+-- manager repairs the counts of participants changed while this script runs
+INSERT INTO site_participant_counts (site_id, invited_count, enrolled_count, updated_time)
+SELECT si.id,
+  (SELECT COUNT(*) FROM participant_registry_site prs WHERE prs.site_id = si.id AND prs.onboarding_status = 'I'),
+  (SELECT COUNT(*) FROM participant_study_info ps WHERE ps.site_id = si.id AND ps.status = 'enrolled'),
+  NOW()
+FROM sites si
+ON DUPLICATE KEY UPDATE invited_count = VALUES(invited_count),
+  enrolled_count = VALUES(enrolled_count), updated_time = VALUES(updated_time);
+
+/* Composite indexes for the keyset pagination of the participant registry listings: each listing
+ reads the rows of its site, study or app in the order of the index from the cursor position,
+ instead of sorting all the rows and skipping the offset */
+CREATE INDEX `participant_registry_site_site_id_created_time_idx`
+  ON `participant_registry_site` (`site_id`, `created_time`, `id`);
+CREATE INDEX `participant_registry_site_site_id_status_created_time_idx`
+  ON `participant_registry_site` (`site_id`, `onboarding_status`, `created_time`, `id`);
+CREATE INDEX `participant_registry_site_study_info_id_email_idx`
+  ON `participant_registry_site` (`study_info_id`, `email`, `id`);
+CREATE INDEX `participant_registry_site_study_info_id_onboarding_status_idx`
+  ON `participant_registry_site` (`study_info_id`, `onboarding_status`, `id`);
+CREATE INDEX `user_details_app_info_id_email_idx` ON `user_details` (`app_info_id`, `email`, `id`);
+CREATE INDEX `user_details_app_info_id_status_idx` ON `user_details` (`app_info_id`, `status`, `id`);
+
+/* Device tokens of push notifications are read a page at a time per app and platform, in the
+ order of this index from the last token of the previous page */
+CREATE INDEX `auth_info_app_info_id_device_type_idx`
+  ON `auth_info` (`app_info_id`, `device_type`, `id`);
+
+/* Notification outbox: /sendNotification queues the notifications of the Study Builder and
+ the dispatcher of the participant user datastore pushes them, recording each chunk of device
+ tokens it pushed to in notification_delivery. A notification is queued once per dedupe window,
+ the unique key rejects the second of two concurrent posts of the same notification */
+CREATE TABLE IF NOT EXISTS `notification_outbox` (
+  `id` varchar(255) NOT NULL,
+  `idempotency_key` varchar(64) NOT NULL,
+  `dedupe_bucket` bigint(20) NOT NULL,
+  `notification_id` int(11) DEFAULT NULL,
+  `app_id` varchar(64) DEFAULT NULL,
+  `study_id` varchar(64) DEFAULT NULL,
+  `custom_study_id` varchar(64) DEFAULT NULL,
+  `notification_type` varchar(32) DEFAULT NULL,
+  `notification_sub_type` varchar(64) DEFAULT NULL,
+  `notification_title` varchar(255) DEFAULT NULL,
+  `notification_text` text,
+  `status` varchar(32) NOT NULL,
+  `attempts` int(11) NOT NULL DEFAULT '0',
+  `next_attempt_time` datetime DEFAULT NULL,
+  `claimed_time` datetime DEFAULT NULL,
+  `delivered_count` int(11) NOT NULL DEFAULT '0',
+  `failed_count` int(11) NOT NULL DEFAULT '0',
+  `last_error` varchar(255) DEFAULT NULL,
+  `correlation_id` varchar(255) DEFAULT NULL,
+  `source` varchar(64) DEFAULT NULL,
+  `user_id` varchar(255) DEFAULT NULL,
+  `app_version` varchar(64) DEFAULT NULL,
+  `mobile_platform` varchar(64) DEFAULT NULL,
+  `created_time` datetime DEFAULT NULL,
+  `updated_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `notification_outbox_status_idx` (`status`,`next_attempt_time`),
+  UNIQUE KEY `notification_outbox_dedupe_uk` (`idempotency_key`,`dedupe_bucket`),
+  KEY `notification_outbox_idempotency_key_idx` (`idempotency_key`,`created_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE IF NOT EXISTS `notification_delivery` (
+  `id` varchar(255) NOT NULL,
+  `notification_outbox_id` varchar(255) NOT NULL,
+  `device_type` varchar(32) NOT NULL,
+  `start_after_id` varchar(255) NOT NULL,
+  `end_id` varchar(255) NOT NULL,
+  `token_count` int(11) NOT NULL DEFAULT '0',
+  `status` varchar(32) NOT NULL,
+  `attempts` int(11) NOT NULL DEFAULT '0',
+  `delivered_count` int(11) NOT NULL DEFAULT '0',
+  `failed_count` int(11) NOT NULL DEFAULT '0',
+  `last_error` varchar(255) DEFAULT NULL,
+  `created_time` datetime DEFAULT NULL,
+  `updated_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `notification_delivery_chunk_uk` (`notification_outbox_id`,`device_type`,`start_after_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+/* Time the invitation email dispatcher of the participant manager claimed an invitation, the
+ invitations claimed by an instance that stopped are claimed again once their lease expired */
+ALTER TABLE `invite_participants` ADD COLUMN `claimed_time` datetime DEFAULT NULL;
@@ -13,6 +13,8 @@ import static com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEvent.P
 import static com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEvent.STUDY_ENROLLMENT_FAILED;
 import static com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEvent.USER_ENROLLED_INTO_STUDY;
 import static com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEvent.USER_FOUND_ELIGIBLE_FOR_STUDY;
+import static com.google.cloud.healthcare.fdamystudies.common.ErrorCode.ENROLLMENT_TOKEN_ALREADY_USED;
+import static com.google.cloud.healthcare.fdamystudies.common.ErrorCode.INVALID_ENROLLMENT_TOKEN;
 
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.EnrollmentBean;
@@ -20,11 +22,13 @@ import com.google.cloud.healthcare.fdamystudies.beans.EnrollmentResponseBean;
 import com.google.cloud.healthcare.fdamystudies.beans.ErrorBean;
 import com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEventHelper;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationPropertyConfiguration;
+import com.google.cloud.healthcare.fdamystudies.exceptions.ErrorCodeException;
 import com.google.cloud.healthcare.fdamystudies.mapper.AuditEventMapper;
 import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import com.google.cloud.healthcare.fdamystudies.service.CommonService;
 import com.google.cloud.healthcare.fdamystudies.service.EnrollmentTokenService;
 import com.google.cloud.healthcare.fdamystudies.service.StudyStateService;
+import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.util.EnrollmentManagementUtil;
 import com.google.cloud.healthcare.fdamystudies.util.ErrorCode;
 import com.google.cloud.healthcare.fdamystudies.util.ErrorResponseUtil;
@@ -161,29 +165,26 @@ public class EnrollmentTokenController {
       if (studyDetails != null) {
         auditRequest.setStudyId(studyDetails.getCustomId());
         auditRequest.setStudyVersion(String.valueOf(studyDetails.getVersion()));
-        if (enrollmentTokenfService.enrollmentTokenRequired(enrollmentBean.getStudyId())) {
+        if (AppConstants.CLOSE_STUDY.equalsIgnoreCase(studyDetails.getType())) {
           if (!StringUtils.isEmpty(enrollmentBean.getToken())) {
-            if (!enrollmentTokenfService.hasParticipant(
-                enrollmentBean.getStudyId(), enrollmentBean.getToken())) {
-              if (enrollManagementUtil.isChecksumValid(enrollmentBean.getToken())) {
-                if (enrollmentTokenfService.isValidStudyToken(
-                    enrollmentBean.getToken(), enrollmentBean.getStudyId(), userId)) {
-                  enrollAuditEventHelper.logEvent(USER_FOUND_ELIGIBLE_FOR_STUDY, auditRequest);
-                  respBean =
-                      enrollmentTokenfService.enrollParticipant(
-                          enrollmentBean.getStudyId(),
-                          enrollmentBean.getToken(),
-                          userId,
-                          studyDetails.getVersion(),
-                          auditRequest);
-                  if (respBean != null) {
-                    respBean.setCode(ErrorCode.EC_200.code());
-                    respBean.setMessage(
-                        MyStudiesUserRegUtil.ErrorCodes.SUCCESS.getValue().toLowerCase());
-                    auditRequest.setParticipantId(respBean.getParticipantId());
-                    enrollAuditEventHelper.logEvent(USER_ENROLLED_INTO_STUDY, auditRequest);
-                  }
-                } else {
+            if (enrollManagementUtil.isChecksumValid(enrollmentBean.getToken())) {
+              // the token is checked with the read of the enrollment, in the same transaction
+              try {
+                respBean =
+                    enrollmentTokenfService.enrollParticipant(
+                        studyDetails, enrollmentBean.getToken(), userId, auditRequest);
+              } catch (ErrorCodeException e) {
+                if (e.getErrorCode() == ENROLLMENT_TOKEN_ALREADY_USED) {
+                  ErrorResponseUtil.getFailureResponse(
+                      ErrorResponseUtil.ErrorCodes.STATUS_103.getValue(),
+                      ErrorResponseUtil.ErrorCodes.INVALID_INPUT.getValue(),
+                      ErrorResponseUtil.ErrorCodes.TOKEN_ALREADY_USE.getValue(),
+                      response);
+                  errorBean = new ErrorBean();
+                  errorBean.setCode(HttpStatus.FORBIDDEN.value());
+                  errorBean.setMessage(ErrorResponseUtil.ErrorCodes.TOKEN_ALREADY_USE.getValue());
+                  return new ResponseEntity<>(errorBean, HttpStatus.FORBIDDEN);
+                } else if (e.getErrorCode() == INVALID_ENROLLMENT_TOKEN) {
                   ErrorResponseUtil.getFailureResponse(
                       ErrorResponseUtil.ErrorCodes.STATUS_102.getValue(),
                       ErrorResponseUtil.ErrorCodes.INVALID_INPUT.getValue(),
@@ -192,34 +193,31 @@ public class EnrollmentTokenController {
                   errorBean = new ErrorBean();
                   errorBean.setCode(HttpStatus.BAD_REQUEST.value());
                   errorBean.setMessage(ErrorResponseUtil.ErrorCodes.INVALID_TOKEN.getValue());
-
                   return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
                 }
-              } else {
-                ErrorResponseUtil.getFailureResponse(
-                    ErrorResponseUtil.ErrorCodes.STATUS_102.getValue(),
-                    ErrorResponseUtil.ErrorCodes.INVALID_INPUT.getValue(),
-                    ErrorResponseUtil.ErrorCodes.INVALID_TOKEN.getValue(),
-                    response);
-
-                errorBean = new ErrorBean();
-                errorBean.setCode(HttpStatus.BAD_REQUEST.value());
-                errorBean.setMessage(ErrorResponseUtil.ErrorCodes.INVALID_TOKEN.getValue());
-
-                enrollAuditEventHelper.logEvent(PARTICIPANT_ID_NOT_RECEIVED, auditRequest);
-
-                return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
+                throw e;
+              }
+              if (respBean != null) {
+                respBean.setCode(ErrorCode.EC_200.code());
+                respBean.setMessage(
+                    MyStudiesUserRegUtil.ErrorCodes.SUCCESS.getValue().toLowerCase());
+                auditRequest.setParticipantId(respBean.getParticipantId());
+                enrollAuditEventHelper.logEvent(USER_ENROLLED_INTO_STUDY, auditRequest);
               }
             } else {
               ErrorResponseUtil.getFailureResponse(
-                  ErrorResponseUtil.ErrorCodes.STATUS_103.getValue(),
+                  ErrorResponseUtil.ErrorCodes.STATUS_102.getValue(),
                   ErrorResponseUtil.ErrorCodes.INVALID_INPUT.getValue(),
-                  ErrorResponseUtil.ErrorCodes.TOKEN_ALREADY_USE.getValue(),
+                  ErrorResponseUtil.ErrorCodes.INVALID_TOKEN.getValue(),
                   response);
+
               errorBean = new ErrorBean();
-              errorBean.setCode(HttpStatus.FORBIDDEN.value());
-              errorBean.setMessage(ErrorResponseUtil.ErrorCodes.TOKEN_ALREADY_USE.getValue());
-              return new ResponseEntity<>(errorBean, HttpStatus.FORBIDDEN);
+              errorBean.setCode(HttpStatus.BAD_REQUEST.value());
+              errorBean.setMessage(ErrorResponseUtil.ErrorCodes.INVALID_TOKEN.getValue());
+
+              enrollAuditEventHelper.logEvent(PARTICIPANT_ID_NOT_RECEIVED, auditRequest);
+
+              return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
             }
           } else {
             errorBean = new ErrorBean();
@@ -238,11 +236,7 @@ public class EnrollmentTokenController {
           }
           respBean =
               enrollmentTokenfService.enrollParticipant(
-                  enrollmentBean.getStudyId(),
-                  tokenValue,
-                  userId,
-                  studyDetails.getVersion(),
-                  auditRequest);
+                  studyDetails, tokenValue, userId, auditRequest);
           if (respBean != null) {
             respBean.setCode(ErrorCode.EC_200.code());
             respBean.setMessage(MyStudiesUserRegUtil.ErrorCodes.SUCCESS.getValue().toLowerCase());
@@ -15,6 +15,7 @@ import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
 import java.util.List;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import org.hibernate.Session;
@@ -46,6 +47,7 @@ public class CommonDaoImpl implements CommonDao {
     criteriaBuilder = session.getCriteriaBuilder();
     userDetailsCriteriaQuery = criteriaBuilder.createQuery(UserDetailsEntity.class);
     userDetailsEntityRoot = userDetailsCriteriaQuery.from(UserDetailsEntity.class);
+    userDetailsEntityRoot.fetch("app", JoinType.LEFT);
     userDetailspredicates[0] =
         criteriaBuilder.equal(userDetailsEntityRoot.get(AppConstants.USER_ID), userId);
     userDetailsCriteriaQuery.select(userDetailsEntityRoot).where(userDetailspredicates);
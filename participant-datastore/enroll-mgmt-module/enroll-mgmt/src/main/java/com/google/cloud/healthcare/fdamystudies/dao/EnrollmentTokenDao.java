@@ -24,8 +24,22 @@ public interface EnrollmentTokenDao {
 
   public boolean enrollmentTokenRequired(String shortName);
 
+  /**
+   * Reads the invitation of the token, or of the user for an open study, with its site and its
+   * participant. For a token the checks of hasParticipant and isValidStudyToken are applied to the
+   * row read, an invalid token fails with an {@link
+   * com.google.cloud.healthcare.fdamystudies.exceptions.ErrorCodeException}.
+   */
+  public Object[] findEnrollment(
+      StudyEntity studyEntity,
+      @Nullable String tokenValue,
+      UserDetailsEntity userDetailsEntity,
+      boolean isTokenRequired);
+
+  /** Enrolls the user with the invitation, site and participant read by findEnrollment. */
   public EnrollmentResponseBean enrollParticipant(
-      String shortName,
+      StudyEntity studyEntity,
+      Object[] enrollment,
       @Nullable String tokenValue,
       UserDetailsEntity userDetailsEntity,
       boolean isTokenRequired,
@@ -20,8 +20,6 @@ import com.google.cloud.healthcare.fdamystudies.model.ParticipantStudyEntity;
 import com.google.cloud.healthcare.fdamystudies.model.SiteEntity;
 import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import com.google.cloud.healthcare.fdamystudies.model.UserDetailsEntity;
-import com.google.cloud.healthcare.fdamystudies.repository.ParticipantEnrollmentHistoryRepository;
-import com.google.cloud.healthcare.fdamystudies.repository.ParticipantRegistrySiteRepository;
 import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
 import java.sql.Timestamp;
 import java.time.Instant;
@@ -31,7 +29,6 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import javax.validation.constraints.NotNull;
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -47,10 +44,6 @@ public class EnrollmentTokenDaoImpl implements EnrollmentTokenDao {
 
   @Autowired private SessionFactory sessionFactory;
 
-  @Autowired private ParticipantRegistrySiteRepository participantRegistrySiteRepository;
-
-  @Autowired private ParticipantEnrollmentHistoryRepository participantEnrollmentHistoryRepository;
-
   @Override
   public StudyEntity getStudyDetails(String studyId) {
     logger.info("EnrollmentTokenDaoImpl studyExists() - Started ");
@@ -167,192 +160,155 @@ public class EnrollmentTokenDaoImpl implements EnrollmentTokenDao {
     return isTokenRequired;
   }
 
-  @SuppressWarnings("unchecked")
   @Override
-  public EnrollmentResponseBean enrollParticipant(
-      String studyId,
+  public Object[] findEnrollment(
+      StudyEntity studyEntity,
       String tokenValue,
       UserDetailsEntity userDetail,
-      boolean isTokenRequired,
-      String participantid) {
-    logger.info("EnrollmentTokenDaoImpl enrollParticipant() - Started ");
-    CriteriaBuilder criteriaBuilder = null;
-    CriteriaQuery<StudyEntity> studyEntityCriteria = null;
-    Root<StudyEntity> studyEntityRoot = null;
-    Predicate[] predicates = new Predicate[1];
-    List<StudyEntity> studyList = null;
-    StudyEntity studyEntity = null;
+      boolean isTokenRequired) {
+    logger.info("EnrollmentTokenDaoImpl findEnrollment() - Started ");
+    Session session = this.sessionFactory.getCurrentSession();
+    Object[] enrollment = null;
+
+    if (isTokenRequired) {
+      enrollment =
+          session
+              .createQuery(
+                  "select PR, S, PS from ParticipantRegistrySiteEntity PR join PR.site S"
+                      + " left join ParticipantStudyEntity PS on PS.participantRegistrySite = PR"
+                      + " and PS.study = :study"
+                      + " where PR.study = :study and upper(trim(PR.enrollmentToken)) = :token",
+                  Object[].class)
+              .setParameter("study", studyEntity)
+              .setParameter("token", tokenValue)
+              .setMaxResults(1)
+              .uniqueResult();
+      validateInvitation(enrollment, userDetail);
+    } else {
+      enrollment =
+          session
+              .createQuery(
+                  "select PR, S, PS from SiteEntity S"
+                      + " left join ParticipantRegistrySiteEntity PR on PR.study = S.study"
+                      + " and PR.email = :email"
+                      + " left join ParticipantStudyEntity PS on PS.study = S.study"
+                      + " and PS.userDetails = :userDetails"
+                      + " where S.study = :study",
+                  Object[].class)
+              .setParameter("study", studyEntity)
+              .setParameter("email", userDetail.getEmail())
+              .setParameter("userDetails", userDetail)
+              .setMaxResults(1)
+              .uniqueResult();
+      if (enrollment == null) {
+        throw new ErrorCodeException(ErrorCode.SITE_NOT_FOUND);
+      }
+    }
 
-    CriteriaQuery<ParticipantRegistrySiteEntity> participantRegistryCriteria = null;
-    Root<ParticipantRegistrySiteEntity> participantRegistryRoot = null;
-    Predicate[] participantRegistryPredicates = new Predicate[1];
-    List<ParticipantRegistrySiteEntity> participantRegistryList = null;
+    logger.info("EnrollmentTokenDaoImpl findEnrollment() - Ends ");
+    return enrollment;
+  }
 
-    List<SiteEntity> sitesList = null;
-    SiteEntity siteEntity = null;
-    String countAddParticipant = String.valueOf(0);
+  /**
+   * The checks of hasParticipant and isValidStudyToken, applied to the invitation read with its
+   * site and participant.
+   */
+  private void validateInvitation(Object[] enrollment, UserDetailsEntity userDetail) {
+    if (enrollment == null) {
+      throw new ErrorCodeException(ErrorCode.INVALID_ENROLLMENT_TOKEN);
+    }
 
-    CriteriaQuery<ParticipantStudyEntity> criteriaQuery = null;
-    Root<ParticipantStudyEntity> root = null;
-    Predicate[] participantPredicates = new Predicate[2];
-    List<ParticipantStudyEntity> participantStudiesList = null;
+    ParticipantRegistrySiteEntity participantRegistrySite =
+        (ParticipantRegistrySiteEntity) enrollment[0];
+    if (participantRegistrySite.isEnrollmentTokenUsed() && enrollment[2] != null) {
+      throw new ErrorCodeException(ErrorCode.ENROLLMENT_TOKEN_ALREADY_USED);
+    }
 
-    CriteriaQuery<SiteEntity> siteCriteria = null;
-    Root<SiteEntity> siteRoot = null;
-    Predicate[] sitePredicates = new Predicate[1];
-    List<SiteEntity> siteList = null;
-    SiteEntity site = null;
+    if (!StringUtils.equalsIgnoreCase(participantRegistrySite.getEmail(), userDetail.getEmail())
+        || OnboardingStatus.NEW.getCode().equals(participantRegistrySite.getOnboardingStatus())) {
+      throw new ErrorCodeException(ErrorCode.INVALID_ENROLLMENT_TOKEN);
+    }
 
-    ParticipantStudyEntity participants = null;
-    ParticipantRegistrySiteEntity participantregistrySite = null;
-    EnrollmentResponseBean participantBeans = new EnrollmentResponseBean();
-    boolean isUpdated = false;
-    String countAddregistry = "";
+    Timestamp now = new Timestamp(Instant.now().toEpochMilli());
+    if (OnboardingStatus.DISABLED.getCode().equals(participantRegistrySite.getOnboardingStatus())
+        || now.after(participantRegistrySite.getEnrollmentTokenExpiry())) {
+      throw new ErrorCodeException(ErrorCode.TOKEN_EXPIRED);
+    }
+  }
+
+  @Override
+  public EnrollmentResponseBean enrollParticipant(
+      StudyEntity studyEntity,
+      Object[] enrollment,
+      String tokenValue,
+      UserDetailsEntity userDetail,
+      boolean isTokenRequired,
+      String participantid) {
+    logger.info("EnrollmentTokenDaoImpl enrollParticipant() - Started ");
     Session session = this.sessionFactory.getCurrentSession();
-    criteriaBuilder = session.getCriteriaBuilder();
-    studyEntityCriteria = criteriaBuilder.createQuery(StudyEntity.class);
-    studyEntityRoot = studyEntityCriteria.from(StudyEntity.class);
-    predicates[0] = criteriaBuilder.equal(studyEntityRoot.get("customId"), studyId);
-    studyEntityCriteria.select(studyEntityRoot).where(predicates);
-    studyList = session.createQuery(studyEntityCriteria).getResultList();
-    if (!studyList.isEmpty()) {
-      studyEntity = studyList.get(0);
-      if (isTokenRequired) {
-        participantRegistryCriteria =
-            criteriaBuilder.createQuery(ParticipantRegistrySiteEntity.class);
-        participantRegistryRoot =
-            participantRegistryCriteria.from(ParticipantRegistrySiteEntity.class);
-        participantRegistryPredicates[0] =
-            criteriaBuilder.equal(
-                criteriaBuilder.upper(
-                    criteriaBuilder.trim(participantRegistryRoot.get("enrollmentToken"))),
-                tokenValue);
-        participantRegistryCriteria
-            .select(participantRegistryRoot)
-            .where(participantRegistryPredicates);
-        participantRegistryList = session.createQuery(participantRegistryCriteria).getResultList();
-        if (!participantRegistryList.isEmpty()) {
-          participantregistrySite = participantRegistryList.get(0);
-
-          siteList =
-              session
-                  .createQuery("from SiteEntity where id =:Id")
-                  .setParameter("Id", participantregistrySite.getSite().getId())
-                  .getResultList();
-          if (!siteList.isEmpty()) {
-            siteEntity = siteList.get(0);
-            criteriaQuery = criteriaBuilder.createQuery(ParticipantStudyEntity.class);
-            root = criteriaQuery.from(ParticipantStudyEntity.class);
-            participantPredicates[0] =
-                criteriaBuilder.equal(root.get("participantRegistrySite"), participantregistrySite);
-            participantPredicates[1] = criteriaBuilder.equal(root.get("study"), studyEntity);
-            criteriaQuery.select(root).where(participantPredicates);
-            participantStudiesList = session.createQuery(criteriaQuery).getResultList();
-            if (!participantStudiesList.isEmpty()) {
-              participants = participantStudiesList.get(0);
-              participants.setSite(siteEntity);
-              participants.setStudy(studyEntity);
-              participants.setParticipantId(participantid);
-              participants.setUserDetails(userDetail);
-              participants.setParticipantRegistrySite(participantregistrySite);
-              participants.setStatus(EnrollmentStatus.ENROLLED.getStatus());
-              participants.setEnrolledDate(Timestamp.from(Instant.now()));
-              participants.setWithdrawalDate(null);
-              session.update(participants);
-              countAddParticipant = String.valueOf(1);
-            } else {
-              participants = new ParticipantStudyEntity();
-              participants.setSite(siteEntity);
-              participants.setStudy(studyEntity);
-              participants.setParticipantId(participantid);
-              participants.setUserDetails(userDetail);
-              participants.setParticipantRegistrySite(participantregistrySite);
-              participants.setStatus(EnrollmentStatus.ENROLLED.getStatus());
-              participants.setEnrolledDate(Timestamp.from(Instant.now()));
-              countAddParticipant = (String) session.save(participants);
-            }
-            if (StringUtils.isNotEmpty(countAddParticipant)) {
-              isUpdated = true;
-              participantregistrySite.setEnrollmentTokenUsed(true);
-              participantRegistrySiteRepository.saveAndFlush(participantregistrySite);
-            }
-          }
-        }
-        if ((StringUtils.isNotEmpty(countAddParticipant) && isUpdated)) {
-          participantBeans.setAppToken(participantid);
-          participantBeans.setSiteId(participants.getSite().getId());
-        }
-      } else {
-        List<ParticipantRegistrySiteEntity> participantList =
-            participantRegistrySiteRepository.findByStudyIdAndEmail(
-                studyEntity.getId(), userDetail.getEmail());
-
-        participantregistrySite =
-            CollectionUtils.isEmpty(participantList)
-                ? new ParticipantRegistrySiteEntity()
-                : participantList.get(0);
-
-        participantregistrySite.setEnrollmentToken(tokenValue);
-        participantregistrySite.setEnrollmentTokenUsed(true);
-
-        siteCriteria = criteriaBuilder.createQuery(SiteEntity.class);
-        siteRoot = siteCriteria.from(SiteEntity.class);
-        sitePredicates[0] = criteriaBuilder.equal(siteRoot.get("study"), studyEntity);
-        siteCriteria.select(siteRoot).where(sitePredicates);
-        siteList = session.createQuery(siteCriteria).getResultList();
-        if (!siteList.isEmpty()) {
-          site = siteList.get(0);
-          participantregistrySite.setSite(site);
-        }
-
-        participantregistrySite.setInvitationDate(Timestamp.from(Instant.now()));
-        participantregistrySite.setEmail(userDetail.getEmail());
-        participantregistrySite.setOnboardingStatus(OnboardingStatus.INVITED.getCode());
-        participantregistrySite.setStudy(studyEntity);
-        countAddregistry = (String) session.save(participantregistrySite);
-
-        criteriaQuery = criteriaBuilder.createQuery(ParticipantStudyEntity.class);
-        root = criteriaQuery.from(ParticipantStudyEntity.class);
-        participantPredicates[0] = criteriaBuilder.equal(root.get("userDetails"), userDetail);
-        participantPredicates[1] = criteriaBuilder.equal(root.get("study"), studyEntity);
-        criteriaQuery.select(root).where(participantPredicates);
-        participantStudiesList = session.createQuery(criteriaQuery).getResultList();
-
-        if (!participantStudiesList.isEmpty()) {
-          participants = participantStudiesList.get(0);
-          participants.setStudy(studyEntity);
-          participants.setParticipantId(participantid);
-          participants.setUserDetails(userDetail);
-          participants.setParticipantRegistrySite(participantregistrySite);
-          participants.setStatus(EnrollmentStatus.ENROLLED.getStatus());
-          participants.setEnrolledDate(Timestamp.from(Instant.now()));
-          participants.setSite(site);
-          participants.setWithdrawalDate(null);
-          session.update(participants);
-          countAddParticipant = String.valueOf(1);
-        } else {
-          participants = new ParticipantStudyEntity();
-          participants.setSite(site);
-          participants.setStudy(studyEntity);
-          participants.setParticipantId(participantid);
-          participants.setUserDetails(userDetail);
-          participants.setParticipantRegistrySite(participantregistrySite);
-          participants.setStatus(EnrollmentStatus.ENROLLED.getStatus());
-          participants.setEnrolledDate(Timestamp.from(Instant.now()));
-          countAddParticipant = (String) session.save(participants);
-        }
-
-        if (StringUtils.isNotEmpty(countAddParticipant) || !StringUtils.isEmpty(countAddregistry)) {
-          participantBeans.setAppToken(participantid);
-          participantBeans.setSiteId(site.getId());
-        }
+    ParticipantRegistrySiteEntity participantregistrySite = null;
+    ParticipantStudyEntity participants = null;
+    SiteEntity site = null;
+
+    if (isTokenRequired) {
+      // the token is redeemed with a conditional update, so that of two concurrent enrollments
+      // with the same token only one finds it unused and the other one is rolled back
+      int redeemed =
+          session
+              .createQuery(
+                  "update ParticipantRegistrySiteEntity set enrollmentTokenUsed = true"
+                      + " where study.id = :studyId and upper(trim(enrollmentToken)) = :token"
+                      + " and enrollmentTokenUsed = false")
+              .setParameter("studyId", studyEntity.getId())
+              .setParameter("token", tokenValue)
+              .executeUpdate();
+      if (redeemed == 0) {
+        throw new ErrorCodeException(ErrorCode.ENROLLMENT_TOKEN_ALREADY_USED);
+      }
+      participantregistrySite = (ParticipantRegistrySiteEntity) enrollment[0];
+    } else {
+      participantregistrySite =
+          enrollment[0] == null
+              ? new ParticipantRegistrySiteEntity()
+              : (ParticipantRegistrySiteEntity) enrollment[0];
+      participantregistrySite.setEnrollmentToken(tokenValue);
+      participantregistrySite.setEnrollmentTokenUsed(true);
+      participantregistrySite.setSite((SiteEntity) enrollment[1]);
+      participantregistrySite.setInvitationDate(Timestamp.from(Instant.now()));
+      participantregistrySite.setEmail(userDetail.getEmail());
+      participantregistrySite.setOnboardingStatus(OnboardingStatus.INVITED.getCode());
+      participantregistrySite.setStudy(studyEntity);
+      if (enrollment[0] == null) {
+        session.save(participantregistrySite);
       }
     }
 
+    site = (SiteEntity) enrollment[1];
+    participants =
+        enrollment[2] == null
+            ? new ParticipantStudyEntity()
+            : (ParticipantStudyEntity) enrollment[2];
+    participants.setSite(site);
+    participants.setStudy(studyEntity);
+    participants.setParticipantId(participantid);
+    participants.setUserDetails(userDetail);
+    participants.setParticipantRegistrySite(participantregistrySite);
+    participants.setStatus(EnrollmentStatus.ENROLLED.getStatus());
+    participants.setEnrolledDate(Timestamp.from(Instant.now()));
+    participants.setWithdrawalDate(null);
+    if (enrollment[2] == null) {
+      session.save(participants);
+    }
+
+    // the rows are written together when the transaction flushes, in JDBC batches
     ParticipantEnrollmentHistoryEntity participantStatusHistoryEntity =
         ParticipantStatusHistoryMapper.toParticipantStatusHistoryEntity(
             participantregistrySite, EnrollmentStatus.ENROLLED, userDetail);
-    participantEnrollmentHistoryRepository.save(participantStatusHistoryEntity);
+    session.save(participantStatusHistoryEntity);
+
+    EnrollmentResponseBean participantBeans = new EnrollmentResponseBean();
+    participantBeans.setAppToken(participantid);
+    participantBeans.setSiteId(site.getId());
     logger.info("EnrollmentTokenDaoImpl enrollParticipant() - Ends ");
     return participantBeans;
   }
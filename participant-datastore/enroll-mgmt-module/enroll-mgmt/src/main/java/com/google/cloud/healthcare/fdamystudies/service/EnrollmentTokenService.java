@@ -24,10 +24,14 @@ public interface EnrollmentTokenService {
 
   public boolean enrollmentTokenRequired(String shortName);
 
+  /**
+   * Checks the token of a closed study and enrolls the user in one transaction, with the study the
+   * caller already read. An invalid token fails with an {@link
+   * com.google.cloud.healthcare.fdamystudies.exceptions.ErrorCodeException}.
+   */
   public EnrollmentResponseBean enrollParticipant(
-      String shortName,
+      StudyEntity studyEntity,
       @Nullable String tokenValue,
       String userId,
-      Float studyVersion,
       AuditLogEventRequest auditRequest);
 }
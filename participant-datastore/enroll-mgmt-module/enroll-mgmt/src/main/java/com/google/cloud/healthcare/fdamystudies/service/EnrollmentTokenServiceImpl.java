@@ -8,12 +8,17 @@
 
 package com.google.cloud.healthcare.fdamystudies.service;
 
+import static com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEvent.USER_FOUND_ELIGIBLE_FOR_STUDY;
+
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.EnrollmentResponseBean;
+import com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEventHelper;
 import com.google.cloud.healthcare.fdamystudies.dao.EnrollmentTokenDao;
 import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import com.google.cloud.healthcare.fdamystudies.model.UserDetailsEntity;
+import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.util.EnrollmentManagementUtil;
+import java.util.Collections;
 import javax.validation.constraints.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +35,10 @@ public class EnrollmentTokenServiceImpl implements EnrollmentTokenService {
 
   @Autowired CommonService commonService;
 
+  @Autowired SiteParticipantCountService siteParticipantCountService;
+
+  @Autowired EnrollAuditEventHelper enrollAuditEventHelper;
+
   private static final Logger logger = LoggerFactory.getLogger(EnrollmentTokenServiceImpl.class);
 
   @Override
@@ -74,26 +83,41 @@ public class EnrollmentTokenServiceImpl implements EnrollmentTokenService {
   @Override
   @Transactional
   public EnrollmentResponseBean enrollParticipant(
-      String shortName,
+      StudyEntity studyEntity,
       String tokenValue,
       String userId,
-      Float studyVersion,
       AuditLogEventRequest auditRequest) {
     logger.info("EnrollmentTokenServiceImpl enrollParticipant() - Starts ");
-    boolean isTokenRequired = enrollmentTokenDao.enrollmentTokenRequired(shortName);
+    boolean isTokenRequired = AppConstants.CLOSE_STUDY.equalsIgnoreCase(studyEntity.getType());
+    UserDetailsEntity userDetails = commonService.getUserInfoDetails(userId);
+    Object[] enrollment =
+        enrollmentTokenDao.findEnrollment(
+            studyEntity, tokenValue.toUpperCase(), userDetails, isTokenRequired);
+    if (isTokenRequired) {
+      enrollAuditEventHelper.logEvent(USER_FOUND_ELIGIBLE_FOR_STUDY, auditRequest);
+    }
+
     String hashedTokenValue = EnrollmentManagementUtil.getHashedValue(tokenValue.toUpperCase());
     String participantId =
-        enrollUtil.getParticipantId("", hashedTokenValue, shortName, studyVersion, auditRequest);
+        enrollUtil.getParticipantId(
+            "",
+            hashedTokenValue,
+            studyEntity.getCustomId(),
+            studyEntity.getVersion(),
+            auditRequest);
     EnrollmentResponseBean participantBean =
         enrollmentTokenDao.enrollParticipant(
-            shortName,
+            studyEntity,
+            enrollment,
             tokenValue.toUpperCase(),
-            commonService.getUserInfoDetails(userId),
+            userDetails,
             isTokenRequired,
             participantId);
     if (participantBean != null) {
       participantBean.setHashedToken(hashedTokenValue);
       participantBean.setParticipantId(participantId);
+      siteParticipantCountService.recountAfterCommit(
+          Collections.singletonList(participantBean.getSiteId()));
     }
     logger.info("EnrollmentTokenServiceImpl enrollParticipant() - Ends ");
     return participantBean;
@@ -42,6 +42,7 @@ import com.google.cloud.healthcare.fdamystudies.util.MyStudiesUserRegUtil;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -84,6 +85,8 @@ public class StudyStateServiceImpl implements StudyStateService {
 
   @Autowired private StudyRepository studyRepository;
 
+  @Autowired private SiteParticipantCountService siteParticipantCountService;
+
   @Override
   @Transactional(readOnly = true)
   public List<ParticipantStudyEntity> getParticipantStudiesList(
@@ -293,6 +296,8 @@ public class StudyStateServiceImpl implements StudyStateService {
 
       participantStudy.get().setParticipantId(null);
       participantStudyRepository.saveAndFlush(participantStudy.get());
+      siteParticipantCountService.recountAfterCommit(
+          Collections.singletonList(participantStudy.get().getSite().getId()));
 
       enrollUtil.withDrawParticipantFromStudy(
           participantId, participantStudy.get().getStudy().getVersion(), studyId, auditRequest);
@@ -8,12 +8,19 @@
 
 package com.google.cloud.healthcare.fdamystudies.controller.tests;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.matchingJsonPath;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEvent.ENROLLMENT_TOKEN_FOUND_INVALID;
 import static com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEvent.PARTICIPANT_ID_RECEIVED;
 import static com.google.cloud.healthcare.fdamystudies.common.EnrollAuditEvent.USER_FOUND_ELIGIBLE_FOR_STUDY;
+import static com.google.cloud.healthcare.fdamystudies.common.ErrorCode.ENROLLMENT_TOKEN_ALREADY_USED;
 import static com.google.cloud.healthcare.fdamystudies.common.ErrorCode.TOKEN_EXPIRED;
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -21,33 +28,58 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.stubbing.StubMapping;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.EnrollmentBean;
+import com.google.cloud.healthcare.fdamystudies.beans.EnrollmentResponseBean;
 import com.google.cloud.healthcare.fdamystudies.common.ApiEndpoint;
 import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.common.IdGenerator;
 import com.google.cloud.healthcare.fdamystudies.common.OnboardingStatus;
 import com.google.cloud.healthcare.fdamystudies.controller.EnrollmentTokenController;
+import com.google.cloud.healthcare.fdamystudies.exceptions.ErrorCodeException;
 import com.google.cloud.healthcare.fdamystudies.model.ParticipantRegistrySiteEntity;
 import com.google.cloud.healthcare.fdamystudies.model.ParticipantStudyEntity;
+import com.google.cloud.healthcare.fdamystudies.model.UserDetailsEntity;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantRegistrySiteRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantStudyRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.UserDetailsRepository;
 import com.google.cloud.healthcare.fdamystudies.service.EnrollmentTokenService;
 import com.google.cloud.healthcare.fdamystudies.testutils.Constants;
 import com.google.cloud.healthcare.fdamystudies.testutils.TestUtils;
+import com.google.cloud.healthcare.fdamystudies.util.EnrollmentManagementUtil;
 import com.google.cloud.healthcare.fdamystudies.util.ErrorResponseUtil.ErrorCodes;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.apache.commons.collections4.map.HashedMap;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 
 public class EnrollmentTokenControllerTest extends BaseMockIT {
 
+  private XLogger logger = XLoggerFactory.getXLogger(EnrollmentTokenControllerTest.class.getName());
+
   @Autowired private EnrollmentTokenController controller;
   @Autowired private EnrollmentTokenService enrollmentTokenService;
 
@@ -57,6 +89,10 @@ public class EnrollmentTokenControllerTest extends BaseMockIT {
 
   @Autowired private ParticipantStudyRepository participantStudyRepository;
 
+  @Autowired private UserDetailsRepository userDetailsRepository;
+
+  @Autowired private SessionFactory sessionFactory;
+
   protected ObjectMapper getObjectMapper() {
     return objectMapper;
   }
@@ -611,6 +647,255 @@ public class EnrollmentTokenControllerTest extends BaseMockIT {
     verifyTokenIntrospectRequest(2);
   }
 
+  @Test
+  public void shouldRedeemEnrollmentTokenOnce() throws Exception {
+    // Step 1: invite a participant and let several enrollments race for the token
+    UserDetailsEntity user = newUser("race@gf.com");
+    ParticipantRegistrySiteEntity invitation = newInvitation("RACE0001", user.getEmail());
+    StubMapping participantIdStub = stubParticipantId(invitation.getEnrollmentToken(), "race-1");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+      List<Future<EnrollmentResponseBean>> enrollments = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        enrollments.add(
+            executor.submit(() -> enroll(invitation.getEnrollmentToken(), user.getUserId())));
+      }
+
+      // Step 2: verify only one enrollment redeemed the token
+      int enrolled = 0;
+      for (Future<EnrollmentResponseBean> enrollment : enrollments) {
+        try {
+          assertNotNull(enrollment.get().getAppToken());
+          enrolled++;
+        } catch (ExecutionException e) {
+          // the other enrollments find the token redeemed and are rolled back
+          assertTrue(e.getCause() instanceof ErrorCodeException);
+          assertEquals(
+              ENROLLMENT_TOKEN_ALREADY_USED, ((ErrorCodeException) e.getCause()).getErrorCode());
+        }
+      }
+      assertEquals(1, enrolled);
+      assertEquals(
+          1, participantStudyRepository.findParticipantsEnrollment(invitation.getId()).size());
+      assertTrue(
+          participantRegistrySiteRepository
+              .findById(invitation.getId())
+              .get()
+              .isEnrollmentTokenUsed());
+    } finally {
+      executor.shutdownNow();
+      getWireMockServer().removeStub(participantIdStub);
+      deleteEnrollments(Collections.singletonList(invitation), Collections.singletonList(user));
+    }
+  }
+
+  @Test
+  public void shouldEnrollBurstOfParticipantsInFewStatements() throws Exception {
+    // Step 1: invite the participants of a recruitment email
+    int participants = 40;
+    List<UserDetailsEntity> users = new ArrayList<>();
+    List<ParticipantRegistrySiteEntity> invitations = new ArrayList<>();
+    List<StubMapping> participantIdStubs = new ArrayList<>();
+    for (int i = 0; i < participants; i++) {
+      String token = String.format("BURST%03d", i);
+      users.add(newUser(String.format("burst%03d@gf.com", i)));
+      invitations.add(newInvitation(token, users.get(i).getEmail()));
+      participantIdStubs.add(stubParticipantId(token, "burst-" + i));
+    }
+
+    Statistics statistics = sessionFactory.getStatistics();
+    statistics.setStatisticsEnabled(true);
+    statistics.clear();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+      // Step 2: enroll them all at once through the enroll API
+      List<Future<Long>> enrollments = new ArrayList<>();
+      for (int i = 0; i < participants; i++) {
+        String token = invitations.get(i).getEnrollmentToken();
+        String userId = users.get(i).getUserId();
+        enrollments.add(
+            executor.submit(
+                () -> {
+                  long start = System.nanoTime();
+                  enrollThroughApi(token, userId);
+                  return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }));
+      }
+      List<Long> latencies = new ArrayList<>();
+      for (Future<Long> enrollment : enrollments) {
+        latencies.add(enrollment.get());
+      }
+
+      // Step 3: verify each participant was enrolled with a few reads and one batched write
+      Collections.sort(latencies);
+      long p99 = latencies.get((int) Math.ceil(latencies.size() * 0.99) - 1);
+      double statementsPerEnrollment =
+          (double) statistics.getPrepareStatementCount() / participants;
+      logger.info(
+          String.format(
+              "%d concurrent enrollments, %.1f statements per enrollment, p99 %d ms",
+              participants, statementsPerEnrollment, p99));
+
+      // study, user details, invitation with its site and participant, token redemption, and
+      // the two inserts, then the recount of the site counters after the commit
+      assertTrue(statementsPerEnrollment <= 8);
+      for (ParticipantRegistrySiteEntity invitation : invitations) {
+        assertEquals(
+            1, participantStudyRepository.findParticipantsEnrollment(invitation.getId()).size());
+      }
+    } finally {
+      executor.shutdownNow();
+      statistics.setStatisticsEnabled(false);
+      participantIdStubs.forEach(getWireMockServer()::removeStub);
+      deleteEnrollments(invitations, users);
+    }
+  }
+
+  @Test
+  public void shouldRecountSiteParticipantsAfterEnrollment() throws Exception {
+    UserDetailsEntity user = newUser("recount@gf.com");
+    ParticipantRegistrySiteEntity invitation = newInvitation("RECOUNT1", user.getEmail());
+    StubMapping participantIdStub = stubParticipantId(invitation.getEnrollmentToken(), "recount-1");
+    String siteId = invitation.getSite().getId();
+
+    try {
+      enroll(invitation.getEnrollmentToken(), user.getUserId());
+
+      // the counter row of the site is up to date once the enrollment is committed
+      try (Session session = sessionFactory.openSession()) {
+        Number enrolledCount =
+            (Number)
+                session
+                    .createNativeQuery(
+                        "SELECT enrolled_count FROM site_participant_counts WHERE site_id=:siteId")
+                    .setParameter("siteId", siteId)
+                    .uniqueResult();
+        Number enrolledParticipants =
+            (Number)
+                session
+                    .createNativeQuery(
+                        "SELECT COUNT(*) FROM participant_study_info "
+                            + "WHERE site_id=:siteId AND status='enrolled'")
+                    .setParameter("siteId", siteId)
+                    .uniqueResult();
+        assertNotNull(enrolledCount);
+        assertTrue(enrolledParticipants.intValue() > 0);
+        assertEquals(enrolledParticipants.intValue(), enrolledCount.intValue());
+      }
+    } finally {
+      getWireMockServer().removeStub(participantIdStub);
+      deleteEnrollments(Collections.singletonList(invitation), Collections.singletonList(user));
+    }
+  }
+
+  private UserDetailsEntity newUser(String email) {
+    // a copy of the user of the other enrollments, under its own id and email
+    UserDetailsEntity userDetails =
+        userDetailsRepository.findByUserId(Constants.VALID_USER_ID).get();
+    UserDetailsEntity user = new UserDetailsEntity();
+    user.setUserId(IdGenerator.id());
+    user.setApp(userDetails.getApp());
+    user.setEmail(email);
+    user.setStatus(userDetails.getStatus());
+    user.setFirstName(userDetails.getFirstName());
+    user.setLastName(userDetails.getLastName());
+    return userDetailsRepository.saveAndFlush(user);
+  }
+
+  /**
+   * Deletes the rows written by the enrollments of the invitations and the users, with plain
+   * statements so that no cascade reaches the study or the app.
+   */
+  private void deleteEnrollments(
+      List<ParticipantRegistrySiteEntity> invitations, List<UserDetailsEntity> users) {
+    List<String> invitationIds =
+        invitations.stream().map(ParticipantRegistrySiteEntity::getId).collect(Collectors.toList());
+    List<String> userIds =
+        users.stream().map(UserDetailsEntity::getId).collect(Collectors.toList());
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      session
+          .createNativeQuery(
+              "DELETE FROM participant_enrollment_history "
+                  + "WHERE participant_registry_site_id IN (:ids)")
+          .setParameterList("ids", invitationIds)
+          .executeUpdate();
+      session
+          .createNativeQuery(
+              "DELETE FROM participant_study_info WHERE participant_registry_site_id IN (:ids)")
+          .setParameterList("ids", invitationIds)
+          .executeUpdate();
+      session
+          .createNativeQuery("DELETE FROM participant_registry_site WHERE id IN (:ids)")
+          .setParameterList("ids", invitationIds)
+          .executeUpdate();
+      session
+          .createNativeQuery("DELETE FROM user_details WHERE id IN (:ids)")
+          .setParameterList("ids", userIds)
+          .executeUpdate();
+      transaction.commit();
+    }
+  }
+
+  private ParticipantRegistrySiteEntity newInvitation(String token, String email) {
+    // a copy of the invitation of the close study
+    ParticipantRegistrySiteEntity participantRegistrySite =
+        participantRegistrySiteRepository.findById("37").get();
+    ParticipantRegistrySiteEntity invitation = new ParticipantRegistrySiteEntity();
+    invitation.setSite(participantRegistrySite.getSite());
+    invitation.setStudy(participantRegistrySite.getStudy());
+    invitation.setEmail(email);
+    invitation.setOnboardingStatus(OnboardingStatus.INVITED.getCode());
+    invitation.setInvitationDate(Timestamp.from(Instant.now()));
+    invitation.setEnrollmentToken(token);
+    invitation.setEnrollmentTokenUsed(false);
+    invitation.setEnrollmentTokenExpiry(
+        new Timestamp(Instant.now().plus(1, ChronoUnit.DAYS).toEpochMilli()));
+    return participantRegistrySiteRepository.saveAndFlush(invitation);
+  }
+
+  private StubMapping stubParticipantId(String token, String participantId) {
+    return getWireMockServer()
+        .stubFor(
+            WireMock.post(urlEqualTo("/response-datastore/participant/add"))
+                .withRequestBody(
+                    matchingJsonPath(
+                        "$.tokenIdentifier",
+                        equalTo(EnrollmentManagementUtil.getHashedValue(token))))
+                .atPriority(1)
+                .willReturn(
+                    aResponse()
+                        .withStatus(HttpStatus.OK.value())
+                        .withHeader(HttpHeaders.CONTENT_TYPE, "application/json;charset=UTF-8")
+                        .withBody(participantId)));
+  }
+
+  private EnrollmentResponseBean enroll(String token, String userId) {
+    AuditLogEventRequest auditRequest = new AuditLogEventRequest();
+    auditRequest.setUserId(userId);
+    return enrollmentTokenService.enrollParticipant(
+        enrollmentTokenService.getStudyDetails(Constants.STUDYOF_HEALTH_CLOSE),
+        token,
+        userId,
+        auditRequest);
+  }
+
+  private void enrollThroughApi(String token, String userId) throws Exception {
+    HttpHeaders headers = TestUtils.getCommonHeaders();
+    headers.add(Constants.USER_ID_HEADER, userId);
+    headers.add("Authorization", VALID_BEARER_TOKEN);
+
+    mockMvc
+        .perform(
+            post(ApiEndpoint.ENROLL_PATH.getPath())
+                .headers(headers)
+                .content(getEnrollmentJson(token, Constants.STUDYOF_HEALTH_CLOSE))
+                .contextPath(getContextPath()))
+        .andExpect(status().isOk());
+  }
+
   private String getEnrollmentJson(String tokenId, String studyId) throws JsonProcessingException {
     EnrollmentBean enrollmentBean = new EnrollmentBean(tokenId, studyId);
     return getObjectMapper().writeValueAsString(enrollmentBean);
@@ -92,6 +92,7 @@ CREATE TABLE IF NOT EXISTS `auth_info` (
   KEY `FK8j1wwvyet40uoxl6qtiygixhk` (`app_info_id`),
   KEY `FKil5ax9t3bmtnmodgajy1c7edk` (`user_details_id`),
   KEY `auth_info_device_type_idx` (`device_type`),
+  KEY `auth_info_app_info_id_device_type_idx` (`app_info_id`,`device_type`,`id`),
   CONSTRAINT `FK8j1wwvyet40uoxl6qtiygixhk` FOREIGN KEY (`app_info_id`) REFERENCES `app_info` (`id`),
   CONSTRAINT `FKil5ax9t3bmtnmodgajy1c7edk` FOREIGN KEY (`user_details_id`) REFERENCES `user_details` (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -164,6 +165,10 @@ CREATE TABLE IF NOT EXISTS `participant_registry_site` (
   KEY `FKa0f0un45iyajvjfqq6ok42lqc` (`site_id`),
   KEY `FKrtseodvj7n9yjtwfqiixtviec` (`study_info_id`),
   KEY `participant_registry_site_site_id_onboarding_status_idx` (`site_id`,`onboarding_status`),
+  KEY `participant_registry_site_site_id_created_time_idx` (`site_id`,`created_time`,`id`),
+  KEY `participant_registry_site_site_id_status_created_time_idx` (`site_id`,`onboarding_status`,`created_time`,`id`),
+  KEY `participant_registry_site_study_info_id_email_idx` (`study_info_id`,`email`,`id`),
+  KEY `participant_registry_site_study_info_id_onboarding_status_idx` (`study_info_id`,`onboarding_status`,`id`),
   CONSTRAINT `FKa0f0un45iyajvjfqq6ok42lqc` FOREIGN KEY (`site_id`) REFERENCES `sites` (`id`),
   CONSTRAINT `FKrtseodvj7n9yjtwfqiixtviec` FOREIGN KEY (`study_info_id`) REFERENCES `study_info` (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -391,6 +396,8 @@ CREATE TABLE IF NOT EXISTS `user_details` (
   PRIMARY KEY (`id`),
   UNIQUE KEY `user_details_user_id_app_info_id_uidx` (`user_id`,`app_info_id`),
   KEY `user_details_email_idx` (`email`),
+  KEY `user_details_app_info_id_email_idx` (`app_info_id`,`email`,`id`),
+  KEY `user_details_app_info_id_status_idx` (`app_info_id`,`status`,`id`),
   KEY `user_details_last_name_idx` (`last_name`),
   KEY `FKo905twpc0drywmf4x5e0io0cn` (`app_info_id`),
   CONSTRAINT `FKo905twpc0drywmf4x5e0io0cn` FOREIGN KEY (`app_info_id`) REFERENCES `app_info` (`id`)
@@ -431,6 +438,7 @@ CREATE TABLE IF NOT EXISTS `invite_participants` (
   `mobile_platform` varchar(255) DEFAULT NULL,
   `source` varchar(255) DEFAULT NULL,
   `user_id` varchar(255) DEFAULT NULL,
+  `claimed_time` datetime DEFAULT NULL,
   PRIMARY KEY (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
@@ -461,6 +469,73 @@ CREATE TABLE IF NOT EXISTS `participant_enrollment_history` (
   CONSTRAINT `FKt54o4s9tiiv74ni6urb8k4fq2` FOREIGN KEY (`site_id`) REFERENCES `sites` (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+DROP TABLE IF EXISTS `site_participant_counts`;
+CREATE TABLE IF NOT EXISTS `site_participant_counts` (
+  `site_id` varchar(255) NOT NULL,
+  `invited_count` bigint(20) NOT NULL DEFAULT '0',
+  `enrolled_count` bigint(20) NOT NULL DEFAULT '0',
+  `updated_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`site_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- The counters are recounted by the participant manager once its onboarding status changes are
+-- committed, and by its reconciliation job for the sites whose counts no longer match, for example
+-- after an enrollment or a withdrawal in the mobile app. They are not maintained by triggers, so
+-- that an import does not lock the row of its site until it commits, and so that the scripts need
+-- neither SUPER nor log_bin_trust_function_creators on a server with binary logging
+
+DROP TABLE IF EXISTS `notification_outbox`;
+CREATE TABLE IF NOT EXISTS `notification_outbox` (
+  `id` varchar(255) NOT NULL,
+  `idempotency_key` varchar(64) NOT NULL,
+  `dedupe_bucket` bigint(20) NOT NULL,
+  `notification_id` int(11) DEFAULT NULL,
+  `app_id` varchar(64) DEFAULT NULL,
+  `study_id` varchar(64) DEFAULT NULL,
+  `custom_study_id` varchar(64) DEFAULT NULL,
+  `notification_type` varchar(32) DEFAULT NULL,
+  `notification_sub_type` varchar(64) DEFAULT NULL,
+  `notification_title` varchar(255) DEFAULT NULL,
+  `notification_text` text,
+  `status` varchar(32) NOT NULL,
+  `attempts` int(11) NOT NULL DEFAULT '0',
+  `next_attempt_time` datetime DEFAULT NULL,
+  `claimed_time` datetime DEFAULT NULL,
+  `delivered_count` int(11) NOT NULL DEFAULT '0',
+  `failed_count` int(11) NOT NULL DEFAULT '0',
+  `last_error` varchar(255) DEFAULT NULL,
+  `correlation_id` varchar(255) DEFAULT NULL,
+  `source` varchar(64) DEFAULT NULL,
+  `user_id` varchar(255) DEFAULT NULL,
+  `app_version` varchar(64) DEFAULT NULL,
+  `mobile_platform` varchar(64) DEFAULT NULL,
+  `created_time` datetime DEFAULT NULL,
+  `updated_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `notification_outbox_status_idx` (`status`,`next_attempt_time`),
+  UNIQUE KEY `notification_outbox_dedupe_uk` (`idempotency_key`,`dedupe_bucket`),
+  KEY `notification_outbox_idempotency_key_idx` (`idempotency_key`,`created_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+DROP TABLE IF EXISTS `notification_delivery`;
+CREATE TABLE IF NOT EXISTS `notification_delivery` (
+  `id` varchar(255) NOT NULL,
+  `notification_outbox_id` varchar(255) NOT NULL,
+  `device_type` varchar(32) NOT NULL,
+  `start_after_id` varchar(255) NOT NULL,
+  `end_id` varchar(255) NOT NULL,
+  `token_count` int(11) NOT NULL DEFAULT '0',
+  `status` varchar(32) NOT NULL,
+  `attempts` int(11) NOT NULL DEFAULT '0',
+  `delivered_count` int(11) NOT NULL DEFAULT '0',
+  `failed_count` int(11) NOT NULL DEFAULT '0',
+  `last_error` varchar(255) DEFAULT NULL,
+  `created_time` datetime DEFAULT NULL,
+  `updated_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `notification_delivery_chunk_uk` (`notification_outbox_id`,`device_type`,`start_after_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
 
 
 /*!40101 SET SQL_MODE=IFNULL(@OLD_SQL_MODE, '') */;
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.beans;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/** Device token of a user's auth_info row, read a page at a time by the push notifications. */
+@Getter
+@AllArgsConstructor
+public class DeviceTokenBean {
+
+  /** Id of the auth_info row, the position of the next page. */
+  private String id;
+
+  private String userDetailsId;
+
+  private String appId;
+
+  private String deviceType;
+
+  private String deviceToken;
+}
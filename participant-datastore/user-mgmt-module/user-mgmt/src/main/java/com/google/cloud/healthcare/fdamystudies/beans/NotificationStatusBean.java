@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.beans;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Getter;
+import lombok.Setter;
+
+/** Delivery status of a queued notification and of the token chunks it was pushed to. */
+@Setter
+@Getter
+public class NotificationStatusBean {
+
+  private String id;
+
+  private Integer notificationId;
+
+  private String appId;
+
+  private String customStudyId;
+
+  private String notificationType;
+
+  private String status;
+
+  private int attempts;
+
+  private Timestamp nextAttemptTime;
+
+  private int deliveredCount;
+
+  private int failedCount;
+
+  private String lastError;
+
+  private Timestamp createdTime;
+
+  private Timestamp updatedTime;
+
+  private List<Delivery> deliveries = new ArrayList<>();
+
+  @Setter
+  @Getter
+  public static class Delivery {
+
+    private String deviceType;
+
+    private String status;
+
+    private int tokenCount;
+
+    private int attempts;
+
+    private int deliveredCount;
+
+    private int failedCount;
+
+    private String lastError;
+  }
+}
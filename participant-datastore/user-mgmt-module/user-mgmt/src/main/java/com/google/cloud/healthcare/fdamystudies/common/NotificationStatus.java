@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.common;
+
+import lombok.Getter;
+
+/** Delivery status of a queued push notification and of each of its token chunks. */
+@Getter
+public enum NotificationStatus {
+  PENDING("pending"),
+  IN_PROGRESS("inProgress"),
+  SENT("sent"),
+  /** A chunk that failed and waits for its next attempt. */
+  FAILED("failed"),
+  /** Gave up after the last attempt, or on an error a retry cannot fix. */
+  DEAD_LETTER("deadLetter"),
+  /** A chunk of a platform the app cannot push to, such as iOS without a certificate. */
+  SKIPPED("skipped");
+
+  private String status;
+
+  private NotificationStatus(String status) {
+    this.status = status;
+  }
+
+  public static NotificationStatus fromStatus(String status) {
+    for (NotificationStatus notificationStatus : NotificationStatus.values()) {
+      if (notificationStatus.getStatus().equals(status)) {
+        return notificationStatus;
+      }
+    }
+    return null;
+  }
+}
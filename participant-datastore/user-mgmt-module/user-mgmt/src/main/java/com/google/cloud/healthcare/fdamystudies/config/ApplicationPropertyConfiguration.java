@@ -52,6 +52,12 @@ public class ApplicationPropertyConfiguration {
   @Value("${ios.push.notification.type}")
   private String iosPushNotificationType;
 
+  @Value("${push.notification.device-token.page-size}")
+  private int deviceTokenPageSize;
+
+  @Value("${push.notification.outbox.dedupe-window-minutes}")
+  private int notificationDedupeWindowMinutes;
+
   // Feedback & Contactus mail content starts
   @Value("${feedback.mail.content}")
   private String feedbackMailBody;
@@ -15,13 +15,15 @@ import com.google.cloud.healthcare.fdamystudies.bean.StudyMetadataBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.ErrorBean;
 import com.google.cloud.healthcare.fdamystudies.beans.NotificationForm;
+import com.google.cloud.healthcare.fdamystudies.beans.NotificationStatusBean;
+import com.google.cloud.healthcare.fdamystudies.common.NotificationStatus;
 import com.google.cloud.healthcare.fdamystudies.common.UserMgmntAuditHelper;
 import com.google.cloud.healthcare.fdamystudies.mapper.AuditEventMapper;
 import com.google.cloud.healthcare.fdamystudies.service.StudiesServices;
 import com.google.cloud.healthcare.fdamystudies.util.ErrorCode;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
-import java.io.IOException;
+import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import org.slf4j.Logger;
@@ -30,9 +32,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @Api(
@@ -73,8 +78,7 @@ public class StudiesController {
   @ApiOperation(value = "Sends notifications to users")
   @PostMapping("/sendNotification")
   public ResponseEntity<?> SendNotification(
-      @Valid @RequestBody NotificationForm notificationForm, HttpServletRequest request)
-      throws IOException {
+      @Valid @RequestBody NotificationForm notificationForm, HttpServletRequest request) {
     logger.info("StudiesController - SendNotification() : starts");
     AuditLogEventRequest auditRequest = AuditEventMapper.fromHttpServletRequest(request);
 
@@ -94,4 +98,44 @@ public class StudiesController {
     logger.info("StudiesController - SendNotification() : ends");
     return new ResponseEntity<>(errorBean, HttpStatus.OK);
   }
+
+  @ApiOperation(value = "Returns the delivery status of a queued notification")
+  @GetMapping("/notifications/{notificationOutboxId}")
+  public ResponseEntity<?> getNotificationStatus(
+      @PathVariable String notificationOutboxId, HttpServletRequest request) {
+    logger.info("StudiesController - getNotificationStatus() : starts");
+    NotificationStatusBean notificationStatus =
+        studiesServices.getNotificationStatus(notificationOutboxId);
+    if (notificationStatus == null) {
+      return new ResponseEntity<>(
+          new ErrorBean(ErrorCode.EC_404.code(), ErrorCode.EC_404.errorMessage()),
+          HttpStatus.NOT_FOUND);
+    }
+
+    logger.info("StudiesController - getNotificationStatus() : ends");
+    return new ResponseEntity<>(notificationStatus, HttpStatus.OK);
+  }
+
+  @ApiOperation(
+      value =
+          "Returns the queued notifications of a status, the dead-lettered ones by default")
+  @GetMapping("/notifications")
+  public ResponseEntity<?> getNotifications(
+      @RequestParam(defaultValue = "deadLetter") String status,
+      @RequestParam(defaultValue = "0") Integer page,
+      @RequestParam(defaultValue = "50") Integer limit,
+      HttpServletRequest request) {
+    logger.info("StudiesController - getNotifications() : starts");
+    NotificationStatus notificationStatus = NotificationStatus.fromStatus(status);
+    if (notificationStatus == null || page < 0 || limit < 1) {
+      return new ResponseEntity<>(
+          new ErrorBean(ErrorCode.EC_400.code(), ErrorCode.EC_400.errorMessage()),
+          HttpStatus.BAD_REQUEST);
+    }
+
+    List<NotificationStatusBean> notifications =
+        studiesServices.getNotificationsByStatus(notificationStatus, page, limit);
+    logger.info("StudiesController - getNotifications() : ends");
+    return new ResponseEntity<>(notifications, HttpStatus.OK);
+  }
 }
@@ -8,14 +8,8 @@
 
 package com.google.cloud.healthcare.fdamystudies.dao;
 
-import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
 import com.google.cloud.healthcare.fdamystudies.model.AuthInfoEntity;
-import java.util.List;
-import java.util.Map;
-import org.json.JSONArray;
 
 public interface AuthInfoBODao {
   AuthInfoEntity save(AuthInfoEntity authInfo);
-
-  Map<String, JSONArray> getDeviceTokenOfAllUsers(List<AppEntity> appInfos);
 }
@@ -8,15 +8,8 @@
 
 package com.google.cloud.healthcare.fdamystudies.dao;
 
-import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
 import com.google.cloud.healthcare.fdamystudies.model.AuthInfoEntity;
 import com.google.cloud.healthcare.fdamystudies.repository.AuthInfoRepository;
-import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-import org.json.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,40 +32,4 @@ public class AuthInfoBODaoImpl implements AuthInfoBODao {
       return dbResponse;
     } else return null;
   }
-
-  @Override
-  public Map<String, JSONArray> getDeviceTokenOfAllUsers(List<AppEntity> appInfos) {
-    logger.info("AuthInfoBODaoImpl.getDeviceTokenOfAllUsers()-Start");
-    JSONArray androidJsonArray = null;
-    JSONArray iosJsonArray = null;
-    Map<String, JSONArray> deviceMap = new HashMap<>();
-    List<String> appInfoIds =
-        appInfos.stream().map(a -> a.getAppId()).distinct().collect(Collectors.toList());
-
-    if (appInfoIds != null && !appInfoIds.isEmpty()) {
-      List<AuthInfoEntity> authInfos = authInfoRepository.findDevicesTokens(appInfoIds);
-      if (authInfos != null && !authInfos.isEmpty()) {
-        androidJsonArray = new JSONArray();
-        iosJsonArray = new JSONArray();
-        for (AuthInfoEntity authInfo : authInfos) {
-          String devicetoken = authInfo.getDeviceToken();
-          String devicetype = authInfo.getDeviceType();
-          if (devicetoken != null && devicetype != null) {
-            if (devicetype.equalsIgnoreCase(AppConstants.DEVICE_ANDROID)) {
-              androidJsonArray.put(devicetoken.trim());
-            } else if (devicetype.equalsIgnoreCase(AppConstants.DEVICE_IOS)) {
-              iosJsonArray.put(devicetoken.trim());
-            } else {
-              logger.error("Invalid Device Type");
-            }
-          }
-        }
-        deviceMap.put(AppConstants.DEVICE_ANDROID, androidJsonArray);
-        deviceMap.put(AppConstants.DEVICE_IOS, iosJsonArray);
-      }
-    }
-
-    logger.info("AuthInfoBODaoImpl.getDeviceTokenOfAllUsers()-end ");
-    return deviceMap;
-  }
 }
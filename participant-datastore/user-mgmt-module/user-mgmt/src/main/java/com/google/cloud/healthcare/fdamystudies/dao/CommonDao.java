@@ -9,12 +9,11 @@
 package com.google.cloud.healthcare.fdamystudies.dao;
 
 import com.google.cloud.healthcare.fdamystudies.beans.AppOrgInfoBean;
+import com.google.cloud.healthcare.fdamystudies.beans.DeviceTokenBean;
 import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
 import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import org.json.JSONArray;
 
 public interface CommonDao {
 
@@ -28,8 +27,19 @@ public interface CommonDao {
 
   public List<StudyEntity> getStudyInfoSet(HashSet<String> studyInfoSet);
 
-  public Map<String, Map<String, JSONArray>> getStudyLevelDeviceToken(
-      List<StudyEntity> studyInfoIds);
+  /**
+   * Returns the next page of the app's device tokens of the platform, ordered by auth_info id after
+   * lastId. Pass an empty lastId for the first page.
+   */
+  public List<DeviceTokenBean> getDeviceTokens(
+      AppEntity app, String deviceType, String lastId, int limit);
+
+  /**
+   * Returns the next page of device tokens of the platform of the study's participants, ordered by
+   * auth_info id after lastId. Pass an empty lastId for the first page.
+   */
+  public List<DeviceTokenBean> getStudyLevelDeviceTokens(
+      StudyEntity study, String deviceType, String lastId, int limit);
 
   public String getParticipantId(String id, String customStudyId);
 }
@@ -9,6 +9,7 @@
 package com.google.cloud.healthcare.fdamystudies.dao;
 
 import com.google.cloud.healthcare.fdamystudies.beans.AppOrgInfoBean;
+import com.google.cloud.healthcare.fdamystudies.beans.DeviceTokenBean;
 import com.google.cloud.healthcare.fdamystudies.common.ErrorCode;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationPropertyConfiguration;
 import com.google.cloud.healthcare.fdamystudies.exceptions.ErrorCodeException;
@@ -20,18 +21,14 @@ import com.google.cloud.healthcare.fdamystudies.model.UserDetailsEntity;
 import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.util.MyStudiesUserRegUtil;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.json.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -206,67 +203,62 @@ public class CommonDaoImpl implements CommonDao {
   }
 
   @Override
-  public Map<String, Map<String, JSONArray>> getStudyLevelDeviceToken(
-      List<StudyEntity> studyInfos) {
-    logger.info("CommonDaoImpl.getStudyLevelDeviceToken() - starts");
-
-    Map<String, Map<String, JSONArray>> studyDeviceTokenMap = new HashMap<>();
-    Session session = this.sessionFactory.getCurrentSession();
-
-    if (studyInfos != null && !studyInfos.isEmpty()) {
-
-      List<String> studyInfoIds =
-          studyInfos.stream().map(a -> a.getId()).distinct().collect(Collectors.toList());
-      List<Object[]> rs =
-          session
-              .createSQLQuery(
-                  "SELECT sp.study_info_id, GROUP_CONCAT(a.device_token) as device_token,GROUP_CONCAT(a.device_type) as device_type FROM participant_study_info sp, auth_info a"
-                      + " where sp.user_details_id = a.user_details_id and sp.status not in('yetToEnroll','withdrawn','notEligible') and a.remote_notification_flag=1"
-                      + " and sp.study_info_id in (:studyIds)  and (a.device_token is not NULL and a.device_token != '' and a.device_type is not"
-                      + " NULL and a.device_type != '') GROUP BY sp.study_info_id")
-              .setParameterList("studyIds", studyInfoIds)
-              .getResultList();
-      logger.info("CommonDaoImpl.getStudyLevelDeviceToken() ResultSet size::" + rs.size());
-      if (rs != null) {
-        for (Object[] objects : rs) {
-
-          String studyId = (String) objects[0];
-          String deviceToken = (String) objects[1];
-          String deviceType = (String) objects[2];
-          if (deviceToken != null) {
-            String[] deviceTokens = deviceToken.split(",");
-            String[] deviceTypes = deviceType.split(",");
-
-            if (((deviceTokens != null && deviceTokens.length > 0)
-                    && (deviceType != null && deviceTypes.length > 0))
-                && (deviceTokens.length == deviceTypes.length)) {
+  public List<DeviceTokenBean> getDeviceTokens(
+      AppEntity app, String deviceType, String lastId, int limit) {
+    logger.debug("CommonDaoImpl.getDeviceTokens() - starts");
+    List<Object[]> rows =
+        this.sessionFactory
+            .getCurrentSession()
+            .createSQLQuery(
+                "SELECT a.id, a.user_details_id, a.device_type, a.device_token FROM auth_info a"
+                    + " WHERE a.app_info_id = :appInfoId AND a.device_type = :deviceType AND a.id > :lastId"
+                    + " AND a.remote_notification_flag = 1 AND a.device_token IS NOT NULL AND a.device_token != ''"
+                    + " ORDER BY a.id LIMIT :limit")
+            .setParameter("appInfoId", app.getId())
+            .setParameter("deviceType", deviceType)
+            .setParameter("lastId", lastId)
+            .setParameter("limit", limit)
+            .getResultList();
+    logger.debug("CommonDaoImpl.getDeviceTokens() - ends");
+    return toDeviceTokens(rows, app);
+  }
 
-              JSONArray jsonArray = new JSONArray();
-              JSONArray iosJsonArray = new JSONArray();
-              Map<String, JSONArray> deviceMap = new HashMap<>();
-              for (int i = 0; i < deviceTokens.length; i++) {
-                if (deviceTypes[i] != null
-                    && deviceTypes[i].equalsIgnoreCase(AppConstants.DEVICE_ANDROID)) {
-                  jsonArray.put(deviceTokens[i].trim());
-                } else if (deviceTypes[i] != null
-                    && deviceTypes[i].equalsIgnoreCase(AppConstants.DEVICE_IOS)) {
-                  iosJsonArray.put(deviceTokens[i].trim());
-                } else {
-                  logger.error("Invalid Device Type");
-                }
-              }
-              deviceMap.put(AppConstants.DEVICE_ANDROID, jsonArray);
-              deviceMap.put(AppConstants.DEVICE_IOS, iosJsonArray);
+  @Override
+  public List<DeviceTokenBean> getStudyLevelDeviceTokens(
+      StudyEntity study, String deviceType, String lastId, int limit) {
+    logger.debug("CommonDaoImpl.getStudyLevelDeviceTokens() - starts");
+    List<Object[]> rows =
+        this.sessionFactory
+            .getCurrentSession()
+            .createSQLQuery(
+                "SELECT a.id, a.user_details_id, a.device_type, a.device_token FROM auth_info a"
+                    + " WHERE a.app_info_id = :appInfoId AND a.device_type = :deviceType AND a.id > :lastId"
+                    + " AND a.remote_notification_flag = 1 AND a.device_token IS NOT NULL AND a.device_token != ''"
+                    + " AND EXISTS (SELECT 1 FROM participant_study_info sp WHERE sp.user_details_id = a.user_details_id"
+                    + " AND sp.study_info_id = :studyInfoId AND sp.status NOT IN ('yetToEnroll','withdrawn','notEligible'))"
+                    + " ORDER BY a.id LIMIT :limit")
+            .setParameter("appInfoId", study.getApp().getId())
+            .setParameter("deviceType", deviceType)
+            .setParameter("lastId", lastId)
+            .setParameter("studyInfoId", study.getId())
+            .setParameter("limit", limit)
+            .getResultList();
+    logger.debug("CommonDaoImpl.getStudyLevelDeviceTokens() - ends");
+    return toDeviceTokens(rows, study.getApp());
+  }
 
-              studyDeviceTokenMap.put(studyId, deviceMap);
-            }
-          }
-        }
-      }
+  private List<DeviceTokenBean> toDeviceTokens(List<Object[]> rows, AppEntity app) {
+    List<DeviceTokenBean> deviceTokens = new ArrayList<>(rows.size());
+    for (Object[] row : rows) {
+      deviceTokens.add(
+          new DeviceTokenBean(
+              (String) row[0],
+              (String) row[1],
+              app.getAppId(),
+              (String) row[2],
+              ((String) row[3]).trim()));
     }
-
-    logger.info("CommonDaoImpl.getStudyLevelDeviceToken() - ends ");
-    return studyDeviceTokenMap;
+    return deviceTokens;
   }
 
   public String getParticipantId(String id, String customStudyId) {
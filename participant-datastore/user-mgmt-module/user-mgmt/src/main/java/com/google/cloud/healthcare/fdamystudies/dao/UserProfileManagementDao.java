@@ -36,7 +36,8 @@ public interface UserProfileManagementDao {
 
   public UserDetailsEntity getParticipantDetails(String id);
 
-  public void deactivateAcct(String userId, List<String> deleteData, String userDetailsId);
+  /** Withdraws the user from the studies and returns the site IDs of the withdrawn participants. */
+  public List<String> deactivateAcct(String userId, List<String> deleteData, String userDetailsId);
 
   public void deactivateUserAccount(String userId);
 }
@@ -253,7 +253,8 @@ public class UserProfileManagementDaoImpl implements UserProfileManagementDao {
   }
 
   @Override
-  public void deactivateAcct(String userId, List<String> deleteData, String userDetailsId) {
+  public List<String> deactivateAcct(
+      String userId, List<String> deleteData, String userDetailsId) {
     logger.info("UserProfileManagementDaoImpl deActivateAcct() - Starts ");
     CriteriaBuilder criteriaBuilder = null;
 
@@ -273,6 +274,7 @@ public class UserProfileManagementDaoImpl implements UserProfileManagementDao {
     Root<StudyEntity> rootStudy = null;
     List<StudyEntity> studyInfoBoList = null;
     UserDetailsEntity userDetails = null;
+    List<String> siteIds = new ArrayList<>();
     Session session = this.sessionFactory.getCurrentSession();
     criteriaBuilder = session.getCriteriaBuilder();
     if (deleteData != null && !deleteData.isEmpty()) {
@@ -302,6 +304,18 @@ public class UserProfileManagementDaoImpl implements UserProfileManagementDao {
           studyIdPredicates.toArray(new Predicate[studyIdPredicates.size()]));
       session.createQuery(criteriaParticipantStudiesUpdate).executeUpdate();
 
+      if (!studyInfoBoList.isEmpty()) {
+        siteIds =
+            session
+                .createQuery(
+                    "select distinct PS.site.id from ParticipantStudyEntity PS"
+                        + " where PS.userDetails = :userDetails and PS.study in (:studies)",
+                    String.class)
+                .setParameter("userDetails", userDetails)
+                .setParameter("studies", studyInfoBoList)
+                .getResultList();
+      }
+
       session
           .createSQLQuery(
               "UPDATE participant_registry_site SET onboarding_status=:onboardingStatus, "
@@ -329,6 +343,7 @@ public class UserProfileManagementDaoImpl implements UserProfileManagementDao {
     session.createQuery(criteriaUserAppDetailsDelete).executeUpdate();
 
     logger.info("UserProfileManagementDaoImpl deActivateAcct() - Ends ");
+    return siteIds;
   }
 
   @Override
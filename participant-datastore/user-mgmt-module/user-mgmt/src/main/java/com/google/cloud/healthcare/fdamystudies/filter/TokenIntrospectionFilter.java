@@ -34,6 +34,12 @@ public class TokenIntrospectionFilter extends BaseTokenIntrospectionFilter {
     uriTemplateAndMethods.put(
         String.format("%s/studies/sendNotification", context.getContextPath()),
         new String[] {HttpMethod.POST.name()});
+    uriTemplateAndMethods.put(
+        String.format("%s/studies/notifications", context.getContextPath()),
+        new String[] {HttpMethod.GET.name()});
+    uriTemplateAndMethods.put(
+        String.format("%s/studies/notifications/{notificationOutboxId}", context.getContextPath()),
+        new String[] {HttpMethod.GET.name()});
     uriTemplateAndMethods.put(
         String.format("%s/deactivate", context.getContextPath()),
         new String[] {HttpMethod.DELETE.name()});
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.model;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.LARGE_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.XS_LENGTH;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.UpdateTimestamp;
+
+/**
+ * A chunk of the device tokens of one platform a queued notification was pushed to: the auth_info
+ * rows of the app or study after start_after_id, up to end_id. The notification, platform and
+ * start_after_id are the idempotency key of the chunk, a chunk is never pushed again once sent.
+ */
+@ToString
+@Setter
+@Getter
+@Entity
+@Table(
+    name = "notification_delivery",
+    uniqueConstraints =
+        @UniqueConstraint(
+            name = "notification_delivery_chunk_uk",
+            columnNames = {"notification_outbox_id", "device_type", "start_after_id"}))
+public class NotificationDeliveryEntity implements Serializable {
+
+  private static final long serialVersionUID = 2957264826309127664L;
+
+  @Id
+  @GeneratedValue(generator = "system-uuid")
+  @GenericGenerator(name = "system-uuid", strategy = "uuid")
+  @Column(name = "id", updatable = false, nullable = false)
+  private String id;
+
+  @Column(name = "notification_outbox_id", nullable = false, updatable = false)
+  private String notificationOutboxId;
+
+  @Column(name = "device_type", nullable = false, updatable = false, length = XS_LENGTH)
+  private String deviceType;
+
+  /** Id of the auth_info row before the chunk, empty for the first chunk */
+  @Column(name = "start_after_id", nullable = false, updatable = false)
+  private String startAfterId;
+
+  /** Id of the last auth_info row of the chunk */
+  @Column(name = "end_id", nullable = false, updatable = false)
+  private String endId;
+
+  @Column(name = "token_count", nullable = false)
+  private int tokenCount;
+
+  /** One of {@link com.google.cloud.healthcare.fdamystudies.common.NotificationStatus} */
+  @Column(name = "status", nullable = false, length = XS_LENGTH)
+  private String status;
+
+  @Column(name = "attempts", nullable = false)
+  private int attempts;
+
+  @Column(name = "next_attempt_time")
+  private Timestamp nextAttemptTime;
+
+  @Column(name = "delivered_count", nullable = false)
+  private int deliveredCount;
+
+  @Column(name = "failed_count", nullable = false)
+  private int failedCount;
+
+  @Column(name = "last_error", length = LARGE_LENGTH)
+  private String lastError;
+
+  @CreationTimestamp
+  @Column(name = "created_time", updatable = false)
+  private Timestamp created;
+
+  @UpdateTimestamp
+  @Column(name = "updated_time")
+  private Timestamp modified;
+}
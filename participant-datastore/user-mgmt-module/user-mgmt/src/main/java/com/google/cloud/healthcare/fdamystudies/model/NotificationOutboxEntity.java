@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.model;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.LARGE_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.SMALL_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.XS_LENGTH;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.UpdateTimestamp;
+
+/**
+ * A push notification received from the Study Builder, queued until the dispatcher has pushed it
+ * to the device tokens of its app or study. The token chunks it was pushed to are its {@link
+ * NotificationDeliveryEntity} rows.
+ */
+@ToString
+@Setter
+@Getter
+@Entity
+@Table(
+    name = "notification_outbox",
+    indexes = {
+      @Index(name = "notification_outbox_status_idx", columnList = "status,next_attempt_time"),
+      @Index(
+          name = "notification_outbox_idempotency_key_idx",
+          columnList = "idempotency_key,created_time")
+    },
+    uniqueConstraints =
+        @UniqueConstraint(
+            name = "notification_outbox_dedupe_uk",
+            columnNames = {"idempotency_key", "dedupe_bucket"}))
+public class NotificationOutboxEntity implements Serializable {
+
+  private static final long serialVersionUID = -6140823370265377841L;
+
+  @Id
+  @GeneratedValue(generator = "system-uuid")
+  @GenericGenerator(name = "system-uuid", strategy = "uuid")
+  @Column(name = "id", updatable = false, nullable = false)
+  private String id;
+
+  /** SHA-256 of the notification, the same notification posted again is not queued twice. */
+  @Column(name = "idempotency_key", nullable = false, length = SMALL_LENGTH)
+  private String idempotencyKey;
+
+  /**
+   * Dedupe window the notification was queued in, the queue time divided by the window length. The
+   * second of two concurrent posts of the notification in one window violates the unique key.
+   */
+  @Column(name = "dedupe_bucket", nullable = false)
+  private long dedupeBucket;
+
+  /** Id of the notification in the Study Builder */
+  @Column(name = "notification_id")
+  private Integer notificationId;
+
+  @Column(name = "app_id", length = SMALL_LENGTH)
+  private String appId;
+
+  @Column(name = "study_id", length = SMALL_LENGTH)
+  private String studyId;
+
+  @Column(name = "custom_study_id", length = SMALL_LENGTH)
+  private String customStudyId;
+
+  /** AppConstants.GATEWAY_LEVEL or STUDY_LEVEL */
+  @Column(name = "notification_type", length = XS_LENGTH)
+  private String notificationType;
+
+  @Column(name = "notification_sub_type", length = SMALL_LENGTH)
+  private String notificationSubType;
+
+  @Column(name = "notification_title", length = LARGE_LENGTH)
+  private String notificationTitle;
+
+  @Column(name = "notification_text", columnDefinition = "TEXT")
+  private String notificationText;
+
+  /** One of {@link com.google.cloud.healthcare.fdamystudies.common.NotificationStatus} */
+  @Column(name = "status", nullable = false, length = XS_LENGTH)
+  private String status;
+
+  /** Dispatcher runs the notification was claimed by */
+  @Column(name = "attempts", nullable = false)
+  private int attempts;
+
+  /** Time of the next retry of the failed chunks, null to dispatch it at once */
+  @Column(name = "next_attempt_time")
+  private Timestamp nextAttemptTime;
+
+  /** Time the dispatcher claimed it, a claim older than the lease is claimed again */
+  @Column(name = "claimed_time")
+  private Timestamp claimedTime;
+
+  @Column(name = "delivered_count", nullable = false)
+  private int deliveredCount;
+
+  @Column(name = "failed_count", nullable = false)
+  private int failedCount;
+
+  @Column(name = "last_error", length = LARGE_LENGTH)
+  private String lastError;
+
+  @Column(name = "correlation_id", length = LARGE_LENGTH)
+  private String correlationId;
+
+  @Column(name = "source", length = SMALL_LENGTH)
+  private String source;
+
+  @Column(name = "user_id", length = LARGE_LENGTH)
+  private String userId;
+
+  @Column(name = "app_version", length = SMALL_LENGTH)
+  private String appVersion;
+
+  @Column(name = "mobile_platform", length = SMALL_LENGTH)
+  private String mobilePlatform;
+
+  @CreationTimestamp
+  @Column(name = "created_time", updatable = false)
+  private Timestamp created;
+
+  @UpdateTimestamp
+  @Column(name = "updated_time")
+  private Timestamp modified;
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.repository;
+
+import com.google.cloud.healthcare.fdamystudies.model.NotificationDeliveryEntity;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface NotificationDeliveryRepository
+    extends JpaRepository<NotificationDeliveryEntity, String> {
+
+  public List<NotificationDeliveryEntity> findByNotificationOutboxIdOrderByCreated(
+      String notificationOutboxId);
+
+  public List<NotificationDeliveryEntity> findByNotificationOutboxIdAndDeviceTypeOrderByCreated(
+      String notificationOutboxId, String deviceType);
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.repository;
+
+import com.google.cloud.healthcare.fdamystudies.model.NotificationOutboxEntity;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Optional;
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface NotificationOutboxRepository
+    extends JpaRepository<NotificationOutboxEntity, String> {
+
+  public Optional<NotificationOutboxEntity> findFirstByIdempotencyKeyAndCreatedAfter(
+      String idempotencyKey, Timestamp created);
+
+  public Optional<NotificationOutboxEntity> findByIdempotencyKeyAndDedupeBucket(
+      String idempotencyKey, long dedupeBucket);
+
+  /**
+   * Locks a page of the notifications to dispatch for the current transaction: the pending ones
+   * that are due and the ones whose claim expired. A lock timeout of -2 is Hibernate's SKIP LOCKED,
+   * rows locked by another service instance are skipped where the dialect supports it.
+   */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "-2"))
+  @Query(
+      "SELECT n FROM NotificationOutboxEntity n WHERE (n.status = 'pending' "
+          + "AND (n.nextAttemptTime IS NULL OR n.nextAttemptTime <= :now)) "
+          + "OR (n.status = 'inProgress' AND n.claimedTime < :claimExpiry) ORDER BY n.created")
+  public List<NotificationOutboxEntity> findDueForUpdate(
+      @Param("now") Timestamp now, @Param("claimExpiry") Timestamp claimExpiry, Pageable pageable);
+
+  public boolean existsByIdAndStatusAndClaimedTime(
+      String id, String status, Timestamp claimedTime);
+
+  /**
+   * Moves the claim of an in progress notification to renewedTime, if it still holds the claim made
+   * at claimedTime. Returns 0 when the claim expired and another service instance claimed it.
+   */
+  @Modifying
+  @Query(
+      "UPDATE NotificationOutboxEntity n SET n.claimedTime = :renewedTime WHERE n.id = :id "
+          + "AND n.status = 'inProgress' AND n.claimedTime = :claimedTime")
+  public int renewClaim(
+      @Param("id") String id,
+      @Param("claimedTime") Timestamp claimedTime,
+      @Param("renewedTime") Timestamp renewedTime);
+
+  public List<NotificationOutboxEntity> findByStatusOrderByCreatedDesc(
+      String status, Pageable pageable);
+}
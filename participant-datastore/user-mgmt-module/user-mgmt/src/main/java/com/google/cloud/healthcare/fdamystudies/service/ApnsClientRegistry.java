@@ -0,0 +1,241 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationPropertyConfiguration;
+import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
+import com.google.cloud.healthcare.fdamystudies.model.AuthInfoEntity;
+import com.google.cloud.healthcare.fdamystudies.repository.AuthInfoRepository;
+import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
+import com.google.common.collect.Lists;
+import com.notnoop.apns.APNS;
+import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.ApnsServiceBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * APNs services of the apps, keyed by appId. The p12 certificate of an app is decoded once, in
+ * memory, and its service keeps a pool of warm connections to APNs, so that a notification burst
+ * does not spend its time in TLS handshakes. A service is replaced when the certificate, its
+ * password or the destination of the app changes.
+ *
+ * <p>The APNs feedback service reports the tokens of the devices the apps were removed from, their
+ * device tokens are cleared from auth_info.
+ */
+@Component
+public class ApnsClientRegistry {
+
+  private XLogger logger = XLoggerFactory.getXLogger(ApnsClientRegistry.class.getName());
+
+  private static final String PRODUCTION = "production";
+
+  /** Inactive device tokens looked up per query. */
+  private static final int FEEDBACK_CHUNK_SIZE = 500;
+
+  @Autowired private ApplicationPropertyConfiguration applicationPropertyConfiguration;
+
+  @Autowired private AuthInfoRepository authInfoRepository;
+
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${push.notification.apns.connections}")
+  private int connections;
+
+  /** Host and port of an APNs stand-in, such as a local loopback server in tests. */
+  @Value("${push.notification.apns.gateway-host:}")
+  private String gatewayHost;
+
+  @Value("${push.notification.apns.gateway-port:0}")
+  private int gatewayPort;
+
+  @Value("${push.notification.apns.feedback-host:}")
+  private String feedbackHost;
+
+  @Value("${push.notification.apns.feedback-port:0}")
+  private int feedbackPort;
+
+  private final ConcurrentMap<String, ApnsClient> clients = new ConcurrentHashMap<>();
+
+  private TransactionTemplate transactionTemplate;
+
+  private Counter prunedTokens;
+
+  @PostConstruct
+  public void init() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    prunedTokens = meterRegistry.counter("push.apns.pruned");
+    meterRegistry.gaugeMapSize("push.apns.clients", clients);
+  }
+
+  /**
+   * Returns the APNs service of the app, built on first use or after the app's certificate changed,
+   * or null when the app has no certificate.
+   */
+  public ApnsService getService(AppEntity app) {
+    if (StringUtils.isEmpty(app.getIosCertificate())) {
+      logger.warn(String.format("no iOS certificate for appId=%s", app.getAppId()));
+      return null;
+    }
+
+    String fingerprint =
+        DigestUtils.sha256Hex(
+            app.getIosCertificate()
+                + app.getIosCertificatePassword()
+                + applicationPropertyConfiguration.getIosPushNotificationType());
+    return clients
+        .compute(
+            app.getAppId(),
+            (appId, client) -> {
+              if (client != null && client.fingerprint.equals(fingerprint)) {
+                return client;
+              }
+              if (client != null) {
+                logger.info(String.format("iOS certificate changed for appId=%s", appId));
+                client.service.stop();
+              }
+              return new ApnsClient(fingerprint, newService(app));
+            })
+        .service;
+  }
+
+  private ApnsService newService(AppEntity app) {
+    byte[] certificate =
+        Base64.getDecoder().decode(app.getIosCertificate().replaceAll("\n", StringUtils.EMPTY));
+    ApnsServiceBuilder builder =
+        APNS.newService()
+            .withCert(new ByteArrayInputStream(certificate), app.getIosCertificatePassword())
+            .asPool(connections);
+
+    if (StringUtils.isNotEmpty(gatewayHost)) {
+      builder.withGatewayDestination(gatewayHost, gatewayPort);
+      builder.withFeedbackDestination(feedbackHost, feedbackPort);
+    } else if (PRODUCTION.equals(applicationPropertyConfiguration.getIosPushNotificationType())) {
+      builder.withProductionDestination();
+    } else {
+      builder.withSandboxDestination();
+    }
+
+    ApnsService service = builder.build();
+    service.start();
+    logger.info(String.format("APNs service started for appId=%s", app.getAppId()));
+    return service;
+  }
+
+  /**
+   * Reads the inactive devices of each app from the APNs feedback service and clears their device
+   * tokens, unless the device registered the token again after APNs found it inactive.
+   */
+  public void processFeedback() {
+    for (Map.Entry<String, ApnsClient> entry : clients.entrySet()) {
+      // APNs reports the tokens in hex, in a case the stored tokens may not share
+      Map<String, Date> inactiveDevices = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      try {
+        entry
+            .getValue()
+            .service
+            .getInactiveDevices()
+            .forEach(
+                (deviceToken, inactiveAsOf) -> {
+                  if (StringUtils.isNotBlank(deviceToken) && inactiveAsOf != null) {
+                    inactiveDevices.put(deviceToken.trim(), inactiveAsOf);
+                  }
+                });
+      } catch (RuntimeException e) {
+        logger.warn(String.format("APNs feedback failed for appId=%s", entry.getKey()), e);
+        continue;
+      }
+
+      for (List<String> deviceTokens :
+          Lists.partition(new ArrayList<>(inactiveDevices.keySet()), FEEDBACK_CHUNK_SIZE)) {
+        transactionTemplate.executeWithoutResult(
+            status -> clearInactiveDeviceTokens(entry.getKey(), deviceTokens, inactiveDevices));
+      }
+    }
+  }
+
+  private void clearInactiveDeviceTokens(
+      String appId, List<String> deviceTokens, Map<String, Date> inactiveDevices) {
+    Set<String> queryTokens = new HashSet<>();
+    for (String deviceToken : deviceTokens) {
+      queryTokens.add(deviceToken);
+      queryTokens.add(deviceToken.toUpperCase());
+      queryTokens.add(deviceToken.toLowerCase());
+    }
+
+    int cleared = 0;
+    for (AuthInfoEntity authInfo :
+        authInfoRepository.findByAppIdAndDeviceTokens(
+            appId, AppConstants.DEVICE_IOS, new ArrayList<>(queryTokens))) {
+      Date inactiveAsOf = inactiveDevices.get(StringUtils.trim(authInfo.getDeviceToken()));
+      if (inactiveAsOf == null) {
+        continue;
+      }
+      if (authInfo.getModified() == null || authInfo.getModified().before(inactiveAsOf)) {
+        authInfo.setDeviceToken(null);
+        cleared++;
+      }
+    }
+    prunedTokens.increment(cleared);
+    logger.info(
+        String.format("%d inactive iOS device tokens cleared for appId=%s", cleared, appId));
+  }
+
+  /** Replaces the APNs service of an app already in the registry, such as with a stub in tests. */
+  void replaceService(String appId, ApnsService service) {
+    clients.computeIfPresent(
+        appId,
+        (key, client) -> {
+          client.service.stop();
+          return new ApnsClient(client.fingerprint, service);
+        });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    clients.values().forEach(client -> client.service.stop());
+  }
+
+  private static class ApnsClient {
+
+    /** Hash of the certificate, password and destination the service was built with. */
+    private final String fingerprint;
+
+    private final ApnsService service;
+
+    private ApnsClient(String fingerprint, ApnsService service) {
+      this.fingerprint = fingerprint;
+      this.service = service;
+    }
+  }
+}
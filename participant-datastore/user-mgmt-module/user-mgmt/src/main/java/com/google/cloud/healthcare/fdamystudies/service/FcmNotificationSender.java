@@ -0,0 +1,377 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.healthcare.fdamystudies.beans.DeviceTokenBean;
+import com.google.cloud.healthcare.fdamystudies.beans.NotificationBean;
+import com.google.cloud.healthcare.fdamystudies.beans.PushNotificationResponse;
+import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
+import com.google.cloud.healthcare.fdamystudies.model.AuthInfoEntity;
+import com.google.cloud.healthcare.fdamystudies.repository.AuthInfoRepository;
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends push notifications to Android devices through FCM. The device tokens are split into
+ * chunks of at most 1000 tokens, the limit of an FCM request, and the chunks are sent concurrently
+ * by a bounded pool of workers. Server errors and quota errors are retried with backoff, and so
+ * are the tokens FCM reports as temporarily unavailable. Tokens FCM reports as unregistered or
+ * invalid are cleared from their auth_info row, so that they are not sent to again.
+ */
+@Component
+public class FcmNotificationSender {
+
+  private XLogger logger = XLoggerFactory.getXLogger(FcmNotificationSender.class.getName());
+
+  /** Per token errors that may succeed when the token is sent again. */
+  private static final Set<String> RETRYABLE_ERRORS =
+      new HashSet<>(Arrays.asList("Unavailable", "InternalServerError"));
+
+  /** Per token errors of tokens that no longer belong to an installed app. */
+  private static final Set<String> DEAD_TOKEN_ERRORS =
+      new HashSet<>(Arrays.asList("NotRegistered", "InvalidRegistration"));
+
+  private static final String ERROR = "error";
+
+  @Autowired private FcmTransport fcmTransport;
+
+  @Autowired private AuthInfoRepository authInfoRepository;
+
+  @Autowired private ObjectMapper objectMapper;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${push.notification.fcm.chunk-size}")
+  private int chunkSize;
+
+  @Value("${push.notification.fcm.workers}")
+  private int workers;
+
+  @Value("${push.notification.fcm.retry.max-attempts}")
+  private int maxAttempts;
+
+  @Value("${push.notification.fcm.retry.initial-backoff-ms}")
+  private long initialBackoffMillis;
+
+  @Value("${push.notification.fcm.retry.max-backoff-ms}")
+  private long maxBackoffMillis;
+
+  private ExecutorService workerPool;
+
+  private Timer requestTimer;
+
+  private Counter deliveredTokens;
+
+  private Counter failedTokens;
+
+  private Counter retriedRequests;
+
+  private Counter prunedTokens;
+
+  @PostConstruct
+  public void init() {
+    AtomicInteger threadCount = new AtomicInteger();
+    workerPool =
+        Executors.newFixedThreadPool(
+            workers,
+            runnable -> {
+              Thread thread = new Thread(runnable, "fcm-worker-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    requestTimer =
+        Timer.builder("push.fcm.request")
+            .description("Time of an FCM send request")
+            .register(meterRegistry);
+    deliveredTokens = meterRegistry.counter("push.fcm.delivered");
+    failedTokens = meterRegistry.counter("push.fcm.failed");
+    retriedRequests = meterRegistry.counter("push.fcm.retried");
+    prunedTokens = meterRegistry.counter("push.fcm.pruned");
+  }
+
+  /**
+   * Sends the notification to the device tokens and clears the dead tokens, returns the FCM
+   * responses of the chunks merged into one, with the results in the order of the tokens.
+   */
+  public PushNotificationResponse send(
+      NotificationBean notification, AppEntity app, List<DeviceTokenBean> deviceTokens) {
+    if (app == null || deviceTokens.isEmpty()) {
+      return new PushNotificationResponse(null, HttpStatus.OK.value(), "SUCCESS");
+    }
+    logger.entry(String.format("begin send() for %d device tokens", deviceTokens.size()));
+
+    JSONObject data = toData(notification);
+    List<List<DeviceTokenBean>> chunks = Lists.partition(deviceTokens, chunkSize);
+    List<Future<ChunkResult>> futures = new ArrayList<>(chunks.size());
+    for (List<DeviceTokenBean> chunk : chunks) {
+      futures.add(workerPool.submit(() -> sendChunk(app.getAndroidServerKey(), data, chunk)));
+    }
+
+    List<ChunkResult> chunkResults = new ArrayList<>(chunks.size());
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        chunkResults.add(futures.get(i).get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        futures.forEach(pending -> pending.cancel(true));
+        break;
+      } catch (ExecutionException e) {
+        logger.error("sending an FCM chunk failed with an exception", e.getCause());
+        chunkResults.add(
+            new ChunkResult(chunks.get(i), HttpStatus.SERVICE_UNAVAILABLE.value(), 0));
+      }
+    }
+
+    pruneDeadTokens(chunkResults);
+    PushNotificationResponse response = merge(chunkResults);
+    logger.exit(String.format("send() completed with status=%d", response.getStatus()));
+    return response;
+  }
+
+  private JSONObject toData(NotificationBean notification) {
+    JSONObject data = new JSONObject();
+    data.put("subtype", notification.getNotificationSubType());
+    data.put("type", notification.getNotificationType());
+    data.put("title", notification.getNotificationTitle());
+    data.put("message", notification.getNotificationText());
+    if (StringUtils.isNotEmpty(notification.getCustomStudyId())) {
+      data.put("studyId", notification.getCustomStudyId());
+    }
+    return data;
+  }
+
+  /**
+   * Sends the chunk, then sends again the tokens FCM could not deliver to yet, or the whole chunk
+   * after a server or quota error, until every token got a final result or the attempts run out.
+   */
+  private ChunkResult sendChunk(String serverKey, JSONObject data, List<DeviceTokenBean> chunk) {
+    ChunkResult chunkResult = new ChunkResult(chunk, 0, 0);
+    List<Integer> pending = IntStream.range(0, chunk.size()).boxed().collect(Collectors.toList());
+    long backoffMillis = initialBackoffMillis;
+    for (int attempt = 1; attempt <= maxAttempts && !pending.isEmpty(); attempt++) {
+      if (attempt > 1) {
+        retriedRequests.increment();
+        try {
+          TimeUnit.MILLISECONDS.sleep(backoffMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+      }
+
+      FcmTransport.Response response;
+      long start = System.nanoTime();
+      try {
+        response = fcmTransport.send(serverKey, toPayload(data, chunk, pending));
+      } catch (IOException e) {
+        logger.warn("FCM send request failed", e);
+        chunkResult.status = HttpStatus.SERVICE_UNAVAILABLE.value();
+        continue;
+      } finally {
+        requestTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+
+      chunkResult.status = response.getStatus();
+      if (isRetryable(response.getStatus())) {
+        backoffMillis =
+            Math.min(
+                Math.max(backoffMillis, TimeUnit.SECONDS.toMillis(response.getRetryAfterSeconds())),
+                maxBackoffMillis);
+        continue;
+      }
+      if (response.getStatus() != HttpStatus.OK.value()) {
+        logger.warn(
+            String.format(
+                "FCM rejected the request with status=%d, body=%s",
+                response.getStatus(), response.getBody()));
+        break;
+      }
+
+      JsonNode body = readBody(response.getBody());
+      if (chunkResult.multicastId == 0) {
+        chunkResult.multicastId = body.path("multicast_id").asLong();
+      }
+      JsonNode results = body.path("results");
+      List<Integer> unavailable = new ArrayList<>();
+      for (int i = 0; i < pending.size(); i++) {
+        JsonNode result = results.path(i);
+        chunkResult.results[pending.get(i)] = result;
+        if (RETRYABLE_ERRORS.contains(result.path(ERROR).asText())) {
+          unavailable.add(pending.get(i));
+        }
+      }
+      pending = unavailable;
+    }
+    return chunkResult;
+  }
+
+  private String toPayload(JSONObject data, List<DeviceTokenBean> chunk, List<Integer> indexes) {
+    JSONArray registrationIds = new JSONArray();
+    for (Integer index : indexes) {
+      registrationIds.put(chunk.get(index).getDeviceToken());
+    }
+    JSONObject payload = new JSONObject();
+    payload.put("registration_ids", registrationIds);
+    payload.put("priority", "high");
+    payload.put("data", data);
+    return payload.toString();
+  }
+
+  private static boolean isRetryable(int status) {
+    return status >= HttpStatus.INTERNAL_SERVER_ERROR.value()
+        || status == HttpStatus.TOO_MANY_REQUESTS.value();
+  }
+
+  private JsonNode readBody(String body) {
+    try {
+      return objectMapper.readTree(StringUtils.defaultString(body));
+    } catch (IOException e) {
+      logger.warn("unreadable FCM response body", e);
+      return objectMapper.createObjectNode();
+    }
+  }
+
+  /** Clears the dead tokens, unless the device registered a new token since it was read. */
+  private void pruneDeadTokens(List<ChunkResult> chunkResults) {
+    Map<String, String> deadTokens =
+        chunkResults
+            .stream()
+            .flatMap(ChunkResult::getDeadTokens)
+            .collect(
+                Collectors.toMap(
+                    DeviceTokenBean::getId, DeviceTokenBean::getDeviceToken, (a, b) -> a));
+    if (deadTokens.isEmpty()) {
+      return;
+    }
+
+    List<AuthInfoEntity> authInfos = new ArrayList<>();
+    for (AuthInfoEntity authInfo : authInfoRepository.findAllById(deadTokens.keySet())) {
+      if (StringUtils.equals(
+          StringUtils.trim(authInfo.getDeviceToken()), deadTokens.get(authInfo.getAuthId()))) {
+        authInfo.setDeviceToken(null);
+        authInfos.add(authInfo);
+      }
+    }
+    authInfoRepository.saveAll(authInfos);
+    prunedTokens.increment(authInfos.size());
+    logger.info(
+        String.format("%d unregistered or invalid device tokens cleared", authInfos.size()));
+  }
+
+  /**
+   * Merges the chunk responses into the shape of a single FCM response. The status is OK when FCM
+   * accepted every chunk, otherwise the status of a failed chunk.
+   */
+  private PushNotificationResponse merge(List<ChunkResult> chunkResults) {
+    ObjectNode response = objectMapper.createObjectNode();
+    ArrayNode results = response.putArray("results");
+    long multicastId = 0;
+    int success = 0;
+    int failure = 0;
+    int canonicalIds = 0;
+    int status = HttpStatus.OK.value();
+    for (ChunkResult chunkResult : chunkResults) {
+      if (multicastId == 0) {
+        multicastId = chunkResult.multicastId;
+      }
+      if (chunkResult.status != HttpStatus.OK.value()) {
+        status = chunkResult.status;
+      }
+      for (JsonNode result : chunkResult.results) {
+        if (result == null || result.isMissingNode()) {
+          result = objectMapper.createObjectNode().put(ERROR, "Unavailable");
+        }
+        if (result.has("message_id")) {
+          success++;
+        } else {
+          failure++;
+        }
+        if (result.has("registration_id")) {
+          canonicalIds++;
+        }
+        results.add(result);
+      }
+    }
+    deliveredTokens.increment(success);
+    failedTokens.increment(failure);
+
+    response.put("multicast_id", multicastId);
+    response.put("success", success);
+    response.put("failure", failure);
+    response.put("canonical_ids", canonicalIds);
+    return new PushNotificationResponse(
+        response, status, status == HttpStatus.OK.value() ? "success" : "failed");
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    workerPool.shutdownNow();
+  }
+
+  private static class ChunkResult {
+
+    private final List<DeviceTokenBean> deviceTokens;
+
+    /** Result of each token of the chunk, null for a token FCM gave no result for. */
+    private final JsonNode[] results;
+
+    private int status;
+
+    private long multicastId;
+
+    private ChunkResult(List<DeviceTokenBean> deviceTokens, int status, long multicastId) {
+      this.deviceTokens = deviceTokens;
+      this.results = new JsonNode[deviceTokens.size()];
+      this.status = status;
+      this.multicastId = multicastId;
+    }
+
+    private Stream<DeviceTokenBean> getDeadTokens() {
+      return IntStream.range(0, results.length)
+          .filter(i -> results[i] != null)
+          .filter(i -> DEAD_TOKEN_ERRORS.contains(results[i].path(ERROR).asText()))
+          .mapToObj(deviceTokens::get);
+    }
+  }
+}
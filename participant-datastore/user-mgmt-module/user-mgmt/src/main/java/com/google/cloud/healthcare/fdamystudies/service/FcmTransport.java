@@ -0,0 +1,35 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import java.io.IOException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Posts FCM send requests, so that {@link FcmNotificationSender} can be pointed at a local fake
+ * FCM endpoint or replaced by a stub in tests.
+ */
+public interface FcmTransport {
+
+  /** Posts the JSON payload with the app's server key, returns the HTTP status and body. */
+  Response send(String serverKey, String payload) throws IOException;
+
+  @Getter
+  @AllArgsConstructor
+  class Response {
+
+    private final int status;
+
+    private final String body;
+
+    /** Seconds to wait before retrying from the Retry-After header, 0 if there is none. */
+    private final long retryAfterSeconds;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationPropertyConfiguration;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Posts to the FCM URL of messaging.fcm.url over the shared pooled HTTP client, so that the sends
+ * reuse kept-alive connections instead of opening a connection per request.
+ */
+@Component
+public class HttpFcmTransport implements FcmTransport {
+
+  @Autowired private CloseableHttpClient httpClient;
+
+  @Autowired private ApplicationPropertyConfiguration applicationPropertyConfiguration;
+
+  @Override
+  public Response send(String serverKey, String payload) throws IOException {
+    HttpPost post = new HttpPost(applicationPropertyConfiguration.getApiUrlFcm());
+    post.setHeader(HttpHeaders.AUTHORIZATION, "key=" + serverKey);
+    post.setEntity(new StringEntity(payload, ContentType.APPLICATION_JSON));
+
+    try (CloseableHttpResponse response = httpClient.execute(post)) {
+      // the entity is consumed in full, so that the connection goes back to the pool
+      String body =
+          response.getEntity() != null
+              ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8)
+              : null;
+      Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+      return new Response(
+          response.getStatusLine().getStatusCode(),
+          body,
+          retryAfter != null ? NumberUtils.toLong(retryAfter.getValue()) : 0);
+    }
+  }
+}
@@ -11,11 +11,18 @@ import com.google.cloud.healthcare.fdamystudies.bean.StudyMetadataBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.ErrorBean;
 import com.google.cloud.healthcare.fdamystudies.beans.NotificationForm;
-import java.io.IOException;
+import com.google.cloud.healthcare.fdamystudies.beans.NotificationStatusBean;
+import com.google.cloud.healthcare.fdamystudies.common.NotificationStatus;
+import java.util.List;
 
 public interface StudiesServices {
   public ErrorBean saveStudyMetadata(StudyMetadataBean studyMetadataBean);
 
   public ErrorBean SendNotificationAction(
-      NotificationForm notificationForm, AuditLogEventRequest auditRequest) throws IOException;
+      NotificationForm notificationForm, AuditLogEventRequest auditRequest);
+
+  public NotificationStatusBean getNotificationStatus(String notificationOutboxId);
+
+  public List<NotificationStatusBean> getNotificationsByStatus(
+      NotificationStatus status, int page, int limit);
 }
@@ -8,52 +8,46 @@
 
 package com.google.cloud.healthcare.fdamystudies.service;
 
-import static com.google.cloud.healthcare.fdamystudies.common.UserMgmntEvent.PUSH_NOTIFICATION_FAILED;
-import static com.google.cloud.healthcare.fdamystudies.common.UserMgmntEvent.PUSH_NOTIFICATION_SENT;
+import static java.util.stream.Collectors.toSet;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.google.cloud.healthcare.fdamystudies.bean.StudyMetadataBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.ErrorBean;
 import com.google.cloud.healthcare.fdamystudies.beans.NotificationBean;
 import com.google.cloud.healthcare.fdamystudies.beans.NotificationForm;
-import com.google.cloud.healthcare.fdamystudies.beans.PushNotificationResponse;
-import com.google.cloud.healthcare.fdamystudies.common.UserMgmntAuditHelper;
+import com.google.cloud.healthcare.fdamystudies.beans.NotificationStatusBean;
+import com.google.cloud.healthcare.fdamystudies.common.NotificationStatus;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationPropertyConfiguration;
-import com.google.cloud.healthcare.fdamystudies.dao.AuthInfoBODao;
 import com.google.cloud.healthcare.fdamystudies.dao.CommonDao;
 import com.google.cloud.healthcare.fdamystudies.dao.StudiesDao;
 import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
+import com.google.cloud.healthcare.fdamystudies.model.NotificationDeliveryEntity;
+import com.google.cloud.healthcare.fdamystudies.model.NotificationOutboxEntity;
 import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
+import com.google.cloud.healthcare.fdamystudies.repository.NotificationDeliveryRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.NotificationOutboxRepository;
 import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.util.ErrorCode;
-import com.notnoop.apns.APNS;
-import com.notnoop.apns.ApnsService;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import javax.annotation.PostConstruct;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpStatus;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class StudiesServicesImpl implements StudiesServices {
@@ -62,13 +56,26 @@ public class StudiesServicesImpl implements StudiesServices {
 
   @Autowired private StudiesDao studiesDao;
 
-  @Autowired private AuthInfoBODao authInfoBoDao;
-
   @Autowired private CommonDao commonDao;
 
+  @Autowired private NotificationOutboxRepository notificationOutboxRepository;
+
+  @Autowired private NotificationDeliveryRepository notificationDeliveryRepository;
+
   @Autowired ApplicationPropertyConfiguration applicationPropertyConfiguration;
 
-  @Autowired UserMgmntAuditHelper userMgmntAuditLogHelper;
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  private TransactionTemplate transactionTemplate;
+
+  private TransactionTemplate readOnlyTransactionTemplate;
+
+  @PostConstruct
+  public void init() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+    readOnlyTransactionTemplate.setReadOnly(true);
+  }
 
   @Override
   @Transactional()
@@ -82,288 +89,201 @@ public class StudiesServicesImpl implements StudiesServices {
     return errorBean;
   }
 
+  /**
+   * Queues the notifications in the notification outbox, for the NotificationOutboxDispatcher to
+   * push, and returns the outbox id of each. A notification whose type, app or study is unknown is
+   * skipped, a notification already queued within the dedupe window is not queued again.
+   *
+   * <p>Each notification is queued in a transaction of its own: when a concurrent post of the same
+   * notification queued it first, the insert violates the unique key of the dedupe window and the
+   * notification it queued is returned instead.
+   */
   @Override
-  @Transactional()
   public ErrorBean SendNotificationAction(
-      NotificationForm notificationForm, AuditLogEventRequest auditRequest) throws IOException {
-    HashSet<String> studySet = new HashSet<>();
-    HashSet<String> appSet = new HashSet<>();
-    Map<String, Map<String, JSONArray>> studiesMap = null;
-    Map<Object, StudyEntity> studyInfobyStudyCustomId = new HashMap<>();
-    Map<String, JSONArray> allDeviceTokens = new HashMap<>();
-    Map<Object, AppEntity> appInfobyAppCustomId = new HashMap<>();
+      NotificationForm notificationForm, AuditLogEventRequest auditRequest) {
     logger.info("StudiesServicesImpl.SendNotificationAction() - starts");
-
+    HashSet<String> appIds = new HashSet<>();
+    HashSet<String> customStudyIds = new HashSet<>();
     for (NotificationBean notificationBean : notificationForm.getNotifications()) {
-      if (notificationBean.getNotificationType().equalsIgnoreCase(AppConstants.STUDY_LEVEL)) {
-        studySet.add(notificationBean.getCustomStudyId());
+      appIds.add(notificationBean.getAppId());
+      if (AppConstants.STUDY_LEVEL.equalsIgnoreCase(notificationBean.getNotificationType())) {
+        customStudyIds.add(notificationBean.getCustomStudyId());
       }
-      appSet.add(notificationBean.getAppId());
     }
 
-    if (appSet == null && appSet.isEmpty()) {
-      logger.debug("appset is empty return bad request");
-      return new ErrorBean(ErrorCode.EC_400.code(), ErrorCode.EC_400.errorMessage());
-    } else {
-      List<AppEntity> appInfos = commonDao.getAppInfoSet(appSet);
-      logger.debug(String.format("hasAppInfos=%b", (appInfos != null && !appInfos.isEmpty())));
-      if (appInfos != null && !appInfos.isEmpty()) {
-        allDeviceTokens = authInfoBoDao.getDeviceTokenOfAllUsers(appInfos);
-        appInfobyAppCustomId =
-            appInfos.stream().collect(Collectors.toMap(AppEntity::getAppId, Function.identity()));
-      }
-      logger.debug(String.format("hasStudiesSet=%b", (studySet != null && !studySet.isEmpty())));
-      if (studySet != null && !studySet.isEmpty()) {
-        List<StudyEntity> studyInfos = commonDao.getStudyInfoSet(studySet);
-        if (studyInfos != null && !studyInfos.isEmpty()) {
-          studiesMap = commonDao.getStudyLevelDeviceToken(studyInfos);
-          studyInfobyStudyCustomId =
-              studyInfos
-                  .stream()
-                  .collect(Collectors.toMap(StudyEntity::getCustomId, Function.identity()));
-        }
-      }
-      PushNotificationResponse fcmNotificationResponse = null;
-      if ((allDeviceTokens != null && !allDeviceTokens.isEmpty())
-          || (studiesMap != null && !studiesMap.isEmpty())) {
-        for (NotificationBean notificationBean : notificationForm.getNotifications()) {
-          auditRequest.setStudyId(notificationBean.getStudyId());
-          auditRequest.setAppId(notificationBean.getAppId());
-
-          if (notificationBean.getNotificationType().equalsIgnoreCase(AppConstants.GATEWAY_LEVEL)
-              && appInfobyAppCustomId != null) {
-
-            fcmNotificationResponse =
-                sendGatewaylevelNotification(
-                    allDeviceTokens, appInfobyAppCustomId, notificationBean);
-
-            auditRequest.setStudyId(notificationBean.getStudyId());
-
-            if (fcmNotificationResponse.getStatus() == HttpStatus.OK.value()) {
-              userMgmntAuditLogHelper.logEvent(PUSH_NOTIFICATION_SENT, auditRequest);
-            } else {
-              userMgmntAuditLogHelper.logEvent(PUSH_NOTIFICATION_FAILED, auditRequest);
-            }
-
-            logger.debug(
-                String.format(
-                    "status=%d and fcmNotificationResponse=%s",
-                    fcmNotificationResponse.getStatus(), fcmNotificationResponse.getFcmResponse()));
-            return new ErrorBean(
-                ErrorCode.EC_200.code(),
-                ErrorCode.EC_200.errorMessage(),
-                fcmNotificationResponse.getFcmResponse());
-
-          } else if (notificationBean
-                  .getNotificationType()
-                  .equalsIgnoreCase(AppConstants.STUDY_LEVEL)
-              && studyInfobyStudyCustomId != null
-              && studyInfobyStudyCustomId.get(notificationBean.getCustomStudyId()) != null
-              && studiesMap != null) {
-            logger.info("StudiesServicesImpl.SendNotificationAction() " + AppConstants.STUDY_LEVEL);
-            fcmNotificationResponse =
-                sendStudyLevelNotification(
-                    studiesMap, studyInfobyStudyCustomId, appInfobyAppCustomId, notificationBean);
-
-            auditRequest.setStudyId(notificationBean.getStudyId());
-
-            if (fcmNotificationResponse.getStatus() == HttpStatus.OK.value()) {
-              userMgmntAuditLogHelper.logEvent(PUSH_NOTIFICATION_SENT, auditRequest);
-            } else {
-              userMgmntAuditLogHelper.logEvent(PUSH_NOTIFICATION_FAILED, auditRequest);
-            }
-
-            logger.debug(
-                String.format(
-                    "status=%d and fcmNotificationResponse=%s",
-                    fcmNotificationResponse.getStatus(), fcmNotificationResponse.getFcmResponse()));
-            return new ErrorBean(
-                ErrorCode.EC_200.code(),
-                ErrorCode.EC_200.errorMessage(),
-                fcmNotificationResponse.getFcmResponse());
-          }
-        }
-      } else {
-        logger.debug(
+    Set<String> existingAppIds =
+        readOnlyTransactionTemplate.execute(
+            status ->
+                commonDao
+                    .getAppInfoSet(appIds)
+                    .stream()
+                    .map(AppEntity::getAppId)
+                    .collect(toSet()));
+    Set<String> existingCustomStudyIds =
+        customStudyIds.isEmpty()
+            ? Collections.emptySet()
+            : readOnlyTransactionTemplate.execute(
+                status ->
+                    commonDao
+                        .getStudyInfoSet(customStudyIds)
+                        .stream()
+                        .map(StudyEntity::getCustomId)
+                        .collect(toSet()));
+
+    long now = System.currentTimeMillis();
+    long dedupeWindowMillis =
+        TimeUnit.MINUTES.toMillis(
+            applicationPropertyConfiguration.getNotificationDedupeWindowMinutes());
+    Timestamp dedupeWindowStart = new Timestamp(now - dedupeWindowMillis);
+    long dedupeBucket = now / Math.max(dedupeWindowMillis, 1);
+    ArrayNode queued = JsonNodeFactory.instance.arrayNode();
+    for (NotificationBean notificationBean : notificationForm.getNotifications()) {
+      boolean studyLevel =
+          AppConstants.STUDY_LEVEL.equalsIgnoreCase(notificationBean.getNotificationType());
+      boolean gatewayLevel =
+          AppConstants.GATEWAY_LEVEL.equalsIgnoreCase(notificationBean.getNotificationType());
+      if (!existingAppIds.contains(notificationBean.getAppId())
+          || !(gatewayLevel
+              || (studyLevel
+                  && existingCustomStudyIds.contains(notificationBean.getCustomStudyId())))) {
+        logger.warn(
             String.format(
-                "hasDeviceTokens=%b and hasElementsInStudiesMap=%b",
-                (allDeviceTokens != null && !allDeviceTokens.isEmpty()),
-                (studiesMap != null && !studiesMap.isEmpty())));
-        return new ErrorBean(ErrorCode.EC_400.code(), ErrorCode.EC_400.errorMessage());
+                "notification %d skipped, unknown notificationType, app or study",
+                notificationBean.getNotificationId()));
+        continue;
       }
-    }
-
-    logger.info("StudiesServicesImpl.SendNotificationAction() - ends");
-    return new ErrorBean(ErrorCode.EC_200.code(), ErrorCode.EC_200.errorMessage());
-  }
-
-  private PushNotificationResponse sendStudyLevelNotification(
-      Map<String, Map<String, JSONArray>> studiesMap,
-      Map<Object, StudyEntity> studyInfobyStudyCustomId,
-      Map<Object, AppEntity> appInfobyAppCustomId,
-      NotificationBean notificationBean)
-      throws IOException {
 
-    Map<String, JSONArray> deviceTokensMap =
-        studiesMap.get(studyInfobyStudyCustomId.get(notificationBean.getCustomStudyId()).getId());
-    notificationBean.setNotificationType(AppConstants.STUDY);
-    PushNotificationResponse pushNotificationResponse = null;
-    if (deviceTokensMap != null) {
-      if (deviceTokensMap.get(AppConstants.DEVICE_ANDROID) != null) {
-        notificationBean.setDeviceToken(deviceTokensMap.get(AppConstants.DEVICE_ANDROID));
-        pushNotificationResponse =
-            pushFCMNotification(
-                notificationBean, appInfobyAppCustomId.get(notificationBean.getAppId()));
-      }
-      if (deviceTokensMap.get(AppConstants.DEVICE_IOS) != null) {
-        notificationBean.setDeviceToken(deviceTokensMap.get(AppConstants.DEVICE_IOS));
-        pushNotification(notificationBean, appInfobyAppCustomId.get(notificationBean.getAppId()));
-      }
+      NotificationOutboxEntity outbox =
+          queue(
+              toNotificationOutboxEntity(notificationBean, dedupeBucket, auditRequest),
+              dedupeWindowStart);
+      queued
+          .addObject()
+          .put("notificationId", notificationBean.getNotificationId())
+          .put("id", outbox.getId())
+          .put("status", outbox.getStatus());
     }
-    JsonNode fcmResponse =
-        pushNotificationResponse != null ? pushNotificationResponse.getFcmResponse() : null;
-    return new PushNotificationResponse(fcmResponse, HttpStatus.OK.value(), "success");
-  }
-
-  private PushNotificationResponse sendGatewaylevelNotification(
-      Map<String, JSONArray> allDeviceTokens,
-      Map<Object, AppEntity> appInfobyAppCustomId,
-      NotificationBean notificationBean)
-      throws IOException {
 
-    notificationBean.setNotificationType(AppConstants.GATEWAY);
-    PushNotificationResponse pushNotificationResponse = null;
-    if (allDeviceTokens.get(AppConstants.DEVICE_ANDROID) != null
-        && allDeviceTokens.get(AppConstants.DEVICE_ANDROID).length() != 0) {
-      notificationBean.setDeviceToken(allDeviceTokens.get(AppConstants.DEVICE_ANDROID));
-      pushNotificationResponse =
-          pushFCMNotification(
-              notificationBean, appInfobyAppCustomId.get(notificationBean.getAppId()));
-    }
-    if (allDeviceTokens.get(AppConstants.DEVICE_IOS) != null) {
-      notificationBean.setDeviceToken(allDeviceTokens.get(AppConstants.DEVICE_IOS));
-      pushNotification(notificationBean, appInfobyAppCustomId.get(notificationBean.getAppId()));
+    logger.info(
+        String.format(
+            "StudiesServicesImpl.SendNotificationAction() - ends, queued=%d", queued.size()));
+    if (queued.size() == 0) {
+      return new ErrorBean(ErrorCode.EC_400.code(), ErrorCode.EC_400.errorMessage());
     }
-    JsonNode fcmResponse =
-        pushNotificationResponse != null ? pushNotificationResponse.getFcmResponse() : null;
-    return new PushNotificationResponse(fcmResponse, HttpStatus.OK.value(), "success");
+    return new ErrorBean(ErrorCode.EC_200.code(), ErrorCode.EC_200.errorMessage(), queued);
   }
 
-  public PushNotificationResponse pushFCMNotification(
-      NotificationBean notification, AppEntity appPropertiesDetails) throws IOException {
-
-    String authKey = "";
-    logger.info("StudiesServicesImpl - pushFCMNotification() : starts");
-
-    if (notification.getDeviceToken() != null
-        && notification.getDeviceToken().length() > 0
-        && appPropertiesDetails != null) {
-
-      authKey = appPropertiesDetails.getAndroidServerKey(); // You FCM AUTH key
-
-      URL url = new URL((String) applicationPropertyConfiguration.getApiUrlFcm());
-      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-
-      conn.setUseCaches(false);
-      conn.setDoInput(true);
-      conn.setDoOutput(true);
-
-      conn.setRequestMethod("POST");
-      conn.setRequestProperty("Authorization", "key=" + authKey);
-      conn.setRequestProperty("Content-Type", "application/json");
-
-      JSONObject json = new JSONObject();
-
-      json.put("registration_ids", notification.getDeviceToken());
-      json.put("priority", "high");
-
-      JSONObject dataInfo = new JSONObject();
-      dataInfo.put("subtype", notification.getNotificationSubType());
-      dataInfo.put("type", notification.getNotificationType());
-      dataInfo.put("title", notification.getNotificationTitle());
-      dataInfo.put("message", notification.getNotificationText());
-      if (notification.getCustomStudyId() != null
-          && StringUtils.isNotEmpty(notification.getCustomStudyId())) {
-        dataInfo.put("studyId", notification.getCustomStudyId());
-      }
-      json.put("data", dataInfo);
-      OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
-      wr.write(json.toString());
-      wr.flush();
-      String response = IOUtils.toString(conn.getInputStream(), StandardCharsets.UTF_8);
-      JsonNode responseJson = new ObjectMapper().readTree(response);
-      PushNotificationResponse fcmNotificationResponse =
-          new PushNotificationResponse(
-              responseJson, conn.getResponseCode(), conn.getResponseMessage());
-      logger.trace(
-          String.format(
-              "FCM Notification Response status=%d, response=%s",
-              conn.getResponseCode(), response));
-      return fcmNotificationResponse;
+  private NotificationOutboxEntity queue(
+      NotificationOutboxEntity outbox, Timestamp dedupeWindowStart) {
+    try {
+      return transactionTemplate.execute(
+          status ->
+              notificationOutboxRepository
+                  .findFirstByIdempotencyKeyAndCreatedAfter(
+                      outbox.getIdempotencyKey(), dedupeWindowStart)
+                  .orElseGet(() -> notificationOutboxRepository.saveAndFlush(outbox)));
+    } catch (DataIntegrityViolationException e) {
+      // a concurrent post of the notification queued it first
+      return readOnlyTransactionTemplate
+          .execute(
+              status ->
+                  notificationOutboxRepository.findByIdempotencyKeyAndDedupeBucket(
+                      outbox.getIdempotencyKey(), outbox.getDedupeBucket()))
+          .orElseThrow(() -> e);
     }
-
-    return new PushNotificationResponse(null, HttpStatus.OK.value(), "SUCCESS");
   }
 
-  public void pushNotification(NotificationBean notificationBean, AppEntity appPropertiesDetails)
-      throws IOException {
+  private String getIdempotencyKey(NotificationBean notificationBean) {
+    return DigestUtils.sha256Hex(
+        String.join(
+            "|",
+            notificationBean.getAppId(),
+            notificationBean.getCustomStudyId(),
+            notificationBean.getNotificationType(),
+            notificationBean.getNotificationSubType(),
+            String.valueOf(notificationBean.getNotificationId()),
+            notificationBean.getNotificationTitle(),
+            notificationBean.getNotificationText()));
+  }
 
-    logger.info("StudiesServicesImpl - pushNotification() : starts");
-    String certificatePassword = "";
-    String iosNotificationType = applicationPropertyConfiguration.getIosPushNotificationType();
+  private NotificationOutboxEntity toNotificationOutboxEntity(
+      NotificationBean notificationBean, long dedupeBucket, AuditLogEventRequest auditRequest) {
+    NotificationOutboxEntity outbox = new NotificationOutboxEntity();
+    outbox.setIdempotencyKey(getIdempotencyKey(notificationBean));
+    outbox.setDedupeBucket(dedupeBucket);
+    outbox.setNotificationId(notificationBean.getNotificationId());
+    outbox.setAppId(notificationBean.getAppId());
+    outbox.setStudyId(notificationBean.getStudyId());
+    outbox.setCustomStudyId(notificationBean.getCustomStudyId());
+    outbox.setNotificationType(notificationBean.getNotificationType());
+    outbox.setNotificationSubType(notificationBean.getNotificationSubType());
+    outbox.setNotificationTitle(notificationBean.getNotificationTitle());
+    outbox.setNotificationText(notificationBean.getNotificationText());
+    outbox.setStatus(NotificationStatus.PENDING.getStatus());
+    outbox.setCorrelationId(auditRequest.getCorrelationId());
+    outbox.setSource(auditRequest.getSource());
+    outbox.setUserId(auditRequest.getUserId());
+    outbox.setAppVersion(auditRequest.getAppVersion());
+    outbox.setMobilePlatform(auditRequest.getMobilePlatform());
+    return outbox;
+  }
 
-    File file = null;
-    if (notificationBean.getDeviceToken() != null
-        && notificationBean.getDeviceToken().length() > 0
-        && appPropertiesDetails != null) {
-      File root = null;
-      certificatePassword = appPropertiesDetails.getIosCertificatePassword();
+  @Override
+  @Transactional(readOnly = true)
+  public NotificationStatusBean getNotificationStatus(String notificationOutboxId) {
+    return notificationOutboxRepository
+        .findById(notificationOutboxId)
+        .map(
+            outbox -> {
+              NotificationStatusBean notificationStatus = toNotificationStatusBean(outbox);
+              for (NotificationDeliveryEntity delivery :
+                  notificationDeliveryRepository.findByNotificationOutboxIdOrderByCreated(
+                      notificationOutboxId)) {
+                notificationStatus.getDeliveries().add(toDelivery(delivery));
+              }
+              return notificationStatus;
+            })
+        .orElse(null);
+  }
 
-      byte[] decodedBytes;
-      FileOutputStream fop;
-      decodedBytes =
-          java.util.Base64.getDecoder()
-              .decode(appPropertiesDetails.getIosCertificate().replaceAll("\n", ""));
-      file = File.createTempFile("pushCert_" + appPropertiesDetails.getAppId(), ".p12");
-      fop = new FileOutputStream(file);
-      fop.write(decodedBytes);
-      fop.flush();
-      fop.close();
-      file.deleteOnExit();
+  @Override
+  @Transactional(readOnly = true)
+  public List<NotificationStatusBean> getNotificationsByStatus(
+      NotificationStatus status, int page, int limit) {
+    return notificationOutboxRepository
+        .findByStatusOrderByCreatedDesc(status.getStatus(), PageRequest.of(page, limit))
+        .stream()
+        .map(StudiesServicesImpl::toNotificationStatusBean)
+        .collect(Collectors.toList());
+  }
 
-      ApnsService service = null;
-      if (file != null) {
-        if (iosNotificationType.equals("production")) {
-          service =
-              APNS.newService()
-                  .withCert(file.getPath(), certificatePassword)
-                  .withProductionDestination()
-                  .build();
-        } else {
-          service =
-              APNS.newService()
-                  .withCert(file.getPath(), certificatePassword)
-                  .withSandboxDestination()
-                  .build();
-        }
-        List<String> tokens = new ArrayList<String>();
+  private static NotificationStatusBean toNotificationStatusBean(NotificationOutboxEntity outbox) {
+    NotificationStatusBean notificationStatus = new NotificationStatusBean();
+    notificationStatus.setId(outbox.getId());
+    notificationStatus.setNotificationId(outbox.getNotificationId());
+    notificationStatus.setAppId(outbox.getAppId());
+    notificationStatus.setCustomStudyId(outbox.getCustomStudyId());
+    notificationStatus.setNotificationType(outbox.getNotificationType());
+    notificationStatus.setStatus(outbox.getStatus());
+    notificationStatus.setAttempts(outbox.getAttempts());
+    notificationStatus.setNextAttemptTime(outbox.getNextAttemptTime());
+    notificationStatus.setDeliveredCount(outbox.getDeliveredCount());
+    notificationStatus.setFailedCount(outbox.getFailedCount());
+    notificationStatus.setLastError(outbox.getLastError());
+    notificationStatus.setCreatedTime(outbox.getCreated());
+    notificationStatus.setUpdatedTime(outbox.getModified());
+    return notificationStatus;
+  }
 
-        for (int i = 0; i < notificationBean.getDeviceToken().length(); i++) {
-          String token = (String) notificationBean.getDeviceToken().get(i);
-          tokens.add(token);
-        }
-        String customPayload =
-            APNS.newPayload()
-                .badge(1)
-                .alertTitle("")
-                .alertBody(notificationBean.getNotificationText())
-                .customField("subtype", notificationBean.getNotificationSubType())
-                .customField("type", notificationBean.getNotificationType())
-                .customField("studyId", notificationBean.getCustomStudyId())
-                .sound("default")
-                .build();
-        service.push(tokens, customPayload);
-      }
-    }
+  private static NotificationStatusBean.Delivery toDelivery(NotificationDeliveryEntity entity) {
+    NotificationStatusBean.Delivery delivery = new NotificationStatusBean.Delivery();
+    delivery.setDeviceType(entity.getDeviceType());
+    delivery.setStatus(entity.getStatus());
+    delivery.setTokenCount(entity.getTokenCount());
+    delivery.setAttempts(entity.getAttempts());
+    delivery.setDeliveredCount(entity.getDeliveredCount());
+    delivery.setFailedCount(entity.getFailedCount());
+    delivery.setLastError(entity.getLastError());
+    return delivery;
   }
 }
@@ -75,6 +75,8 @@ public class UserManagementProfileServiceImpl implements UserManagementProfileSe
 
   @Autowired UserDetailsRepository userDetailsRepository;
 
+  @Autowired private SiteParticipantCountService siteParticipantCountService;
+
   private static final Logger logger =
       LoggerFactory.getLogger(UserManagementProfileServiceImpl.class);
 
@@ -291,7 +293,9 @@ public class UserManagementProfileServiceImpl implements UserManagementProfileSe
     if (retVal != null
         && retVal.equalsIgnoreCase(MyStudiesUserRegUtil.ErrorCodes.SUCCESS.getValue())) {
 
-      userProfileManagementDao.deactivateAcct(userId, deleteData, userDetailsId);
+      List<String> siteIds =
+          userProfileManagementDao.deactivateAcct(userId, deleteData, userDetailsId);
+      siteParticipantCountService.recountAfterCommit(siteIds);
 
       UserDetailsEntity userDetailsEntity = optUserDetails.get();
       userDetailsEntity.setStatus(UserStatus.DEACTIVATE_PENDING.getValue());
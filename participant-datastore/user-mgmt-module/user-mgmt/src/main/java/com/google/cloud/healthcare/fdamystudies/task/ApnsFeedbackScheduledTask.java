@@ -0,0 +1,34 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.task;
+
+import com.google.cloud.healthcare.fdamystudies.service.ApnsClientRegistry;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ApnsFeedbackScheduledTask {
+  private XLogger logger = XLoggerFactory.getXLogger(ApnsFeedbackScheduledTask.class.getName());
+
+  @Autowired ApnsClientRegistry apnsClientRegistry;
+
+  @Scheduled(
+      fixedDelayString = "${push.notification.apns.feedback.fixed-delay-ms}",
+      initialDelayString = "${push.notification.apns.feedback.fixed-delay-ms}")
+  public void processFeedback() {
+    logger.entry("begin processFeedback()");
+
+    apnsClientRegistry.processFeedback();
+
+    logger.exit("processFeedback() completed");
+  }
+}
@@ -0,0 +1,597 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.task;
+
+import static com.google.cloud.healthcare.fdamystudies.common.UserMgmntEvent.PUSH_NOTIFICATION_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.common.UserMgmntEvent.PUSH_NOTIFICATION_SENT;
+
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.beans.DeviceTokenBean;
+import com.google.cloud.healthcare.fdamystudies.beans.NotificationBean;
+import com.google.cloud.healthcare.fdamystudies.beans.PushNotificationResponse;
+import com.google.cloud.healthcare.fdamystudies.common.NotificationStatus;
+import com.google.cloud.healthcare.fdamystudies.common.UserMgmntAuditHelper;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationPropertyConfiguration;
+import com.google.cloud.healthcare.fdamystudies.dao.CommonDao;
+import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
+import com.google.cloud.healthcare.fdamystudies.model.NotificationDeliveryEntity;
+import com.google.cloud.healthcare.fdamystudies.model.NotificationOutboxEntity;
+import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
+import com.google.cloud.healthcare.fdamystudies.repository.NotificationDeliveryRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.NotificationOutboxRepository;
+import com.google.cloud.healthcare.fdamystudies.service.ApnsClientRegistry;
+import com.google.cloud.healthcare.fdamystudies.service.FcmNotificationSender;
+import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
+import com.notnoop.apns.APNS;
+import com.notnoop.apns.ApnsService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Pushes the notifications queued in the notification outbox. Each run claims a batch of due
+ * notifications in a short transaction that locks them, skipping the ones another service instance
+ * has locked, and a bounded pool of workers pushes each notification to the device tokens of each
+ * platform, a chunk of tokens at a time.
+ *
+ * <p>Every chunk is recorded with the auth_info id it starts after, so a notification claimed
+ * again, after a failed chunk or a restart, retries its failed chunks and resumes after its last
+ * recorded chunk instead of pushing the sent chunks again. Failed chunks are retried by later runs
+ * with backoff, a chunk that still fails after the last attempt dead-letters its notification.
+ *
+ * <p>A worker checks that the run still holds the claim of the notification before it pushes a
+ * chunk, and renews the claim when it records the chunk, so a notification whose claim expired
+ * while its chunks were pushed is left to the service instance that claimed it again.
+ */
+@Component
+public class NotificationOutboxDispatcher {
+
+  private XLogger logger = XLoggerFactory.getXLogger(NotificationOutboxDispatcher.class.getName());
+
+  private static final List<String> DEVICE_TYPES =
+      Arrays.asList(AppConstants.DEVICE_ANDROID, AppConstants.DEVICE_IOS);
+
+  @Autowired private NotificationOutboxRepository notificationOutboxRepository;
+
+  @Autowired private NotificationDeliveryRepository notificationDeliveryRepository;
+
+  @Autowired private CommonDao commonDao;
+
+  @Autowired private FcmNotificationSender fcmNotificationSender;
+
+  @Autowired private ApnsClientRegistry apnsClientRegistry;
+
+  @Autowired private UserMgmntAuditHelper userMgmntAuditHelper;
+
+  @Autowired private ApplicationPropertyConfiguration applicationPropertyConfiguration;
+
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${push.notification.outbox.batch-size}")
+  private int batchSize;
+
+  @Value("${push.notification.outbox.workers}")
+  private int workers;
+
+  @Value("${push.notification.outbox.claim-lease-ms}")
+  private long claimLeaseMillis;
+
+  @Value("${push.notification.outbox.retry.max-attempts}")
+  private int maxAttempts;
+
+  @Value("${push.notification.outbox.retry.initial-backoff-ms}")
+  private long initialBackoffMillis;
+
+  @Value("${push.notification.outbox.retry.max-backoff-ms}")
+  private long maxBackoffMillis;
+
+  private TransactionTemplate transactionTemplate;
+
+  private TransactionTemplate readOnlyTransactionTemplate;
+
+  private ExecutorService workerPool;
+
+  private Timer dispatchTimer;
+
+  private Counter sentNotifications;
+
+  private Counter retriedNotifications;
+
+  private Counter deadLetterNotifications;
+
+  @PostConstruct
+  public void init() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+    readOnlyTransactionTemplate.setReadOnly(true);
+    AtomicInteger threadCount = new AtomicInteger();
+    workerPool =
+        Executors.newFixedThreadPool(
+            workers,
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "notification-worker-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    dispatchTimer =
+        Timer.builder("push.outbox.dispatch")
+            .description("Time to push a batch of queued notifications")
+            .register(meterRegistry);
+    sentNotifications = meterRegistry.counter("push.outbox.sent");
+    retriedNotifications = meterRegistry.counter("push.outbox.retried");
+    deadLetterNotifications = meterRegistry.counter("push.outbox.dead-letter");
+  }
+
+  /** Pushes the notifications due when it is called, returns when all of them were tried. */
+  public void dispatch() {
+    logger.entry("begin dispatch()");
+    int dispatched = 0;
+    List<Notification> batch;
+    while (!(batch = claimBatch()).isEmpty()) {
+      long start = System.nanoTime();
+      List<Future<?>> futures = new ArrayList<>();
+      for (Notification notification : batch) {
+        if (notification.recipientsFound) {
+          for (String deviceType : DEVICE_TYPES) {
+            futures.add(workerPool.submit(() -> fanOut(notification, deviceType)));
+          }
+        }
+      }
+      if (!awaitAll(futures)) {
+        break;
+      }
+
+      batch.forEach(this::complete);
+      dispatchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      dispatched += batch.size();
+      if (batch.size() < batchSize) {
+        break;
+      }
+    }
+    logger.exit(String.format("dispatch() completed, dispatched=%d", dispatched));
+  }
+
+  /**
+   * Claims the due notifications and loads their apps and studies, a notification whose app or
+   * study is gone gets a failure and is not pushed.
+   */
+  private List<Notification> claimBatch() {
+    return transactionTemplate.execute(
+        status -> {
+          Timestamp now = new Timestamp(System.currentTimeMillis());
+          Timestamp claimedTime = toWholeSeconds(now.getTime());
+          List<NotificationOutboxEntity> outboxes =
+              notificationOutboxRepository.findDueForUpdate(
+                  now,
+                  new Timestamp(now.getTime() - claimLeaseMillis),
+                  PageRequest.of(0, batchSize));
+          if (outboxes.isEmpty()) {
+            return Collections.<Notification>emptyList();
+          }
+
+          HashSet<String> appIds = new HashSet<>();
+          HashSet<String> customStudyIds = new HashSet<>();
+          for (NotificationOutboxEntity outbox : outboxes) {
+            outbox.setStatus(NotificationStatus.IN_PROGRESS.getStatus());
+            outbox.setClaimedTime(claimedTime);
+            outbox.setAttempts(outbox.getAttempts() + 1);
+            appIds.add(outbox.getAppId());
+            if (AppConstants.STUDY_LEVEL.equalsIgnoreCase(outbox.getNotificationType())) {
+              customStudyIds.add(outbox.getCustomStudyId());
+            }
+          }
+
+          Map<String, AppEntity> apps =
+              commonDao
+                  .getAppInfoSet(appIds)
+                  .stream()
+                  .collect(Collectors.toMap(AppEntity::getAppId, Function.identity()));
+          Map<String, StudyEntity> studies =
+              customStudyIds.isEmpty()
+                  ? Collections.emptyMap()
+                  : commonDao
+                      .getStudyInfoSet(customStudyIds)
+                      .stream()
+                      .collect(Collectors.toMap(StudyEntity::getCustomId, Function.identity()));
+
+          List<Notification> notifications = new ArrayList<>(outboxes.size());
+          for (NotificationOutboxEntity outbox : outboxes) {
+            notifications.add(
+                new Notification(
+                    outbox,
+                    apps.get(outbox.getAppId()),
+                    AppConstants.STUDY_LEVEL.equalsIgnoreCase(outbox.getNotificationType())
+                        ? studies.get(outbox.getCustomStudyId())
+                        : null));
+          }
+          return notifications;
+        });
+  }
+
+  private boolean awaitAll(List<Future<?>> futures) {
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        futures.forEach(pending -> pending.cancel(true));
+        // the claimed notifications are claimed again when their claim expires
+        return false;
+      } catch (ExecutionException e) {
+        logger.error("pushing a notification failed with an exception", e.getCause());
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Retries the failed chunks of the platform, then pushes the chunks after the last recorded one.
+   */
+  private void fanOut(Notification notification, String deviceType) {
+    try {
+      String cursor = StringUtils.EMPTY;
+      for (NotificationDeliveryEntity delivery :
+          notificationDeliveryRepository.findByNotificationOutboxIdAndDeviceTypeOrderByCreated(
+              notification.outbox.getId(), deviceType)) {
+        if (NotificationStatus.FAILED.getStatus().equals(delivery.getStatus())) {
+          List<DeviceTokenBean> deviceTokens =
+              readDeviceTokens(
+                      notification,
+                      deviceType,
+                      delivery.getStartAfterId(),
+                      delivery.getTokenCount())
+                  .stream()
+                  .filter(deviceToken -> deviceToken.getId().compareTo(delivery.getEndId()) <= 0)
+                  .collect(Collectors.toList());
+          if (!push(notification, delivery, deviceTokens)) {
+            return;
+          }
+        }
+        if (delivery.getEndId().compareTo(cursor) > 0) {
+          cursor = delivery.getEndId();
+        }
+      }
+
+      int chunkSize = applicationPropertyConfiguration.getDeviceTokenPageSize();
+      List<DeviceTokenBean> deviceTokens;
+      do {
+        deviceTokens = readDeviceTokens(notification, deviceType, cursor, chunkSize);
+        if (deviceTokens.isEmpty()) {
+          break;
+        }
+
+        NotificationDeliveryEntity delivery = new NotificationDeliveryEntity();
+        delivery.setNotificationOutboxId(notification.outbox.getId());
+        delivery.setDeviceType(deviceType);
+        delivery.setStartAfterId(cursor);
+        delivery.setEndId(deviceTokens.get(deviceTokens.size() - 1).getId());
+        delivery.setTokenCount(deviceTokens.size());
+        if (!push(notification, delivery, deviceTokens)) {
+          return;
+        }
+        cursor = delivery.getEndId();
+      } while (deviceTokens.size() == chunkSize);
+    } catch (RuntimeException e) {
+      logger.error(
+          String.format(
+              "pushing notification %s to %s devices failed",
+              notification.outbox.getId(), deviceType),
+          e);
+      notification.failure = StringUtils.abbreviate(e.toString(), 255);
+    }
+  }
+
+  /** The DAO reads with the session of the current transaction, the workers have none. */
+  private List<DeviceTokenBean> readDeviceTokens(
+      Notification notification, String deviceType, String lastId, int limit) {
+    return readOnlyTransactionTemplate.execute(
+        status ->
+            notification.study != null
+                ? commonDao.getStudyLevelDeviceTokens(
+                    notification.study, deviceType, lastId, limit)
+                : commonDao.getDeviceTokens(notification.app, deviceType, lastId, limit));
+  }
+
+  /** Pushes and records the chunk, returns false when the run no longer holds the claim. */
+  private boolean push(
+      Notification notification,
+      NotificationDeliveryEntity delivery,
+      List<DeviceTokenBean> deviceTokens) {
+    if (!holdsClaim(notification)) {
+      return false;
+    }
+
+    delivery.setAttempts(delivery.getAttempts() + 1);
+    delivery.setStatus(NotificationStatus.SENT.getStatus());
+    delivery.setDeliveredCount(0);
+    delivery.setFailedCount(0);
+    delivery.setLastError(null);
+    try {
+      if (deviceTokens.isEmpty()) {
+        // the tokens of the chunk were removed since it failed
+      } else if (AppConstants.DEVICE_ANDROID.equals(delivery.getDeviceType())) {
+        PushNotificationResponse response =
+            fcmNotificationSender.send(notification.bean, notification.app, deviceTokens);
+        if (response.getStatus() != HttpStatus.OK.value()) {
+          fail(delivery, String.format("FCM status %d", response.getStatus()));
+        } else if (response.getFcmResponse() != null) {
+          delivery.setDeliveredCount(response.getFcmResponse().path("success").asInt());
+          delivery.setFailedCount(response.getFcmResponse().path("failure").asInt());
+        }
+      } else {
+        ApnsService service = apnsClientRegistry.getService(notification.app);
+        if (service == null) {
+          // a configuration gap of the app, not a delivery failure of the notification
+          delivery.setStatus(NotificationStatus.SKIPPED.getStatus());
+          delivery.setLastError("no iOS certificate");
+        } else {
+          service.push(
+              deviceTokens
+                  .stream()
+                  .map(DeviceTokenBean::getDeviceToken)
+                  .collect(Collectors.toList()),
+              toApnsPayload(notification.bean));
+          delivery.setDeliveredCount(deviceTokens.size());
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.warn(
+          String.format(
+              "pushing notification %s to %s devices after %s failed",
+              notification.outbox.getId(), delivery.getDeviceType(), delivery.getStartAfterId()),
+          e);
+      fail(delivery, e.toString());
+    }
+    return record(notification, delivery);
+  }
+
+  /**
+   * The workers of both platforms check and renew the claim of a notification, they do it one at a
+   * time so that each of them compares with the last renewed claim time.
+   */
+  private boolean holdsClaim(Notification notification) {
+    synchronized (notification) {
+      if (!notification.claimLost
+          && !readOnlyTransactionTemplate.execute(
+              status ->
+                  notificationOutboxRepository.existsByIdAndStatusAndClaimedTime(
+                      notification.outbox.getId(),
+                      NotificationStatus.IN_PROGRESS.getStatus(),
+                      notification.claimedTime))) {
+        notification.claimLost = true;
+      }
+      return !notification.claimLost;
+    }
+  }
+
+  /** Saves the chunk and renews the claim of the notification in one transaction. */
+  private boolean record(Notification notification, NotificationDeliveryEntity delivery) {
+    synchronized (notification) {
+      Timestamp renewedTime = toWholeSeconds(System.currentTimeMillis());
+      int renewed =
+          transactionTemplate.execute(
+              status -> {
+                notificationDeliveryRepository.save(delivery);
+                return notificationOutboxRepository.renewClaim(
+                    notification.outbox.getId(), notification.claimedTime, renewedTime);
+              });
+      if (renewed == 1) {
+        notification.claimedTime = renewedTime;
+      } else {
+        notification.claimLost = true;
+      }
+      return !notification.claimLost;
+    }
+  }
+
+  /** The claim time is compared with the stored one, the column does not keep fractions */
+  private Timestamp toWholeSeconds(long millis) {
+    return new Timestamp(millis - millis % 1000);
+  }
+
+  private void fail(NotificationDeliveryEntity delivery, String error) {
+    delivery.setStatus(
+        delivery.getAttempts() >= maxAttempts
+            ? NotificationStatus.DEAD_LETTER.getStatus()
+            : NotificationStatus.FAILED.getStatus());
+    delivery.setFailedCount(delivery.getTokenCount());
+    delivery.setLastError(StringUtils.abbreviate(error, 255));
+  }
+
+  private String toApnsPayload(NotificationBean notificationBean) {
+    return APNS.newPayload()
+        .badge(1)
+        .alertTitle("")
+        .alertBody(notificationBean.getNotificationText())
+        .customField("subtype", notificationBean.getNotificationSubType())
+        .customField("type", notificationBean.getNotificationType())
+        .customField("studyId", notificationBean.getCustomStudyId())
+        .sound("default")
+        .build();
+  }
+
+  /** Sets the status of the notification from the status of its chunks. */
+  private void complete(Notification notification) {
+    NotificationStatus status =
+        transactionTemplate.execute(
+            transactionStatus -> {
+              NotificationOutboxEntity outbox =
+                  notificationOutboxRepository.findById(notification.outbox.getId()).get();
+              if (notification.claimLost
+                  || !NotificationStatus.IN_PROGRESS.getStatus().equals(outbox.getStatus())
+                  || !notification.claimedTime.equals(outbox.getClaimedTime())) {
+                // the claim expired and another service instance completes the notification
+                return null;
+              }
+              List<NotificationDeliveryEntity> deliveries =
+                  notificationDeliveryRepository.findByNotificationOutboxIdOrderByCreated(
+                      outbox.getId());
+
+              String lastError = notification.failure;
+              boolean deadLetter = !notification.recipientsFound;
+              boolean retry = notification.failure != null && !deadLetter;
+              int deliveredCount = 0;
+              int failedCount = 0;
+              String skippedError = null;
+              for (NotificationDeliveryEntity delivery : deliveries) {
+                deliveredCount += delivery.getDeliveredCount();
+                failedCount += delivery.getFailedCount();
+                if (NotificationStatus.DEAD_LETTER.getStatus().equals(delivery.getStatus())) {
+                  deadLetter = true;
+                  lastError = delivery.getLastError();
+                } else if (NotificationStatus.FAILED.getStatus().equals(delivery.getStatus())) {
+                  retry = true;
+                  lastError = StringUtils.defaultString(lastError, delivery.getLastError());
+                } else if (NotificationStatus.SKIPPED.getStatus().equals(delivery.getStatus())) {
+                  skippedError = delivery.getLastError();
+                }
+              }
+
+              NotificationStatus notificationStatus = NotificationStatus.SENT;
+              if (deadLetter || (retry && outbox.getAttempts() >= maxAttempts)) {
+                notificationStatus = NotificationStatus.DEAD_LETTER;
+              } else if (retry) {
+                notificationStatus = NotificationStatus.PENDING;
+                outbox.setNextAttemptTime(
+                    new Timestamp(System.currentTimeMillis() + getBackoff(outbox.getAttempts())));
+              }
+              outbox.setStatus(notificationStatus.getStatus());
+              outbox.setClaimedTime(null);
+              outbox.setDeliveredCount(deliveredCount);
+              outbox.setFailedCount(failedCount);
+              outbox.setLastError(StringUtils.defaultString(lastError, skippedError));
+              return notificationStatus;
+            });
+
+    if (status == null) {
+      logger.warn(
+          String.format(
+              "notification %s was claimed again before it was completed",
+              notification.outbox.getId()));
+      return;
+    }
+    switch (status) {
+      case SENT:
+        sentNotifications.increment();
+        userMgmntAuditHelper.logEvent(PUSH_NOTIFICATION_SENT, toAuditRequest(notification));
+        break;
+      case DEAD_LETTER:
+        deadLetterNotifications.increment();
+        userMgmntAuditHelper.logEvent(PUSH_NOTIFICATION_FAILED, toAuditRequest(notification));
+        break;
+      default:
+        retriedNotifications.increment();
+    }
+  }
+
+  private long getBackoff(int attempts) {
+    long backoffMillis = initialBackoffMillis;
+    for (int attempt = 1; attempt < attempts && backoffMillis < maxBackoffMillis; attempt++) {
+      backoffMillis *= 2;
+    }
+    return Math.min(backoffMillis, maxBackoffMillis);
+  }
+
+  private AuditLogEventRequest toAuditRequest(Notification notification) {
+    NotificationOutboxEntity outbox = notification.outbox;
+    AuditLogEventRequest auditRequest = new AuditLogEventRequest();
+    auditRequest.setAppId(outbox.getAppId());
+    auditRequest.setStudyId(outbox.getStudyId());
+    auditRequest.setAppVersion(outbox.getAppVersion());
+    auditRequest.setCorrelationId(outbox.getCorrelationId());
+    auditRequest.setSource(outbox.getSource());
+    auditRequest.setMobilePlatform(outbox.getMobilePlatform());
+    auditRequest.setUserId(outbox.getUserId());
+    return auditRequest;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    workerPool.shutdownNow();
+  }
+
+  private static class Notification {
+
+    private final NotificationOutboxEntity outbox;
+
+    private final AppEntity app;
+
+    /** Set for a study level notification */
+    private final StudyEntity study;
+
+    private final NotificationBean bean;
+
+    /** False when the app or study was deleted since the notification was queued */
+    private final boolean recipientsFound;
+
+    /** Set when the notification could not be pushed to all its chunks, read after the workers */
+    private volatile String failure;
+
+    /** Claim time held by the run, the workers renew it while they hold the monitor */
+    private Timestamp claimedTime;
+
+    /** Set when the claim expired and another service instance claimed the notification again */
+    private boolean claimLost;
+
+    private Notification(NotificationOutboxEntity outbox, AppEntity app, StudyEntity study) {
+      this.outbox = outbox;
+      this.app = app;
+      this.study = study;
+      this.claimedTime = outbox.getClaimedTime();
+
+      boolean studyLevel = AppConstants.STUDY_LEVEL.equalsIgnoreCase(outbox.getNotificationType());
+      bean =
+          new NotificationBean(
+              outbox.getStudyId(),
+              outbox.getCustomStudyId(),
+              outbox.getAppId(),
+              studyLevel ? AppConstants.STUDY : AppConstants.GATEWAY);
+      bean.setNotificationSubType(outbox.getNotificationSubType());
+      bean.setNotificationTitle(outbox.getNotificationTitle());
+      bean.setNotificationText(outbox.getNotificationText());
+      bean.setNotificationId(outbox.getNotificationId());
+
+      recipientsFound = app != null && (!studyLevel || study != null);
+      if (!recipientsFound) {
+        failure = studyLevel ? "app or study not found" : "app not found";
+      }
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.task;
+
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class NotificationOutboxScheduledTask {
+  private XLogger logger =
+      XLoggerFactory.getXLogger(NotificationOutboxScheduledTask.class.getName());
+
+  @Autowired NotificationOutboxDispatcher notificationOutboxDispatcher;
+
+  @Scheduled(
+      fixedDelayString = "${push.notification.outbox.fixed-delay-ms}",
+      initialDelayString = "${push.notification.outbox.initial-delay-ms}")
+  public void dispatchNotifications() {
+    logger.entry("begin dispatchNotifications()");
+
+    notificationOutboxDispatcher.dispatch();
+
+    logger.exit("dispatchNotifications() completed");
+  }
+}
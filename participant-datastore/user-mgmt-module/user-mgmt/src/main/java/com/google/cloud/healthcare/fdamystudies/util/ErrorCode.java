@@ -27,6 +27,8 @@ public enum ErrorCode {
 
   EC_403(403, "You are forbidden to access this information."),
 
+  EC_404(404, "The requested information was not found."),
+
   EC_500(500, "Internal Server Error."),
 
   EC_701(701, "The argument that you provided is a required argument but it is blank or null."),
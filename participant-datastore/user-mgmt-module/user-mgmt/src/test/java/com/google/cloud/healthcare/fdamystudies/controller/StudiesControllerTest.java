@@ -8,12 +8,21 @@
 
 package com.google.cloud.healthcare.fdamystudies.controller;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.google.cloud.healthcare.fdamystudies.common.UserMgmntEvent.STUDY_METADATA_RECEIVED;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.everyItem;
 import static org.hamcrest.CoreMatchers.is;
-import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.Matchers.hasSize;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
@@ -22,33 +31,64 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.stubbing.StubMapping;
 import com.google.cloud.healthcare.fdamystudies.bean.StudyMetadataBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.beans.DeviceTokenBean;
 import com.google.cloud.healthcare.fdamystudies.beans.NotificationBean;
 import com.google.cloud.healthcare.fdamystudies.beans.NotificationForm;
 import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.common.EnrollmentStatus;
+import com.google.cloud.healthcare.fdamystudies.common.IdGenerator;
+import com.google.cloud.healthcare.fdamystudies.common.NotificationStatus;
 import com.google.cloud.healthcare.fdamystudies.dao.CommonDaoImpl;
+import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
 import com.google.cloud.healthcare.fdamystudies.model.AppPermissionEntity;
+import com.google.cloud.healthcare.fdamystudies.model.AuthInfoEntity;
+import com.google.cloud.healthcare.fdamystudies.model.NotificationDeliveryEntity;
+import com.google.cloud.healthcare.fdamystudies.model.NotificationOutboxEntity;
 import com.google.cloud.healthcare.fdamystudies.model.SitePermissionEntity;
 import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import com.google.cloud.healthcare.fdamystudies.model.StudyPermissionEntity;
 import com.google.cloud.healthcare.fdamystudies.repository.AppPermissionRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.AppRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.AuthInfoRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.NotificationDeliveryRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.NotificationOutboxRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.SitePermissionRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.StudyPermissionRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.UserRegAdminRepository;
+import com.google.cloud.healthcare.fdamystudies.service.ApnsClientRegistry;
 import com.google.cloud.healthcare.fdamystudies.service.StudiesServices;
+import com.google.cloud.healthcare.fdamystudies.task.NotificationOutboxDispatcher;
 import com.google.cloud.healthcare.fdamystudies.testutils.Constants;
 import com.google.cloud.healthcare.fdamystudies.testutils.TestUtils;
+import com.google.cloud.healthcare.fdamystudies.util.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.util.ErrorCode;
+import com.jayway.jsonpath.JsonPath;
+import com.notnoop.apns.ApnsService;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.apache.commons.collections4.map.HashedMap;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 public class StudiesControllerTest extends BaseMockIT {
 
@@ -58,6 +98,14 @@ public class StudiesControllerTest extends BaseMockIT {
   private static final String SEND_NOTIFICATION_PATH =
       "/participant-user-datastore/studies/sendNotification";
 
+  private static final String NOTIFICATIONS_PATH =
+      "/participant-user-datastore/studies/notifications";
+
+  private static final String NOTIFICATION_STATUS_PATH =
+      "/participant-user-datastore/studies/notifications/{notificationOutboxId}";
+
+  private static final String ANDROID_AUTH_INFO_ID = "223";
+
   @Autowired private StudiesController studiesController;
 
   @Autowired private StudiesServices studiesServices;
@@ -74,6 +122,22 @@ public class StudiesControllerTest extends BaseMockIT {
 
   @Autowired private SitePermissionRepository sitePermissionRepository;
 
+  @Autowired private AuthInfoRepository authInfoRepository;
+
+  @Autowired private AppRepository appRepository;
+
+  @Autowired private ApnsClientRegistry apnsClientRegistry;
+
+  @Autowired private NotificationOutboxDispatcher notificationOutboxDispatcher;
+
+  @Autowired private NotificationOutboxRepository notificationOutboxRepository;
+
+  @Autowired private NotificationDeliveryRepository notificationDeliveryRepository;
+
+  @Autowired private SessionFactory sessionFactory;
+
+  @Autowired private PlatformTransactionManager transactionManager;
+
   @Test
   public void contextLoads() {
     assertNotNull(studiesController);
@@ -292,54 +356,499 @@ public class StudiesControllerTest extends BaseMockIT {
   public void sendNotificationSuccess() throws Exception {
     HttpHeaders headers = TestUtils.getCommonHeaders();
 
-    // StudyLevel notificationType
+    // Step 1: queue a study level and a gateway level notification
+    List<String> notificationOutboxIds = new ArrayList<>();
+    for (String notificationType : Arrays.asList(Constants.STUDY_LEVEL, Constants.GATEWAY_LEVEL)) {
+      String requestJson =
+          getNotificationForm(
+              Constants.STUDY_ID,
+              Constants.CUSTOM_STUDY_ID,
+              Constants.APP_ID_VALUE,
+              notificationType);
+
+      MvcResult result =
+          mockMvc
+              .perform(
+                  post(SEND_NOTIFICATION_PATH)
+                      .content(requestJson)
+                      .headers(headers)
+                      .contextPath(getContextPath()))
+              .andDo(print())
+              .andExpect(status().isOk())
+              .andExpect(jsonPath("$.message", is(ErrorCode.EC_200.errorMessage())))
+              .andExpect(jsonPath("$.code", is(ErrorCode.EC_200.code())))
+              .andExpect(jsonPath("$.response[0].id", notNullValue()))
+              .andExpect(jsonPath("$.response[0].status", is("pending")))
+              .andReturn();
+      notificationOutboxIds.add(
+          JsonPath.read(result.getResponse().getContentAsString(), "$.response[0].id"));
+    }
+    verifyTokenIntrospectRequest(2);
+
+    // Step 2: push the queued notifications
+    notificationOutboxDispatcher.dispatch();
+
+    // Step 3: verify the notifications were pushed to FCM and APNs
+    for (String notificationOutboxId : notificationOutboxIds) {
+      mockMvc
+          .perform(
+              get(NOTIFICATION_STATUS_PATH, notificationOutboxId)
+                  .headers(headers)
+                  .contextPath(getContextPath()))
+          .andDo(print())
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.status", is("sent")))
+          .andExpect(jsonPath("$.attempts", is(1)))
+          .andExpect(jsonPath("$.deliveries[*].status", everyItem(is("sent"))));
+    }
+    verifyTokenIntrospectRequest(4);
+  }
+
+  @Test
+  public void shouldNotQueueDuplicateNotification() throws Exception {
+    String requestJson =
+        getNotificationForm(
+            Constants.STUDY_ID,
+            Constants.CUSTOM_STUDY_ID,
+            Constants.APP_ID_VALUE,
+            Constants.GATEWAY_LEVEL);
+
+    // Step 1: post the same notification twice
+    String[] notificationOutboxIds = new String[2];
+    for (int i = 0; i < notificationOutboxIds.length; i++) {
+      MvcResult result =
+          mockMvc
+              .perform(
+                  post(SEND_NOTIFICATION_PATH)
+                      .content(requestJson)
+                      .headers(TestUtils.getCommonHeaders())
+                      .contextPath(getContextPath()))
+              .andDo(print())
+              .andExpect(status().isOk())
+              .andReturn();
+      notificationOutboxIds[i] =
+          JsonPath.read(result.getResponse().getContentAsString(), "$.response[0].id");
+    }
+
+    // Step 2: verify it was queued once
+    assertEquals(notificationOutboxIds[0], notificationOutboxIds[1]);
+    assertEquals(1, notificationOutboxRepository.count());
+    verifyTokenIntrospectRequest(2);
+  }
+
+  @Test
+  public void shouldReturnQueuedNotificationOnDuplicateKey() throws Exception {
     String requestJson =
         getNotificationForm(
             Constants.STUDY_ID,
             Constants.CUSTOM_STUDY_ID,
             Constants.APP_ID_VALUE,
-            Constants.STUDY_LEVEL);
+            Constants.GATEWAY_LEVEL);
 
+    // Step 1: queue the notification and hide it from the dedupe window lookup, like a
+    // concurrent post that committed after the lookup did
+    String notificationOutboxId = sendNotification(requestJson);
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      session
+          .createNativeQuery(
+              "UPDATE notification_outbox SET created_time = :created WHERE id = :id")
+          .setParameter("created", new Timestamp(0))
+          .setParameter("id", notificationOutboxId)
+          .executeUpdate();
+      transaction.commit();
+    }
+
+    // Step 2: verify the insert of the same notification hits the unique key and returns it
+    assertEquals(notificationOutboxId, sendNotification(requestJson));
+    assertEquals(1, notificationOutboxRepository.count());
+    verifyTokenIntrospectRequest(2);
+  }
+
+  @Test
+  public void shouldClearUnregisteredDeviceTokens() throws Exception {
+    // Step 1: FCM reports the android device token as unregistered
+    StubMapping notRegistered =
+        getWireMockServer()
+            .stubFor(
+                WireMock.post(urlEqualTo("/fcm/send"))
+                    .atPriority(1)
+                    .willReturn(
+                        okJson(
+                            "{\"multicast_id\": 1, \"success\": 0, \"failure\": 1, "
+                                + "\"canonical_ids\": 0, "
+                                + "\"results\": [{\"error\": \"NotRegistered\"}]}")));
+    AuthInfoEntity authInfo = authInfoRepository.findById(ANDROID_AUTH_INFO_ID).get();
+    String deviceToken = authInfo.getDeviceToken();
+
+    try {
+      // Step 2: queue and push a gateway level notification
+      String requestJson =
+          getNotificationForm(
+              Constants.STUDY_ID,
+              Constants.CUSTOM_STUDY_ID,
+              Constants.APP_ID_VALUE,
+              Constants.GATEWAY_LEVEL);
+      MvcResult result =
+          mockMvc
+              .perform(
+                  post(SEND_NOTIFICATION_PATH)
+                      .content(requestJson)
+                      .headers(TestUtils.getCommonHeaders())
+                      .contextPath(getContextPath()))
+              .andDo(print())
+              .andExpect(status().isOk())
+              .andReturn();
+      String notificationOutboxId =
+          JsonPath.read(result.getResponse().getContentAsString(), "$.response[0].id");
+      notificationOutboxDispatcher.dispatch();
+
+      // Step 3: verify the failed token was counted and the device token was cleared
+      mockMvc
+          .perform(
+              get(NOTIFICATION_STATUS_PATH, notificationOutboxId)
+                  .headers(TestUtils.getCommonHeaders())
+                  .contextPath(getContextPath()))
+          .andDo(print())
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.status", is("sent")))
+          .andExpect(jsonPath("$.failedCount", is(1)));
+      assertNull(authInfoRepository.findById(ANDROID_AUTH_INFO_ID).get().getDeviceToken());
+      verifyTokenIntrospectRequest(2);
+    } finally {
+      getWireMockServer().removeStub(notRegistered);
+      authInfo = authInfoRepository.findById(ANDROID_AUTH_INFO_ID).get();
+      authInfo.setDeviceToken(deviceToken);
+      authInfoRepository.saveAndFlush(authInfo);
+    }
+  }
+
+  @Test
+  public void shouldRetryAndDeadLetterFailedNotification() throws Exception {
+    // Step 1: FCM is unavailable
+    StubMapping unavailable =
+        getWireMockServer()
+            .stubFor(
+                WireMock.post(urlEqualTo("/fcm/send"))
+                    .atPriority(1)
+                    .willReturn(aResponse().withStatus(HttpStatus.SERVICE_UNAVAILABLE.value())));
+
+    try {
+      // Step 2: queue and push a gateway level notification
+      String requestJson =
+          getNotificationForm(
+              Constants.STUDY_ID,
+              Constants.CUSTOM_STUDY_ID,
+              Constants.APP_ID_VALUE,
+              Constants.GATEWAY_LEVEL);
+      MvcResult result =
+          mockMvc
+              .perform(
+                  post(SEND_NOTIFICATION_PATH)
+                      .content(requestJson)
+                      .headers(TestUtils.getCommonHeaders())
+                      .contextPath(getContextPath()))
+              .andDo(print())
+              .andExpect(status().isOk())
+              .andReturn();
+      String notificationOutboxId =
+          JsonPath.read(result.getResponse().getContentAsString(), "$.response[0].id");
+      notificationOutboxDispatcher.dispatch();
+
+      // Step 3: verify the android chunk waits for a retry
+      NotificationOutboxEntity outbox =
+          notificationOutboxRepository.findById(notificationOutboxId).get();
+      assertEquals(NotificationStatus.PENDING.getStatus(), outbox.getStatus());
+      assertNotNull(outbox.getNextAttemptTime());
+      List<NotificationDeliveryEntity> deliveries =
+          notificationDeliveryRepository.findByNotificationOutboxIdAndDeviceTypeOrderByCreated(
+              notificationOutboxId, AppConstants.DEVICE_ANDROID);
+      assertEquals(1, deliveries.size());
+      assertEquals(NotificationStatus.FAILED.getStatus(), deliveries.get(0).getStatus());
+
+      // Step 4: retry it when it is due, up to the last attempt
+      outbox.setNextAttemptTime(null);
+      notificationOutboxRepository.saveAndFlush(outbox);
+      notificationOutboxDispatcher.dispatch();
+
+      // Step 5: verify the notification was dead-lettered and the iOS chunk was not pushed again
+      mockMvc
+          .perform(
+              get(NOTIFICATIONS_PATH)
+                  .param("status", "deadLetter")
+                  .headers(TestUtils.getCommonHeaders())
+                  .contextPath(getContextPath()))
+          .andDo(print())
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$", hasSize(1)))
+          .andExpect(jsonPath("$[0].id", is(notificationOutboxId)))
+          .andExpect(jsonPath("$[0].attempts", is(2)))
+          .andExpect(jsonPath("$[0].lastError", is("FCM status 503")));
+      for (NotificationDeliveryEntity delivery :
+          notificationDeliveryRepository.findByNotificationOutboxIdOrderByCreated(
+              notificationOutboxId)) {
+        if (AppConstants.DEVICE_IOS.equals(delivery.getDeviceType())) {
+          assertEquals(1, delivery.getAttempts());
+        } else {
+          assertEquals(NotificationStatus.DEAD_LETTER.getStatus(), delivery.getStatus());
+        }
+      }
+      verifyTokenIntrospectRequest(2);
+    } finally {
+      getWireMockServer().removeStub(unavailable);
+    }
+  }
+
+  @Test
+  public void shouldSkipIosDevicesOfAppWithoutCertificate() throws Exception {
+    // Step 1: the app has no iOS certificate
+    AppEntity app = appRepository.findByAppId(Constants.APP_ID_VALUE).get();
+    String certificate = app.getIosCertificate();
+    app.setIosCertificate(null);
+    appRepository.saveAndFlush(app);
+
+    try {
+      // Step 2: queue and push a gateway level notification
+      String notificationOutboxId =
+          sendNotification(
+              getNotificationForm(
+                  Constants.STUDY_ID,
+                  Constants.CUSTOM_STUDY_ID,
+                  Constants.APP_ID_VALUE,
+                  Constants.GATEWAY_LEVEL));
+      notificationOutboxDispatcher.dispatch();
+
+      // Step 3: verify the android devices were pushed and the iOS platform was skipped
+      NotificationOutboxEntity outbox =
+          notificationOutboxRepository.findById(notificationOutboxId).get();
+      assertEquals(NotificationStatus.SENT.getStatus(), outbox.getStatus());
+      assertEquals("no iOS certificate", outbox.getLastError());
+      assertEquals(
+          1,
+          notificationDeliveryRepository
+              .findByNotificationOutboxIdAndDeviceTypeOrderByCreated(
+                  notificationOutboxId, AppConstants.DEVICE_IOS)
+              .size());
+      for (NotificationDeliveryEntity delivery :
+          notificationDeliveryRepository.findByNotificationOutboxIdOrderByCreated(
+              notificationOutboxId)) {
+        assertEquals(
+            AppConstants.DEVICE_IOS.equals(delivery.getDeviceType())
+                ? NotificationStatus.SKIPPED.getStatus()
+                : NotificationStatus.SENT.getStatus(),
+            delivery.getStatus());
+      }
+      verifyTokenIntrospectRequest(1);
+    } finally {
+      app.setIosCertificate(certificate);
+      appRepository.saveAndFlush(app);
+    }
+  }
+
+  @Test
+  public void shouldLeaveNotificationClaimedByAnotherInstance() throws Exception {
+    // Step 1: FCM answers after a delay
+    StubMapping delayed =
+        getWireMockServer()
+            .stubFor(
+                WireMock.post(urlEqualTo("/fcm/send"))
+                    .atPriority(1)
+                    .willReturn(
+                        aResponse()
+                            .withStatus(HttpStatus.OK.value())
+                            .withHeader("Content-Type", "application/json;charset=UTF-8")
+                            .withBodyFile("fcm-service/fcm-send-response.json")
+                            .withFixedDelay(2000)));
+
+    try {
+      // Step 2: queue a gateway level notification and push it in the background
+      String requestJson =
+          getNotificationForm(
+              Constants.STUDY_ID,
+              Constants.CUSTOM_STUDY_ID,
+              Constants.APP_ID_VALUE,
+              Constants.GATEWAY_LEVEL);
+      MvcResult result =
+          mockMvc
+              .perform(
+                  post(SEND_NOTIFICATION_PATH)
+                      .content(requestJson)
+                      .headers(TestUtils.getCommonHeaders())
+                      .contextPath(getContextPath()))
+              .andDo(print())
+              .andExpect(status().isOk())
+              .andReturn();
+      String notificationOutboxId =
+          JsonPath.read(result.getResponse().getContentAsString(), "$.response[0].id");
+      CompletableFuture<Void> dispatch =
+          CompletableFuture.runAsync(notificationOutboxDispatcher::dispatch);
+
+      // Step 3: another service instance claims the notification while FCM answers
+      NotificationOutboxEntity outbox =
+          notificationOutboxRepository.findById(notificationOutboxId).get();
+      for (int i = 0;
+          i < 100 && !NotificationStatus.IN_PROGRESS.getStatus().equals(outbox.getStatus());
+          i++) {
+        Thread.sleep(10);
+        outbox = notificationOutboxRepository.findById(notificationOutboxId).get();
+      }
+      assertEquals(NotificationStatus.IN_PROGRESS.getStatus(), outbox.getStatus());
+      Timestamp claimedTime = new Timestamp(outbox.getClaimedTime().getTime() + 60000);
+      outbox.setClaimedTime(claimedTime);
+      notificationOutboxRepository.saveAndFlush(outbox);
+      dispatch.get();
+
+      // Step 4: verify the run recorded its chunk and left the notification to the other instance
+      outbox = notificationOutboxRepository.findById(notificationOutboxId).get();
+      assertEquals(NotificationStatus.IN_PROGRESS.getStatus(), outbox.getStatus());
+      assertEquals(claimedTime, outbox.getClaimedTime());
+      assertEquals(
+          1,
+          notificationDeliveryRepository
+              .findByNotificationOutboxIdAndDeviceTypeOrderByCreated(
+                  notificationOutboxId, AppConstants.DEVICE_ANDROID)
+              .size());
+      verifyTokenIntrospectRequest(1);
+    } finally {
+      getWireMockServer().removeStub(delayed);
+    }
+  }
+
+  @Test
+  public void shouldPushDeviceTokensPageByPage() throws Exception {
+    // Step 1: two more users of the app with android device tokens, one token per page
+    List<String> ids = Arrays.asList("224", "225");
+    ids.forEach(id -> addDeviceTokenUser(id, null));
+
+    try {
+      // Step 2: queue and push a gateway level notification
+      String requestJson =
+          getNotificationForm(
+              Constants.STUDY_ID,
+              Constants.CUSTOM_STUDY_ID,
+              Constants.APP_ID_VALUE,
+              Constants.GATEWAY_LEVEL);
+      MvcResult result =
+          mockMvc
+              .perform(
+                  post(SEND_NOTIFICATION_PATH)
+                      .content(requestJson)
+                      .headers(TestUtils.getCommonHeaders())
+                      .contextPath(getContextPath()))
+              .andDo(print())
+              .andExpect(status().isOk())
+              .andReturn();
+      String notificationOutboxId =
+          JsonPath.read(result.getResponse().getContentAsString(), "$.response[0].id");
+      notificationOutboxDispatcher.dispatch();
+
+      // Step 3: verify each android page was pushed as a chunk after the previous one
+      List<NotificationDeliveryEntity> deliveries =
+          notificationDeliveryRepository.findByNotificationOutboxIdAndDeviceTypeOrderByCreated(
+              notificationOutboxId, AppConstants.DEVICE_ANDROID);
+      assertEquals(3, deliveries.size());
+      String startAfterId = StringUtils.EMPTY;
+      for (NotificationDeliveryEntity delivery : deliveries) {
+        assertEquals(startAfterId, delivery.getStartAfterId());
+        assertEquals(1, delivery.getTokenCount());
+        assertEquals(NotificationStatus.SENT.getStatus(), delivery.getStatus());
+        startAfterId = delivery.getEndId();
+      }
+      assertEquals(Arrays.asList(ANDROID_AUTH_INFO_ID, "224", "225"), endIds(deliveries));
+      assertEquals(
+          NotificationStatus.SENT.getStatus(),
+          notificationOutboxRepository.findById(notificationOutboxId).get().getStatus());
+      verifyTokenIntrospectRequest(1);
+    } finally {
+      deleteDeviceTokenUsers(ids);
+    }
+  }
+
+  @Test
+  public void shouldReadStudyDeviceTokensOfParticipantsOnly() {
+    // Step 1: users of the app in each participant status of the study, and one not in the study
+    List<String> ids = Arrays.asList("224", "225", "226", "227", "228");
+    addDeviceTokenUser("224", EnrollmentStatus.ENROLLED.getStatus());
+    addDeviceTokenUser("225", EnrollmentStatus.YET_TO_ENROLL.getStatus());
+    addDeviceTokenUser("226", EnrollmentStatus.WITHDRAWN.getStatus());
+    addDeviceTokenUser("227", EnrollmentStatus.NOT_ELIGIBLE.getStatus());
+    addDeviceTokenUser("228", null);
+
+    try {
+      // Step 2: read the android device tokens of the study a page at a time
+      List<String> deviceTokenIds =
+          new TransactionTemplate(transactionManager)
+              .execute(status -> readStudyDeviceTokenIds(Constants.CUSTOM_STUDY_ID));
+
+      // Step 3: verify only the participants that did not leave or fail the study are included
+      assertEquals(Arrays.asList(ANDROID_AUTH_INFO_ID, "224"), deviceTokenIds);
+    } finally {
+      deleteDeviceTokenUsers(ids);
+    }
+  }
+
+  @Test
+  public void shouldReturnNotFoundForUnknownNotification() throws Exception {
     mockMvc
         .perform(
-            post(SEND_NOTIFICATION_PATH)
-                .content(requestJson)
-                .headers(headers)
+            get(NOTIFICATION_STATUS_PATH, IdGenerator.id())
+                .headers(TestUtils.getCommonHeaders())
                 .contextPath(getContextPath()))
         .andDo(print())
-        .andExpect(status().isOk())
-        .andExpect(jsonPath("$.message", is(ErrorCode.EC_200.errorMessage())))
-        .andExpect(jsonPath("$.code", is(ErrorCode.EC_200.code())))
-        .andExpect(jsonPath("$.response.multicast_id", greaterThan(0L)))
-        .andExpect(
-            jsonPath(
-                "$.response.results[0].message_id", is("0:1491324495516461%31bd1c9631bd1c96")));
+        .andExpect(status().isNotFound())
+        .andExpect(jsonPath("$.code", is(ErrorCode.EC_404.code())));
+
     verifyTokenIntrospectRequest(1);
+  }
 
-    // GatewayLevel notificationType
-    requestJson =
+  @Test
+  public void shouldReuseApnsServiceUntilCertificateChanges() throws Exception {
+    // Step 1: push a gateway level notification to the android and ios device tokens
+    String requestJson =
         getNotificationForm(
             Constants.STUDY_ID,
             Constants.CUSTOM_STUDY_ID,
             Constants.APP_ID_VALUE,
             Constants.GATEWAY_LEVEL);
-
     mockMvc
         .perform(
             post(SEND_NOTIFICATION_PATH)
                 .content(requestJson)
-                .headers(headers)
+                .headers(TestUtils.getCommonHeaders())
                 .contextPath(getContextPath()))
         .andDo(print())
-        .andExpect(status().isOk())
-        .andExpect(jsonPath("$.message", is(ErrorCode.EC_200.errorMessage())))
-        .andExpect(jsonPath("$.code", is(ErrorCode.EC_200.code())))
-        .andExpect(jsonPath("$.response.multicast_id", greaterThan(0L)))
-        .andExpect(
-            jsonPath(
-                "$.response.results[0].message_id", is("0:1491324495516461%31bd1c9631bd1c96")));
+        .andExpect(status().isOk());
+    notificationOutboxDispatcher.dispatch();
+
+    // Step 2: verify the APNs service of the app is reused
+    AppEntity app = appRepository.findByAppId(Constants.APP_ID_VALUE).get();
+    ApnsService service = apnsClientRegistry.getService(app);
+    assertSame(service, apnsClientRegistry.getService(app));
+
+    // Step 3: verify a re-uploaded certificate replaces the service
+    String certificate = app.getIosCertificate();
+    app.setIosCertificate(certificate + "\n");
+    try {
+      assertNotSame(service, apnsClientRegistry.getService(app));
+    } finally {
+      app.setIosCertificate(certificate);
+      apnsClientRegistry.getService(app);
+    }
+    verifyTokenIntrospectRequest(1);
+  }
 
-    verifyTokenIntrospectRequest(2);
+  private String sendNotification(String requestJson) throws Exception {
+    MvcResult result =
+        mockMvc
+            .perform(
+                post(SEND_NOTIFICATION_PATH)
+                    .content(requestJson)
+                    .headers(TestUtils.getCommonHeaders())
+                    .contextPath(getContextPath()))
+            .andDo(print())
+            .andExpect(status().isOk())
+            .andReturn();
+    return JsonPath.read(result.getResponse().getContentAsString(), "$.response[0].id");
   }
 
   private String getNotificationForm(
@@ -348,12 +857,84 @@ public class StudiesControllerTest extends BaseMockIT {
 
     NotificationBean notificationBean = null;
     notificationBean = new NotificationBean(studyId, customStudyId, appId, notificationType);
+    notificationBean.setNotificationText("notification " + IdGenerator.id());
     List<NotificationBean> list = new ArrayList<NotificationBean>();
     list.add(notificationBean);
     NotificationForm notificationForm = new NotificationForm(list);
     return getObjectMapper().writeValueAsString(notificationForm);
   }
 
+  /** Adds a user of the app with an android device token, in the study when status is set */
+  private void addDeviceTokenUser(String id, String participantStatus) {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      session
+          .createNativeQuery(
+              "INSERT INTO user_details (id, user_id, app_info_id, email, status) "
+                  + "VALUES (:id, :id, 1, :email, 1)")
+          .setParameter("id", id)
+          .setParameter("email", id + "@grr.la")
+          .executeUpdate();
+      session
+          .createNativeQuery(
+              "INSERT INTO auth_info (id, app_info_id, device_token, device_type, "
+                  + "remote_notification_flag, user_details_id) "
+                  + "VALUES (:id, 1, :deviceToken, 'android', 1, :id)")
+          .setParameter("id", id)
+          .setParameter("deviceToken", "device-token-" + id)
+          .executeUpdate();
+      if (participantStatus != null) {
+        session
+            .createNativeQuery(
+                "INSERT INTO participant_study_info (id, study_info_id, user_details_id, status) "
+                    + "VALUES (:id, 1, :id, :status)")
+            .setParameter("id", id)
+            .setParameter("status", participantStatus)
+            .executeUpdate();
+      }
+      transaction.commit();
+    }
+  }
+
+  private void deleteDeviceTokenUsers(List<String> ids) {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      for (String table : Arrays.asList("auth_info", "participant_study_info", "user_details")) {
+        session
+            .createNativeQuery(String.format("DELETE FROM %s WHERE id IN (:ids)", table))
+            .setParameterList("ids", ids)
+            .executeUpdate();
+      }
+      transaction.commit();
+    }
+  }
+
+  /** The DAO reads with the session of the current transaction */
+  private List<String> readStudyDeviceTokenIds(String customStudyId) {
+    StudyEntity study =
+        commonDao.getStudyInfoSet(new HashSet<>(Collections.singletonList(customStudyId))).get(0);
+    List<String> ids = new ArrayList<>();
+    List<DeviceTokenBean> page;
+    do {
+      String lastId = ids.isEmpty() ? StringUtils.EMPTY : ids.get(ids.size() - 1);
+      page = commonDao.getStudyLevelDeviceTokens(study, AppConstants.DEVICE_ANDROID, lastId, 1);
+      page.forEach(deviceToken -> ids.add(deviceToken.getId()));
+    } while (!page.isEmpty());
+    return ids;
+  }
+
+  private List<String> endIds(List<NotificationDeliveryEntity> deliveries) {
+    List<String> endIds = new ArrayList<>();
+    deliveries.forEach(delivery -> endIds.add(delivery.getEndId()));
+    return endIds;
+  }
+
+  @AfterEach
+  public void clean() {
+    notificationDeliveryRepository.deleteAll();
+    notificationOutboxRepository.deleteAll();
+  }
+
   protected ObjectMapper getObjectMapper() {
     return objectMapper;
   }
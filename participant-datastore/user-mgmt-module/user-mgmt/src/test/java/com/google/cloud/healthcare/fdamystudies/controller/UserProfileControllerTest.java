@@ -48,9 +48,11 @@ import com.google.cloud.healthcare.fdamystudies.common.OnboardingStatus;
 import com.google.cloud.healthcare.fdamystudies.common.PlaceholderReplacer;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationPropertyConfiguration;
 import com.google.cloud.healthcare.fdamystudies.model.ParticipantStudyEntity;
+import com.google.cloud.healthcare.fdamystudies.model.SiteParticipantCountEntity;
 import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import com.google.cloud.healthcare.fdamystudies.model.UserDetailsEntity;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantStudyRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.SiteParticipantCountRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.StudyRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.UserDetailsRepository;
 import com.google.cloud.healthcare.fdamystudies.service.FdaEaUserDetailsServiceImpl;
@@ -105,6 +107,8 @@ public class UserProfileControllerTest extends BaseMockIT {
 
   @Autowired private StudyRepository studyRepository;
 
+  @Autowired private SiteParticipantCountRepository siteParticipantCountRepository;
+
   @Test
   public void contextLoads() {
     assertNotNull(profileController);
@@ -308,6 +312,12 @@ public class UserProfileControllerTest extends BaseMockIT {
             .equals(OnboardingStatus.DISABLED.getCode()));
     assertNotNull(participant.get().getParticipantRegistrySite().getDisabledDate());
 
+    // the site of the withdrawn participant is recounted after the commit
+    Optional<SiteParticipantCountEntity> siteCounts =
+        siteParticipantCountRepository.findById(participant.get().getSite().getId());
+    assertTrue(siteCounts.isPresent());
+    assertEquals(0, siteCounts.get().getInvitedCount());
+
     verify(1, deleteRequestedFor(urlEqualTo("/auth-server/users/" + Constants.USER_ID)));
     verify(
         1,
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
+import com.google.cloud.healthcare.fdamystudies.model.AuthInfoEntity;
+import com.google.cloud.healthcare.fdamystudies.repository.AppRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.AuthInfoRepository;
+import com.notnoop.apns.ApnsService;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class ApnsClientRegistryTest extends BaseMockIT {
+
+  private static final String APP_ID = "GCPMS001";
+
+  /** iOS device token of auth_info 222 in data.sql */
+  private static final String DEVICE_TOKEN =
+      "7B3F1433E1157D370EE8A6BA2E612B27EC2C0081771FC8BA1ECFCBB07BBA5A17";
+
+  private static final String AUTH_INFO_ID = "222";
+
+  @Autowired private ApnsClientRegistry apnsClientRegistry;
+
+  @Autowired private AppRepository appRepository;
+
+  @Autowired private AuthInfoRepository authInfoRepository;
+
+  private AppEntity app;
+
+  private ApnsService feedbackService;
+
+  @BeforeEach
+  public void setUp() {
+    app = appRepository.findByAppId(APP_ID).get();
+    apnsClientRegistry.getService(app);
+    feedbackService = mock(ApnsService.class);
+    apnsClientRegistry.replaceService(APP_ID, feedbackService);
+  }
+
+  @Test
+  public void shouldClearDeviceTokenReportedInactive() {
+    // the token is reported in lower case and padded, next to a device without date
+    Map<String, Date> inactiveDevices = new HashMap<>();
+    inactiveDevices.put(" " + DEVICE_TOKEN.toLowerCase() + " ", Date.from(Instant.now()));
+    inactiveDevices.put("0A1B2C3D", null);
+    when(feedbackService.getInactiveDevices()).thenReturn(inactiveDevices);
+
+    apnsClientRegistry.processFeedback();
+
+    assertNull(authInfoRepository.findById(AUTH_INFO_ID).get().getDeviceToken());
+  }
+
+  @Test
+  public void shouldKeepDeviceTokenRegisteredAfterFeedback() {
+    Map<String, Date> inactiveDevices = new HashMap<>();
+    // APNs found the device inactive before the token was registered
+    inactiveDevices.put(DEVICE_TOKEN, Date.from(Instant.parse("2019-12-31T00:00:00Z")));
+    when(feedbackService.getInactiveDevices()).thenReturn(inactiveDevices);
+
+    apnsClientRegistry.processFeedback();
+
+    assertEquals(DEVICE_TOKEN, authInfoRepository.findById(AUTH_INFO_ID).get().getDeviceToken());
+  }
+
+  @AfterEach
+  public void clean() {
+    AuthInfoEntity authInfo = authInfoRepository.findById(AUTH_INFO_ID).get();
+    authInfo.setDeviceToken(DEVICE_TOKEN);
+    authInfoRepository.saveAndFlush(authInfo);
+
+    // a changed certificate replaces the stub, the restored one builds the service again
+    String certificate = app.getIosCertificate();
+    app.setIosCertificate(certificate + "\n");
+    apnsClientRegistry.getService(app);
+    app.setIosCertificate(certificate);
+    apnsClientRegistry.getService(app);
+  }
+}
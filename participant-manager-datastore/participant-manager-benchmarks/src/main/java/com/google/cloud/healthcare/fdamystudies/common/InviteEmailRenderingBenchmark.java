@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.util.PropertyPlaceholderHelper;
+
+/**
+ * Time to render the subject and body of the participant invitation email for a bulk invite, with
+ * the templates of the Participant Manager application.properties. Run with the gc profiler to
+ * also get the allocation per invite:
+ *
+ * <pre>
+ * mvn -B package -pl participant-manager-benchmarks -am -DskipTests
+ * java -jar participant-manager-benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ *
+ * {@link #propertyPlaceholderHelper} is the rendering before the templates were compiled, two
+ * placeholder helpers parsing the text on every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class InviteEmailRenderingBenchmark {
+
+  private static final String[] INVITE_TEMPLATE_ARGS = {
+    "study name", "App Name", "enrolment token", "contact email address"
+  };
+
+  @State(Scope.Benchmark)
+  public static class BulkInvite {
+
+    @Param({"100", "1000", "10000"})
+    public int participantCount;
+
+    private String subject;
+
+    private String body;
+
+    private List<Map<String, String>> templateArgs;
+
+    private EmailTemplateRegistry registry;
+
+    @Setup
+    public void setUp() throws IOException {
+      Properties properties =
+          PropertiesLoaderUtils.loadProperties(new ClassPathResource("application.properties"));
+      // Resolved by Spring when the application starts, environment variables stay as they are
+      PropertyPlaceholderHelper helper = new PropertyPlaceholderHelper("${", "}");
+      subject =
+          helper.replacePlaceholders(
+              properties.getProperty("participant.invite.subject"), properties);
+      body =
+          helper.replacePlaceholders(properties.getProperty("participant.invite.body"), properties);
+
+      registry = new EmailTemplateRegistry();
+      registry.register("participant.invite.subject", subject, INVITE_TEMPLATE_ARGS);
+      registry.register("participant.invite.body", body, INVITE_TEMPLATE_ARGS);
+
+      templateArgs = new ArrayList<>(participantCount);
+      for (int i = 0; i < participantCount; i++) {
+        Map<String, String> args = new HashMap<>();
+        args.put("study name", "Study " + (i % 10));
+        args.put("App Name", "MyStudies");
+        args.put("enrolment token", IdGenerator.id().substring(0, 8).toUpperCase());
+        args.put("contact email address", "support@example.com");
+        templateArgs.add(args);
+      }
+    }
+  }
+
+  @Benchmark
+  public void compiledTemplate(BulkInvite invite, Blackhole blackhole) {
+    for (Map<String, String> args : invite.templateArgs) {
+      blackhole.consume(invite.registry.render(invite.subject, args));
+      blackhole.consume(invite.registry.render(invite.body, args));
+    }
+  }
+
+  @Benchmark
+  public void placeholderReplacer(BulkInvite invite, Blackhole blackhole) {
+    for (Map<String, String> args : invite.templateArgs) {
+      blackhole.consume(PlaceholderReplacer.replaceNamedPlaceholders(invite.subject, args));
+      blackhole.consume(PlaceholderReplacer.replaceNamedPlaceholders(invite.body, args));
+    }
+  }
+
+  @Benchmark
+  public void propertyPlaceholderHelper(BulkInvite invite, Blackhole blackhole) {
+    for (Map<String, String> args : invite.templateArgs) {
+      blackhole.consume(replaceWithHelpers(invite.subject, args));
+      blackhole.consume(replaceWithHelpers(invite.body, args));
+    }
+  }
+
+  private static String replaceWithHelpers(String text, Map<String, String> values) {
+    PropertyPlaceholderHelper helper = new PropertyPlaceholderHelper("${", "}");
+    String result = helper.replacePlaceholders(text, values::get);
+    helper = new PropertyPlaceholderHelper("{{", "}}");
+    return helper.replacePlaceholders(result, values::get);
+  }
+}
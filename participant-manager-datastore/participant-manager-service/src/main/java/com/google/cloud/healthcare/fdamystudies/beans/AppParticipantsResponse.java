@@ -34,6 +34,9 @@ public class AppParticipantsResponse extends BaseResponse {
 
   private Long totalParticipantCount;
 
+  /** Opaque position of the next page, to pass as the cursor parameter, null on the last page. */
+  private String nextCursor;
+
   public AppParticipantsResponse(
       MessageCode messageCode, String appId, String customId, String name) {
     super(messageCode);
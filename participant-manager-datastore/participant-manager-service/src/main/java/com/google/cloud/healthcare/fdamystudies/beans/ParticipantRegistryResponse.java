@@ -21,6 +21,9 @@ public class ParticipantRegistryResponse extends BaseResponse {
 
   private Long totalParticipantCount;
 
+  /** Opaque position of the next page, to pass as the cursor parameter, null on the last page. */
+  private String nextCursor;
+
   public ParticipantRegistryResponse(
       MessageCode messageCode, ParticipantRegistryDetail participantRegistryDetail) {
     super(messageCode);
@@ -30,6 +30,15 @@ public class AppPropertyConfig implements Serializable {
   @Value("${enrollmentTokenExpiryInHours}")
   private Integer enrollmentTokenExpiryInHours;
 
+  @Value("${participant.import.chunk-size}")
+  private int importChunkSize;
+
+  @Value("${participant.bulk-update.chunk-size}")
+  private int bulkUpdateChunkSize;
+
+  @Value("${participant.manager.enrollment-counters.enabled}")
+  private boolean enrollmentCountersEnabled;
+
   @Value("${participant.invite.subject}")
   private String participantInviteSubject;
 
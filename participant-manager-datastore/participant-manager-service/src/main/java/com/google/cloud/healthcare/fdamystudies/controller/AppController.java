@@ -88,6 +88,7 @@ public class AppController {
       @RequestParam(defaultValue = "email") String sortBy,
       @RequestParam(defaultValue = "asc") String sortDirection,
       @RequestParam(required = false) String searchTerm,
+      @RequestParam(required = false) String cursor,
       HttpServletRequest request) {
     logger.entry(String.format(BEGIN_REQUEST_LOG, request.getRequestURI()));
     String[] allowedSortByValues = {"email", "registrationDate", "registrationStatus"};
@@ -104,7 +105,14 @@ public class AppController {
 
     AppParticipantsResponse appParticipantsResponse =
         appService.getAppParticipants(
-            appId, userId, auditRequest, limit, offset, sortBy + "_" + sortDirection, searchTerm);
+            appId,
+            userId,
+            auditRequest,
+            limit,
+            offset,
+            sortBy + "_" + sortDirection,
+            searchTerm,
+            cursor);
 
     logger.exit(String.format(STATUS_LOG, appParticipantsResponse.getHttpStatusCode()));
     return ResponseEntity.status(appParticipantsResponse.getHttpStatusCode())
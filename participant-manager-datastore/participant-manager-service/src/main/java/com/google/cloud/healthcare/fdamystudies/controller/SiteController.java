@@ -114,6 +114,7 @@ public class SiteController {
       @RequestParam(name = "onboardingStatus", required = false) String onboardingStatus,
       @RequestParam(required = false) Integer page,
       @RequestParam(required = false) Integer limit,
+      @RequestParam(required = false) String cursor,
       HttpServletRequest request) {
     logger.entry(BEGIN_REQUEST_LOG, request.getRequestURI());
     AuditLogEventRequest auditRequest = AuditEventMapper.fromHttpServletRequest(request);
@@ -124,7 +125,8 @@ public class SiteController {
     }
 
     ParticipantRegistryResponse participants =
-        siteService.getParticipants(userId, siteId, onboardingStatus, auditRequest, page, limit);
+        siteService.getParticipants(
+            userId, siteId, onboardingStatus, auditRequest, page, limit, cursor);
     logger.exit(String.format(STATUS_LOG, participants.getHttpStatusCode()));
     return ResponseEntity.status(participants.getHttpStatusCode()).body(participants);
   }
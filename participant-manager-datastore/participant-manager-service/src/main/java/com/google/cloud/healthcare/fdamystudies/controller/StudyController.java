@@ -92,6 +92,7 @@ public class StudyController {
       @RequestParam(defaultValue = "email") String sortBy,
       @RequestParam(defaultValue = "asc") String sortDirection,
       @RequestParam(required = false) String searchTerm,
+      @RequestParam(required = false) String cursor,
       HttpServletRequest request) {
     logger.entry(BEGIN_REQUEST_LOG, request.getRequestURI());
     String[] allowedSortByValues = {
@@ -116,7 +117,8 @@ public class StudyController {
             limit,
             offset,
             sortBy + "_" + sortDirection,
-            searchTerm);
+            searchTerm,
+            cursor);
     logger.exit(String.format(STATUS_LOG, participantRegistryResponse.getHttpStatusCode()));
     return ResponseEntity.status(participantRegistryResponse.getHttpStatusCode())
         .body(participantRegistryResponse);
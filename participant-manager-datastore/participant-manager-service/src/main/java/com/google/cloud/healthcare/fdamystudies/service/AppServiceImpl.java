@@ -26,6 +26,7 @@ import com.google.cloud.healthcare.fdamystudies.common.MessageCode;
 import com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerAuditLogHelper;
 import com.google.cloud.healthcare.fdamystudies.common.Permission;
 import com.google.cloud.healthcare.fdamystudies.common.UserStatus;
+import com.google.cloud.healthcare.fdamystudies.config.AppPropertyConfig;
 import com.google.cloud.healthcare.fdamystudies.exceptions.ErrorCodeException;
 import com.google.cloud.healthcare.fdamystudies.mapper.AppMapper;
 import com.google.cloud.healthcare.fdamystudies.mapper.ParticipantMapper;
@@ -43,9 +44,11 @@ import com.google.cloud.healthcare.fdamystudies.repository.AppPermissionReposito
 import com.google.cloud.healthcare.fdamystudies.repository.AppRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantEnrollmentHistoryRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantStudyRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.SiteParticipantCountRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.StudyRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.UserDetailsRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.UserRegAdminRepository;
+import com.google.cloud.healthcare.fdamystudies.util.PageCursor;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -87,6 +90,10 @@ public class AppServiceImpl implements AppService {
 
   @Autowired private ParticipantEnrollmentHistoryRepository participantEnrollmentHistoryRepository;
 
+  @Autowired private SiteParticipantCountRepository siteParticipantCountRepository;
+
+  @Autowired private AppPropertyConfig appPropertyConfig;
+
   @Override
   @Transactional(readOnly = true)
   public AppResponse getApps(String userId, Integer limit, Integer offset, String searchTerm) {
@@ -126,19 +133,28 @@ public class AppServiceImpl implements AppService {
     Map<String, Long> appIdbyUsersCount =
         appUserCount.stream().collect(Collectors.toMap(AppCount::getAppId, AppCount::getCount));
 
-    List<AppCount> appEnrolledCountList = appRepository.findEnrolledCountByAppId(userId);
+    List<AppCount> appEnrolledCountList =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.findEnrolledCountByAppId(userId)
+            : appRepository.findEnrolledCountByAppId(userId);
     Map<String, AppCount> appEnrolledCountMap =
         appEnrolledCountList
             .stream()
             .collect(Collectors.toMap(AppCount::getAppId, Function.identity()));
 
-    List<AppCount> appInvitedCountList = appRepository.findInvitedCountByAppId(userId);
+    List<AppCount> appInvitedCountList =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.findInvitedCountByAppId(userId)
+            : appRepository.findInvitedCountByAppId(userId);
     Map<String, AppCount> appInvitedCountMap =
         appInvitedCountList
             .stream()
             .collect(Collectors.toMap(AppCount::getAppId, Function.identity()));
 
-    List<AppCount> appEnrolledWithoutTarget = appRepository.findEnrolledWithoutTarget(userId);
+    List<AppCount> appEnrolledWithoutTarget =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.findEnrolledWithoutTarget(userId)
+            : appRepository.findEnrolledWithoutTarget(userId);
     Map<String, AppCount> appEnrolledWithoutTargetMap =
         appEnrolledWithoutTarget
             .stream()
@@ -166,19 +182,28 @@ public class AppServiceImpl implements AppService {
     Map<String, AppCount> appStudiesCountMap =
         studiesList.stream().collect(Collectors.toMap(AppCount::getAppId, Function.identity()));
 
-    List<AppCount> appInvitedCountList = appRepository.findInvitedCountByAppId();
+    List<AppCount> appInvitedCountList =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.findInvitedCountByAppId()
+            : appRepository.findInvitedCountByAppId();
     Map<String, AppCount> appInvitedCountMap =
         appInvitedCountList
             .stream()
             .collect(Collectors.toMap(AppCount::getAppId, Function.identity()));
 
-    List<AppCount> appEnrolledCountList = appRepository.findEnrolledCountByAppId();
+    List<AppCount> appEnrolledCountList =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.findEnrolledCountByAppId()
+            : appRepository.findEnrolledCountByAppId();
     Map<String, AppCount> appEnrolledCountMap =
         appEnrolledCountList
             .stream()
             .collect(Collectors.toMap(AppCount::getAppId, Function.identity()));
 
-    List<AppCount> appEnrolledWithoutTarget = appRepository.findEnrolledWithoutTarget();
+    List<AppCount> appEnrolledWithoutTarget =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.findEnrolledWithoutTarget()
+            : appRepository.findEnrolledWithoutTarget();
     Map<String, AppCount> appEnrolledWithoutTargetMap =
         appEnrolledWithoutTarget
             .stream()
@@ -404,7 +429,8 @@ public class AppServiceImpl implements AppService {
       Integer limit,
       Integer offset,
       String orderByCondition,
-      String searchTerm) {
+      String searchTerm,
+      String cursor) {
     logger.entry("getAppParticipants(appId, adminId)");
 
     Optional<UserRegAdminEntity> optUserRegAdminEntity = userRegAdminRepository.findById(adminId);
@@ -426,13 +452,13 @@ public class AppServiceImpl implements AppService {
     }
 
     List<String> userIds =
-        appRepository.findUserDetailIds(
+        findUserDetailIds(
             app.getId(),
-            UserStatus.DEACTIVATED.getValue(),
             limit,
             offset,
             orderByCondition,
-            StringUtils.defaultString(searchTerm));
+            StringUtils.defaultString(searchTerm),
+            cursor);
 
     if (CollectionUtils.isEmpty(userIds)) {
       AppParticipantsResponse appParticipantsResponse =
@@ -497,11 +523,84 @@ public class AppServiceImpl implements AppService {
     AppParticipantsResponse appParticipantsResponse =
         prepareAppParticipantResponse(appId, adminId, auditRequest, app, participants);
     appParticipantsResponse.setTotalParticipantCount(participantCount);
+    appParticipantsResponse.setNextCursor(
+        getNextCursor(userIds, appParticipantsInfoList, limit, orderByCondition));
 
     logger.exit(String.format("%d participant found for appId=%s", participantsMap.size(), appId));
     return appParticipantsResponse;
   }
 
+  /**
+   * Reads the page after the cursor from the index of the sort column when there is a cursor, and
+   * with the offset otherwise. Only the email and registration status orders have a cursor.
+   */
+  private List<String> findUserDetailIds(
+      String appId,
+      Integer limit,
+      Integer offset,
+      String orderByCondition,
+      String searchTerm,
+      String cursor) {
+    Integer excludeStatus = UserStatus.DEACTIVATED.getValue();
+    if (StringUtils.isEmpty(cursor)) {
+      return appRepository.findUserDetailIds(
+          appId, excludeStatus, limit, offset, orderByCondition, searchTerm);
+    }
+
+    PageCursor pageCursor = PageCursor.decode(cursor, orderByCondition);
+    switch (orderByCondition) {
+      case "email_asc":
+        return appRepository.findUserDetailIdsAfterEmail(
+            appId, excludeStatus, limit, searchTerm, pageCursor.getValue(), pageCursor.getId());
+      case "email_desc":
+        return appRepository.findUserDetailIdsBeforeEmail(
+            appId, excludeStatus, limit, searchTerm, pageCursor.getValue(), pageCursor.getId());
+      case "registrationStatus_asc":
+        return appRepository.findUserDetailIdsAfterStatus(
+            appId, excludeStatus, limit, searchTerm, pageCursor.getIntValue(), pageCursor.getId());
+      case "registrationStatus_desc":
+        return appRepository.findUserDetailIdsBeforeStatus(
+            appId, excludeStatus, limit, searchTerm, pageCursor.getIntValue(), pageCursor.getId());
+      default:
+        throw new ErrorCodeException(ErrorCode.INVALID_PAGE_CURSOR);
+    }
+  }
+
+  private String getNextCursor(
+      List<String> userIds,
+      List<AppParticipantsInfo> appParticipantsInfoList,
+      Integer limit,
+      String orderByCondition) {
+    if (userIds.size() < limit) {
+      return null;
+    }
+
+    String lastUserId = userIds.get(userIds.size() - 1);
+    Optional<AppParticipantsInfo> optLast =
+        appParticipantsInfoList
+            .stream()
+            .filter(info -> lastUserId.equals(info.getUserDetailsId()))
+            .findFirst();
+    if (!optLast.isPresent()) {
+      return null;
+    }
+
+    String value;
+    switch (orderByCondition) {
+      case "email_asc":
+      case "email_desc":
+        value = optLast.get().getEmail();
+        break;
+      case "registrationStatus_asc":
+      case "registrationStatus_desc":
+        value = String.valueOf(optLast.get().getRegistrationStatus());
+        break;
+      default:
+        return null;
+    }
+    return value == null ? null : new PageCursor(orderByCondition, value, lastUserId).encode();
+  }
+
   private AppSiteDetails prepareAppSiteDetails(ParticipantEnrollmentHistory enrollmentHistory) {
     AppSiteDetails appSiteDetails;
     appSiteDetails = new AppSiteDetails();
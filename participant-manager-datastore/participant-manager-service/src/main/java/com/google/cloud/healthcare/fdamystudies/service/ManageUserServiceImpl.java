@@ -37,6 +37,7 @@ import com.google.cloud.healthcare.fdamystudies.beans.UserStudyDetails;
 import com.google.cloud.healthcare.fdamystudies.beans.UserStudyPermissionRequest;
 import com.google.cloud.healthcare.fdamystudies.common.CommonConstants;
 import com.google.cloud.healthcare.fdamystudies.common.EmailTemplate;
+import com.google.cloud.healthcare.fdamystudies.common.EmailTemplateRegistry;
 import com.google.cloud.healthcare.fdamystudies.common.ErrorCode;
 import com.google.cloud.healthcare.fdamystudies.common.IdGenerator;
 import com.google.cloud.healthcare.fdamystudies.common.MessageCode;
@@ -76,6 +77,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.map.HashedMap;
 import org.apache.commons.lang3.StringUtils;
@@ -93,6 +95,22 @@ import org.springframework.web.client.RestTemplate;
 @Service
 public class ManageUserServiceImpl implements ManageUserService {
 
+  private static final String ORG_NAME = "ORG_NAME";
+
+  private static final String FIRST_NAME = "FIRST_NAME";
+
+  private static final String CONTACT_EMAIL_ADDRESS = "CONTACT_EMAIL_ADDRESS";
+
+  private static final String ACTIVATION_LINK = "ACTIVATION_LINK";
+
+  private static final String[] UPDATE_USER_TEMPLATE_ARGS = {
+    ORG_NAME, FIRST_NAME, CONTACT_EMAIL_ADDRESS
+  };
+
+  private static final String[] REGISTER_USER_TEMPLATE_ARGS = {
+    ORG_NAME, FIRST_NAME, CONTACT_EMAIL_ADDRESS, ACTIVATION_LINK
+  };
+
   private XLogger logger = XLoggerFactory.getXLogger(ManageUserServiceImpl.class.getName());
 
   @Autowired private UserRegAdminRepository userAdminRepository;
@@ -122,6 +140,20 @@ public class ManageUserServiceImpl implements ManageUserService {
 
   @Autowired private OAuthService oauthService;
 
+  @Autowired private EmailTemplateRegistry emailTemplateRegistry;
+
+  @PostConstruct
+  public void registerEmailTemplates() {
+    emailTemplateRegistry.register(
+        "register.user.subject", appConfig.getRegisterUserSubject(), REGISTER_USER_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "register.user.body", appConfig.getRegisterUserBody(), REGISTER_USER_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "update.user.subject", appConfig.getUpdateUserSubject(), UPDATE_USER_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "update.user.body", appConfig.getUpdateUserBody(), UPDATE_USER_TEMPLATE_ARGS);
+  }
+
   @Override
   @Transactional
   public AdminUserResponse createUser(UserRequest user, AuditLogEventRequest auditRequest) {
@@ -929,9 +961,9 @@ public class ManageUserServiceImpl implements ManageUserService {
   private EmailResponse sendAccountCreatedOrUpdatedEmail(
       UserAccountEmailSchedulerTaskEntity adminRecordToSendEmail, UserRegAdminEntity admin) {
     Map<String, String> templateArgs = new HashMap<>();
-    templateArgs.put("ORG_NAME", appConfig.getOrgName());
-    templateArgs.put("FIRST_NAME", admin.getFirstName());
-    templateArgs.put("CONTACT_EMAIL_ADDRESS", appConfig.getContactEmail());
+    templateArgs.put(ORG_NAME, appConfig.getOrgName());
+    templateArgs.put(FIRST_NAME, admin.getFirstName());
+    templateArgs.put(CONTACT_EMAIL_ADDRESS, appConfig.getContactEmail());
 
     EmailRequest emailRequest = null;
     if (EmailTemplate.ACCOUNT_UPDATED_EMAIL_TEMPLATE
@@ -947,7 +979,7 @@ public class ManageUserServiceImpl implements ManageUserService {
               appConfig.getUpdateUserBody(),
               templateArgs);
     } else {
-      templateArgs.put("ACTIVATION_LINK", appConfig.getUserDetailsLink() + admin.getSecurityCode());
+      templateArgs.put(ACTIVATION_LINK, appConfig.getUserDetailsLink() + admin.getSecurityCode());
       emailRequest =
           new EmailRequest(
               appConfig.getFromEmail(),
@@ -18,8 +18,6 @@ import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.OP
 import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.OPEN_STUDY;
 import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.STATUS_ACTIVE;
 import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.ENROLLMENT_TARGET_UPDATED;
-import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.INVITATION_EMAIL_FAILED;
-import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.INVITATION_EMAIL_SENT;
 import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.PARTICIPANTS_EMAIL_LIST_IMPORTED;
 import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.PARTICIPANTS_EMAIL_LIST_IMPORT_FAILED;
 import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.PARTICIPANTS_EMAIL_LIST_IMPORT_PARTIAL_FAILED;
@@ -33,8 +31,6 @@ import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManager
 
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.ConsentHistory;
-import com.google.cloud.healthcare.fdamystudies.beans.EmailRequest;
-import com.google.cloud.healthcare.fdamystudies.beans.EmailResponse;
 import com.google.cloud.healthcare.fdamystudies.beans.ImportParticipantResponse;
 import com.google.cloud.healthcare.fdamystudies.beans.InviteParticipantRequest;
 import com.google.cloud.healthcare.fdamystudies.beans.InviteParticipantResponse;
@@ -90,14 +86,19 @@ import com.google.cloud.healthcare.fdamystudies.repository.LocationRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantEnrollmentHistoryRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantRegistrySiteRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantStudyRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.SiteParticipantCountRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.SitePermissionRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.SiteRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.StudyConsentRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.StudyPermissionRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.StudyRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.UserRegAdminRepository;
-import java.io.BufferedInputStream;
+import com.google.cloud.healthcare.fdamystudies.task.InvitationEmailDispatcher;
+import com.google.cloud.healthcare.fdamystudies.util.PageCursor;
+import com.google.cloud.healthcare.fdamystudies.util.SpreadsheetColumnReader;
+import com.google.common.collect.Lists;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -107,7 +108,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -116,15 +116,14 @@ import java.util.Set;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.EncryptedDocumentException;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -132,7 +131,9 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 @Service
@@ -140,8 +141,14 @@ public class SiteServiceImpl implements SiteService {
 
   private static final String CREATED = "created";
 
+  private static final String ID = "id";
+
+  private static final String CREATED_DESC = "created_desc";
+
   private static final int EMAIL_ADDRESS_COLUMN = 1;
 
+  private static final Pattern EMAIL_PATTERN = Pattern.compile(EMAIL_REGEX);
+
   private XLogger logger = XLoggerFactory.getXLogger(SiteServiceImpl.class.getName());
 
   @Autowired private SiteRepository siteRepository;
@@ -166,14 +173,31 @@ public class SiteServiceImpl implements SiteService {
 
   @Autowired private AppPropertyConfig appPropertyConfig;
 
-  @Autowired private EmailService emailService;
-
   @Autowired private ParticipantManagerAuditLogHelper participantManagerHelper;
 
   @Autowired private InviteParticipantsEmailRepository invitedParticipantsEmailRepository;
 
   @Autowired private ParticipantEnrollmentHistoryRepository participantEnrollmentHistoryRepository;
 
+  @Autowired private SiteParticipantCountRepository siteParticipantCountRepository;
+
+  @Autowired private InvitationEmailDispatcher invitationEmailDispatcher;
+
+  @PersistenceContext private EntityManager entityManager;
+
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  /**
+   * Transactions of the bulk participant updates, one per chunk of participants, so that the rows
+   * of a large site are not all locked until the end of the request.
+   */
+  private TransactionTemplate transactionTemplate;
+
+  @PostConstruct
+  public void init() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
   @Override
   @Transactional
   public SiteResponse addSite(SiteRequest siteRequest, AuditLogEventRequest auditRequest) {
@@ -358,7 +382,8 @@ public class SiteServiceImpl implements SiteService {
       String onboardingStatus,
       AuditLogEventRequest auditRequest,
       Integer page,
-      Integer limit) {
+      Integer limit,
+      String cursor) {
     logger.info("getParticipants()");
     Optional<SiteEntity> optSite = siteRepository.findById(siteId);
 
@@ -402,10 +427,18 @@ public class SiteServiceImpl implements SiteService {
     if (StringUtils.isEmpty(onboardingStatus)) {
       totalParticipantsCount = participantRegistrySiteRepository.countbysiteId(siteId);
 
-      if (page != null && limit != null) {
+      if (StringUtils.isNotEmpty(cursor) && limit != null) {
+        PageCursor pageCursor = PageCursor.decode(cursor, CREATED_DESC);
+        participantRegistrySites =
+            participantRegistrySiteRepository.findBySiteIdBefore(
+                siteId,
+                pageCursor.getTimestampValue(),
+                pageCursor.getId(),
+                PageRequest.of(0, limit));
+      } else if (page != null && limit != null) {
         participantRegistrySitesPage =
             participantRegistrySiteRepository.findBySiteIdForPage(
-                siteId, PageRequest.of(page, limit, Sort.by(CREATED).descending()));
+                siteId, PageRequest.of(page, limit, Sort.by(CREATED, ID).descending()));
         participantRegistrySites = participantRegistrySitesPage.getContent();
       } else {
         participantRegistrySites = participantRegistrySiteRepository.findBySiteId(siteId);
@@ -414,12 +447,21 @@ public class SiteServiceImpl implements SiteService {
       totalParticipantsCount =
           participantRegistrySiteRepository.countBySiteIdAndStatus(siteId, onboardingStatus);
 
-      if (page != null && limit != null) {
+      if (StringUtils.isNotEmpty(cursor) && limit != null) {
+        PageCursor pageCursor = PageCursor.decode(cursor, CREATED_DESC);
+        participantRegistrySites =
+            participantRegistrySiteRepository.findBySiteIdAndStatusBefore(
+                siteId,
+                onboardingStatus,
+                pageCursor.getTimestampValue(),
+                pageCursor.getId(),
+                PageRequest.of(0, limit));
+      } else if (page != null && limit != null) {
         participantRegistrySitesPage =
             participantRegistrySiteRepository.findBySiteIdAndStatusForPage(
                 siteId,
                 onboardingStatus,
-                PageRequest.of(page, limit, Sort.by(CREATED).descending()));
+                PageRequest.of(page, limit, Sort.by(CREATED, ID).descending()));
         participantRegistrySites = participantRegistrySitesPage.getContent();
       } else {
         participantRegistrySites =
@@ -434,6 +476,7 @@ public class SiteServiceImpl implements SiteService {
             MessageCode.GET_PARTICIPANT_REGISTRY_SUCCESS, participantRegistryDetail);
 
     participantRegistryResponse.setTotalParticipantCount(totalParticipantsCount);
+    participantRegistryResponse.setNextCursor(getNextCursor(participantRegistrySites, limit));
     auditRequest.setSiteId(site.getLocation().getCustomId());
     auditRequest.setStudyId(site.getStudy().getCustomId());
     auditRequest.setAppId(site.getStudy().getApp().getAppId());
@@ -447,6 +490,17 @@ public class SiteServiceImpl implements SiteService {
     return participantRegistryResponse;
   }
 
+  private String getNextCursor(
+      List<ParticipantRegistrySiteEntity> participantRegistrySites, Integer limit) {
+    if (limit == null || participantRegistrySites.size() < limit) {
+      return null;
+    }
+
+    ParticipantRegistrySiteEntity last =
+        participantRegistrySites.get(participantRegistrySites.size() - 1);
+    return new PageCursor(CREATED_DESC, last.getCreated().toString(), last.getId()).encode();
+  }
+
   private Map<String, Long> getOnboardingStatusWithCount(String siteId) {
     List<ParticipantRegistrySiteCount> statusCount =
         (List<ParticipantRegistrySiteCount>)
@@ -509,11 +563,38 @@ public class SiteServiceImpl implements SiteService {
   }
 
   @Override
-  @Transactional
   public SiteStatusResponse toggleSiteStatus(
       String userId, String siteId, AuditLogEventRequest auditRequest) {
     logger.entry("toggleSiteStatus()");
 
+    SiteEntity site =
+        transactionTemplate.execute(
+            status -> validateSiteStatusChange(userId, siteId, auditRequest));
+
+    Map<String, String> map = Collections.singletonMap("site_id", auditRequest.getSiteId());
+    if (SiteStatus.DEACTIVE == SiteStatus.fromValue(site.getStatus())) {
+      site = transactionTemplate.execute(status -> activateSite(siteId));
+      participantManagerHelper.logEvent(SITE_ACTIVATED_FOR_STUDY, auditRequest, map);
+
+      logger.exit(String.format(" Site status changed to ACTIVE for siteId=%s", site.getId()));
+      return new SiteStatusResponse(
+          site.getId(), site.getStatus(), MessageCode.RECOMMISSION_SITE_SUCCESS);
+    }
+
+    // the site is decommissioned once its participants are disabled, when a chunk fails the site
+    // stays active and decommissioning it again disables the remaining participants
+    deactivateYetToEnrollParticipants(siteId);
+    site = transactionTemplate.execute(status -> decommissionSite(siteId));
+
+    participantManagerHelper.logEvent(SITE_DECOMMISSIONED_FOR_STUDY, auditRequest, map);
+
+    logger.exit(String.format("Site status changed to DEACTIVE for siteId=%s", site.getId()));
+    return new SiteStatusResponse(
+        site.getId(), site.getStatus(), MessageCode.DECOMMISSION_SITE_SUCCESS);
+  }
+
+  private SiteEntity validateSiteStatusChange(
+      String userId, String siteId, AuditLogEventRequest auditRequest) {
     Optional<UserRegAdminEntity> optUser = userRegAdminRepository.findById(userId);
     if (!optUser.isPresent()) {
       throw new ErrorCodeException(ErrorCode.USER_NOT_FOUND);
@@ -530,34 +611,24 @@ public class SiteServiceImpl implements SiteService {
     auditRequest.setStudyId(site.getStudy().getCustomId());
     auditRequest.setAppId(site.getStudy().getApp().getAppId());
     auditRequest.setStudyVersion(String.valueOf(site.getStudy().getVersion()));
+    return site;
+  }
 
-    Map<String, String> map = Collections.singletonMap("site_id", site.getLocation().getCustomId());
-
-    if (SiteStatus.DEACTIVE == SiteStatus.fromValue(site.getStatus())) {
-      checkPreConditionsForSiteActivate(site);
-
-      site.setStatus(SiteStatus.ACTIVE.value());
-      site = siteRepository.saveAndFlush(site);
-
-      participantManagerHelper.logEvent(SITE_ACTIVATED_FOR_STUDY, auditRequest, map);
+  private SiteEntity activateSite(String siteId) {
+    SiteEntity site = siteRepository.findById(siteId).get();
+    checkPreConditionsForSiteActivate(site);
 
-      logger.exit(String.format(" Site status changed to ACTIVE for siteId=%s", site.getId()));
-      return new SiteStatusResponse(
-          site.getId(), site.getStatus(), MessageCode.RECOMMISSION_SITE_SUCCESS);
-    }
+    site.setStatus(SiteStatus.ACTIVE.value());
+    return siteRepository.saveAndFlush(site);
+  }
 
+  private SiteEntity decommissionSite(String siteId) {
+    SiteEntity site = siteRepository.findById(siteId).get();
     site.setStatus(SiteStatus.DEACTIVE.value());
-    siteRepository.saveAndFlush(site);
+    site = siteRepository.saveAndFlush(site);
 
     updateSitePermissions(siteId);
-
-    deactivateYetToEnrollParticipants(siteId);
-
-    participantManagerHelper.logEvent(SITE_DECOMMISSIONED_FOR_STUDY, auditRequest, map);
-
-    logger.exit(String.format("Site status changed to DEACTIVE for siteId=%s", site.getId()));
-    return new SiteStatusResponse(
-        site.getId(), site.getStatus(), MessageCode.DECOMMISSION_SITE_SUCCESS);
+    return site;
   }
 
   private void checkPreConditionsForSiteActivate(SiteEntity site) {
@@ -671,20 +742,54 @@ public class SiteServiceImpl implements SiteService {
     }
   }
 
+  /**
+   * Disables the new and invited participants of the site with one UPDATE per chunk of rows, each
+   * in its own transaction. A disabled participant no longer matches, so every chunk updates the
+   * next rows until a chunk updates fewer rows than the chunk size.
+   */
   private void deactivateYetToEnrollParticipants(String siteId) {
-    List<ParticipantRegistrySiteEntity> participantRegistrySites =
-        participantRegistrySiteRepository.findBySiteId(siteId);
-
-    if (CollectionUtils.isNotEmpty(participantRegistrySites)) {
-      for (ParticipantRegistrySiteEntity participantRegistrySite : participantRegistrySites) {
-        String onboardingStatusCode = participantRegistrySite.getOnboardingStatus();
-        if (OnboardingStatus.NEW.getCode().equals(onboardingStatusCode)
-            || OnboardingStatus.INVITED.getCode().equals(onboardingStatusCode)) {
-          participantRegistrySite.setOnboardingStatus(OnboardingStatus.DISABLED.getCode());
-          participantRegistrySite.setDisabledDate(new Timestamp(Instant.now().toEpochMilli()));
-        }
-        participantRegistrySiteRepository.saveAndFlush(participantRegistrySite);
-      }
+    List<String> yetToEnrollStatuses =
+        Arrays.asList(OnboardingStatus.NEW.getCode(), OnboardingStatus.INVITED.getCode());
+    Timestamp disabledDate = new Timestamp(Instant.now().toEpochMilli());
+    int chunkSize = appPropertyConfig.getBulkUpdateChunkSize();
+
+    int disabledCount = 0;
+    int chunkCount;
+    try {
+      do {
+        chunkCount =
+            transactionTemplate.execute(
+                status ->
+                    participantRegistrySiteRepository.updateOnboardingStatusBySiteId(
+                        OnboardingStatus.DISABLED.getCode(),
+                        disabledDate,
+                        siteId,
+                        yetToEnrollStatuses,
+                        chunkSize));
+        disabledCount += chunkCount;
+      } while (chunkCount == chunkSize);
+    } finally {
+      recountParticipants(siteId);
+    }
+
+    logger.info(String.format("%d participants disabled for siteId=%s", disabledCount, siteId));
+  }
+
+  /**
+   * Recounts the invited and enrolled participants of the site once the status changes of a
+   * request are committed. The counter row of the site is locked by one short statement, instead
+   * of by every chunk transaction of an import or a bulk status change. When the recount fails,
+   * the reconciliation task repairs the counts.
+   */
+  private void recountParticipants(String siteId) {
+    if (!appPropertyConfig.isEnrollmentCountersEnabled()) {
+      return;
+    }
+
+    try {
+      siteParticipantCountRepository.recountSites(Collections.singletonList(siteId));
+    } catch (RuntimeException e) {
+      logger.warn(String.format("participant counts of siteId=%s not recounted", siteId), e);
     }
   }
 
@@ -783,11 +888,36 @@ public class SiteServiceImpl implements SiteService {
   }
 
   @Override
-  @Transactional
   public InviteParticipantResponse inviteParticipants(
       InviteParticipantRequest inviteParticipantRequest, AuditLogEventRequest auditRequest) {
     logger.entry("begin inviteParticipants()");
 
+    transactionTemplate.executeWithoutResult(
+        status -> validateInviteParticipantsRequest(inviteParticipantRequest, auditRequest));
+
+    List<String> invitedParticipantIds = new ArrayList<>();
+    List<String> failedParticipantIds = new ArrayList<>();
+    try {
+      for (List<String> ids :
+          Lists.partition(
+              inviteParticipantRequest.getIds(), appPropertyConfig.getBulkUpdateChunkSize())) {
+        transactionTemplate.executeWithoutResult(
+            status -> invite(ids, auditRequest, invitedParticipantIds, failedParticipantIds));
+      }
+    } finally {
+      recountParticipants(inviteParticipantRequest.getSiteId());
+    }
+
+    logger.exit(
+        String.format(
+            "%d invited and %d failed participants",
+            invitedParticipantIds.size(), failedParticipantIds.size()));
+    return new InviteParticipantResponse(
+        MessageCode.PARTICIPANTS_INVITED_SUCCESS, invitedParticipantIds, failedParticipantIds);
+  }
+
+  private void validateInviteParticipantsRequest(
+      InviteParticipantRequest inviteParticipantRequest, AuditLogEventRequest auditRequest) {
     Optional<SiteEntity> optSiteEntity =
         siteRepository.findById(inviteParticipantRequest.getSiteId());
 
@@ -809,56 +939,42 @@ public class SiteServiceImpl implements SiteService {
       }
     }
 
-    List<ParticipantRegistrySiteEntity> participantsList =
-        participantRegistrySiteRepository.findByIds(inviteParticipantRequest.getIds());
-
     SiteEntity siteEntity = optSiteEntity.get();
     auditRequest.setUserId(inviteParticipantRequest.getUserId());
     auditRequest.setStudyId(siteEntity.getStudyId());
-
-    List<ParticipantRegistrySiteEntity> invitedParticipants =
-        findEligibleParticipantsAndInvite(
-            participantsList, siteEntity, auditRequest, inviteParticipantRequest.getIds());
-
-    participantsList.removeAll(invitedParticipants);
-    List<String> failedParticipantIds =
-        participantsList
-            .stream()
-            .map(ParticipantRegistrySiteEntity::getId)
-            .collect(Collectors.toList());
-
-    List<String> invitedParticipantIds =
-        invitedParticipants
-            .stream()
-            .map(ParticipantRegistrySiteEntity::getId)
-            .collect(Collectors.toList());
-
-    logger.exit(
-        String.format(
-            "%d invited and %d failed participants",
-            invitedParticipantIds.size(), failedParticipantIds.size()));
-    return new InviteParticipantResponse(
-        MessageCode.PARTICIPANTS_INVITED_SUCCESS, invitedParticipantIds, failedParticipantIds);
   }
 
-  private List<ParticipantRegistrySiteEntity> findEligibleParticipantsAndInvite(
-      List<ParticipantRegistrySiteEntity> participants,
-      SiteEntity siteEntity,
+  /**
+   * Invites the eligible participants of a chunk: the registry rows are updated and the invites
+   * inserted in JDBC batches, and the enrollment status of the chunk is reset with one UPDATE.
+   */
+  private void invite(
+      List<String> ids,
       AuditLogEventRequest auditRequest,
-      List<String> ids) {
+      List<String> invitedParticipantIds,
+      List<String> failedParticipantIds) {
+    Timestamp invitationDate = new Timestamp(Instant.now().toEpochMilli());
+    Timestamp enrollmentTokenExpiry =
+        new Timestamp(
+            Instant.now()
+                .plus(appPropertyConfig.getEnrollmentTokenExpiryInHours(), ChronoUnit.HOURS)
+                .toEpochMilli());
 
     List<ParticipantRegistrySiteEntity> invitedParticipants = new ArrayList<>();
-    for (ParticipantRegistrySiteEntity participantRegistrySiteEntity : participants) {
+    List<InviteParticipantEntity> invites = new ArrayList<>();
+    for (ParticipantRegistrySiteEntity participantRegistrySiteEntity :
+        participantRegistrySiteRepository.findByIds(ids)) {
       OnboardingStatus onboardingStatus =
           OnboardingStatus.fromCode(participantRegistrySiteEntity.getOnboardingStatus());
       if (OnboardingStatus.DISABLED == onboardingStatus
           || OnboardingStatus.ENROLLED == onboardingStatus) {
+        failedParticipantIds.add(participantRegistrySiteEntity.getId());
         continue;
       }
 
       String token = RandomStringUtils.randomAlphanumeric(8);
       participantRegistrySiteEntity.setEnrollmentToken(token);
-      participantRegistrySiteEntity.setInvitationDate(new Timestamp(Instant.now().toEpochMilli()));
+      participantRegistrySiteEntity.setInvitationDate(invitationDate);
 
       if (OnboardingStatus.NEW == onboardingStatus) {
         participantRegistrySiteEntity.setOnboardingStatus(OnboardingStatus.INVITED.getCode());
@@ -867,25 +983,32 @@ public class SiteServiceImpl implements SiteService {
       participantRegistrySiteEntity.setInvitationCount(
           participantRegistrySiteEntity.getInvitationCount() + 1);
       participantRegistrySiteEntity.setEnrollmentTokenUsed(false);
-      participantRegistrySiteEntity.setEnrollmentTokenExpiry(
-          new Timestamp(
-              Instant.now()
-                  .plus(appPropertyConfig.getEnrollmentTokenExpiryInHours(), ChronoUnit.HOURS)
-                  .toEpochMilli()));
+      participantRegistrySiteEntity.setEnrollmentTokenExpiry(enrollmentTokenExpiry);
 
       InviteParticipantEntity inviteParticipantsEmail =
           SiteMapper.toInviteParticipantEntity(auditRequest);
       inviteParticipantsEmail.setParticipantRegistrySite(participantRegistrySiteEntity.getId());
       inviteParticipantsEmail.setAppId(participantRegistrySiteEntity.getStudy().getAppId());
 
-      invitedParticipantsEmailRepository.saveAndFlush(inviteParticipantsEmail);
-
-      participantRegistrySiteRepository.saveAndFlush(participantRegistrySiteEntity);
-      participantStudyRepository.updateEnrollmentStatus(
-          ids, EnrollmentStatus.YET_TO_ENROLL.getStatus());
+      invites.add(inviteParticipantsEmail);
       invitedParticipants.add(participantRegistrySiteEntity);
     }
-    return invitedParticipants;
+
+    if (invitedParticipants.isEmpty()) {
+      return;
+    }
+
+    participantRegistrySiteRepository.saveAll(invitedParticipants);
+    invitedParticipantsEmailRepository.saveAll(invites);
+
+    List<String> chunkInvitedIds =
+        invitedParticipants
+            .stream()
+            .map(ParticipantRegistrySiteEntity::getId)
+            .collect(Collectors.toList());
+    participantStudyRepository.updateEnrollmentStatus(
+        chunkInvitedIds, EnrollmentStatus.YET_TO_ENROLL.getStatus());
+    invitedParticipantIds.addAll(chunkInvitedIds);
   }
 
   @Override
@@ -937,55 +1060,86 @@ public class SiteServiceImpl implements SiteService {
       }
     }
 
-    // iterate and save valid email id's
-    try (Workbook workbook =
-        WorkbookFactory.create(new BufferedInputStream(multipartFile.getInputStream()))) {
-
-      Sheet sheet = workbook.getSheetAt(0);
-      Row row = sheet.getRow(0);
-      String columnName = row.getCell(EMAIL_ADDRESS_COLUMN).getStringCellValue();
-      if (!"Email Address".equalsIgnoreCase(columnName)) {
-        participantManagerHelper.logEvent(PARTICIPANTS_EMAIL_LIST_IMPORT_FAILED, auditRequest, map);
-        throw new ErrorCodeException(ErrorCode.DOCUMENT_NOT_IN_PRESCRIBED_FORMAT);
-      }
-
-      Iterator<Row> rows = sheet.rowIterator();
-      Set<String> invalidEmails = new HashSet<>();
-      Set<String> validEmails = new HashSet<>();
+    // stream the rows and save the valid email id's in chunks
+    ParticipantImport participantImport = new ParticipantImport(userId, siteEntity);
+    try (InputStream inputStream = multipartFile.getInputStream()) {
+      SpreadsheetColumnReader.read(
+          inputStream,
+          EMAIL_ADDRESS_COLUMN,
+          email -> {
+            if (!participantImport.headerRead) {
+              participantImport.headerRead = true;
+              if (!"Email Address".equalsIgnoreCase(email)) {
+                participantManagerHelper.logEvent(
+                    PARTICIPANTS_EMAIL_LIST_IMPORT_FAILED, auditRequest, map);
+                throw new ErrorCodeException(ErrorCode.DOCUMENT_NOT_IN_PRESCRIBED_FORMAT);
+              }
+            } else {
+              addImportedEmail(participantImport, email);
+            }
+          });
+      saveImportParticipant(participantImport);
+    } catch (EncryptedDocumentException | IOException | InvalidFormatException e) {
+      participantManagerHelper.logEvent(PARTICIPANTS_EMAIL_LIST_IMPORT_FAILED, auditRequest, map);
+      throw new ErrorCodeException(ErrorCode.FAILED_TO_IMPORT_PARTICIPANTS);
+    }
 
-      // Skip headers row
-      rows.next();
-      while (rows.hasNext()) {
-        Row r = rows.next();
+    if (!participantImport.headerRead) {
+      participantManagerHelper.logEvent(PARTICIPANTS_EMAIL_LIST_IMPORT_FAILED, auditRequest, map);
+      throw new ErrorCodeException(ErrorCode.DOCUMENT_NOT_IN_PRESCRIBED_FORMAT);
+    }
 
-        String email = r.getCell(EMAIL_ADDRESS_COLUMN).getStringCellValue();
-        if (StringUtils.isBlank(email) || !Pattern.matches(EMAIL_REGEX, email)) {
-          invalidEmails.add(email);
-          continue;
-        }
-        validEmails.add(email);
-      }
+    ImportParticipantResponse importParticipantResponse =
+        new ImportParticipantResponse(
+            MessageCode.IMPORT_PARTICIPANT_SUCCESS,
+            participantImport.savedParticipants,
+            participantImport.duplicateEmails);
+    importParticipantResponse.getInvalidEmails().addAll(participantImport.invalidEmails);
 
-      ImportParticipantResponse importParticipantResponse =
-          saveImportParticipant(validEmails, userId, siteEntity);
-      importParticipantResponse.getInvalidEmails().addAll(invalidEmails);
+    ParticipantManagerEvent participantManagerEvent =
+        importParticipantResponse.getInvalidEmails().isEmpty()
+                && importParticipantResponse.getDuplicateEmails().isEmpty()
+            ? PARTICIPANTS_EMAIL_LIST_IMPORTED
+            : PARTICIPANTS_EMAIL_LIST_IMPORT_PARTIAL_FAILED;
+    participantManagerHelper.logEvent(participantManagerEvent, auditRequest, map);
 
-      ParticipantManagerEvent participantManagerEvent =
-          importParticipantResponse.getInvalidEmails().isEmpty()
-                  && importParticipantResponse.getDuplicateEmails().isEmpty()
-              ? PARTICIPANTS_EMAIL_LIST_IMPORTED
-              : PARTICIPANTS_EMAIL_LIST_IMPORT_PARTIAL_FAILED;
-      participantManagerHelper.logEvent(participantManagerEvent, auditRequest, map);
+    logger.exit(
+        String.format(
+            "import of %d rows completed, %d new emails saved, %d duplicates and %d invalid emails",
+            participantImport.rowCount,
+            participantImport.savedParticipants.size(),
+            participantImport.duplicateEmails.size(),
+            participantImport.invalidEmails.size()));
+    return importParticipantResponse;
+  }
 
-      return importParticipantResponse;
-    } catch (EncryptedDocumentException | IOException | InvalidFormatException e) {
-      participantManagerHelper.logEvent(PARTICIPANTS_EMAIL_LIST_IMPORT_FAILED, auditRequest, map);
-      throw new ErrorCodeException(ErrorCode.FAILED_TO_IMPORT_PARTICIPANTS);
+  private void addImportedEmail(ParticipantImport participantImport, String email) {
+    if (email == null) {
+      // a row without an email address cell
+      return;
+    }
+    participantImport.rowCount++;
+    if (StringUtils.isBlank(email) || !EMAIL_PATTERN.matcher(email).matches()) {
+      participantImport.invalidEmails.add(email);
+    } else if (participantImport.seenEmails.add(email)) {
+      participantImport.chunk.add(email);
+      if (participantImport.chunk.size() >= appPropertyConfig.getImportChunkSize()) {
+        saveImportParticipant(participantImport);
+      }
     }
   }
 
-  private ImportParticipantResponse saveImportParticipant(
-      Set<String> emails, String userId, SiteEntity siteEntity) {
+  /**
+   * Saves the new emails of the current chunk, with one query for the emails of the chunk already
+   * in the study and one batch of inserts per table, and then clears the persistence context so
+   * that its size and the cost of the next flush do not grow with the file.
+   */
+  private void saveImportParticipant(ParticipantImport participantImport) {
+    Set<String> emails = participantImport.chunk;
+    if (emails.isEmpty()) {
+      return;
+    }
+    SiteEntity siteEntity = participantImport.siteEntity;
 
     List<ParticipantRegistrySiteEntity> participantRegistrySiteEntities =
         (List<ParticipantRegistrySiteEntity>)
@@ -1003,7 +1157,7 @@ public class SiteServiceImpl implements SiteService {
                             !participant
                                     .getOnboardingStatus()
                                     .equals(OnboardingStatus.DISABLED.getCode())
-                                || participant.getSite().equals(siteEntity))
+                                || participant.getSite().getId().equals(siteEntity.getId()))
                     .map(ParticipantRegistrySiteEntity::getEmail)
                     .distinct()
                     .collect(Collectors.toList()));
@@ -1012,47 +1166,175 @@ public class SiteServiceImpl implements SiteService {
         (List<String>)
             CollectionUtils.removeAll(new ArrayList<String>(emails), participantRegistryEmails);
 
-    List<ParticipantDetail> savedParticipants = new ArrayList<>();
+    Timestamp enrollmentTokenExpiry =
+        new Timestamp(
+            Instant.now()
+                .plus(appPropertyConfig.getEnrollmentTokenExpiryInHours(), ChronoUnit.HOURS)
+                .toEpochMilli());
+    List<ParticipantDetail> participantDetails = new ArrayList<>(newEmails.size());
+    List<ParticipantRegistrySiteEntity> participantRegistrySites =
+        new ArrayList<>(newEmails.size());
     for (String email : newEmails) {
       ParticipantDetail participantDetail = new ParticipantDetail();
       participantDetail.setEmail(email);
       ParticipantRegistrySiteEntity participantRegistrySite =
           ParticipantMapper.fromParticipantDetail(participantDetail, siteEntity);
-      participantRegistrySite.setCreatedBy(userId);
-      participantRegistrySite.setEnrollmentTokenExpiry(
-          new Timestamp(
-              Instant.now()
-                  .plus(appPropertyConfig.getEnrollmentTokenExpiryInHours(), ChronoUnit.HOURS)
-                  .toEpochMilli()));
-      participantRegistrySite =
-          participantRegistrySiteRepository.saveAndFlush(participantRegistrySite);
+      participantRegistrySite.setCreatedBy(participantImport.userId);
+      participantRegistrySite.setEnrollmentTokenExpiry(enrollmentTokenExpiry);
+      participantDetails.add(participantDetail);
+      participantRegistrySites.add(participantRegistrySite);
+    }
+    participantRegistrySites = participantRegistrySiteRepository.saveAll(participantRegistrySites);
 
+    List<ParticipantStudyEntity> participantStudies = new ArrayList<>(newEmails.size());
+    for (ParticipantRegistrySiteEntity participantRegistrySite : participantRegistrySites) {
       ParticipantStudyEntity participantStudyEntity =
           ParticipantMapper.toParticipantStudyEntity(
               participantRegistrySite, EnrollmentStatus.YET_TO_ENROLL);
       participantStudyEntity.setParticipantId(null);
       participantStudyEntity.setUserDetails(null);
       participantStudyEntity.setEnrolledDate(null);
-      participantStudyRepository.saveAndFlush(participantStudyEntity);
+      participantStudies.add(participantStudyEntity);
+    }
+    participantStudyRepository.saveAll(participantStudies);
+    // one JDBC batch per table, hibernate.jdbc.batch_size statements at a time
+    entityManager.flush();
+    entityManager.clear();
 
-      participantDetail.setId(participantRegistrySite.getId());
-      savedParticipants.add(participantDetail);
+    for (int i = 0; i < participantDetails.size(); i++) {
+      participantDetails.get(i).setId(participantRegistrySites.get(i).getId());
     }
+    participantImport.savedParticipants.addAll(participantDetails);
+    participantImport.duplicateEmails.addAll(participantRegistryEmails);
+    participantImport.chunk = new HashSet<>();
 
-    logger.exit(
+    logger.info(
         String.format(
-            "%d duplicates email found and %d new emails saved",
-            participantRegistryEmails.size(), newEmails.size()));
-    return new ImportParticipantResponse(
-        MessageCode.IMPORT_PARTICIPANT_SUCCESS, savedParticipants, participantRegistryEmails);
+            "participant import for site %s: %d rows read, %d new emails saved, %d duplicates"
+                + " and %d invalid emails so far",
+            siteEntity.getId(),
+            participantImport.rowCount,
+            participantImport.savedParticipants.size(),
+            participantImport.duplicateEmails.size(),
+            participantImport.invalidEmails.size()));
+  }
+
+  /** Progress of an import, the emails are saved a chunk at a time as the rows are read. */
+  private static class ParticipantImport {
+
+    private final String userId;
+
+    private final SiteEntity siteEntity;
+
+    private boolean headerRead;
+
+    private int rowCount;
+
+    /** Valid emails of the file, an email repeated in the file is imported once. */
+    private final Set<String> seenEmails = new HashSet<>();
+
+    private Set<String> chunk = new HashSet<>();
+
+    private final Set<String> invalidEmails = new HashSet<>();
+
+    private final List<ParticipantDetail> savedParticipants = new ArrayList<>();
+
+    private final List<String> duplicateEmails = new ArrayList<>();
+
+    private ParticipantImport(String userId, SiteEntity siteEntity) {
+      this.userId = userId;
+      this.siteEntity = siteEntity;
+    }
   }
 
   @Override
-  @Transactional
   public ParticipantStatusResponse updateOnboardingStatus(
       ParticipantStatusRequest participantStatusRequest, AuditLogEventRequest auditRequest) {
     logger.entry("begin updateOnboardingStatus()");
 
+    String studyId =
+        transactionTemplate.execute(
+            status -> validateOnboardingStatusRequest(participantStatusRequest, auditRequest));
+
+    OnboardingStatus onboardingStatus =
+        OnboardingStatus.fromCode(participantStatusRequest.getStatus());
+    Timestamp disabledTimestamp =
+        OnboardingStatus.DISABLED.equals(onboardingStatus)
+            ? new Timestamp(Instant.now().toEpochMilli())
+            : null;
+
+    List<List<String>> chunks =
+        Lists.partition(
+            participantStatusRequest.getIds(), appPropertyConfig.getBulkUpdateChunkSize());
+    boolean enable = OnboardingStatus.NEW.equals(onboardingStatus);
+    if (enable) {
+      // all chunks are checked before the first one is updated, so that a conflict leaves the
+      // status of every participant unchanged
+      for (List<String> ids : chunks) {
+        transactionTemplate.executeWithoutResult(status -> validateCanEnable(studyId, ids));
+      }
+    }
+
+    ParticipantManagerEvent auditEvent = null;
+    MessageCode messageCode = null;
+    if (OnboardingStatus.DISABLED.equals(onboardingStatus)) {
+      auditEvent = PARTICIPANT_INVITATION_DISABLED;
+      messageCode = MessageCode.INVITATION_DISABLED_SUCCESS;
+    } else if (enable) {
+      auditEvent = PARTICIPANT_INVITATION_ENABLED;
+      messageCode = MessageCode.INVITATION_ENABLED_SUCCESS;
+    }
+    Map<String, String> map = Collections.singletonMap("site_id", auditRequest.getSiteId());
+
+    int updatedCount = 0;
+    try {
+      for (List<String> ids : chunks) {
+        transactionTemplate.executeWithoutResult(
+            status -> {
+              if (enable) {
+                // a participant of the chunk may have been invited to another site of the study
+                // since the check above
+                validateCanEnable(studyId, ids);
+              }
+              participantRegistrySiteRepository.updateOnboardingStatus(
+                  participantStatusRequest.getStatus(), ids, disabledTimestamp);
+              participantStudyRepository.updateEnrollmentStatus(
+                  ids, EnrollmentStatus.YET_TO_ENROLL.getStatus());
+            });
+        updatedCount += ids.size();
+      }
+    } catch (RuntimeException e) {
+      // the chunks updated before the failed one keep their new status
+      if (updatedCount > 0 && auditEvent != null) {
+        participantManagerHelper.logEvent(auditEvent, auditRequest, map);
+      }
+      logger.warn(
+          String.format(
+              "Onboarding status changed to %s for %d of %d participants in Site %s",
+              participantStatusRequest.getStatus(),
+              updatedCount,
+              participantStatusRequest.getIds().size(),
+              participantStatusRequest.getSiteId()));
+      throw e;
+    } finally {
+      recountParticipants(participantStatusRequest.getSiteId());
+    }
+
+    if (auditEvent != null) {
+      participantManagerHelper.logEvent(auditEvent, auditRequest, map);
+    }
+    logger.exit(
+        String.format(
+            "Onboarding status changed to %s for %d participants in Site %s",
+            participantStatusRequest.getStatus(),
+            participantStatusRequest.getIds().size(),
+            participantStatusRequest.getSiteId()));
+    return new ParticipantStatusResponse(messageCode);
+  }
+
+  /** Validates the request and fills the audit request, returns the id of the site's study. */
+  private String validateOnboardingStatusRequest(
+      ParticipantStatusRequest participantStatusRequest, AuditLogEventRequest auditRequest) {
     Optional<SiteEntity> optSite = siteRepository.findById(participantStatusRequest.getSiteId());
 
     if (!optSite.isPresent() || !optSite.get().getStatus().equals(ACTIVE_STATUS)) {
@@ -1079,44 +1361,6 @@ public class SiteServiceImpl implements SiteService {
       throw new ErrorCodeException(ErrorCode.INVALID_ONBOARDING_STATUS);
     }
 
-    List<ParticipantRegistrySiteEntity> participantregistryList =
-        participantRegistrySiteRepository.findByIds(participantStatusRequest.getIds());
-
-    Timestamp disabledTimestamp =
-        OnboardingStatus.DISABLED.equals(onboardingStatus)
-            ? new Timestamp(Instant.now().toEpochMilli())
-            : null;
-
-    if (!OnboardingStatus.NEW.equals(onboardingStatus)) {
-      participantRegistrySiteRepository.updateOnboardingStatus(
-          participantStatusRequest.getStatus(),
-          participantStatusRequest.getIds(),
-          disabledTimestamp);
-      participantStudyRepository.updateEnrollmentStatus(
-          participantStatusRequest.getIds(), EnrollmentStatus.YET_TO_ENROLL.getStatus());
-    } else {
-      List<String> emails =
-          participantregistryList
-              .stream()
-              .map(ParticipantRegistrySiteEntity::getEmail)
-              .collect(Collectors.toList());
-
-      Optional<ParticipantRegistrySiteEntity> optParticipantRegistrySite =
-          participantRegistrySiteRepository.findExistingRecordByStudyIdAndEmails(
-              optSite.get().getStudyId(), emails);
-
-      if (optParticipantRegistrySite.isPresent()) {
-        throw new ErrorCodeException(ErrorCode.CANNOT_ENABLE_PARTICIPANT);
-      }
-
-      participantRegistrySiteRepository.updateOnboardingStatus(
-          participantStatusRequest.getStatus(),
-          participantStatusRequest.getIds(),
-          disabledTimestamp);
-      participantStudyRepository.updateEnrollmentStatus(
-          participantStatusRequest.getIds(), EnrollmentStatus.YET_TO_ENROLL.getStatus());
-    }
-
     SiteEntity site = optSite.get();
 
     auditRequest.setSiteId(site.getLocation().getCustomId());
@@ -1124,23 +1368,21 @@ public class SiteServiceImpl implements SiteService {
     auditRequest.setStudyId(site.getStudy().getCustomId());
     auditRequest.setAppId(site.getStudy().getApp().getAppId());
     auditRequest.setStudyVersion(String.valueOf(site.getStudy().getVersion()));
+    return site.getStudyId();
+  }
 
-    MessageCode messageCode = null;
-    Map<String, String> map = Collections.singletonMap("site_id", site.getLocation().getCustomId());
-    if (participantStatusRequest.getStatus().equals(OnboardingStatus.DISABLED.getCode())) {
-      participantManagerHelper.logEvent(PARTICIPANT_INVITATION_DISABLED, auditRequest, map);
-      messageCode = MessageCode.INVITATION_DISABLED_SUCCESS;
-    } else if (participantStatusRequest.getStatus().equals(OnboardingStatus.NEW.getCode())) {
-      participantManagerHelper.logEvent(PARTICIPANT_INVITATION_ENABLED, auditRequest, map);
-      messageCode = MessageCode.INVITATION_ENABLED_SUCCESS;
+  private void validateCanEnable(String studyId, List<String> ids) {
+    List<String> emails =
+        participantRegistrySiteRepository
+            .findByIds(ids)
+            .stream()
+            .map(ParticipantRegistrySiteEntity::getEmail)
+            .collect(Collectors.toList());
+
+    if (participantRegistrySiteRepository.countExistingRecordsByStudyIdAndEmails(studyId, emails)
+        > 0) {
+      throw new ErrorCodeException(ErrorCode.CANNOT_ENABLE_PARTICIPANT);
     }
-    logger.exit(
-        String.format(
-            "Onboarding status changed to %s for %d participants in Site %s",
-            participantStatusRequest.getStatus(),
-            participantStatusRequest.getIds().size(),
-            participantStatusRequest.getSiteId()));
-    return new ParticipantStatusResponse(messageCode);
   }
 
   @Override
@@ -1171,7 +1413,9 @@ public class SiteServiceImpl implements SiteService {
     }
 
     List<EnrolledInvitedCount> enrolledInvitedCountList =
-        siteRepository.getEnrolledInvitedCountByUserId(userId);
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.getEnrolledInvitedCountByUserId(userId)
+            : siteRepository.getEnrolledInvitedCountByUserId(userId);
 
     Map<String, EnrolledInvitedCount> enrolledInvitedCountMap =
         CollectionUtils.emptyIfNull(enrolledInvitedCountList)
@@ -1179,7 +1423,9 @@ public class SiteServiceImpl implements SiteService {
             .collect(Collectors.toMap(EnrolledInvitedCount::getSiteId, Function.identity()));
 
     List<EnrolledInvitedCount> enrolledInvitedCountListForOpenStudy =
-        siteRepository.getInvitedEnrolledCountForOpenStudy(userId);
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.getInvitedEnrolledCountForOpenStudy(userId)
+            : siteRepository.getInvitedEnrolledCountForOpenStudy(userId);
 
     Map<String, EnrolledInvitedCount> enrolledInvitedCountMapOfOpenStudy =
         CollectionUtils.emptyIfNull(enrolledInvitedCountListForOpenStudy)
@@ -1216,7 +1462,10 @@ public class SiteServiceImpl implements SiteService {
     List<StudySiteInfo> studySiteDetails =
         studyRepository.getStudySiteDetails(limit, offset, StringUtils.defaultString(searchTerm));
 
-    List<EnrolledInvitedCount> enrolledInvitedCountList = siteRepository.getEnrolledInvitedCount();
+    List<EnrolledInvitedCount> enrolledInvitedCountList =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.getEnrolledInvitedCount()
+            : siteRepository.getEnrolledInvitedCount();
 
     Map<String, StudyDetails> studiesMap = new LinkedHashMap<>();
 
@@ -1225,7 +1474,10 @@ public class SiteServiceImpl implements SiteService {
             .stream()
             .collect(Collectors.toMap(EnrolledInvitedCount::getSiteId, Function.identity()));
 
-    List<EnrolledInvitedCount> enrolledCountList = siteRepository.findEnrolledCountForOpenStudy();
+    List<EnrolledInvitedCount> enrolledCountList =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.findEnrolledCountForOpenStudy()
+            : siteRepository.findEnrolledCountForOpenStudy();
 
     Map<String, EnrolledInvitedCount> enrolledCountMap =
         CollectionUtils.emptyIfNull(enrolledCountList)
@@ -1420,109 +1672,7 @@ public class SiteServiceImpl implements SiteService {
   }
 
   @Override
-  @Transactional
   public void sendInvitationEmail() {
-
-    List<InviteParticipantEntity> listOfInvitedParticipants =
-        invitedParticipantsEmailRepository.findAllWithStatusZero();
-
-    Set<String> uniqueRecords = new HashSet<>();
-    for (InviteParticipantEntity invitedParticipantsEmailEntity : listOfInvitedParticipants) {
-
-      if (isDuplicateEntity(invitedParticipantsEmailEntity, uniqueRecords)) {
-        continue;
-      }
-
-      int updatedRows =
-          invitedParticipantsEmailRepository.updateStatus(
-              invitedParticipantsEmailEntity.getStudy(),
-              invitedParticipantsEmailEntity.getParticipantRegistrySite(),
-              invitedParticipantsEmailEntity.getAppId(),
-              1);
-
-      if (updatedRows == 0) {
-        // this record may be taken by another service instance
-        continue;
-      }
-
-      Optional<ParticipantRegistrySiteEntity> optParticipantRegistrySiteEntity =
-          participantRegistrySiteRepository.findById(
-              invitedParticipantsEmailEntity.getParticipantRegistrySite());
-
-      Optional<StudyEntity> optStudy =
-          studyRepository.findByStudyId(invitedParticipantsEmailEntity.getStudy());
-
-      if (!optParticipantRegistrySiteEntity.isPresent() || !optStudy.isPresent()) {
-        logger.warn(
-            "Participant registry or study not found for invited participants so deleting this record from invite participant table");
-        invitedParticipantsEmailRepository.deleteByParticipantRegistryIdAndStudyIdAndAppId(
-            invitedParticipantsEmailEntity.getStudy(),
-            invitedParticipantsEmailEntity.getParticipantRegistrySite(),
-            invitedParticipantsEmailEntity.getAppId());
-        continue;
-      }
-
-      ParticipantRegistrySiteEntity participantRegistrySiteEntity =
-          optParticipantRegistrySiteEntity.get();
-
-      Map<String, String> templateArgs = new HashMap<>();
-      templateArgs.put("study name", optStudy.get().getName());
-      templateArgs.put("App Name", optStudy.get().getApp().getAppName());
-      templateArgs.put("enrolment token", participantRegistrySiteEntity.getEnrollmentToken());
-      templateArgs.put("contact email address", optStudy.get().getContactEmail());
-      EmailRequest emailRequest =
-          new EmailRequest(
-              appPropertyConfig.getFromEmail(),
-              new String[] {participantRegistrySiteEntity.getEmail()},
-              null,
-              null,
-              appPropertyConfig.getParticipantInviteSubject(),
-              appPropertyConfig.getParticipantInviteBody(),
-              templateArgs);
-      EmailResponse emailResponse = emailService.sendMimeMail(emailRequest);
-
-      SiteEntity site = participantRegistrySiteEntity.getSite();
-      Map<String, String> map =
-          Collections.singletonMap("site_id", site.getLocation().getCustomId());
-      AuditLogEventRequest auditRequest =
-          SiteMapper.prepareAuditlogRequest(invitedParticipantsEmailEntity);
-      auditRequest.setSiteId(site.getLocation().getCustomId());
-      auditRequest.setStudyId(site.getStudy().getCustomId());
-      auditRequest.setAppId(site.getStudy().getApp().getAppId());
-      auditRequest.setParticipantId(participantRegistrySiteEntity.getId());
-      auditRequest.setStudyVersion(String.valueOf(site.getStudy().getVersion()));
-
-      if (MessageCode.EMAIL_ACCEPTED_BY_MAIL_SERVER
-          .getMessage()
-          .equals(emailResponse.getMessage())) {
-        invitedParticipantsEmailRepository.deleteByParticipantRegistryIdAndStudyIdAndAppId(
-            invitedParticipantsEmailEntity.getStudy(),
-            invitedParticipantsEmailEntity.getParticipantRegistrySite(),
-            invitedParticipantsEmailEntity.getAppId());
-
-        participantManagerHelper.logEvent(INVITATION_EMAIL_SENT, auditRequest, map);
-
-      } else {
-        invitedParticipantsEmailRepository.updateStatus(
-            invitedParticipantsEmailEntity.getStudy(),
-            invitedParticipantsEmailEntity.getParticipantRegistrySite(),
-            invitedParticipantsEmailEntity.getAppId(),
-            0);
-
-        participantManagerHelper.logEvent(INVITATION_EMAIL_FAILED, auditRequest, map);
-      }
-    }
-  }
-
-  public boolean isDuplicateEntity(
-      InviteParticipantEntity invitedParticipants, Set<String> uniqueRecords) {
-    String key =
-        invitedParticipants.getStudy()
-            + "_"
-            + invitedParticipants.getParticipantRegistrySite()
-            + "_"
-            + invitedParticipants.getAppId();
-
-    return !uniqueRecords.add(key);
+    invitationEmailDispatcher.dispatch();
   }
 }
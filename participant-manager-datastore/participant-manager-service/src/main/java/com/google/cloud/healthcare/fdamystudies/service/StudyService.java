@@ -24,5 +24,6 @@ public interface StudyService {
       Integer limit,
       Integer offset,
       String orderByCondition,
-      String searchTerm);
+      String searchTerm,
+      String cursor);
 }
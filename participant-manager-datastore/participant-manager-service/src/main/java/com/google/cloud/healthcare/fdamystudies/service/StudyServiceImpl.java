@@ -22,6 +22,7 @@ import com.google.cloud.healthcare.fdamystudies.common.ErrorCode;
 import com.google.cloud.healthcare.fdamystudies.common.MessageCode;
 import com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerAuditLogHelper;
 import com.google.cloud.healthcare.fdamystudies.common.Permission;
+import com.google.cloud.healthcare.fdamystudies.config.AppPropertyConfig;
 import com.google.cloud.healthcare.fdamystudies.exceptions.ErrorCodeException;
 import com.google.cloud.healthcare.fdamystudies.mapper.ParticipantMapper;
 import com.google.cloud.healthcare.fdamystudies.model.EnrolledInvitedCountForStudy;
@@ -34,9 +35,11 @@ import com.google.cloud.healthcare.fdamystudies.model.StudyParticipantDetails;
 import com.google.cloud.healthcare.fdamystudies.model.UserRegAdminEntity;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantEnrollmentHistoryRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantStudyRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.SiteParticipantCountRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.SiteRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.StudyRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.UserRegAdminRepository;
+import com.google.cloud.healthcare.fdamystudies.util.PageCursor;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.LongSummaryStatistics;
@@ -69,6 +72,10 @@ public class StudyServiceImpl implements StudyService {
 
   @Autowired private ParticipantEnrollmentHistoryRepository participantEnrollmentHistory;
 
+  @Autowired private SiteParticipantCountRepository siteParticipantCountRepository;
+
+  @Autowired private AppPropertyConfig appPropertyConfig;
+
   @Override
   @Transactional(readOnly = true)
   public StudyResponse getStudies(String userId, Integer limit, Integer offset, String searchTerm) {
@@ -99,7 +106,9 @@ public class StudyServiceImpl implements StudyService {
     }
 
     List<EnrolledInvitedCountForStudy> enrolledInvitedCountList =
-        studyRepository.getEnrolledInvitedCountByUserId(userId);
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.getEnrolledInvitedCountForStudiesByUserId(userId)
+            : studyRepository.getEnrolledInvitedCountByUserId(userId);
     Map<String, EnrolledInvitedCountForStudy> enrolledInvitedCountMap =
         CollectionUtils.emptyIfNull(enrolledInvitedCountList)
             .stream()
@@ -107,7 +116,9 @@ public class StudyServiceImpl implements StudyService {
                 Collectors.toMap(EnrolledInvitedCountForStudy::getStudyId, Function.identity()));
 
     List<EnrolledInvitedCountForStudy> enrolledInvitedCountListForOpenStudy =
-        studyRepository.getInvitedEnrolledCountForOpenStudyForStudies(userId);
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.getInvitedEnrolledCountForOpenStudyForStudies(userId)
+            : studyRepository.getInvitedEnrolledCountForOpenStudyForStudies(userId);
     Map<String, EnrolledInvitedCountForStudy> enrolledInvitedCountMapOfOpenStudy =
         CollectionUtils.emptyIfNull(enrolledInvitedCountListForOpenStudy)
             .stream()
@@ -126,13 +137,19 @@ public class StudyServiceImpl implements StudyService {
   private StudyResponse getStudiesForSuperAdmin(
       UserRegAdminEntity userRegAdminEntity, Integer limit, Integer offset, String searchTerm) {
 
-    List<StudyCount> studyInvitedCountList = studyRepository.findInvitedCountByStudyId();
+    List<StudyCount> studyInvitedCountList =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.findInvitedCountByStudyId()
+            : studyRepository.findInvitedCountByStudyId();
     Map<String, StudyCount> studyInvitedCountMap =
         studyInvitedCountList
             .stream()
             .collect(Collectors.toMap(StudyCount::getStudyId, Function.identity()));
 
-    List<StudyCount> studyEnrolledCountList = studyRepository.findEnrolledCountByStudyId();
+    List<StudyCount> studyEnrolledCountList =
+        appPropertyConfig.isEnrollmentCountersEnabled()
+            ? siteParticipantCountRepository.findEnrolledCountByStudyId()
+            : studyRepository.findEnrolledCountByStudyId();
     Map<String, StudyCount> studyEnrolledCountMap =
         studyEnrolledCountList
             .stream()
@@ -256,7 +273,8 @@ public class StudyServiceImpl implements StudyService {
       Integer limit,
       Integer offset,
       String orderByCondition,
-      String searchTerm) {
+      String searchTerm,
+      String cursor) {
     logger.entry("getStudyParticipants(String userId, String studyId)");
     // validations
 
@@ -297,6 +315,7 @@ public class StudyServiceImpl implements StudyService {
         offset,
         orderByCondition,
         searchTerm,
+        cursor,
         auditRequest);
   }
 
@@ -308,19 +327,23 @@ public class StudyServiceImpl implements StudyService {
       Integer offset,
       String orderByCondition,
       String searchTerm,
+      String cursor,
       AuditLogEventRequest auditRequest) {
 
     List<ParticipantDetail> registryParticipants = new ArrayList<>();
     List<StudyParticipantDetails> studyParticipantDetails = new ArrayList<>();
     Long participantCount = 0L;
+    String nextCursor = null;
     if (studyAppDetails.getStudyType().equalsIgnoreCase(OPEN_STUDY)) {
       studyParticipantDetails =
-          studyRepository.getStudyParticipantDetailsForOpenStudy(
+          getOpenStudyParticipants(
               studyAppDetails.getStudyId(),
               limit,
               offset,
               orderByCondition,
-              StringUtils.defaultString(searchTerm));
+              StringUtils.defaultString(searchTerm),
+              cursor);
+      nextCursor = getNextCursor(studyParticipantDetails, limit, orderByCondition);
 
       participantCount =
           studyRepository.countOpenStudyParticipants(
@@ -329,6 +352,9 @@ public class StudyServiceImpl implements StudyService {
               StringUtils.defaultString(searchTerm));
 
     } else if (studyAppDetails.getStudyType().equalsIgnoreCase(CommonConstants.CLOSE_STUDY)) {
+      if (StringUtils.isNotEmpty(cursor)) {
+        throw new ErrorCodeException(ErrorCode.INVALID_PAGE_CURSOR);
+      }
       studyParticipantDetails =
           studyRepository.getStudyParticipantDetailsForClosedStudy(
               studyAppDetails.getStudyId(),
@@ -382,10 +408,73 @@ public class StudyServiceImpl implements StudyService {
             MessageCode.GET_PARTICIPANT_REGISTRY_SUCCESS, participantRegistryDetail);
 
     participantRegistryResponse.setTotalParticipantCount(participantCount);
+    participantRegistryResponse.setNextCursor(nextCursor);
 
     participantManagerHelper.logEvent(STUDY_PARTICIPANT_REGISTRY_VIEWED, auditRequest);
 
     logger.exit(String.format("message=%s", participantRegistryResponse.getMessage()));
     return participantRegistryResponse;
   }
+
+  /**
+   * Reads the page after the cursor from the index of the sort column when there is a cursor, and
+   * with the offset otherwise. Only the email and onboarding status orders have a cursor.
+   */
+  private List<StudyParticipantDetails> getOpenStudyParticipants(
+      String studyId,
+      Integer limit,
+      Integer offset,
+      String orderByCondition,
+      String searchTerm,
+      String cursor) {
+    if (StringUtils.isEmpty(cursor)) {
+      return studyRepository.getStudyParticipantDetailsForOpenStudy(
+          studyId, limit, offset, orderByCondition, searchTerm);
+    }
+
+    PageCursor pageCursor = PageCursor.decode(cursor, orderByCondition);
+    switch (orderByCondition) {
+      case "email_asc":
+        return studyRepository.getOpenStudyParticipantsAfterEmail(
+            studyId, limit, searchTerm, pageCursor.getValue(), pageCursor.getId());
+      case "email_desc":
+        return studyRepository.getOpenStudyParticipantsBeforeEmail(
+            studyId, limit, searchTerm, pageCursor.getValue(), pageCursor.getId());
+      case "onboardingStatus_asc":
+        return studyRepository.getOpenStudyParticipantsAfterStatus(
+            studyId, limit, searchTerm, pageCursor.getValue(), pageCursor.getId());
+      case "onboardingStatus_desc":
+        return studyRepository.getOpenStudyParticipantsBeforeStatus(
+            studyId, limit, searchTerm, pageCursor.getValue(), pageCursor.getId());
+      default:
+        throw new ErrorCodeException(ErrorCode.INVALID_PAGE_CURSOR);
+    }
+  }
+
+  private String getNextCursor(
+      List<StudyParticipantDetails> studyParticipantDetails,
+      Integer limit,
+      String orderByCondition) {
+    if (studyParticipantDetails.isEmpty() || studyParticipantDetails.size() < limit) {
+      return null;
+    }
+
+    StudyParticipantDetails last = studyParticipantDetails.get(studyParticipantDetails.size() - 1);
+    String value;
+    switch (orderByCondition) {
+      case "email_asc":
+      case "email_desc":
+        value = last.getEmail();
+        break;
+      case "onboardingStatus_asc":
+      case "onboardingStatus_desc":
+        value = last.getOnboardingStatus();
+        break;
+      default:
+        return null;
+    }
+    return value == null
+        ? null
+        : new PageCursor(orderByCondition, value, last.getParticipantId()).encode();
+  }
 }
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.task;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.INVITATION_EMAIL_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.INVITATION_EMAIL_SENT;
+
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.beans.EmailRequest;
+import com.google.cloud.healthcare.fdamystudies.beans.EmailResponse;
+import com.google.cloud.healthcare.fdamystudies.common.EmailTemplateRegistry;
+import com.google.cloud.healthcare.fdamystudies.common.MessageCode;
+import com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerAuditLogHelper;
+import com.google.cloud.healthcare.fdamystudies.config.AppPropertyConfig;
+import com.google.cloud.healthcare.fdamystudies.mapper.SiteMapper;
+import com.google.cloud.healthcare.fdamystudies.model.InviteParticipantEntity;
+import com.google.cloud.healthcare.fdamystudies.model.ParticipantRegistrySiteEntity;
+import com.google.cloud.healthcare.fdamystudies.model.SiteEntity;
+import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
+import com.google.cloud.healthcare.fdamystudies.repository.InviteParticipantsEmailRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.ParticipantRegistrySiteRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.StudyRepository;
+import com.google.cloud.healthcare.fdamystudies.service.EmailService;
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Sends the pending participant invitations in chunks. Each chunk is claimed in a short
+ * transaction that locks the pending rows, skipping the rows another service instance has locked,
+ * marks them as taken and loads their registry and study rows in bulk. The emails of the chunk are
+ * sent by a bounded pool of workers, each recipient domain at a limited rate and with retries, and
+ * a second short transaction deletes the sent invitations.
+ *
+ * <p>Invitations that still fail are made pending again at the end of their chunk, to be retried
+ * by the next run rather than claimed again by this one. A claim holds for a lease, the invitations
+ * of a service instance that stopped before releasing them are claimed again once it expired. The
+ * worker renews the claim of an invitation before each attempt to send it, an invitation whose
+ * claim expired and was taken by another service instance is left to that instance.
+ */
+@Component
+public class InvitationEmailDispatcher {
+
+  private XLogger logger = XLoggerFactory.getXLogger(InvitationEmailDispatcher.class.getName());
+
+  private static final String INVITE_STUDY_NAME = "study name";
+
+  private static final String INVITE_APP_NAME = "App Name";
+
+  private static final String INVITE_ENROLLMENT_TOKEN = "enrolment token";
+
+  private static final String INVITE_CONTACT_EMAIL = "contact email address";
+
+  private static final String[] INVITE_TEMPLATE_ARGS = {
+    INVITE_STUDY_NAME, INVITE_APP_NAME, INVITE_ENROLLMENT_TOKEN, INVITE_CONTACT_EMAIL
+  };
+
+  private static final String UNKNOWN_DOMAIN = "unknown";
+
+  @Autowired private InviteParticipantsEmailRepository invitedParticipantsEmailRepository;
+
+  @Autowired private ParticipantRegistrySiteRepository participantRegistrySiteRepository;
+
+  @Autowired private StudyRepository studyRepository;
+
+  @Autowired private EmailService emailService;
+
+  @Autowired private EmailTemplateRegistry emailTemplateRegistry;
+
+  @Autowired private ParticipantManagerAuditLogHelper participantManagerHelper;
+
+  @Autowired private AppPropertyConfig appPropertyConfig;
+
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${invite.participant.dispatch.chunk-size}")
+  private int chunkSize;
+
+  @Value("${invite.participant.dispatch.workers}")
+  private int workers;
+
+  @Value("${invite.participant.dispatch.rate-limit.per-domain-per-second}")
+  private double perDomainRate;
+
+  @Value("${invite.participant.dispatch.retry.max-attempts}")
+  private int maxAttempts;
+
+  @Value("${invite.participant.dispatch.retry.initial-backoff-ms}")
+  private long initialBackoffMillis;
+
+  @Value("${invite.participant.dispatch.retry.max-backoff-ms}")
+  private long maxBackoffMillis;
+
+  @Value("${invite.participant.dispatch.claim-lease-ms}")
+  private long claimLeaseMillis;
+
+  private final ConcurrentMap<String, RateLimiter> domainRateLimiters = new ConcurrentHashMap<>();
+
+  private TransactionTemplate transactionTemplate;
+
+  private ExecutorService workerPool;
+
+  private Timer dispatchTimer;
+
+  private Timer sendTimer;
+
+  private Counter sentEmails;
+
+  private Counter failedEmails;
+
+  private Counter retriedEmails;
+
+  private Counter skippedInvites;
+
+  private Counter lostClaims;
+
+  @PostConstruct
+  public void init() {
+    emailTemplateRegistry.register(
+        "participant.invite.subject",
+        appPropertyConfig.getParticipantInviteSubject(),
+        INVITE_TEMPLATE_ARGS);
+    emailTemplateRegistry.register(
+        "participant.invite.body",
+        appPropertyConfig.getParticipantInviteBody(),
+        INVITE_TEMPLATE_ARGS);
+
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    AtomicInteger threadCount = new AtomicInteger();
+    workerPool =
+        Executors.newFixedThreadPool(
+            workers,
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "invite-email-worker-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    dispatchTimer =
+        Timer.builder("invite.email.dispatch")
+            .description("Time to send all pending invitation emails")
+            .register(meterRegistry);
+    sendTimer =
+        Timer.builder("invite.email.send")
+            .description("Time to send an invitation email, retries included")
+            .register(meterRegistry);
+    sentEmails = meterRegistry.counter("invite.email.sent");
+    failedEmails = meterRegistry.counter("invite.email.failed");
+    retriedEmails = meterRegistry.counter("invite.email.retried");
+    skippedInvites = meterRegistry.counter("invite.email.skipped");
+    lostClaims = meterRegistry.counter("invite.email.claim.lost");
+  }
+
+  /** Sends the invitations pending when it is called, returns when all of them were tried. */
+  public void dispatch() {
+    logger.entry("begin dispatch()");
+    long start = System.nanoTime();
+    Timestamp runStart = now();
+    int sent = 0;
+    int failed = 0;
+    try {
+      List<Invitation> chunk;
+      while (!(chunk = claimChunk(runStart)).isEmpty()) {
+        List<Invitation> sendable =
+            chunk.stream().filter(Invitation::isSendable).collect(Collectors.toList());
+        sendAll(sendable);
+        failed += completeChunk(chunk);
+
+        for (Invitation invitation : sendable) {
+          if (invitation.claimLost) {
+            continue;
+          }
+          logAuditEvent(invitation);
+          if (invitation.sent) {
+            sent++;
+          }
+        }
+        if (chunk.size() < chunkSize) {
+          break;
+        }
+      }
+    } finally {
+      dispatchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    logger.exit(String.format("dispatch() completed, sent=%d, failed=%d", sent, failed));
+  }
+
+  /** Current time in whole seconds, the precision of the claimed_time column. */
+  private Timestamp now() {
+    return new Timestamp(TimeUnit.SECONDS.toMillis(Instant.now().getEpochSecond()));
+  }
+
+  private List<Invitation> claimChunk(Timestamp runStart) {
+    return transactionTemplate.execute(
+        status -> {
+          Timestamp claimedTime = now();
+          List<InviteParticipantEntity> invites =
+              invitedParticipantsEmailRepository.findPendingForUpdate(
+                  runStart,
+                  new Timestamp(claimedTime.getTime() - claimLeaseMillis),
+                  PageRequest.of(0, chunkSize));
+          if (invites.isEmpty()) {
+            return Collections.<Invitation>emptyList();
+          }
+          invitedParticipantsEmailRepository.claimByIds(
+              invites.stream().map(InviteParticipantEntity::getId).collect(Collectors.toList()),
+              claimedTime);
+
+          Map<String, ParticipantRegistrySiteEntity> registries =
+              participantRegistrySiteRepository
+                  .findWithSiteByIdIn(
+                      invites.stream()
+                          .map(InviteParticipantEntity::getParticipantRegistrySite)
+                          .collect(Collectors.toSet()))
+                  .stream()
+                  .collect(
+                      Collectors.toMap(ParticipantRegistrySiteEntity::getId, Function.identity()));
+          Map<String, StudyEntity> studies =
+              studyRepository
+                  .findWithAppByIdIn(
+                      invites.stream()
+                          .map(InviteParticipantEntity::getStudy)
+                          .collect(Collectors.toSet()))
+                  .stream()
+                  .collect(Collectors.toMap(StudyEntity::getId, Function.identity()));
+
+          Set<String> uniqueRecords = new HashSet<>();
+          List<Invitation> invitations = new ArrayList<>(invites.size());
+          for (InviteParticipantEntity invite : invites) {
+            Invitation invitation =
+                new Invitation(
+                    invite,
+                    registries.get(invite.getParticipantRegistrySite()),
+                    studies.get(invite.getStudy()),
+                    claimedTime);
+            invitation.duplicate = !uniqueRecords.add(invitation.getKey());
+            invitations.add(invitation);
+          }
+          return invitations;
+        });
+  }
+
+  private void sendAll(List<Invitation> invitations) {
+    List<Future<?>> futures = new ArrayList<>(invitations.size());
+    for (Invitation invitation : invitations) {
+      futures.add(workerPool.submit(() -> send(invitation)));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        futures.forEach(pending -> pending.cancel(true));
+        return;
+      } catch (ExecutionException e) {
+        logger.error("sending an invitation email failed with an exception", e.getCause());
+      }
+    }
+  }
+
+  private void send(Invitation invitation) {
+    long start = System.nanoTime();
+    try {
+      getRateLimiter(invitation.registry.getEmail()).acquire();
+      EmailRequest emailRequest = toEmailRequest(invitation);
+      long backoffMillis = initialBackoffMillis;
+      for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+        if (!renewClaim(invitation)) {
+          lostClaims.increment();
+          return;
+        }
+        EmailResponse emailResponse = emailService.sendMimeMail(emailRequest);
+        if (MessageCode.EMAIL_ACCEPTED_BY_MAIL_SERVER
+            .getMessage()
+            .equals(emailResponse.getMessage())) {
+          invitation.sent = true;
+          sentEmails.increment();
+          return;
+        }
+        if (attempt < maxAttempts) {
+          retriedEmails.increment();
+          TimeUnit.MILLISECONDS.sleep(backoffMillis);
+          backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+        }
+      }
+      failedEmails.increment();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failedEmails.increment();
+    } finally {
+      sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Moves the claim of the invitation to the current time, if it still holds it. Returns false
+   * when the claim expired and another service instance claimed the invitation.
+   */
+  private boolean renewClaim(Invitation invitation) {
+    Timestamp renewedTime = now();
+    int renewed =
+        transactionTemplate.execute(
+            status ->
+                invitedParticipantsEmailRepository.renewClaim(
+                    invitation.invite.getId(), invitation.claimedTime, renewedTime));
+    if (renewed == 1) {
+      invitation.claimedTime = renewedTime;
+    } else {
+      invitation.claimLost = true;
+    }
+    return !invitation.claimLost;
+  }
+
+  private RateLimiter getRateLimiter(String email) {
+    String domain = StringUtils.lowerCase(StringUtils.substringAfterLast(email, "@"));
+    return domainRateLimiters.computeIfAbsent(
+        StringUtils.defaultIfEmpty(domain, UNKNOWN_DOMAIN),
+        key -> RateLimiter.create(perDomainRate));
+  }
+
+  private EmailRequest toEmailRequest(Invitation invitation) {
+    Map<String, String> templateArgs = new HashMap<>();
+    templateArgs.put(INVITE_STUDY_NAME, invitation.study.getName());
+    templateArgs.put(INVITE_APP_NAME, invitation.study.getApp().getAppName());
+    templateArgs.put(INVITE_ENROLLMENT_TOKEN, invitation.registry.getEnrollmentToken());
+    templateArgs.put(INVITE_CONTACT_EMAIL, invitation.study.getContactEmail());
+    return new EmailRequest(
+        appPropertyConfig.getFromEmail(),
+        new String[] {invitation.registry.getEmail()},
+        null,
+        null,
+        appPropertyConfig.getParticipantInviteSubject(),
+        appPropertyConfig.getParticipantInviteBody(),
+        templateArgs);
+  }
+
+  /**
+   * Deletes the sent invitations, their duplicates and the ones without registry or study, and
+   * makes the other invitations of the chunk pending again, except the ones whose claim was lost.
+   * Returns the number of the invitations made pending again.
+   */
+  private int completeChunk(List<Invitation> chunk) {
+    Set<String> sentKeys = new HashSet<>();
+    for (Invitation invitation : chunk) {
+      if (invitation.sent) {
+        sentKeys.add(invitation.getKey());
+      }
+    }
+
+    List<String> deletedIds = new ArrayList<>();
+    Map<Timestamp, List<String>> failedIdsByClaimedTime = new HashMap<>();
+    int failed = 0;
+    for (Invitation invitation : chunk) {
+      if (invitation.registry == null || invitation.study == null) {
+        logger.warn(
+            "Participant registry or study not found for invited participants so deleting this record from invite participant table");
+        skippedInvites.increment();
+        deletedIds.add(invitation.invite.getId());
+      } else if (sentKeys.contains(invitation.getKey())) {
+        deletedIds.add(invitation.invite.getId());
+      } else if (!invitation.claimLost) {
+        // the renewals moved the claims of the invitations the workers tried
+        failedIdsByClaimedTime
+            .computeIfAbsent(invitation.claimedTime, claimedTime -> new ArrayList<>())
+            .add(invitation.invite.getId());
+        failed++;
+      }
+    }
+    transactionTemplate.execute(
+        status -> {
+          if (!deletedIds.isEmpty()) {
+            invitedParticipantsEmailRepository.deleteByIds(deletedIds);
+          }
+          failedIdsByClaimedTime.forEach(
+              (claimedTime, failedIds) ->
+                  invitedParticipantsEmailRepository.releaseByIds(failedIds, claimedTime));
+          return null;
+        });
+    return failed;
+  }
+
+  private void logAuditEvent(Invitation invitation) {
+    SiteEntity site = invitation.registry.getSite();
+    Map<String, String> map = Collections.singletonMap("site_id", site.getLocation().getCustomId());
+    AuditLogEventRequest auditRequest = SiteMapper.prepareAuditlogRequest(invitation.invite);
+    auditRequest.setSiteId(site.getLocation().getCustomId());
+    auditRequest.setStudyId(site.getStudy().getCustomId());
+    auditRequest.setAppId(site.getStudy().getApp().getAppId());
+    auditRequest.setParticipantId(invitation.registry.getId());
+    auditRequest.setStudyVersion(String.valueOf(site.getStudy().getVersion()));
+    participantManagerHelper.logEvent(
+        invitation.sent ? INVITATION_EMAIL_SENT : INVITATION_EMAIL_FAILED, auditRequest, map);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    workerPool.shutdownNow();
+  }
+
+  private static class Invitation {
+
+    private final InviteParticipantEntity invite;
+
+    private final ParticipantRegistrySiteEntity registry;
+
+    private final StudyEntity study;
+
+    /** Claim time held by the run, moved by the worker each time it renews the claim. */
+    private volatile Timestamp claimedTime;
+
+    /** Set by the worker when the claim expired and another service instance claimed it. */
+    private volatile boolean claimLost;
+
+    /** Another invitation of the chunk is for the same participant, study and app. */
+    private boolean duplicate;
+
+    /** Set by the worker, read after its future completed. */
+    private volatile boolean sent;
+
+    private Invitation(
+        InviteParticipantEntity invite,
+        ParticipantRegistrySiteEntity registry,
+        StudyEntity study,
+        Timestamp claimedTime) {
+      this.invite = invite;
+      this.registry = registry;
+      this.study = study;
+      this.claimedTime = claimedTime;
+    }
+
+    private boolean isSendable() {
+      return !duplicate && registry != null && study != null;
+    }
+
+    private String getKey() {
+      return invite.getStudy()
+          + "_"
+          + invite.getParticipantRegistrySite()
+          + "_"
+          + invite.getAppId();
+    }
+  }
+}
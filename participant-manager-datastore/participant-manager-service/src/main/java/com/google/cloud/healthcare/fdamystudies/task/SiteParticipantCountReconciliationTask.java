@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.task;
+
+import com.google.cloud.healthcare.fdamystudies.repository.SiteParticipantCountRepository;
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Repairs the site_participant_counts rows that no longer match a count of the participants. The
+ * services recount the sites they change after the commit, see SiteParticipantCountService, this
+ * task is a slow backstop for the recounts that failed or were lost in a crash. Finding the
+ * drifted sites counts the participants of every site, so it runs rarely.
+ */
+@Component
+@ConditionalOnProperty(
+    value = "participant.manager.enrollment-counters.enabled",
+    havingValue = "true",
+    matchIfMissing = false)
+public class SiteParticipantCountReconciliationTask {
+
+  private XLogger logger =
+      XLoggerFactory.getXLogger(SiteParticipantCountReconciliationTask.class.getName());
+
+  private static final int RECOUNT_CHUNK_SIZE = 500;
+
+  @Autowired private SiteParticipantCountRepository siteParticipantCountRepository;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Scheduled(
+      fixedDelayString = "${participant.manager.enrollment-counters.reconcile.fixed.delay.ms}",
+      initialDelayString = "${participant.manager.enrollment-counters.reconcile.initial.delay.ms}")
+  public void reconcileCounts() {
+    logger.entry("begin reconcileCounts()");
+
+    List<String> siteIds = siteParticipantCountRepository.findSiteIdsWithDriftedCounts();
+    for (List<String> chunk : Lists.partition(siteIds, RECOUNT_CHUNK_SIZE)) {
+      siteParticipantCountRepository.recountSites(chunk);
+    }
+    meterRegistry.counter("participant.counts.reconciled.sites").increment(siteIds.size());
+
+    if (!siteIds.isEmpty()) {
+      logger.warn(String.format("participant counts of %d sites repaired", siteIds.size()));
+    }
+    logger.exit("reconcileCounts() completed");
+  }
+}
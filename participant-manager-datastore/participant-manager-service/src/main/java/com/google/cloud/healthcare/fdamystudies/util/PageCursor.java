@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.util;
+
+import com.google.cloud.healthcare.fdamystudies.common.ErrorCode;
+import com.google.cloud.healthcare.fdamystudies.exceptions.ErrorCodeException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Position in a participant listing for keyset pagination: the sort order of the listing, and the
+ * sort value and id of the last row of a page. The next page is read from the index after this
+ * position, instead of reading and skipping all the rows before it with an offset.
+ *
+ * <p>Clients get the cursor as an opaque token in the listing response and send it back
+ * unchanged.
+ */
+@Getter
+public final class PageCursor {
+
+  private static final String SEPARATOR = "\n";
+
+  private final String order;
+
+  private final String value;
+
+  private final String id;
+
+  public PageCursor(String order, String value, String id) {
+    this.order = order;
+    this.value = value;
+    this.id = id;
+  }
+
+  public String encode() {
+    String cursor = String.join(SEPARATOR, order, value, id);
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes the token of a listing sorted by the order, and throws INVALID_PAGE_CURSOR when the
+   * token is not a cursor of that order.
+   */
+  public static PageCursor decode(String token, String order) {
+    try {
+      String cursor = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+      String[] parts = cursor.split(SEPARATOR, -1);
+      if (parts.length == 3 && parts[0].equals(order) && StringUtils.isNotEmpty(parts[2])) {
+        return new PageCursor(parts[0], parts[1], parts[2]);
+      }
+    } catch (IllegalArgumentException e) {
+      // not a Base64 token
+    }
+    throw new ErrorCodeException(ErrorCode.INVALID_PAGE_CURSOR);
+  }
+
+  public Integer getIntValue() {
+    try {
+      return Integer.valueOf(value);
+    } catch (NumberFormatException e) {
+      throw new ErrorCodeException(ErrorCode.INVALID_PAGE_CURSOR);
+    }
+  }
+
+  public Timestamp getTimestampValue() {
+    try {
+      return Timestamp.valueOf(value);
+    } catch (IllegalArgumentException e) {
+      throw new ErrorCodeException(ErrorCode.INVALID_PAGE_CURSOR);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import javax.xml.parsers.ParserConfigurationException;
+import org.apache.poi.POIXMLDocument;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads one column of the first sheet of a spreadsheet, row by row. An .xlsx file is parsed with
+ * the SAX event API from a temporary copy of the upload, without building the workbook and its
+ * cells in memory, so that the memory used does not grow with the number of rows. Older .xls files
+ * are read with the usermodel API.
+ */
+public final class SpreadsheetColumnReader {
+
+  private SpreadsheetColumnReader() {}
+
+  /**
+   * Passes the formatted value of the column to the consumer for each row, the header row
+   * included, in the order of the rows. The value is null for a row without a cell in the column.
+   */
+  public static void read(InputStream inputStream, int column, Consumer<String> consumer)
+      throws IOException, InvalidFormatException {
+    InputStream in = new BufferedInputStream(inputStream);
+    if (!POIXMLDocument.hasOOXMLHeader(in)) {
+      readWorkbook(in, column, consumer);
+      return;
+    }
+
+    // OPCPackage.open(InputStream) inflates every part in memory, a file is read part by part
+    File file = File.createTempFile("participant-import", ".xlsx");
+    try {
+      Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      OPCPackage opcPackage = OPCPackage.open(file, PackageAccess.READ);
+      try {
+        readSheet(opcPackage, column, consumer);
+      } finally {
+        opcPackage.revert();
+      }
+    } finally {
+      Files.deleteIfExists(file.toPath());
+    }
+  }
+
+  private static void readSheet(OPCPackage opcPackage, int column, Consumer<String> consumer)
+      throws IOException, InvalidFormatException {
+    try {
+      XSSFReader reader = new XSSFReader(opcPackage);
+      ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(opcPackage);
+      XMLReader parser = SAXHelper.newXMLReader();
+      parser.setContentHandler(
+          new XSSFSheetXMLHandler(
+              reader.getStylesTable(),
+              strings,
+              new ColumnHandler(column, consumer),
+              new DataFormatter(),
+              false));
+
+      Iterator<InputStream> sheets = reader.getSheetsData();
+      if (!sheets.hasNext()) {
+        throw new InvalidFormatException("the workbook has no sheet");
+      }
+      try (InputStream sheet = sheets.next()) {
+        parser.parse(new InputSource(sheet));
+      }
+    } catch (SAXException | ParserConfigurationException e) {
+      throw new InvalidFormatException(e.getMessage());
+    } catch (OpenXML4JException e) {
+      if (e instanceof InvalidFormatException) {
+        throw (InvalidFormatException) e;
+      }
+      throw new InvalidFormatException(e.getMessage());
+    }
+  }
+
+  private static void readWorkbook(InputStream in, int column, Consumer<String> consumer)
+      throws IOException, InvalidFormatException {
+    DataFormatter formatter = new DataFormatter();
+    try (Workbook workbook = WorkbookFactory.create(in)) {
+      Sheet sheet = workbook.getSheetAt(0);
+      for (Row row : sheet) {
+        Cell cell = row.getCell(column);
+        consumer.accept(cell == null ? null : formatter.formatCellValue(cell));
+      }
+    }
+  }
+
+  private static class ColumnHandler implements SheetContentsHandler {
+
+    private final int column;
+
+    private final Consumer<String> consumer;
+
+    private String value;
+
+    private ColumnHandler(int column, Consumer<String> consumer) {
+      this.column = column;
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void startRow(int rowNum) {
+      value = null;
+    }
+
+    @Override
+    public void endRow(int rowNum) {
+      consumer.accept(value);
+    }
+
+    @Override
+    public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+      if (new CellReference(cellReference).getCol() == column) {
+        value = formattedValue;
+      }
+    }
+
+    @Override
+    public void headerFooter(String text, boolean isHeader, String tagName) {
+      // not part of the rows
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.cloud.healthcare.fdamystudies.common.ReadReplica;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import javax.sql.DataSource;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class ReadReplicaRoutingDataSourceTest {
+
+  private static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary";
+
+  private static final String REPLICA_URL = "jdbc:h2:mem:routing-replica";
+
+  /** Keeps the in-memory databases open between the connections of a test. */
+  private static final String KEEP_OPEN = ";DB_CLOSE_DELAY=-1";
+
+  private DataSource replica;
+
+  private MeterRegistry meterRegistry;
+
+  private ReadReplicaRoutingDataSource routingDataSource;
+
+  @BeforeEach
+  public void setUp() throws SQLException {
+    replica = new DriverManagerDataSource(REPLICA_URL + KEEP_OPEN);
+    execute(replica, "CREATE TABLE replica_lag (seconds BIGINT)");
+    execute(replica, "INSERT INTO replica_lag VALUES (0)");
+
+    meterRegistry = new SimpleMeterRegistry();
+    routingDataSource =
+        new ReadReplicaRoutingDataSource(
+            new DriverManagerDataSource(PRIMARY_URL + KEEP_OPEN),
+            Collections.singletonList(replica),
+            true,
+            10,
+            "SELECT seconds FROM replica_lag",
+            meterRegistry);
+    routingDataSource.afterPropertiesSet();
+    routingDataSource.checkReplicationLag();
+  }
+
+  @Test
+  public void shouldRouteWritesToPrimary() throws SQLException {
+    assertEquals(PRIMARY_URL, connectionUrl());
+    assertEquals(1, routeCount("primary"));
+  }
+
+  @Test
+  public void shouldRouteReadReplicaMethodsToReplica() {
+    AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new UrlReader(routingDataSource));
+    proxyFactory.addAspect(new ReadReplicaDataSourceConfiguration.ReadReplicaAspect());
+    UrlReader reader = proxyFactory.getProxy();
+
+    assertEquals(REPLICA_URL, reader.readOnReplica());
+    assertEquals(PRIMARY_URL, reader.read());
+    assertEquals(1, routeCount("replica-0"));
+  }
+
+  @Test
+  public void shouldRouteReadOnlyTransactionsToReplica() throws SQLException {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    try {
+      assertEquals(REPLICA_URL, connectionUrl());
+    } finally {
+      TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+    assertEquals(1, routeCount("replica-0"));
+  }
+
+  @Test
+  public void shouldFallBackToPrimaryWhenReplicaLags() throws SQLException {
+    execute(replica, "UPDATE replica_lag SET seconds = 3600");
+    routingDataSource.checkReplicationLag();
+
+    Boolean previous = ReadReplicaRoutingDataSource.requestReplica();
+    try {
+      assertEquals(PRIMARY_URL, connectionUrl());
+    } finally {
+      ReadReplicaRoutingDataSource.restoreReplicaRequest(previous);
+    }
+    assertEquals(1, routeCount("fallback"));
+    assertEquals(
+        3600,
+        meterRegistry.get("datasource.replica.lag").tag("route", "replica-0").gauge().value());
+  }
+
+  @Test
+  public void shouldRouteWithoutMeterRegistry() throws SQLException {
+    routingDataSource =
+        new ReadReplicaRoutingDataSource(
+            new DriverManagerDataSource(PRIMARY_URL + KEEP_OPEN),
+            Collections.singletonList(replica),
+            true,
+            10,
+            "SELECT seconds FROM replica_lag",
+            null);
+    routingDataSource.afterPropertiesSet();
+
+    assertEquals(PRIMARY_URL, connectionUrl());
+  }
+
+  @AfterEach
+  public void clean() throws SQLException {
+    execute(replica, "DROP TABLE replica_lag");
+  }
+
+  private String connectionUrl() throws SQLException {
+    try (Connection connection = routingDataSource.getConnection()) {
+      return databaseUrl(connection);
+    }
+  }
+
+  private static String databaseUrl(Connection connection) throws SQLException {
+    return StringUtils.substringBefore(connection.getMetaData().getURL(), ";");
+  }
+
+  private double routeCount(String route) {
+    return meterRegistry
+        .get("datasource.routing.connections")
+        .tag("route", route)
+        .counter()
+        .count();
+  }
+
+  private static void execute(DataSource dataSource, String sql) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  public static class UrlReader {
+
+    private final DataSource dataSource;
+
+    public UrlReader(DataSource dataSource) {
+      this.dataSource = dataSource;
+    }
+
+    @ReadReplica
+    public String readOnReplica() {
+      return read();
+    }
+
+    public String read() {
+      try (Connection connection = dataSource.getConnection()) {
+        return databaseUrl(connection);
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
@@ -14,6 +14,8 @@ import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.US
 import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.APP_PARTICIPANT_REGISTRY_VIEWED;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -40,6 +42,8 @@ import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import com.google.cloud.healthcare.fdamystudies.model.UserDetailsEntity;
 import com.google.cloud.healthcare.fdamystudies.model.UserRegAdminEntity;
 import com.google.cloud.healthcare.fdamystudies.service.AppService;
+import com.google.cloud.healthcare.fdamystudies.util.PageCursor;
+import com.jayway.jsonpath.JsonPath;
 import java.util.Map;
 import org.apache.commons.collections4.map.HashedMap;
 import org.junit.jupiter.api.AfterEach;
@@ -47,6 +51,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MvcResult;
 
 public class AppControllerTest extends BaseMockIT {
 
@@ -692,6 +697,93 @@ public class AppControllerTest extends BaseMockIT {
     verifyTokenIntrospectRequest(2);
   }
 
+  @Test
+  public void shouldReturnAppParticipantsAfterCursor() throws Exception {
+    // Step 1: 1 Participant for app already added in @BeforeEach, add 20 new Participants
+    for (int i = 1; i <= 20; i++) {
+      userDetailsEntity = testDataHelper.newUserDetails();
+      userDetailsEntity.setApp(appEntity);
+      userDetailsEntity.setEmail(EMAIL_VALUE + String.valueOf(i));
+      testDataHelper.getUserDetailsRepository().saveAndFlush(userDetailsEntity);
+    }
+    HttpHeaders headers = testDataHelper.newCommonHeaders();
+    headers.add(USER_ID_HEADER, userRegAdminEntity.getId());
+
+    // Step 2: first page in email order, with the cursor of the next page
+    MvcResult result =
+        mockMvc
+            .perform(
+                get(ApiEndpoint.GET_APP_PARTICIPANTS.getPath(), appEntity.getId())
+                    .headers(headers)
+                    .param("limit", "10")
+                    .contextPath(getContextPath()))
+            .andDo(print())
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.participants", hasSize(10)))
+            .andExpect(jsonPath("$.participants[0].email").value(EMAIL_VALUE))
+            .andExpect(jsonPath("$.participants[9].email").value(EMAIL_VALUE + "17"))
+            .andExpect(jsonPath("$.nextCursor", notNullValue()))
+            .andReturn();
+
+    String cursor = JsonPath.read(result.getResponse().getContentAsString(), "$.nextCursor");
+
+    // Step 3: the page after the cursor starts after the last participant of the first page
+    result =
+        mockMvc
+            .perform(
+                get(ApiEndpoint.GET_APP_PARTICIPANTS.getPath(), appEntity.getId())
+                    .headers(headers)
+                    .param("limit", "10")
+                    .param("cursor", cursor)
+                    .contextPath(getContextPath()))
+            .andDo(print())
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.participants", hasSize(10)))
+            .andExpect(jsonPath("$.participants[0].email").value(EMAIL_VALUE + "18"))
+            .andExpect(jsonPath("$.participants[9].email").value(EMAIL_VALUE + "8"))
+            .andExpect(jsonPath("$.totalParticipantCount").value(21))
+            .andReturn();
+
+    cursor = JsonPath.read(result.getResponse().getContentAsString(), "$.nextCursor");
+
+    // Step 4: last page, without a next cursor
+    mockMvc
+        .perform(
+            get(ApiEndpoint.GET_APP_PARTICIPANTS.getPath(), appEntity.getId())
+                .headers(headers)
+                .param("limit", "10")
+                .param("cursor", cursor)
+                .contextPath(getContextPath()))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.participants", hasSize(1)))
+        .andExpect(jsonPath("$.participants[0].email").value(EMAIL_VALUE + "9"))
+        .andExpect(jsonPath("$.nextCursor", nullValue()));
+
+    verifyTokenIntrospectRequest(3);
+  }
+
+  @Test
+  public void shouldReturnBadRequestForCursorOfAnotherSortOrder() throws Exception {
+    HttpHeaders headers = testDataHelper.newCommonHeaders();
+    headers.add(USER_ID_HEADER, userRegAdminEntity.getId());
+    String cursor = new PageCursor("email_asc", EMAIL_VALUE, IdGenerator.id()).encode();
+
+    mockMvc
+        .perform(
+            get(ApiEndpoint.GET_APP_PARTICIPANTS.getPath(), appEntity.getId())
+                .headers(headers)
+                .param("sortDirection", "desc")
+                .param("cursor", cursor)
+                .contextPath(getContextPath()))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(
+            jsonPath("$.error_description").value(ErrorCode.INVALID_PAGE_CURSOR.getDescription()));
+
+    verifyTokenIntrospectRequest();
+  }
+
   @Test
   public void shouldReturnInvalidSortByValue() throws Exception {
     HttpHeaders headers = testDataHelper.newCommonHeaders();
@@ -9,9 +9,18 @@
 package com.google.cloud.healthcare.fdamystudies.controller;
 
 import static com.google.cloud.healthcare.fdamystudies.common.ParticipantManagerEvent.INVITATION_EMAIL_SENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
@@ -30,6 +39,10 @@ import com.google.cloud.healthcare.fdamystudies.model.UserRegAdminEntity;
 import com.google.cloud.healthcare.fdamystudies.repository.InviteParticipantsEmailRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantRegistrySiteRepository;
 import com.google.cloud.healthcare.fdamystudies.service.SiteService;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Map;
 import javax.mail.internet.MimeMessage;
@@ -38,6 +51,8 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailSendException;
 
 public class InviteParticipantTaskScheduledTest extends BaseMockIT {
 
@@ -58,6 +73,11 @@ public class InviteParticipantTaskScheduledTest extends BaseMockIT {
 
   @Autowired private InviteParticipantsEmailRepository invitedParticipantsEmailRepository;
 
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Value("${invite.participant.dispatch.retry.max-attempts}")
+  private int maxAttempts;
+
   @BeforeEach
   public void setUp() {
     locationEntity = testDataHelper.createLocation();
@@ -116,8 +136,126 @@ public class InviteParticipantTaskScheduledTest extends BaseMockIT {
     verifyAuditEventCall(auditEventMap, INVITATION_EMAIL_SENT);
   }
 
+  @Test
+  public void shouldMakeInvitationPendingAgainWhenEmailFails() {
+    saveSiteWithParticipantEmail();
+    InviteParticipantEntity invite = invitedParticipantsEmailRepository.saveAndFlush(newInvite());
+    doThrow(new MailSendException("connection refused"))
+        .when(emailSender)
+        .send(isA(MimeMessage.class));
+
+    siteService.sendInvitationEmail();
+
+    // every attempt failed, the invitation is pending again and keeps its claim time
+    verify(emailSender, times(maxAttempts)).send(isA(MimeMessage.class));
+    InviteParticipantEntity pendingInvite =
+        invitedParticipantsEmailRepository.findById(invite.getId()).get();
+    assertFalse(pendingInvite.isStatus());
+    assertNotNull(pendingInvite.getClaimedTime());
+  }
+
+  @Test
+  public void shouldRetryFailedInvitationEmail() {
+    saveSiteWithParticipantEmail();
+    invitedParticipantsEmailRepository.saveAndFlush(newInvite());
+    doThrow(new MailSendException("connection refused"))
+        .doNothing()
+        .when(emailSender)
+        .send(isA(MimeMessage.class));
+    double retried = meterRegistry.counter("invite.email.retried").count();
+
+    siteService.sendInvitationEmail();
+
+    // the second attempt was sent after a backoff
+    verify(emailSender, times(2)).send(isA(MimeMessage.class));
+    assertEquals(retried + 1, meterRegistry.counter("invite.email.retried").count(), 0);
+    assertTrue(invitedParticipantsEmailRepository.findAll().isEmpty());
+  }
+
+  @Test
+  public void shouldClaimInvitationAgainWhenClaimExpired() {
+    saveSiteWithParticipantEmail();
+    InviteParticipantEntity invite = newInvite();
+    invite.setStatus(true);
+    invite.setClaimedTime(new Timestamp(Instant.now().minus(1, ChronoUnit.DAYS).toEpochMilli()));
+    invitedParticipantsEmailRepository.saveAndFlush(invite);
+
+    siteService.sendInvitationEmail();
+
+    verify(emailSender, times(1)).send(isA(MimeMessage.class));
+    assertTrue(invitedParticipantsEmailRepository.findAll().isEmpty());
+  }
+
+  @Test
+  public void shouldNotClaimInvitationClaimedByAnotherInstance() {
+    saveSiteWithParticipantEmail();
+    InviteParticipantEntity invite = newInvite();
+    invite.setStatus(true);
+    invite.setClaimedTime(new Timestamp(Instant.now().toEpochMilli()));
+    invitedParticipantsEmailRepository.saveAndFlush(invite);
+
+    siteService.sendInvitationEmail();
+
+    verify(emailSender, never()).send(isA(MimeMessage.class));
+    assertTrue(invitedParticipantsEmailRepository.findById(invite.getId()).get().isStatus());
+  }
+
+  @Test
+  public void shouldStopSendingWhenClaimWasLost() {
+    saveSiteWithParticipantEmail();
+    InviteParticipantEntity invite = invitedParticipantsEmailRepository.saveAndFlush(newInvite());
+    Timestamp otherClaimedTime =
+        Timestamp.from(Instant.now().plus(1, ChronoUnit.HOURS).truncatedTo(ChronoUnit.SECONDS));
+    doAnswer(
+            invocation -> {
+              // the claim expires during the attempt and another service instance claims it
+              InviteParticipantEntity claimedInvite =
+                  invitedParticipantsEmailRepository.findById(invite.getId()).get();
+              claimedInvite.setClaimedTime(otherClaimedTime);
+              invitedParticipantsEmailRepository.saveAndFlush(claimedInvite);
+              throw new MailSendException("connection refused");
+            })
+        .when(emailSender)
+        .send(isA(MimeMessage.class));
+    double lostClaims = meterRegistry.counter("invite.email.claim.lost").count();
+
+    siteService.sendInvitationEmail();
+
+    // the retry finds the claim taken and leaves the invitation to the other instance
+    verify(emailSender, times(1)).send(isA(MimeMessage.class));
+    assertEquals(lostClaims + 1, meterRegistry.counter("invite.email.claim.lost").count(), 0);
+    InviteParticipantEntity claimedInvite =
+        invitedParticipantsEmailRepository.findById(invite.getId()).get();
+    assertTrue(claimedInvite.isStatus());
+    assertEquals(otherClaimedTime, claimedInvite.getClaimedTime());
+  }
+
   @AfterEach
   public void clean() {
+    doNothing().when(emailSender).send(isA(MimeMessage.class));
+    clearInvocations(emailSender);
+    invitedParticipantsEmailRepository.deleteAll();
     testDataHelper.cleanUp();
   }
+
+  private void saveSiteWithParticipantEmail() {
+    studyEntity.setApp(appEntity);
+    siteEntity.setStudy(studyEntity);
+    siteEntity.setLocation(locationEntity);
+    participantRegistrySiteEntity.setEmail(TestDataHelper.EMAIL_VALUE);
+    testDataHelper.getSiteRepository().save(siteEntity);
+    testDataHelper.getParticipantRegistrySiteRepository().save(participantRegistrySiteEntity);
+    clearInvocations(emailSender);
+  }
+
+  private InviteParticipantEntity newInvite() {
+    InviteParticipantEntity inviteParticipantsEmail = new InviteParticipantEntity();
+    inviteParticipantsEmail.setParticipantRegistrySite(participantRegistrySiteEntity.getId());
+    inviteParticipantsEmail.setStudy(siteEntity.getStudy().getId());
+    inviteParticipantsEmail.setAppId(appEntity.getAppId());
+    inviteParticipantsEmail.setCorrelationId(IdGenerator.id());
+    inviteParticipantsEmail.setAppVersion("1.0");
+    inviteParticipantsEmail.setMobilePlatform("UNKNOWN");
+    return inviteParticipantsEmail;
+  }
 }
@@ -39,6 +39,7 @@ import static com.google.cloud.healthcare.fdamystudies.common.TestConstants.DECO
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -93,6 +94,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -876,6 +878,70 @@ public class SiteControllerTest extends BaseMockIT {
     verifyTokenIntrospectRequest();
   }
 
+  @Test
+  public void shouldReturnSiteParticipantsAfterCursor() throws Exception {
+    // Step 1: 1 participant for site already added in @BeforeEach, add 4 older participants
+    List<String> participantIds = new ArrayList<>();
+    participantIds.add(participantRegistrySiteEntity.getId());
+    for (int i = 1; i <= 4; i++) {
+      ParticipantRegistrySiteEntity participantRegistrySite =
+          testDataHelper.createParticipantRegistrySite(siteEntity, studyEntity);
+      participantRegistrySite.setCreated(
+          Timestamp.from(participantRegistrySiteEntity.getCreated().toInstant().minusSeconds(i)));
+      participantRegistrySiteRepository.saveAndFlush(participantRegistrySite);
+      participantIds.add(participantRegistrySite.getId());
+    }
+
+    HttpHeaders headers = testDataHelper.newCommonHeaders();
+    headers.add(USER_ID_HEADER, userRegAdminEntity.getId());
+
+    // Step 2: first page, newest first, with the cursor of the next page
+    MvcResult result =
+        mockMvc
+            .perform(
+                get(ApiEndpoint.GET_SITE_PARTICIPANTS.getPath(), siteEntity.getId())
+                    .headers(headers)
+                    .param("page", "0")
+                    .param("limit", "3")
+                    .contextPath(getContextPath()))
+            .andDo(print())
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.participantRegistryDetail.registryParticipants", hasSize(3)))
+            .andExpect(
+                jsonPath("$.participantRegistryDetail.registryParticipants[0].id")
+                    .value(participantIds.get(0)))
+            .andExpect(
+                jsonPath("$.participantRegistryDetail.registryParticipants[2].id")
+                    .value(participantIds.get(2)))
+            .andExpect(jsonPath("$.totalParticipantCount").value(5))
+            .andExpect(jsonPath("$.nextCursor", notNullValue()))
+            .andReturn();
+
+    String cursor = JsonPath.read(result.getResponse().getContentAsString(), "$.nextCursor");
+
+    // Step 3: the page after the cursor is the last one, without a next cursor
+    mockMvc
+        .perform(
+            get(ApiEndpoint.GET_SITE_PARTICIPANTS.getPath(), siteEntity.getId())
+                .headers(headers)
+                .param("limit", "3")
+                .param("cursor", cursor)
+                .contextPath(getContextPath()))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.participantRegistryDetail.registryParticipants", hasSize(2)))
+        .andExpect(
+            jsonPath("$.participantRegistryDetail.registryParticipants[0].id")
+                .value(participantIds.get(3)))
+        .andExpect(
+            jsonPath("$.participantRegistryDetail.registryParticipants[1].id")
+                .value(participantIds.get(4)))
+        .andExpect(jsonPath("$.totalParticipantCount").value(5))
+        .andExpect(jsonPath("$.nextCursor", nullValue()));
+
+    verifyTokenIntrospectRequest(2);
+  }
+
   @Test
   public void shouldReturnSiteParticipantsRegistryForEnrolledStatus() throws Exception {
 
@@ -1044,6 +1110,58 @@ public class SiteControllerTest extends BaseMockIT {
     verifyTokenIntrospectRequest();
   }
 
+  @Test
+  public void shouldDisableYetToEnrollParticipantsOfDecomissionedSite() throws Exception {
+    // Step 1: set status to ACTIVE and add new, invited and enrolled participants
+    siteEntity.setStatus(SiteStatus.ACTIVE.value());
+    siteEntity.setLocation(locationEntity);
+    siteEntity = testDataHelper.getSiteRepository().saveAndFlush(siteEntity);
+
+    participantRegistrySiteEntity.setOnboardingStatus(OnboardingStatus.NEW.getCode());
+    participantRegistrySiteRepository.saveAndFlush(participantRegistrySiteEntity);
+
+    ParticipantRegistrySiteEntity invitedParticipant =
+        testDataHelper.createParticipantRegistrySite(siteEntity, studyEntity);
+    invitedParticipant.setOnboardingStatus(OnboardingStatus.INVITED.getCode());
+    participantRegistrySiteRepository.saveAndFlush(invitedParticipant);
+
+    ParticipantRegistrySiteEntity enrolledParticipant =
+        testDataHelper.createParticipantRegistrySite(siteEntity, studyEntity);
+    enrolledParticipant.setOnboardingStatus(OnboardingStatus.ENROLLED.getCode());
+    participantRegistrySiteRepository.saveAndFlush(enrolledParticipant);
+
+    // Step 2: Call API and expect DECOMMISSION_SITE_SUCCESS message
+    HttpHeaders headers = testDataHelper.newCommonHeaders();
+    headers.add(USER_ID_HEADER, userRegAdminEntity.getId());
+    mockMvc
+        .perform(
+            put(ApiEndpoint.DECOMISSION_SITE.getPath(), siteEntity.getId())
+                .headers(headers)
+                .contextPath(getContextPath()))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.message", is(MessageCode.DECOMMISSION_SITE_SUCCESS.getMessage())));
+
+    // Step 3: verify only the yet to enroll participants are disabled
+    ParticipantRegistrySiteEntity newParticipant =
+        participantRegistrySiteRepository.findById(participantRegistrySiteEntity.getId()).get();
+    assertEquals(OnboardingStatus.DISABLED.getCode(), newParticipant.getOnboardingStatus());
+    assertNotNull(newParticipant.getDisabledDate());
+    assertEquals(
+        OnboardingStatus.DISABLED.getCode(),
+        participantRegistrySiteRepository
+            .findById(invitedParticipant.getId())
+            .get()
+            .getOnboardingStatus());
+    assertEquals(
+        OnboardingStatus.ENROLLED.getCode(),
+        participantRegistrySiteRepository
+            .findById(enrolledParticipant.getId())
+            .get()
+            .getOnboardingStatus());
+
+    verifyTokenIntrospectRequest();
+  }
+
   @Test
   public void shouldRecomissionSite() throws Exception {
     // Step 1: Set the site status to DEACTIVE
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.controller;
+
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.USER_ID_HEADER;
+import static com.google.cloud.healthcare.fdamystudies.common.JsonUtils.asJsonString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.google.cloud.healthcare.fdamystudies.beans.ParticipantStatusRequest;
+import com.google.cloud.healthcare.fdamystudies.common.ApiEndpoint;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.common.EnrollmentStatus;
+import com.google.cloud.healthcare.fdamystudies.common.MessageCode;
+import com.google.cloud.healthcare.fdamystudies.common.OnboardingStatus;
+import com.google.cloud.healthcare.fdamystudies.helper.TestDataHelper;
+import com.google.cloud.healthcare.fdamystudies.model.AppCount;
+import com.google.cloud.healthcare.fdamystudies.model.AppEntity;
+import com.google.cloud.healthcare.fdamystudies.model.EnrolledInvitedCount;
+import com.google.cloud.healthcare.fdamystudies.model.EnrolledInvitedCountForStudy;
+import com.google.cloud.healthcare.fdamystudies.model.LocationEntity;
+import com.google.cloud.healthcare.fdamystudies.model.ParticipantRegistrySiteEntity;
+import com.google.cloud.healthcare.fdamystudies.model.ParticipantStudyEntity;
+import com.google.cloud.healthcare.fdamystudies.model.SiteEntity;
+import com.google.cloud.healthcare.fdamystudies.model.SiteParticipantCountEntity;
+import com.google.cloud.healthcare.fdamystudies.model.StudyCount;
+import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
+import com.google.cloud.healthcare.fdamystudies.model.UserRegAdminEntity;
+import com.google.cloud.healthcare.fdamystudies.repository.AppRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.SiteParticipantCountRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.SiteRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.StudyRepository;
+import com.google.cloud.healthcare.fdamystudies.task.SiteParticipantCountReconciliationTask;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(
+    properties = {
+      "participant.manager.enrollment-counters.enabled=true",
+      "participant.manager.enrollment-counters.reconcile.initial.delay.ms=86400000"
+    })
+public class SiteParticipantCountTest extends BaseMockIT {
+
+  @Autowired private TestDataHelper testDataHelper;
+
+  @Autowired private SiteParticipantCountRepository siteParticipantCountRepository;
+
+  @Autowired private SiteParticipantCountReconciliationTask reconciliationTask;
+
+  @Autowired private SiteRepository siteRepository;
+
+  @Autowired private StudyRepository studyRepository;
+
+  @Autowired private AppRepository appRepository;
+
+  private UserRegAdminEntity userRegAdminEntity;
+  private LocationEntity locationEntity;
+  private AppEntity appEntity;
+  private StudyEntity studyEntity;
+  private SiteEntity siteEntity;
+  private ParticipantRegistrySiteEntity invitedParticipant;
+
+  @BeforeEach
+  public void setUp() {
+    locationEntity = testDataHelper.createLocation();
+    userRegAdminEntity = testDataHelper.createUserRegAdminEntity();
+    appEntity = testDataHelper.createAppEntity(userRegAdminEntity);
+    studyEntity = testDataHelper.createStudyEntity(userRegAdminEntity, appEntity);
+    siteEntity = testDataHelper.createSiteEntity(studyEntity, userRegAdminEntity, appEntity);
+    siteEntity.setLocation(locationEntity);
+    testDataHelper.getSiteRepository().saveAndFlush(siteEntity);
+
+    // one invited, one enrolled and one new participant
+    invitedParticipant =
+        createParticipant(OnboardingStatus.INVITED, EnrollmentStatus.YET_TO_ENROLL);
+    createParticipant(OnboardingStatus.ENROLLED, EnrollmentStatus.ENROLLED);
+    createParticipant(OnboardingStatus.NEW, EnrollmentStatus.YET_TO_ENROLL);
+  }
+
+  @Test
+  public void shouldRepairDriftedCounts() {
+    // Step 1: the participants were saved without a recount
+    assertTrue(siteParticipantCountRepository.findSiteIdsWithDriftedCounts().contains(siteId()));
+
+    // Step 2: the reconciliation recounts the drifted sites
+    reconciliationTask.reconcileCounts();
+
+    SiteParticipantCountEntity counts = siteParticipantCountRepository.findById(siteId()).get();
+    assertEquals(1, counts.getInvitedCount());
+    assertEquals(1, counts.getEnrolledCount());
+    assertTrue(siteParticipantCountRepository.findSiteIdsWithDriftedCounts().isEmpty());
+  }
+
+  @Test
+  public void shouldRecountSiteAfterOnboardingStatusChange() throws Exception {
+    reconciliationTask.reconcileCounts();
+
+    // Step 1: disable the invited participant
+    ParticipantStatusRequest participantStatusRequest = new ParticipantStatusRequest();
+    participantStatusRequest.setIds(Arrays.asList(invitedParticipant.getId()));
+    participantStatusRequest.setStatus(OnboardingStatus.DISABLED.getCode());
+
+    HttpHeaders headers = testDataHelper.newCommonHeaders();
+    headers.add(USER_ID_HEADER, userRegAdminEntity.getId());
+
+    mockMvc
+        .perform(
+            patch(ApiEndpoint.UPDATE_ONBOARDING_STATUS.getPath(), siteId())
+                .headers(headers)
+                .content(asJsonString(participantStatusRequest))
+                .contextPath(getContextPath()))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.message", is(MessageCode.INVITATION_DISABLED_SUCCESS.getMessage())));
+
+    // Step 2: the counts of the site were recounted without the reconciliation
+    SiteParticipantCountEntity counts = siteParticipantCountRepository.findById(siteId()).get();
+    assertEquals(0, counts.getInvitedCount());
+    assertEquals(1, counts.getEnrolledCount());
+    assertTrue(siteParticipantCountRepository.findSiteIdsWithDriftedCounts().isEmpty());
+
+    verifyTokenIntrospectRequest();
+  }
+
+  @Test
+  public void shouldReturnSameCountsAsParticipantQueries() {
+    reconciliationTask.reconcileCounts();
+    String userId = userRegAdminEntity.getId();
+
+    assertEquals(
+        Collections.singletonMap(siteId(), "1/1"),
+        toSiteCounts(siteParticipantCountRepository.getEnrolledInvitedCountByUserId(userId)));
+    assertEquals(
+        toSiteCounts(siteRepository.getEnrolledInvitedCount()),
+        toSiteCounts(siteParticipantCountRepository.getEnrolledInvitedCount()));
+    assertEquals(
+        toSiteCounts(siteRepository.findEnrolledCountForOpenStudy()),
+        toSiteCounts(siteParticipantCountRepository.findEnrolledCountForOpenStudy()));
+    assertEquals(
+        toSiteCounts(siteRepository.getInvitedEnrolledCountForOpenStudy(userId)),
+        toSiteCounts(siteParticipantCountRepository.getInvitedEnrolledCountForOpenStudy(userId)));
+
+    assertEquals(
+        toStudyCounts(studyRepository.getEnrolledInvitedCountByUserId(userId)),
+        toStudyCounts(
+            siteParticipantCountRepository.getEnrolledInvitedCountForStudiesByUserId(userId)));
+    assertEquals(
+        toStudyCounts(studyRepository.getInvitedEnrolledCountForOpenStudyForStudies(userId)),
+        toStudyCounts(
+            siteParticipantCountRepository.getInvitedEnrolledCountForOpenStudyForStudies(userId)));
+    assertEquals(
+        toCounts(studyRepository.findInvitedCountByStudyId()),
+        toCounts(siteParticipantCountRepository.findInvitedCountByStudyId()));
+    assertEquals(
+        toCounts(studyRepository.findEnrolledCountByStudyId()),
+        toCounts(siteParticipantCountRepository.findEnrolledCountByStudyId()));
+
+    assertEquals(
+        toAppCounts(appRepository.findInvitedCountByAppId()),
+        toAppCounts(siteParticipantCountRepository.findInvitedCountByAppId()));
+    assertEquals(
+        toAppCounts(appRepository.findInvitedCountByAppId(userId)),
+        toAppCounts(siteParticipantCountRepository.findInvitedCountByAppId(userId)));
+    assertEquals(
+        toAppCounts(appRepository.findEnrolledCountByAppId()),
+        toAppCounts(siteParticipantCountRepository.findEnrolledCountByAppId()));
+    assertEquals(
+        toAppCounts(appRepository.findEnrolledCountByAppId(userId)),
+        toAppCounts(siteParticipantCountRepository.findEnrolledCountByAppId(userId)));
+    assertEquals(
+        toAppCounts(appRepository.findEnrolledWithoutTarget()),
+        toAppCounts(siteParticipantCountRepository.findEnrolledWithoutTarget()));
+    assertEquals(
+        toAppCounts(appRepository.findEnrolledWithoutTarget(userId)),
+        toAppCounts(siteParticipantCountRepository.findEnrolledWithoutTarget(userId)));
+  }
+
+  @AfterEach
+  public void clean() {
+    siteParticipantCountRepository.deleteAll();
+    testDataHelper.cleanUp();
+  }
+
+  private String siteId() {
+    return siteEntity.getId();
+  }
+
+  private ParticipantRegistrySiteEntity createParticipant(
+      OnboardingStatus onboardingStatus, EnrollmentStatus enrollmentStatus) {
+    ParticipantRegistrySiteEntity participantRegistrySite =
+        testDataHelper.createParticipantRegistrySite(siteEntity, studyEntity);
+    participantRegistrySite.setOnboardingStatus(onboardingStatus.getCode());
+    testDataHelper.getParticipantRegistrySiteRepository().saveAndFlush(participantRegistrySite);
+
+    ParticipantStudyEntity participantStudy =
+        testDataHelper.createParticipantStudyEntity(
+            siteEntity, studyEntity, participantRegistrySite);
+    participantStudy.setStatus(enrollmentStatus.getStatus());
+    testDataHelper.getParticipantStudyRepository().saveAndFlush(participantStudy);
+    return participantRegistrySite;
+  }
+
+  private Map<String, String> toSiteCounts(List<EnrolledInvitedCount> counts) {
+    Map<String, String> map = new TreeMap<>();
+    for (EnrolledInvitedCount count : counts) {
+      map.put(count.getSiteId(), count.getInvitedCount() + "/" + count.getEnrolledCount());
+    }
+    return map;
+  }
+
+  private Map<String, String> toStudyCounts(List<EnrolledInvitedCountForStudy> counts) {
+    Map<String, String> map = new TreeMap<>();
+    for (EnrolledInvitedCountForStudy count : counts) {
+      map.put(count.getStudyId(), count.getInvitedCount() + "/" + count.getEnrolledCount());
+    }
+    return map;
+  }
+
+  private Map<String, Long> toCounts(List<StudyCount> counts) {
+    Map<String, Long> map = new TreeMap<>();
+    for (StudyCount count : counts) {
+      map.put(count.getStudyId(), count.getCount());
+    }
+    return map;
+  }
+
+  private Map<String, Long> toAppCounts(List<AppCount> counts) {
+    Map<String, Long> map = new TreeMap<>();
+    for (AppCount count : counts) {
+      map.put(count.getAppId(), count.getCount());
+    }
+    return map;
+  }
+}
@@ -21,6 +21,7 @@ import static com.google.cloud.healthcare.fdamystudies.common.TestConstants.LOCA
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -725,6 +726,77 @@ public class StudyControllerTest extends BaseMockIT {
     verifyTokenIntrospectRequest(2);
   }
 
+  @Test
+  public void shouldReturnOpenStudyParticipantsAfterCursor() throws Exception {
+    HttpHeaders headers = testDataHelper.newCommonHeaders();
+    headers.set(USER_ID_HEADER, userRegAdminEntity.getId());
+    studyEntity.setType(OPEN_STUDY);
+    testDataHelper.getStudyRepository().saveAndFlush(studyEntity);
+
+    // Step 1: 1 Participant for study already added in @BeforeEach, add 4 new Participants
+    participantRegistrySiteEntity.setEmail("cursor1@grr.la");
+    testDataHelper
+        .getParticipantRegistrySiteRepository()
+        .saveAndFlush(participantRegistrySiteEntity);
+    for (int i = 2; i <= 5; i++) {
+      participantRegistrySiteEntity =
+          testDataHelper.createParticipantRegistrySite(siteEntity, studyEntity);
+      participantRegistrySiteEntity.setEmail("cursor" + i + "@grr.la");
+      testDataHelper
+          .getParticipantRegistrySiteRepository()
+          .saveAndFlush(participantRegistrySiteEntity);
+      testDataHelper.createParticipantStudyEntity(
+          siteEntity, studyEntity, participantRegistrySiteEntity);
+    }
+
+    // Step 2: first page in email order, with the cursor of the next page
+    MvcResult result =
+        mockMvc
+            .perform(
+                get(ApiEndpoint.GET_STUDY_PARTICIPANT.getPath(), studyEntity.getId())
+                    .headers(headers)
+                    .param("limit", "3")
+                    .param("sortBy", "email")
+                    .param("sortDirection", "asc")
+                    .contextPath(getContextPath()))
+            .andDo(print())
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.participantRegistryDetail.registryParticipants", hasSize(3)))
+            .andExpect(
+                jsonPath("$.participantRegistryDetail.registryParticipants[0].email")
+                    .value("cursor1@grr.la"))
+            .andExpect(
+                jsonPath("$.participantRegistryDetail.registryParticipants[2].email")
+                    .value("cursor3@grr.la"))
+            .andExpect(jsonPath("$.nextCursor", notNullValue()))
+            .andReturn();
+
+    String cursor = JsonPath.read(result.getResponse().getContentAsString(), "$.nextCursor");
+
+    // Step 3: the page after the cursor is the last one, without a next cursor
+    mockMvc
+        .perform(
+            get(ApiEndpoint.GET_STUDY_PARTICIPANT.getPath(), studyEntity.getId())
+                .headers(headers)
+                .param("limit", "3")
+                .param("sortBy", "email")
+                .param("sortDirection", "asc")
+                .param("cursor", cursor)
+                .contextPath(getContextPath()))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.participantRegistryDetail.registryParticipants", hasSize(2)))
+        .andExpect(
+            jsonPath("$.participantRegistryDetail.registryParticipants[0].email")
+                .value("cursor4@grr.la"))
+        .andExpect(
+            jsonPath("$.participantRegistryDetail.registryParticipants[1].email")
+                .value("cursor5@grr.la"))
+        .andExpect(jsonPath("$.nextCursor", nullValue()));
+
+    verifyTokenIntrospectRequest(2);
+  }
+
   @Test
   public void shouldReturnUserNotFoundForStudyParticipants() throws Exception {
     HttpHeaders headers = testDataHelper.newCommonHeaders();
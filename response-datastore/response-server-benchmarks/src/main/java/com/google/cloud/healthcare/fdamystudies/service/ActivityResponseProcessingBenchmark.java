@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the stages {@link ActivityResponseProcessorServiceImpl} runs on every submitted
+ * questionnaire response. Run with the gc profiler to also get the allocation rate per operation:
+ *
+ * <pre>
+ * mvn -B package -pl response-server-benchmarks -am -DskipTests
+ * java -jar response-server-benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ *
+ * The enrichment stage needs fresh response steps for every invocation, {@link #copyResults} is
+ * the cost of that copy alone and is to be subtracted from {@link #enrichment}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ActivityResponseProcessingBenchmark {
+
+  @State(Scope.Thread)
+  public static class Questionnaire {
+
+    @Param({"10", "100", "500"})
+    public int stepCount;
+
+    @Param({QuestionnaireFixture.FORMS, QuestionnaireFixture.SCORED})
+    public String layout;
+
+    private final ActivityResponseProcessorServiceImpl service =
+        new ActivityResponseProcessorServiceImpl();
+
+    private QuestionnaireFixture fixture;
+
+    private ActivityMetadataIndex metadataIndex;
+
+    private ActivityResponseBean enrichedResponse;
+
+    @Setup
+    public void setUp() {
+      fixture = QuestionnaireFixture.create(stepCount, layout);
+      metadataIndex = ActivityMetadataIndex.of(fixture.getMetadata().getSteps());
+      List<QuestionnaireActivityStepsBean> results = fixture.copyResults();
+      service.processActivityResponses(results, metadataIndex);
+      // A response of its own, the fixture one has to keep the steps as submitted
+      enrichedResponse = QuestionnaireFixture.create(stepCount, layout).getResponse();
+      enrichedResponse.getData().setResults(results);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ScoredQuestionnaire {
+
+    @Param({"10", "100", "500"})
+    public int stepCount;
+
+    private final ActivityResponseProcessorServiceImpl service =
+        new ActivityResponseProcessorServiceImpl();
+
+    private List<QuestionnaireActivityStepsBean> results;
+
+    private QuestionnaireActivityStepsBean scoreSumResult;
+
+    @Setup
+    public void setUp() {
+      QuestionnaireFixture fixture =
+          QuestionnaireFixture.create(stepCount, QuestionnaireFixture.SCORED);
+      results = fixture.copyResults();
+      service.processActivityResponses(
+          results, ActivityMetadataIndex.of(fixture.getMetadata().getSteps()));
+      for (QuestionnaireActivityStepsBean result : results) {
+        if (AppConstants.DUMMY_SUM_QUESTION_KEY.equals(result.getKey())) {
+          scoreSumResult = result;
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public List<QuestionnaireActivityStepsBean> copyResults(Questionnaire questionnaire) {
+    return questionnaire.fixture.copyResults();
+  }
+
+  /** Built once per cached activity metadata version, not per submission. */
+  @Benchmark
+  public ActivityMetadataIndex metadataIndex(Questionnaire questionnaire) {
+    return ActivityMetadataIndex.of(questionnaire.fixture.getMetadata().getSteps());
+  }
+
+  /** Plugs the activity metadata into the response steps, forms and score sum included. */
+  @Benchmark
+  public List<QuestionnaireActivityStepsBean> enrichment(Questionnaire questionnaire) {
+    List<QuestionnaireActivityStepsBean> results = questionnaire.fixture.copyResults();
+    questionnaire.service.processActivityResponses(results, questionnaire.metadataIndex);
+    return results;
+  }
+
+  @Benchmark
+  public Object scoreSum(ScoredQuestionnaire questionnaire) {
+    questionnaire.service.calculateScoreSum(questionnaire.results, questionnaire.scoreSumResult);
+    return questionnaire.scoreSumResult.getValue();
+  }
+
+  /** Converts the enriched response to the document stored in the responses datastore. */
+  @Benchmark
+  public Map<String, Object> mapConversion(Questionnaire questionnaire) throws Exception {
+    return questionnaire.service.getActivityResponseDataToStore(
+        questionnaire.enrichedResponse, null);
+  }
+}
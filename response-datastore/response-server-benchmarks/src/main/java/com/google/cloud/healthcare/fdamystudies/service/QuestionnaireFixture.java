@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityMetadataBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Questionnaire metadata as served by the study datastore, and a matching response as submitted by
+ * the mobile apps. The {@link #FORMS} layout makes every fifth step a repeatable form answered
+ * twice, the {@link #SCORED} layout ends with the dummy sum question, which the apps do not answer.
+ * The two are not mixed: the score sum of an activity with forms fails on the emptied form values.
+ */
+final class QuestionnaireFixture {
+
+  static final String FORMS = "forms";
+
+  static final String SCORED = "scored";
+
+  private static final int FORM_INTERVAL = 5;
+
+  private static final int FORM_STEP_COUNT = 4;
+
+  private static final int FORM_REPEAT_COUNT = 2;
+
+  private static final String[] SCORED_RESULT_TYPES = {
+    "scale", "continuous", "textChoice", "numeric"
+  };
+
+  private static final String[] FORM_RESULT_TYPES = {"text", "scale", "textChoice", "date"};
+
+  private final QuestionnaireActivityStructureBean metadata;
+
+  private final ActivityResponseBean response;
+
+  private QuestionnaireFixture(
+      QuestionnaireActivityStructureBean metadata, ActivityResponseBean response) {
+    this.metadata = metadata;
+    this.response = response;
+  }
+
+  static QuestionnaireFixture create(int stepCount, String layout) {
+    boolean scored = SCORED.equals(layout);
+    ActivityMetadataBean activityMetadata = new ActivityMetadataBean();
+    activityMetadata.setStudyId("BenchmarkStudy");
+    activityMetadata.setStudyVersion("1.0");
+    activityMetadata.setActivityId("Questionnaire" + stepCount);
+    activityMetadata.setActivityRunId("1");
+    activityMetadata.setActivityType("questionnaire");
+    activityMetadata.setName("Questionnaire with " + stepCount + " steps");
+    activityMetadata.setVersion("1.0");
+
+    List<QuestionnaireActivityStepsBean> metadataSteps = new ArrayList<>();
+    List<QuestionnaireActivityStepsBean> results = new ArrayList<>();
+    int questionCount = scored ? stepCount - 1 : stepCount;
+    for (int i = 0; i < questionCount; i++) {
+      if (!scored && i % FORM_INTERVAL == FORM_INTERVAL - 1) {
+        QuestionnaireActivityStepsBean form = metadataStep("form", "form" + i, "grouped");
+        form.setRepeatable(true);
+        for (int j = 0; j < FORM_STEP_COUNT; j++) {
+          form.getSteps()
+              .add(metadataStep("question", "form" + i + "Question" + j, FORM_RESULT_TYPES[j]));
+        }
+        metadataSteps.add(form);
+        results.add(formResponse(form));
+      } else {
+        String resultType =
+            scored
+                ? SCORED_RESULT_TYPES[i % SCORED_RESULT_TYPES.length]
+                : FORM_RESULT_TYPES[i % FORM_RESULT_TYPES.length];
+        QuestionnaireActivityStepsBean question =
+            metadataStep("question", "question" + i, resultType);
+        metadataSteps.add(question);
+        results.add(responseStep(question.getKey(), resultType, value(resultType, i)));
+      }
+    }
+    if (scored) {
+      metadataSteps.add(
+          metadataStep("question", AppConstants.DUMMY_SUM_QUESTION_KEY, "numeric"));
+    }
+
+    QuestionnaireActivityStructureBean metadata = new QuestionnaireActivityStructureBean();
+    metadata.setType("questionnaire");
+    metadata.setMetadata(activityMetadata);
+    metadata.setSteps(metadataSteps);
+
+    ActivityMetadataBean responseMetadata = new ActivityMetadataBean();
+    responseMetadata.setStudyId(activityMetadata.getStudyId());
+    responseMetadata.setStudyVersion(activityMetadata.getStudyVersion());
+    responseMetadata.setActivityId(activityMetadata.getActivityId());
+    responseMetadata.setActivityRunId(activityMetadata.getActivityRunId());
+    responseMetadata.setVersion(activityMetadata.getVersion());
+
+    ActivityResponseBean response = new ActivityResponseBean();
+    response.setParticipantId("benchmarkParticipant");
+    response.setSiteId("benchmarkSite");
+    response.setSharingConsent("Provided");
+    response.setType("questionnaire");
+    response.setMetadata(responseMetadata);
+    response.getData().setResultType("grouped");
+    response.getData().setResults(results);
+    return new QuestionnaireFixture(metadata, response);
+  }
+
+  QuestionnaireActivityStructureBean getMetadata() {
+    return metadata;
+  }
+
+  ActivityResponseBean getResponse() {
+    return response;
+  }
+
+  /**
+   * Copies the response steps as the enrichment stage needs them: it replaces form values and
+   * appends the dummy sum question, so every invocation starts from fresh step beans. Values are
+   * only read and are shared with the original.
+   */
+  List<QuestionnaireActivityStepsBean> copyResults() {
+    List<QuestionnaireActivityStepsBean> results = response.getData().getResults();
+    List<QuestionnaireActivityStepsBean> copy = new ArrayList<>(results.size() + 1);
+    for (QuestionnaireActivityStepsBean result : results) {
+      QuestionnaireActivityStepsBean step =
+          responseStep(result.getKey(), result.getResultType(), result.getValue());
+      step.setStartTime(result.getStartTime());
+      step.setEndTime(result.getEndTime());
+      copy.add(step);
+    }
+    return copy;
+  }
+
+  private static QuestionnaireActivityStepsBean metadataStep(
+      String type, String key, String resultType) {
+    QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+    step.setType(type);
+    step.setKey(key);
+    step.setResultType(resultType);
+    step.setTitle("Title of " + key);
+    step.setText("Text of " + key);
+    step.setSkippable(true);
+    step.setRepeatable(false);
+    return step;
+  }
+
+  private static QuestionnaireActivityStepsBean responseStep(
+      String key, String resultType, Object value) {
+    QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+    step.setKey(key);
+    step.setResultType(resultType);
+    step.setSkipped(false);
+    step.setStartTime("2021-01-04T10:15:30.000+0000");
+    step.setEndTime("2021-01-04T10:15:42.000+0000");
+    step.setValue(value);
+    return step;
+  }
+
+  /** Form answers arrive as one list of step maps per repetition of the form. */
+  private static QuestionnaireActivityStepsBean formResponse(QuestionnaireActivityStepsBean form) {
+    ArrayList<Object> repetitions = new ArrayList<>();
+    for (int repeat = 0; repeat < FORM_REPEAT_COUNT; repeat++) {
+      ArrayList<HashMap<String, Object>> formSteps = new ArrayList<>();
+      for (int j = 0; j < form.getSteps().size(); j++) {
+        QuestionnaireActivityStepsBean formStep = form.getSteps().get(j);
+        HashMap<String, Object> stepMap = new HashMap<>();
+        stepMap.put("key", formStep.getKey());
+        stepMap.put("resultType", formStep.getResultType());
+        stepMap.put("skipped", false);
+        stepMap.put("startTime", "2021-01-04T10:15:30.000+0000");
+        stepMap.put("endTime", "2021-01-04T10:15:42.000+0000");
+        stepMap.put("value", value(formStep.getResultType(), repeat + j));
+        formSteps.add(stepMap);
+      }
+      repetitions.add(formSteps);
+    }
+    return responseStep(form.getKey(), form.getResultType(), repetitions);
+  }
+
+  private static Object value(String resultType, int seed) {
+    switch (resultType) {
+      case "scale":
+        return Integer.valueOf(seed % 10);
+      case "continuous":
+        return Double.valueOf(seed * 0.5);
+      case "textChoice":
+        return new ArrayList<>(Arrays.asList(String.valueOf(seed % 3), String.valueOf(seed % 5)));
+      case "numeric":
+        return String.valueOf(seed % 100);
+      case "date":
+        return "2021-01-04";
+      default:
+        return "Answer " + seed;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.bean;
+
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseIngestStatus;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * One line of the response ingest journal. An {@link ResponseIngestStatus#ACCEPTED} record carries
+ * the submitted response; later records for the same receipt only carry the new status.
+ */
+@Setter
+@Getter
+@ToString
+public class ResponseIngestRecord {
+  private String receiptId;
+  private String idempotencyKey;
+  private ResponseIngestStatus status;
+  private String message;
+  private long timestamp;
+  private int attempts;
+  private String userId;
+  private AuditLogEventRequest auditRequest;
+  private ActivityResponseBean activityResponse;
+}
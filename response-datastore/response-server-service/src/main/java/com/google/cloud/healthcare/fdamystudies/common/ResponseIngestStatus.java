@@ -0,0 +1,20 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.common;
+
+/** Lifecycle of a response accepted through the asynchronous ingest mode. */
+public enum ResponseIngestStatus {
+  ACCEPTED,
+  PROCESSED,
+  FAILED;
+
+  public boolean isTerminal() {
+    return this != ACCEPTED;
+  }
+}
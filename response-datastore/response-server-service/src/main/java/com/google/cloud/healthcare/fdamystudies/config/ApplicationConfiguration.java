@@ -59,4 +59,58 @@ public class ApplicationConfiguration {
 
   @Value("${enroll.mgmt.service.url}")
   private String regServerPartStudyInfoUrl;
+
+  @Value("${activity.metadata.cache.enabled}")
+  private boolean activityMetadataCacheEnabled;
+
+  @Value("${activity.metadata.cache.max-steps}")
+  private long activityMetadataCacheMaxSteps;
+
+  @Value("${activity.metadata.cache.ttl-minutes}")
+  private long activityMetadataCacheTtlMinutes;
+
+  @Value("${response.ingest.async.enabled}")
+  private boolean responseIngestAsyncEnabled;
+
+  @Value("${response.ingest.journal.path}")
+  private String responseIngestJournalPath;
+
+  @Value("${response.ingest.workers}")
+  private int responseIngestWorkers;
+
+  @Value("${response.ingest.batch-size}")
+  private int responseIngestBatchSize;
+
+  @Value("${response.ingest.max-attempts}")
+  private int responseIngestMaxAttempts;
+
+  @Value("${response.ingest.retry-backoff-ms}")
+  private long responseIngestRetryBackoffMs;
+
+  @Value("${response.ingest.max-retry-backoff-ms}")
+  private long responseIngestMaxRetryBackoffMs;
+
+  @Value("${response.ingest.retention-hours}")
+  private long responseIngestRetentionHours;
+
+  @Value("${response.ingest.journal.compact-bytes}")
+  private long responseIngestJournalCompactBytes;
+
+  @Value("${firestore.bulk-write.max-in-flight-batches}")
+  private int firestoreMaxInFlightBatches;
+
+  @Value("${response.segment-store.path}")
+  private String segmentStorePath;
+
+  @Value("${response.segment-store.segment-size-mb}")
+  private int segmentStoreSegmentSizeMb;
+
+  @Value("${response.segment-store.force-on-write}")
+  private boolean segmentStoreForceOnWrite;
+
+  @Value("${response.segment-store.compaction.interval-minutes}")
+  private long segmentStoreCompactionIntervalMinutes;
+
+  @Value("${response.segment-store.compaction.garbage-ratio}")
+  private double segmentStoreCompactionGarbageRatio;
 }
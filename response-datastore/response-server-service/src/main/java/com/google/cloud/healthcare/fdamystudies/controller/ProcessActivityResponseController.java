@@ -40,7 +40,8 @@ import com.google.cloud.healthcare.fdamystudies.bean.ErrorBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ParticipantActivityBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ParticipantStudyInformation;
 import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
-import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseIngestReceiptBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseRows;
 import com.google.cloud.healthcare.fdamystudies.bean.StudyActivityMetadataRequestBean;
 import com.google.cloud.healthcare.fdamystudies.bean.SuccessResponseBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
@@ -51,16 +52,19 @@ import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseProcesso
 import com.google.cloud.healthcare.fdamystudies.service.ParticipantActivityStateResponseService;
 import com.google.cloud.healthcare.fdamystudies.service.ParticipantService;
 import com.google.cloud.healthcare.fdamystudies.service.ParticipantStudyInfoService;
+import com.google.cloud.healthcare.fdamystudies.service.ResponseIngestService;
 import com.google.cloud.healthcare.fdamystudies.service.StudyMetadataService;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
 import com.google.cloud.healthcare.fdamystudies.utils.ErrorCode;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
@@ -70,6 +74,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -77,6 +82,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Api(tags = "Process activity response", description = "Response activity operation performed")
 @RestController
@@ -92,6 +98,8 @@ public class ProcessActivityResponseController {
 
   @Autowired private ResponseServerAuditLogHelper responseServerAuditLogHelper;
 
+  @Autowired private ResponseIngestService responseIngestService;
+
   private static final Logger logger =
       LoggerFactory.getLogger(ProcessActivityResponseController.class);
 
@@ -166,6 +174,14 @@ public class ProcessActivityResponseController {
 
       if (participantService.isValidParticipant(participantBo)) {
 
+        if (responseIngestService.isEnabled()) {
+          // Asynchronous ingest: metadata, consent and storage are handled by the ingest workers
+          ResponseIngestReceiptBean receipt =
+              responseIngestService.enqueue(
+                  questionnaireActivityResponseBean, userId, auditRequest);
+          return new ResponseEntity<>(receipt, HttpStatus.ACCEPTED);
+        }
+
         // Get ActivityMetadata from the WCP - we map the metadata information to the activity
         // response information to come up with a consolidated response object
         StudyActivityMetadataRequestBean studyActivityMetadataRequestBean =
@@ -393,6 +409,25 @@ public class ProcessActivityResponseController {
     }
   }
 
+  @ApiOperation(value = "Get processing status of an asynchronously accepted activity response")
+  @GetMapping("/participant/process-response/status")
+  public ResponseEntity<?> getActivityResponseReceipt(
+      @RequestParam("receiptId") String receiptId,
+      @RequestHeader String userId,
+      HttpServletRequest request) {
+    ResponseIngestReceiptBean receipt = responseIngestService.getReceipt(receiptId, userId);
+    if (receipt == null) {
+      ErrorBean errorBean =
+          AppUtil.dynamicResponse(
+              ErrorCode.EC_404.code(),
+              ErrorCode.EC_404.errorMessage(),
+              AppConstants.ERROR_STR,
+              "No activity response found for receipt Id: " + receiptId);
+      return new ResponseEntity<>(errorBean, HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(receipt, HttpStatus.OK);
+  }
+
   @ApiOperation(value = "Get activity response data for participant from Google Cloud Firestore")
   @GetMapping("/participant/getresponse")
   public ResponseEntity<?> getActivityResponseDataForParticipant(
@@ -441,12 +476,36 @@ public class ProcessActivityResponseController {
 
       if (participantService.isValidParticipant(participantBo)) {
 
-        StoredResponseBean storedResponseBean =
-            activityResponseProcessorService.getActivityResponseDataForParticipant(
+        Iterator<ResponseRows> rows =
+            activityResponseProcessorService.getActivityResponseRowsForParticipant(
                 studyId, siteId, participantId, activityId, questionKey);
-        responseServerAuditLogHelper.logEvent(
-            READ_OPERATION_FOR_RESPONSE_DATA_SUCCEEDED, auditRequest);
-        return new ResponseEntity<>(storedResponseBean, HttpStatus.OK);
+        if (!rows.hasNext()) {
+          responseServerAuditLogHelper.logEvent(
+              READ_OPERATION_FOR_RESPONSE_DATA_SUCCEEDED, auditRequest);
+          return new ResponseEntity<>(HttpStatus.OK);
+        }
+
+        // Rows are fetched page by page while the response is written, so a participant with
+        // many runs is never held in memory at once
+        StreamingResponseBody storedResponse =
+            outputStream -> {
+              try {
+                activityResponseProcessorService.writeStoredResponse(rows, outputStream);
+                responseServerAuditLogHelper.logEvent(
+                    READ_OPERATION_FOR_RESPONSE_DATA_SUCCEEDED, auditRequest);
+              } catch (IOException | RuntimeException e) {
+                logger.error(
+                    "Could not stream response data for participant.\n Study Id: "
+                        + studyId
+                        + "\n Activity Id: "
+                        + activityId,
+                    e);
+                responseServerAuditLogHelper.logEvent(
+                    READ_OPERATION_FOR_RESPONSE_DATA_FAILED, auditRequest);
+                throw e;
+              }
+            };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(storedResponse);
       } else {
         ErrorBean errorBean =
             AppUtil.dynamicResponse(
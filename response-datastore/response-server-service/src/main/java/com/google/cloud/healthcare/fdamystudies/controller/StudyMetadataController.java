@@ -22,8 +22,6 @@ import com.google.cloud.healthcare.fdamystudies.utils.ErrorCode;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
-import java.beans.IntrospectionException;
-import java.lang.reflect.InvocationTargetException;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -55,8 +53,7 @@ public class StudyMetadataController {
   @PostMapping("/studymetadata")
   public ResponseEntity<?> addUpdateStudyMetadata(
       @RequestBody StudyMetadataBean studyMetadataBean, HttpServletRequest request)
-      throws ProcessResponseException, IllegalAccessException, IllegalArgumentException,
-          InvocationTargetException, IntrospectionException {
+      throws ProcessResponseException {
     String studyIdToUpdate = null;
     studyIdToUpdate = studyMetadataBean.getStudyId();
     if (StringUtils.isBlank(studyIdToUpdate)
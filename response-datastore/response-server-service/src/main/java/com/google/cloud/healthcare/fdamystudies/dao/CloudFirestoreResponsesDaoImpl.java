@@ -9,6 +9,12 @@
 package com.google.cloud.healthcare.fdamystudies.dao;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.FirestoreOptions;
 import com.google.cloud.firestore.Query;
@@ -17,38 +23,62 @@ import com.google.cloud.firestore.QuerySnapshot;
 import com.google.cloud.firestore.WriteBatch;
 import com.google.cloud.firestore.WriteResult;
 import com.google.cloud.healthcare.fdamystudies.bean.ResponseRows;
-import com.google.cloud.healthcare.fdamystudies.bean.SavedActivityResponse;
-import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
-import com.google.gson.Gson;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Repository;
 
 @Repository
+@Primary
 @Qualifier("cloudFirestoreResponsesDaoImpl")
+@ConditionalOnProperty(
+    name = "response.datastore.backend",
+    havingValue = "firestore",
+    matchIfMissing = true)
 public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
   @Autowired private ApplicationConfiguration appConfig;
+  @Autowired private MeterRegistry meterRegistry;
+  @Autowired private ResponseRowsMapper responseRowsMapper;
   private Firestore responsesDb;
   private static final Logger logger =
       LoggerFactory.getLogger(CloudFirestoreResponsesDaoImpl.class);
 
+  private static final String DOCUMENTS_WRITTEN_METRIC = "firestore.documents.written";
+  private static final String COMMIT_LATENCY_METRIC = "firestore.commit.latency";
+
+  private static final String STUDY_VERSION_OPERATION = "study-version";
+  private static final String SAVE_RESPONSE_OPERATION = "save-response";
+  private static final String DELETE_RESPONSES_OPERATION = "delete-responses";
+  private static final String WITHDRAW_RESPONSES_OPERATION = "withdraw-responses";
+
+  // Last studyVersion written to each study document, keyed by document path
+  private final Map<String, Object> studyVersions = new ConcurrentHashMap<>();
+
   @Override
   @Retryable(
       value = {Exception.class},
@@ -62,8 +92,11 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
 
         logger.info("saveStudyMetadata() : \n Study Collection Name: " + studyCollectionName);
         initializeFirestore();
-        ApiFuture<WriteResult> cr =
-            this.responsesDb.collection(studyCollectionName).document(studyId).set(dataToStore);
+        DocumentReference studyDocument =
+            this.responsesDb.collection(studyCollectionName).document(studyId);
+        // The study document is replaced, the next response rewrites its studyVersion
+        studyVersions.remove(studyDocument.getPath());
+        ApiFuture<WriteResult> cr = studyDocument.set(dataToStore);
         logger.debug(
             "saveStudyMetadata() : \n Study Collection Name: "
                 + studyCollectionName
@@ -94,20 +127,26 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
       throws ProcessResponseException {
     try {
       initializeFirestore();
+      DocumentReference studyDocument =
+          this.responsesDb.collection(studyCollectionName).document(studyId);
+      Object studyVersion = dataToStoreActivityResults.get(AppConstants.STUDY_VERSION_KEY);
 
-      Map<String, Object> studyVersionMap = new HashMap<>();
-      studyVersionMap.put("studyVersion", dataToStoreActivityResults.get("studyVersion"));
-      ApiFuture<WriteResult> futuresStudyColl =
-          this.responsesDb.collection(studyCollectionName).document(studyId).set(studyVersionMap);
-      WriteResult wresultStudy = futuresStudyColl.get();
-      logger.debug("Updated time: " + wresultStudy.getUpdateTime());
+      // Both writes are issued before waiting on either of them
+      ApiFuture<WriteResult> futuresStudyColl = updateStudyVersion(studyDocument, studyVersion);
       ApiFuture<WriteResult> futuresActivities =
-          this.responsesDb
-              .collection(studyCollectionName)
-              .document(studyId)
-              .collection(activitiesCollectionName)
-              .document()
-              .set(dataToStoreActivityResults);
+          track(
+              SAVE_RESPONSE_OPERATION,
+              1,
+              () ->
+                  studyDocument
+                      .collection(activitiesCollectionName)
+                      .document()
+                      .set(dataToStoreActivityResults));
+      if (futuresStudyColl != null) {
+        WriteResult wresultStudy = futuresStudyColl.get();
+        logger.debug("Updated time: " + wresultStudy.getUpdateTime());
+        rememberStudyVersion(studyDocument, studyVersion);
+      }
       WriteResult wresult = futuresActivities.get();
       logger.debug("Updated time: " + wresult.getUpdateTime());
     } catch (Exception e) {
@@ -117,7 +156,52 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
   }
 
   @Override
-  public StoredResponseBean getActivityResponseDataForParticipant(
+  @Retryable(
+      value = {Exception.class},
+      maxAttempts = 3,
+      backoff = @Backoff(delay = 500))
+  public void saveActivityResponseDataBatch(
+      String studyId,
+      String studyCollectionName,
+      String activitiesCollectionName,
+      Map<String, Map<String, Object>> dataToStoreByDocumentId)
+      throws ProcessResponseException {
+    if (dataToStoreByDocumentId == null || dataToStoreByDocumentId.isEmpty()) {
+      return;
+    }
+    try {
+      initializeFirestore();
+      DocumentReference studyDocument =
+          this.responsesDb.collection(studyCollectionName).document(studyId);
+      Object studyVersion = null;
+      for (Map<String, Object> dataToStore : dataToStoreByDocumentId.values()) {
+        studyVersion = dataToStore.get(AppConstants.STUDY_VERSION_KEY);
+      }
+
+      ApiFuture<WriteResult> futuresStudyColl = updateStudyVersion(studyDocument, studyVersion);
+      bulkWrite(
+          SAVE_RESPONSE_OPERATION,
+          new ArrayList<>(dataToStoreByDocumentId.entrySet()),
+          (writeBatch, entry) ->
+              writeBatch.set(
+                  studyDocument.collection(activitiesCollectionName).document(entry.getKey()),
+                  entry.getValue()));
+      if (futuresStudyColl != null) {
+        futuresStudyColl.get();
+        rememberStudyVersion(studyDocument, studyVersion);
+      }
+      logger.debug(
+          "saveActivityResponseDataBatch() : "
+              + dataToStoreByDocumentId.size()
+              + " documents written");
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  @Override
+  public Iterator<ResponseRows> getActivityResponseRowsForParticipant(
       String studyCollectionName,
       String studyId,
       String siteId,
@@ -127,11 +211,6 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
       throws ProcessResponseException {
     try {
       initializeFirestore();
-      // Firestore does not allow compound queries without creating an index. Indexes can be created
-      // only through the console or CLI, not programmatically. So this method will not depend on
-      // the index to sort the data, based on timestamp in firestore. It will do the sort on the
-      // query result object
-      //
       final Query activitiesQuery =
           this.responsesDb
               .collection(studyCollectionName)
@@ -139,35 +218,52 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
               .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
               .whereEqualTo(AppConstants.PARTICIPANT_ID_KEY, participantId)
               .whereEqualTo(AppConstants.SITE_ID_KEY, siteId)
-              .whereEqualTo(AppConstants.ACTIVITY_ID_KEY, activityId);
-      if (!StringUtils.isBlank(questionKey)) {
-        activitiesQuery.whereEqualTo("results." + AppConstants.QUESTION_ID_KEY, questionKey);
-      }
-      final ApiFuture<QuerySnapshot> querySnapshotActivities = activitiesQuery.get();
-      List<QueryDocumentSnapshot> documentsActivities =
-          querySnapshotActivities.get().getDocuments();
-      List<Map<String, Object>> activityResponseMapList = new ArrayList<>();
-      for (QueryDocumentSnapshot documentActivity : documentsActivities) {
-        Map<String, Object> mapObj = documentActivity.getData();
-        activityResponseMapList.add(mapObj);
+              .whereEqualTo(AppConstants.ACTIVITY_ID_KEY, activityId)
+              .select(AppConstants.CREATED_TS_KEY, AppConstants.RESULTS_FIELD_KEY);
+
+      String lastResponseOnly = appConfig.getLastResponseOnly();
+      if (StringUtils.isBlank(lastResponseOnly)
+          || !lastResponseOnly.equalsIgnoreCase(AppConstants.TRUE_STR)) {
+        ResponseRowsIterator rows =
+            new ResponseRowsIterator(
+                activitiesQuery.orderBy(FieldPath.documentId()),
+                participantId,
+                questionKey,
+                AppConstants.FS_READ_PAGE_SIZE,
+                Integer.MAX_VALUE);
+        // Fetch the first page here, so query errors are reported before the response starts
+        rows.hasNext();
+        return rows;
       }
 
-      if (!activityResponseMapList.isEmpty()) {
-        String lastResponseOnly = appConfig.getLastResponseOnly();
-        if (!StringUtils.isBlank(lastResponseOnly)
-            && lastResponseOnly.equalsIgnoreCase(AppConstants.TRUE_STR)) {
-          activityResponseMapList = filterResponseListByTimestamp(activityResponseMapList);
+      // Latest response first. createdTimestamp is stored as epoch milliseconds in a string, which
+      // sorts the same way as the number. The query needs a composite index on participantId,
+      // siteId, activityId and createdTimestamp (descending).
+      ResponseRowsIterator latestRow =
+          new ResponseRowsIterator(
+              activitiesQuery.orderBy(AppConstants.CREATED_TS_KEY, Query.Direction.DESCENDING),
+              participantId,
+              questionKey,
+              StringUtils.isBlank(questionKey) ? 1 : AppConstants.FS_READ_PAGE_SIZE,
+              1);
+      try {
+        latestRow.hasNext();
+        return latestRow;
+      } catch (IllegalStateException e) {
+        if (!isMissingIndex(e)) {
+          throw e;
         }
-        StoredResponseBean storedResponseBean = initStoredResponseBean();
-        storedResponseBean =
-            convertResponseDataToBean(participantId, activityResponseMapList, storedResponseBean);
-        return storedResponseBean;
+        logger.warn(
+            "Composite index for the latest response query is missing in "
+                + studyCollectionName
+                + ", scanning the participant responses instead");
+        return getLatestResponseRowByScan(
+            activitiesQuery.orderBy(FieldPath.documentId()), participantId, questionKey);
       }
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new ProcessResponseException(e.getMessage());
     }
-    return null;
   }
 
   @Override
@@ -191,21 +287,10 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
 
       documents = querySnapshot.get().getDocuments();
 
-      WriteBatch deleteBatch = this.responsesDb.batch();
-      int batchCount = 0;
-      for (QueryDocumentSnapshot document : documents) {
-        deleteBatch.delete(document.getReference());
-        batchCount++;
-        // Firestore - Each transaction or batch of writes can write to a maximum of 500 documents.
-        if (batchCount == AppConstants.FS_BATCH_COMMIT_LIMIT) {
-          deleteBatch.commit();
-          // Reset the batch, once it has been committed, so it is available again
-          deleteBatch = this.responsesDb.batch();
-          batchCount = 0;
-        }
-      }
-      deleteBatch.commit();
-
+      bulkWrite(
+          DELETE_RESPONSES_OPERATION,
+          documents,
+          (deleteBatch, document) -> deleteBatch.delete(document.getReference()));
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new ProcessResponseException(e.getMessage());
@@ -230,21 +315,12 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
 
       documents = querySnapshot.get().getDocuments();
 
-      WriteBatch updateBatch = this.responsesDb.batch();
-      int batchCount = 0;
-      for (QueryDocumentSnapshot document : documents) {
-
-        updateBatch.update(document.getReference(), AppConstants.WITHDRAWAL_STATUS_KEY, true);
-        batchCount++;
-        // Firestore - Each transaction or batch of writes can write to a maximum of 500 documents.
-        if (batchCount == AppConstants.FS_BATCH_COMMIT_LIMIT) {
-          updateBatch.commit();
-          // Reset the batch, once it has been committed, so it is available again
-          updateBatch = this.responsesDb.batch();
-          batchCount = 0;
-        }
-      }
-      updateBatch.commit();
+      bulkWrite(
+          WITHDRAW_RESPONSES_OPERATION,
+          documents,
+          (updateBatch, document) ->
+              updateBatch.update(
+                  document.getReference(), AppConstants.WITHDRAWAL_STATUS_KEY, true));
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new ProcessResponseException(e.getMessage());
@@ -335,6 +411,99 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
     return responseListRet;
   }
 
+  /**
+   * Writes the studyVersion of the study document, unless the same version was already written by
+   * this instance. Returns null when the write is skipped.
+   */
+  private ApiFuture<WriteResult> updateStudyVersion(
+      DocumentReference studyDocument, Object studyVersion) {
+    if (studyVersion != null && studyVersion.equals(studyVersions.get(studyDocument.getPath()))) {
+      return null;
+    }
+    Map<String, Object> studyVersionMap = new HashMap<>();
+    studyVersionMap.put(AppConstants.STUDY_VERSION_KEY, studyVersion);
+    return track(STUDY_VERSION_OPERATION, 1, () -> studyDocument.set(studyVersionMap));
+  }
+
+  private void rememberStudyVersion(DocumentReference studyDocument, Object studyVersion) {
+    if (studyVersion != null) {
+      studyVersions.put(studyDocument.getPath(), studyVersion);
+    }
+  }
+
+  /**
+   * Applies the write to every item with batched commits that run in parallel. Firestore accepts at
+   * most 500 writes per batch; at most {@code firestore.bulk-write.max-in-flight-batches} commits
+   * are outstanding at a time. Every batch is awaited, and the failed ones are reported together.
+   */
+  private <T> void bulkWrite(String operation, List<T> items, BiConsumer<WriteBatch, T> write)
+      throws ProcessResponseException, InterruptedException {
+    if (items.isEmpty()) {
+      return;
+    }
+    Semaphore inFlightBatches =
+        new Semaphore(Math.max(1, appConfig.getFirestoreMaxInFlightBatches()));
+    List<ApiFuture<List<WriteResult>>> commits = new ArrayList<>();
+    for (int from = 0; from < items.size(); from += AppConstants.FS_BATCH_COMMIT_LIMIT) {
+      List<T> chunk =
+          items.subList(from, Math.min(from + AppConstants.FS_BATCH_COMMIT_LIMIT, items.size()));
+      WriteBatch writeBatch = this.responsesDb.batch();
+      for (T item : chunk) {
+        write.accept(writeBatch, item);
+      }
+      inFlightBatches.acquire();
+      ApiFuture<List<WriteResult>> commit = track(operation, chunk.size(), writeBatch::commit);
+      commit.addListener(inFlightBatches::release, MoreExecutors.directExecutor());
+      commits.add(commit);
+    }
+
+    List<String> failures = new ArrayList<>();
+    for (int i = 0; i < commits.size(); i++) {
+      try {
+        commits.get(i).get();
+      } catch (ExecutionException e) {
+        String failure =
+            String.format(
+                "%s batch %d of %d failed: %s",
+                operation, i + 1, commits.size(), e.getCause().getMessage());
+        logger.error(failure, e.getCause());
+        failures.add(failure);
+      }
+    }
+    if (!failures.isEmpty()) {
+      throw new ProcessResponseException(String.join("; ", failures));
+    }
+  }
+
+  /** Starts the write and records its latency, and the documents written once it succeeds. */
+  private <T> ApiFuture<T> track(
+      String operation, int documentCount, Supplier<ApiFuture<T>> write) {
+    Timer.Sample sample = Timer.start(meterRegistry);
+    ApiFuture<T> future = write.get();
+    ApiFutures.addCallback(
+        future,
+        new ApiFutureCallback<T>() {
+          @Override
+          public void onSuccess(T result) {
+            sample.stop(
+                meterRegistry.timer(
+                    COMMIT_LATENCY_METRIC, "operation", operation, "outcome", "success"));
+            meterRegistry
+                .counter(DOCUMENTS_WRITTEN_METRIC, "operation", operation)
+                .increment(documentCount);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            sample.stop(
+                meterRegistry.timer(
+                    COMMIT_LATENCY_METRIC, "operation", operation, "outcome", "failure"));
+          }
+        },
+        MoreExecutors.directExecutor());
+    return future;
+  }
+
   private void initializeFirestore() {
     if (this.responsesDb == null) {
       logger.debug("In CloudFirestoreResponsesDaoImpl constructor, initializing Firestore");
@@ -349,132 +518,121 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
     }
   }
 
-  private StoredResponseBean convertResponseDataToBean(
-      String participantId,
-      List<Map<String, Object>> activityResponseMapList,
-      StoredResponseBean storedResponseBean) {
-    List<ResponseRows> responsesList = new ArrayList<>();
-    for (Map<String, Object> activityResponseMap : activityResponseMapList) {
-      ResponseRows responsesRow = new ResponseRows();
-      // Add participant Id
-      Map<Object, Object> mapPartId = new HashMap<>();
-      Map<Object, Object> mapPartIdValue = new HashMap<>();
-      mapPartIdValue.put(AppConstants.VALUE_KEY_STR, participantId);
-      mapPartId.put(AppConstants.PARTICIPANT_ID_RESPONSE, mapPartIdValue);
-      responsesRow.getData().add(mapPartId);
-
-      // Add Created Timestamp
-      Map<Object, Object> mapTS = new HashMap<>();
-      Map<Object, Object> mapTsValue = new HashMap<>();
-
-      // Format timestamp to date
-      long timestampFromResponse = 0;
-      try {
-        timestampFromResponse =
-            Long.parseLong((String) activityResponseMap.get(AppConstants.CREATED_TS_KEY));
-
-        DateFormat simpleDateFormat = new SimpleDateFormat(AppConstants.ISO_DATE_FORMAT_RESPONSE);
-        String formattedDate = simpleDateFormat.format(timestampFromResponse);
-        mapTsValue.put(AppConstants.VALUE_KEY_STR, formattedDate);
-
-      } catch (NumberFormatException ne) {
-        logger.error(
-            "Could not format createdTimestamp field to long. createdTimestamp value is: "
-                + timestampFromResponse);
-        mapTsValue.put(AppConstants.VALUE_KEY_STR, String.valueOf(timestampFromResponse));
+  /**
+   * Scans the responses page by page and keeps the latest one, for when the ordered query cannot be
+   * served. Only one response document is held at a time.
+   */
+  private Iterator<ResponseRows> getLatestResponseRowByScan(
+      Query query, String participantId, String questionKey) {
+    ResponseRowsIterator rows =
+        new ResponseRowsIterator(
+            query, participantId, questionKey, AppConstants.FS_READ_PAGE_SIZE, Integer.MAX_VALUE);
+    ResponseRows latestRow = null;
+    long latestTimestamp = Long.MIN_VALUE;
+    while (rows.hasNext()) {
+      ResponseRows row = rows.next();
+      long timestamp = rows.getLastCreatedTimestamp();
+      if (latestRow == null || timestamp > latestTimestamp) {
+        latestRow = row;
+        latestTimestamp = timestamp;
       }
-
-      mapTS.put(AppConstants.CREATED_RESPONSE, mapTsValue);
-      responsesRow.getData().add(mapTS);
-      SavedActivityResponse savedActivityResponse =
-          new Gson().fromJson(new Gson().toJson(activityResponseMap), SavedActivityResponse.class);
-      List<Object> results = savedActivityResponse.getResults();
-      this.addResponsesToMap(responsesRow, results);
-      responsesList.add(responsesRow);
-      storedResponseBean.setRows(responsesList);
     }
-    if (storedResponseBean.getRows() != null) {
-      storedResponseBean.setRowCount(storedResponseBean.getRows().size());
+    return latestRow == null
+        ? Collections.<ResponseRows>emptyIterator()
+        : Collections.singletonList(latestRow).iterator();
+  }
+
+  private static boolean isMissingIndex(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ApiException
+          && ((ApiException) cause).getStatusCode().getCode()
+              == StatusCode.Code.FAILED_PRECONDITION) {
+        return true;
+      }
     }
-    return storedResponseBean;
+    return false;
   }
 
-  private void addResponsesToMap(ResponseRows responsesRow, List<Object> results) {
-    if (results != null) {
-      for (Object result : results) {
-        if (result instanceof Map) {
-          Map<String, Object> mapResult = (Map<String, Object>) result;
-          String questionResultType = (String) mapResult.get(AppConstants.RESULT_TYPE_KEY);
-          String questionIdKey = null;
-          String questionValue = null;
-          Map<Object, Object> tempMapForQuestions = new HashMap<>();
-          Map<Object, Object> tempMapQuestionsValue = new HashMap<>();
-
-          if (!StringUtils.isBlank(questionResultType)) {
-            if (questionResultType.equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)) {
-              Map<String, Object> resultsForm =
-                  (Map<String, Object>) mapResult.get("actvityValueGroup");
-              List<Object> obj = (List<Object>) resultsForm.get("results");
-              this.addResponsesToMap(responsesRow, obj);
-
-            } else {
-              questionIdKey = (String) mapResult.get(AppConstants.QUESTION_ID_KEY);
-              questionValue = (String) mapResult.get(AppConstants.VALUE_KEY_STR);
-              if (StringUtils.containsIgnoreCase(
-                      appConfig.getResponseSupportedQTypeDouble(), questionResultType)
-                  && !StringUtils.isBlank(questionValue)) {
-                Double questionValueDouble = null;
-                try {
-                  questionValueDouble = Double.parseDouble(questionValue);
-                  tempMapQuestionsValue.put(AppConstants.VALUE_KEY_STR, questionValueDouble);
-                  tempMapForQuestions.put(questionIdKey, tempMapQuestionsValue);
-                  responsesRow.getData().add(tempMapForQuestions);
-                } catch (NumberFormatException e) {
-                  logger.error(
-                      "Could not format value to Double. Value input string is: " + questionValue);
-                }
-              } else if (StringUtils.containsIgnoreCase(
-                      appConfig.getResponseSupportedQTypeDate(), questionResultType)
-                  && !StringUtils.isBlank(questionValue)) {
-                tempMapQuestionsValue.put(AppConstants.VALUE_KEY_STR, questionValue);
-                tempMapForQuestions.put(questionIdKey, tempMapQuestionsValue);
-                responsesRow.getData().add(tempMapForQuestions);
-              } else {
-                if (appConfig.getSupportStringResponse().equalsIgnoreCase(AppConstants.TRUE_STR)
-                    && StringUtils.containsIgnoreCase(
-                        appConfig.getResponseSupportedQTypeString(), questionResultType)
-                    && !StringUtils.isBlank(questionValue)) {
-                  tempMapQuestionsValue.put(AppConstants.VALUE_KEY_STR, questionValue);
-                  tempMapForQuestions.put(questionIdKey, tempMapQuestionsValue);
-                  responsesRow.getData().add(tempMapForQuestions);
-                }
-              }
-            }
+  /**
+   * Pages through an ordered query and maps each response document to a row as it is consumed.
+   * Stops after {@code maxRows} rows; documents without a value for the question key are skipped.
+   */
+  private class ResponseRowsIterator implements Iterator<ResponseRows> {
+    private final Query query;
+    private final String participantId;
+    private final String questionKey;
+    private final int pageSize;
+    private final int maxRows;
+
+    private Iterator<QueryDocumentSnapshot> page = Collections.emptyIterator();
+    private QueryDocumentSnapshot lastDocument;
+    private boolean lastPage;
+    private int rowCount;
+    private ResponseRows nextRow;
+    private long nextCreatedTimestamp;
+    private long lastCreatedTimestamp;
+
+    private ResponseRowsIterator(
+        Query query, String participantId, String questionKey, int pageSize, int maxRows) {
+      this.query = query;
+      this.participantId = participantId;
+      this.questionKey = questionKey;
+      this.pageSize = pageSize;
+      this.maxRows = maxRows;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (nextRow == null && rowCount < maxRows) {
+        if (!page.hasNext()) {
+          if (lastPage) {
+            return false;
           }
+          fetchPage();
+          continue;
         }
+        QueryDocumentSnapshot document = page.next();
+        nextRow =
+            responseRowsMapper.toResponseRows(participantId, document.getData(), questionKey);
+        nextCreatedTimestamp =
+            NumberUtils.toLong(document.getString(AppConstants.CREATED_TS_KEY), Long.MIN_VALUE);
       }
+      return nextRow != null;
     }
-  }
 
-  private List<Map<String, Object>> filterResponseListByTimestamp(
-      List<Map<String, Object>> activityResponseMapList) {
-
-    activityResponseMapList.sort(
-        Comparator.nullsLast(
-            Comparator.comparing(
-                m -> Long.parseLong((String) m.get(AppConstants.CREATED_TS_KEY)),
-                Comparator.nullsLast(Comparator.reverseOrder()))));
-    // Get the latest response for activityId, bases on ordering by timestamp value
-    activityResponseMapList = Arrays.asList(activityResponseMapList.get(0));
+    @Override
+    public ResponseRows next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      ResponseRows row = nextRow;
+      lastCreatedTimestamp = nextCreatedTimestamp;
+      nextRow = null;
+      rowCount++;
+      return row;
+    }
 
-    return activityResponseMapList;
-  }
+    /** Returns the createdTimestamp of the response last returned by {@link #next()}. */
+    private long getLastCreatedTimestamp() {
+      return lastCreatedTimestamp;
+    }
 
-  private StoredResponseBean initStoredResponseBean() {
-    StoredResponseBean retStoredResponseBean = new StoredResponseBean();
-    List<String> schemaNameList = Arrays.asList(AppConstants.RESPONSE_DATA_SCHEMA_NAME_LEGACY);
-    retStoredResponseBean.setSchemaName(schemaNameList);
-    retStoredResponseBean.setQueryName(AppConstants.RESPONSE_DATA_QUERY_NAME_LEGACY);
-    return retStoredResponseBean;
+    private void fetchPage() {
+      Query pageQuery = lastDocument == null ? query : query.startAfter(lastDocument);
+      try {
+        List<QueryDocumentSnapshot> documents =
+            pageQuery.limit(pageSize).get().get().getDocuments();
+        lastPage = documents.size() < pageSize;
+        if (!documents.isEmpty()) {
+          lastDocument = documents.get(documents.size() - 1);
+        }
+        page = documents.iterator();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e.getMessage(), e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getMessage(), e);
+      }
+    }
   }
 }
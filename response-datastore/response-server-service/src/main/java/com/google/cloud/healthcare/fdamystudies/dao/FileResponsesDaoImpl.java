@@ -8,7 +8,7 @@
 
 package com.google.cloud.healthcare.fdamystudies.dao;
 
-import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseRows;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
@@ -18,6 +18,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -82,7 +83,7 @@ public class FileResponsesDaoImpl implements ResponsesDao {
   }
 
   @Override
-  public StoredResponseBean getActivityResponseDataForParticipant(
+  public Iterator<ResponseRows> getActivityResponseRowsForParticipant(
       String studyCollectionName,
       String studyId,
       String siteId,
@@ -152,6 +153,19 @@ public class FileResponsesDaoImpl implements ResponsesDao {
     }
   }
 
+  @Override
+  public void saveActivityResponseDataBatch(
+      String studyId,
+      String studyCollectionName,
+      String activitiesCollectionName,
+      Map<String, Map<String, Object>> dataToStoreByDocumentId)
+      throws ProcessResponseException {
+    for (Map<String, Object> dataToStoreActivityResults : dataToStoreByDocumentId.values()) {
+      saveActivityResponseData(
+          studyId, studyCollectionName, activitiesCollectionName, dataToStoreActivityResults);
+    }
+  }
+
   @Override
   public void deleteActivityResponseDataForParticipant(
       String studyCollectionName,
@@ -10,6 +10,7 @@ package com.google.cloud.healthcare.fdamystudies.dao;
 
 import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
+import java.util.Collection;
 import java.util.List;
 
 public interface ParticipantActivitiesDao {
@@ -20,6 +21,9 @@ public interface ParticipantActivitiesDao {
   List<ParticipantActivitiesEntity> getParticipantActivities(String studyId, String participantId)
       throws ProcessActivityStateException;
 
+  List<ParticipantActivitiesEntity> getParticipantActivities(
+      String studyId, Collection<String> participantIds) throws ProcessActivityStateException;
+
   void deleteParticipantActivites(String studyId, String participantId)
       throws ProcessActivityStateException;
 }
@@ -10,6 +10,7 @@ package com.google.cloud.healthcare.fdamystudies.dao;
 
 import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
+import java.util.Collection;
 import java.util.List;
 import javax.persistence.EntityManagerFactory;
 import org.hibernate.Session;
@@ -58,6 +59,31 @@ public class ParticipantActivitiesDaoImpl implements ParticipantActivitiesDao {
     }
   }
 
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<ParticipantActivitiesEntity> getParticipantActivities(
+      String studyId, Collection<String> participantIds) throws ProcessActivityStateException {
+    if (studyId != null && participantIds != null && !participantIds.isEmpty()) {
+      try (Session session = entityManagerFactory.unwrap(SessionFactory.class).openSession()) {
+
+        Query<ParticipantActivitiesEntity> query =
+            session.createQuery(
+                "from ParticipantActivitiesEntity "
+                    + "where studyId = :studyId and participantId in (:participantIds)");
+
+        query.setParameter("studyId", studyId);
+        query.setParameterList("participantIds", participantIds);
+        return query.getResultList();
+      } catch (Exception e) {
+        logger.error("getParticipantActivities: (ERROR) ", e);
+        throw new ProcessActivityStateException(
+            "Exception getting activity state data" + e.getMessage());
+      }
+    } else {
+      throw new ProcessActivityStateException("Required input parameter is null");
+    }
+  }
+
   @Override
   public void saveParticipantActivities(List<ParticipantActivitiesEntity> participantActivitiesList)
       throws ProcessActivityStateException {
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseIngestRecord;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseIngestStatus;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Local write-ahead journal backing the asynchronous response ingest mode. Records are appended as
+ * JSON lines and forced to disk before {@link #append(List)} returns, so an accepted response
+ * survives a crash and is replayed by {@link #open()} on the next start.
+ */
+@Repository
+public class ResponseIngestJournal {
+
+  private static final Logger logger = LoggerFactory.getLogger(ResponseIngestJournal.class);
+
+  private static final byte NEW_LINE = '\n';
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  private final ObjectMapper objectMapper =
+      new ObjectMapper()
+          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+          .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+  private FileChannel channel;
+
+  /**
+   * Replays the journal and returns the latest state of every receipt still within the retention
+   * period. The journal is compacted in the process: payloads of finished receipts are dropped.
+   */
+  public synchronized List<ResponseIngestRecord> open() throws IOException {
+    if (channel != null) {
+      throw new IllegalStateException("Response ingest journal is already open");
+    }
+    Path journalPath = Paths.get(appConfig.getResponseIngestJournalPath());
+    if (journalPath.getParent() != null) {
+      Files.createDirectories(journalPath.getParent());
+    }
+
+    List<ResponseIngestRecord> retained = compact(journalPath);
+    channel = openChannel(journalPath);
+    logger.info(
+        String.format(
+            "Response ingest journal %s opened with %d retained receipts",
+            journalPath, retained.size()));
+    return retained;
+  }
+
+  /**
+   * Compacts the open journal once it grew past the compaction threshold, appends wait for the
+   * compaction to finish.
+   */
+  public synchronized void compactIfLarge() throws IOException {
+    if (channel == null || channel.size() < appConfig.getResponseIngestJournalCompactBytes()) {
+      return;
+    }
+    Path journalPath = Paths.get(appConfig.getResponseIngestJournalPath());
+    long size = channel.size();
+    channel.close();
+    channel = null;
+    try {
+      compact(journalPath);
+    } finally {
+      channel = openChannel(journalPath);
+    }
+    logger.info(
+        String.format(
+            "Response ingest journal %s compacted from %d to %d bytes",
+            journalPath, size, channel.size()));
+  }
+
+  /**
+   * Rewrites the journal with the latest state of every receipt still within the retention period
+   * and returns them, payloads of finished receipts are dropped.
+   */
+  private List<ResponseIngestRecord> compact(Path journalPath) throws IOException {
+    Map<String, ResponseIngestRecord> recordsByReceiptId = replay(journalPath);
+
+    long retentionMillis = TimeUnit.HOURS.toMillis(appConfig.getResponseIngestRetentionHours());
+    long now = System.currentTimeMillis();
+    List<ResponseIngestRecord> retained = new ArrayList<>();
+    for (ResponseIngestRecord record : recordsByReceiptId.values()) {
+      if (record.getStatus() == ResponseIngestStatus.ACCEPTED) {
+        retained.add(record);
+      } else if (now - record.getTimestamp() < retentionMillis) {
+        record.setActivityResponse(null);
+        record.setAuditRequest(null);
+        retained.add(record);
+      }
+    }
+
+    // The compacted journal is on disk before it replaces the journal, and the rename is made
+    // durable before appends resume, a crash in between leaves either the old or the new journal
+    Path compactedPath = journalPath.resolveSibling(journalPath.getFileName() + ".compact");
+    try (FileChannel compactedChannel =
+        FileChannel.open(
+            compactedPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      write(compactedChannel, toBytes(retained));
+      compactedChannel.force(true);
+    }
+    Files.move(
+        compactedPath,
+        journalPath,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    forceDirectory(journalPath.toAbsolutePath().getParent());
+    return retained;
+  }
+
+  private static void forceDirectory(Path directory) throws IOException {
+    FileChannel directoryChannel;
+    try {
+      directoryChannel = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      // Directories can't be opened for syncing on every platform
+      logger.warn("Could not open directory " + directory + " to sync the journal rename", e);
+      return;
+    }
+    try {
+      directoryChannel.force(true);
+    } finally {
+      directoryChannel.close();
+    }
+  }
+
+  private static FileChannel openChannel(Path journalPath) throws IOException {
+    FileChannel fileChannel =
+        FileChannel.open(
+            journalPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    fileChannel.force(true);
+    return fileChannel;
+  }
+
+  public void append(ResponseIngestRecord record) throws IOException {
+    append(Collections.singletonList(record));
+  }
+
+  /** Appends the records with a single write and a single force to disk. */
+  public void append(List<ResponseIngestRecord> records) throws IOException {
+    if (records.isEmpty()) {
+      return;
+    }
+    ByteBuffer bytes = toBytes(records);
+    synchronized (this) {
+      if (channel == null) {
+        throw new IOException("Response ingest journal is not open");
+      }
+      write(channel, bytes);
+      channel.force(false);
+    }
+  }
+
+  private ByteBuffer toBytes(List<ResponseIngestRecord> records) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    for (ResponseIngestRecord record : records) {
+      buffer.write(objectMapper.writeValueAsBytes(record));
+      buffer.write(NEW_LINE);
+    }
+    return ByteBuffer.wrap(buffer.toByteArray());
+  }
+
+  private static void write(FileChannel fileChannel, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      fileChannel.write(bytes);
+    }
+  }
+
+  /** Returns a deep copy of the record, so retries never see a response mutated by processing. */
+  public ResponseIngestRecord copyOf(ResponseIngestRecord record) {
+    return objectMapper.convertValue(record, ResponseIngestRecord.class);
+  }
+
+  @PreDestroy
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private Map<String, ResponseIngestRecord> replay(Path journalPath) throws IOException {
+    Map<String, ResponseIngestRecord> recordsByReceiptId = new LinkedHashMap<>();
+    if (!Files.exists(journalPath)) {
+      return recordsByReceiptId;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        ResponseIngestRecord record;
+        try {
+          record = objectMapper.readValue(line, ResponseIngestRecord.class);
+        } catch (IOException e) {
+          // A torn write at the tail of the journal, the submitter never got a receipt for it
+          logger.warn("Skipping unreadable response ingest journal entry", e);
+          continue;
+        }
+        ResponseIngestRecord existing = recordsByReceiptId.get(record.getReceiptId());
+        if (existing == null) {
+          recordsByReceiptId.put(record.getReceiptId(), record);
+        } else {
+          existing.setStatus(record.getStatus());
+          existing.setMessage(record.getMessage());
+          existing.setAttempts(record.getAttempts());
+          existing.setTimestamp(record.getTimestamp());
+        }
+      }
+    }
+    return recordsByReceiptId;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseRows;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/** Maps stored response documents to the rows returned by /participant/getresponse. */
+@Component
+public class ResponseRowsMapper {
+  @Autowired private ApplicationConfiguration appConfig;
+
+  private static final Logger logger = LoggerFactory.getLogger(ResponseRowsMapper.class);
+
+  /**
+   * Maps a response document to a row, or returns null when a question key is given and the
+   * response has no supported value for it.
+   */
+  public ResponseRows toResponseRows(
+      String participantId, Map<String, Object> activityResponseMap, String questionKey) {
+    ResponseRows responsesRow = new ResponseRows();
+    // Add participant Id
+    Map<Object, Object> mapPartId = new HashMap<>();
+    Map<Object, Object> mapPartIdValue = new HashMap<>();
+    mapPartIdValue.put(AppConstants.VALUE_KEY_STR, participantId);
+    mapPartId.put(AppConstants.PARTICIPANT_ID_RESPONSE, mapPartIdValue);
+    responsesRow.getData().add(mapPartId);
+
+    // Add Created Timestamp
+    Map<Object, Object> mapTS = new HashMap<>();
+    Map<Object, Object> mapTsValue = new HashMap<>();
+
+    // Format timestamp to date
+    long timestampFromResponse = 0;
+    try {
+      timestampFromResponse =
+          Long.parseLong((String) activityResponseMap.get(AppConstants.CREATED_TS_KEY));
+
+      DateFormat simpleDateFormat = new SimpleDateFormat(AppConstants.ISO_DATE_FORMAT_RESPONSE);
+      String formattedDate = simpleDateFormat.format(timestampFromResponse);
+      mapTsValue.put(AppConstants.VALUE_KEY_STR, formattedDate);
+
+    } catch (NumberFormatException ne) {
+      logger.error(
+          "Could not format createdTimestamp field to long. createdTimestamp value is: "
+              + timestampFromResponse);
+      mapTsValue.put(AppConstants.VALUE_KEY_STR, String.valueOf(timestampFromResponse));
+    }
+
+    mapTS.put(AppConstants.CREATED_RESPONSE, mapTsValue);
+    responsesRow.getData().add(mapTS);
+    int columnsBeforeResults = responsesRow.getData().size();
+
+    // Firestore returns the results array as lists and maps, no conversion is needed
+    List<Object> results = (List<Object>) activityResponseMap.get(AppConstants.RESULTS_FIELD_KEY);
+    this.addResponsesToMap(responsesRow, results, questionKey);
+    if (!StringUtils.isBlank(questionKey)
+        && responsesRow.getData().size() == columnsBeforeResults) {
+      return null;
+    }
+    return responsesRow;
+  }
+
+  private void addResponsesToMap(
+      ResponseRows responsesRow, List<Object> results, String questionKey) {
+    if (results != null) {
+      for (Object result : results) {
+        if (result instanceof Map) {
+          Map<String, Object> mapResult = (Map<String, Object>) result;
+          String questionResultType = (String) mapResult.get(AppConstants.RESULT_TYPE_KEY);
+          String questionIdKey = null;
+          String questionValue = null;
+          Map<Object, Object> tempMapForQuestions = new HashMap<>();
+          Map<Object, Object> tempMapQuestionsValue = new HashMap<>();
+
+          if (!StringUtils.isBlank(questionResultType)) {
+            if (questionResultType.equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)) {
+              Map<String, Object> resultsForm =
+                  (Map<String, Object>) mapResult.get("actvityValueGroup");
+              List<Object> obj = (List<Object>) resultsForm.get("results");
+              this.addResponsesToMap(responsesRow, obj, questionKey);
+
+            } else {
+              questionIdKey = (String) mapResult.get(AppConstants.QUESTION_ID_KEY);
+              if (!StringUtils.isBlank(questionKey)
+                  && !StringUtils.equals(questionKey, questionIdKey)) {
+                continue;
+              }
+              questionValue = (String) mapResult.get(AppConstants.VALUE_KEY_STR);
+              if (StringUtils.containsIgnoreCase(
+                      appConfig.getResponseSupportedQTypeDouble(), questionResultType)
+                  && !StringUtils.isBlank(questionValue)) {
+                Double questionValueDouble = null;
+                try {
+                  questionValueDouble = Double.parseDouble(questionValue);
+                  tempMapQuestionsValue.put(AppConstants.VALUE_KEY_STR, questionValueDouble);
+                  tempMapForQuestions.put(questionIdKey, tempMapQuestionsValue);
+                  responsesRow.getData().add(tempMapForQuestions);
+                } catch (NumberFormatException e) {
+                  logger.error(
+                      "Could not format value to Double. Value input string is: " + questionValue);
+                }
+              } else if (StringUtils.containsIgnoreCase(
+                      appConfig.getResponseSupportedQTypeDate(), questionResultType)
+                  && !StringUtils.isBlank(questionValue)) {
+                tempMapQuestionsValue.put(AppConstants.VALUE_KEY_STR, questionValue);
+                tempMapForQuestions.put(questionIdKey, tempMapQuestionsValue);
+                responsesRow.getData().add(tempMapForQuestions);
+              } else {
+                if (appConfig.getSupportStringResponse().equalsIgnoreCase(AppConstants.TRUE_STR)
+                    && StringUtils.containsIgnoreCase(
+                        appConfig.getResponseSupportedQTypeString(), questionResultType)
+                    && !StringUtils.isBlank(questionValue)) {
+                  tempMapQuestionsValue.put(AppConstants.VALUE_KEY_STR, questionValue);
+                  tempMapForQuestions.put(questionIdKey, tempMapQuestionsValue);
+                  responsesRow.getData().add(tempMapForQuestions);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+}
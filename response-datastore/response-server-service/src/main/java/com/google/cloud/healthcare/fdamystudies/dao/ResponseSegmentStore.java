@@ -0,0 +1,819 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only response log of one study, made of memory-mapped segment files.
+ *
+ * <p>Every record carries a study-wide sequence number and a CRC. A response document is live
+ * unless a later record replaces it (same document ID) or a later tombstone deletes the responses
+ * of its participant, so replaying the segments in any order rebuilds the same state. On open, the
+ * segments are scanned up to the first torn or zeroed record, and writes continue in a new segment.
+ *
+ * <p>Live responses are indexed in memory on (participantId, activityId, siteId, createdTimestamp).
+ * {@link #compact()} copies the live records of the sealed segments into new segments and deletes
+ * the old ones.
+ */
+class ResponseSegmentStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(ResponseSegmentStore.class);
+
+  private static final Pattern SEGMENT_FILE_NAME = Pattern.compile("segment-(\\d+)\\.log");
+  private static final String COMPACTING_SUFFIX = ".compacting";
+
+  // length (4) + crc (4) + type (1) + sequence (8)
+  private static final int HEADER_SIZE = 17;
+
+  private static final byte RESPONSE_RECORD = 1;
+  private static final byte STUDY_RECORD = 2;
+  private static final byte DELETE_PARTICIPANT_RECORD = 3;
+  private static final byte WITHDRAW_PARTICIPANT_RECORD = 4;
+
+  private static final TypeReference<Map<String, Object>> DOCUMENT_TYPE =
+      new TypeReference<Map<String, Object>>() {};
+
+  private final Path directory;
+  private final int segmentSize;
+  private final boolean forceOnWrite;
+  private final ObjectMapper objectMapper;
+
+  private final ConcurrentSkipListMap<ResponseKey, RecordLocation> index =
+      new ConcurrentSkipListMap<>();
+  private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Long> withdrawnAtSequence = new ConcurrentHashMap<>();
+
+  // Guarded by this
+  private final Map<String, ResponseKey> keysByDocumentId = new HashMap<>();
+  private final Map<String, Long> deletedAtSequence = new HashMap<>();
+  private final Map<String, String> canonicalValues = new HashMap<>();
+  private Segment activeSegment;
+  private int nextSegmentId;
+  private long nextSequence = 1;
+  private volatile RecordLocation studyDocument;
+
+  private ResponseSegmentStore(
+      Path directory, int segmentSize, boolean forceOnWrite, ObjectMapper objectMapper) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.forceOnWrite = forceOnWrite;
+    this.objectMapper = objectMapper;
+  }
+
+  /** Opens the store in the given directory, recovering its state from the existing segments. */
+  static ResponseSegmentStore open(
+      Path directory, int segmentSize, boolean forceOnWrite, ObjectMapper objectMapper)
+      throws IOException {
+    ResponseSegmentStore store =
+        new ResponseSegmentStore(directory, segmentSize, forceOnWrite, objectMapper);
+    store.recover();
+    return store;
+  }
+
+  /** Stores the response document under the given ID, replacing any earlier version of it. */
+  void put(String documentId, Map<String, Object> document) throws IOException {
+    putAll(Collections.singletonMap(documentId, document));
+  }
+
+  /** Stores the response documents with a single force to disk. */
+  synchronized void putAll(Map<String, Map<String, Object>> documentsById) throws IOException {
+    List<ResponseKey> keys = new ArrayList<>(documentsById.size());
+    List<RecordLocation> locations = new ArrayList<>(documentsById.size());
+    for (Map.Entry<String, Map<String, Object>> entry : documentsById.entrySet()) {
+      ResponseKey key = toKey(entry.getKey(), entry.getValue());
+      byte[] payload = encodeResponse(key, objectMapper.writeValueAsBytes(entry.getValue()));
+      keys.add(key);
+      locations.add(append(RESPONSE_RECORD, payload));
+    }
+    force();
+    for (int i = 0; i < keys.size(); i++) {
+      indexResponse(keys.get(i), locations.get(i));
+    }
+  }
+
+  /** Replaces the study document. */
+  synchronized void putStudyDocument(Map<String, Object> document) throws IOException {
+    RecordLocation location = append(STUDY_RECORD, objectMapper.writeValueAsBytes(document));
+    force();
+    RecordLocation previous = studyDocument;
+    studyDocument = location;
+    if (previous != null) {
+      markDead(previous);
+    }
+  }
+
+  Map<String, Object> getStudyDocument() throws IOException {
+    RecordLocation location = studyDocument;
+    return location == null ? null : decodeDocument(read(location));
+  }
+
+  /** Deletes every response of the participant stored so far, and returns how many were live. */
+  synchronized int deleteParticipant(String participantId) throws IOException {
+    RecordLocation location = append(DELETE_PARTICIPANT_RECORD, encodeParticipant(participantId));
+    force();
+    return applyDelete(participantId, location.getSequence());
+  }
+
+  /**
+   * Marks every response of the participant stored so far as withdrawn, and returns how many were
+   * not withdrawn before. Responses stored afterwards are not affected.
+   */
+  synchronized int withdrawParticipant(String participantId) throws IOException {
+    RecordLocation location =
+        append(WITHDRAW_PARTICIPANT_RECORD, encodeParticipant(participantId));
+    force();
+    Long previousSequence = withdrawnAtSequence.put(participantId, location.getSequence());
+    int withdrawn = 0;
+    for (RecordLocation response : participantRange(participantId).values()) {
+      if (previousSequence == null || response.getSequence() > previousSequence) {
+        withdrawn++;
+      }
+    }
+    return withdrawn;
+  }
+
+  /**
+   * Returns the responses of a participant for an activity and site in createdTimestamp order,
+   * reading each document from its segment as the iterator is consumed.
+   */
+  Iterator<Map<String, Object>> find(
+      String participantId, String activityId, String siteId, boolean latestFirst) {
+    NavigableMap<ResponseKey, RecordLocation> range =
+        index.subMap(
+            ResponseKey.lowest(participantId, activityId, siteId),
+            true,
+            ResponseKey.highest(participantId, activityId, siteId),
+            true);
+    Iterator<ResponseKey> keys =
+        (latestFirst ? range.descendingKeySet() : range.navigableKeySet()).iterator();
+    return new DocumentIterator(keys);
+  }
+
+  /** Fraction of the written bytes that belong to replaced or deleted records. */
+  double getGarbageRatio() {
+    long written = 0;
+    long dead = 0;
+    for (Segment segment : segments.values()) {
+      written += segment.getWritePosition();
+      dead += segment.getDeadBytes().get();
+    }
+    return written == 0 ? 0 : (double) dead / written;
+  }
+
+  int getSegmentCount() {
+    return segments.size();
+  }
+
+  int size() {
+    return index.size();
+  }
+
+  /**
+   * Rewrites the live records of every segment written so far into new segments, then deletes the
+   * old segments. Writes continue in a fresh segment while the live records are copied.
+   */
+  void compact() throws IOException {
+    List<Segment> inputs;
+    Map<String, Long> withdrawals;
+    Map<String, Long> deletions;
+    synchronized (this) {
+      if (activeSegment.getWritePosition() > 0) {
+        rollSegment(segmentSize);
+      }
+      inputs = new ArrayList<>();
+      for (Segment segment : segments.values()) {
+        if (segment != activeSegment) {
+          inputs.add(segment);
+        }
+      }
+      withdrawals = new HashMap<>(withdrawnAtSequence);
+      deletions = new HashMap<>(deletedAtSequence);
+    }
+    if (inputs.isEmpty()) {
+      return;
+    }
+    Map<Integer, Segment> inputsById = new HashMap<>();
+    for (Segment input : inputs) {
+      inputsById.put(input.getId(), input);
+    }
+
+    // Copy the live records. Participant markers are kept, as they may still apply to records in
+    // segments that survive a crash during the deletion of the inputs.
+    CompactionWriter writer = new CompactionWriter();
+    Map<ResponseKey, RecordLocation[]> moved = new HashMap<>();
+    for (Map.Entry<ResponseKey, RecordLocation> entry : index.entrySet()) {
+      RecordLocation location = entry.getValue();
+      Segment input = inputsById.get(location.getSegmentId());
+      if (input != null) {
+        RecordLocation copy = writer.copy(input, location);
+        moved.put(entry.getKey(), new RecordLocation[] {location, copy});
+      }
+    }
+    RecordLocation study = studyDocument;
+    RecordLocation studyCopy = null;
+    if (study != null && inputsById.containsKey(study.getSegmentId())) {
+      studyCopy = writer.copy(inputsById.get(study.getSegmentId()), study);
+    }
+    for (Map.Entry<String, Long> deletion : deletions.entrySet()) {
+      writer.write(
+          DELETE_PARTICIPANT_RECORD, deletion.getValue(), encodeParticipant(deletion.getKey()));
+    }
+    for (Map.Entry<String, Long> withdrawal : withdrawals.entrySet()) {
+      writer.write(
+          WITHDRAW_PARTICIPANT_RECORD,
+          withdrawal.getValue(),
+          encodeParticipant(withdrawal.getKey()));
+    }
+    List<Segment> outputs = writer.finish();
+
+    synchronized (this) {
+      for (Segment output : outputs) {
+        segments.put(output.getId(), output);
+      }
+      for (Map.Entry<ResponseKey, RecordLocation[]> entry : moved.entrySet()) {
+        RecordLocation[] locations = entry.getValue();
+        // The response may have been replaced or deleted while it was copied
+        if (!index.replace(entry.getKey(), locations[0], locations[1])) {
+          markDead(locations[1]);
+        }
+      }
+      if (studyCopy != null) {
+        if (studyDocument == study) {
+          studyDocument = studyCopy;
+        } else {
+          markDead(studyCopy);
+        }
+      }
+      for (Segment input : inputs) {
+        segments.remove(input.getId());
+      }
+    }
+    for (Segment input : inputs) {
+      Files.deleteIfExists(input.getPath());
+    }
+    logger.info(
+        String.format(
+            "Compacted %d segments of %s into %d segments",
+            inputs.size(), directory, outputs.size()));
+  }
+
+  synchronized void close() {
+    if (activeSegment != null) {
+      activeSegment.getBuffer().force();
+    }
+  }
+
+  private void recover() throws IOException {
+    Files.createDirectories(directory);
+    List<Integer> segmentIds = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        String fileName = file.getFileName().toString();
+        Matcher matcher = SEGMENT_FILE_NAME.matcher(fileName);
+        if (matcher.matches()) {
+          segmentIds.add(Integer.parseInt(matcher.group(1)));
+        } else if (fileName.endsWith(COMPACTING_SUFFIX)) {
+          // Output of a compaction that did not finish, the inputs are still in place
+          Files.delete(file);
+        }
+      }
+    }
+    Collections.sort(segmentIds);
+
+    long maxSequence = 0;
+    for (Integer segmentId : segmentIds) {
+      Segment segment = Segment.open(segmentPath(segmentId), segmentId);
+      segments.put(segmentId, segment);
+      maxSequence = Math.max(maxSequence, replay(segment));
+      nextSegmentId = segmentId + 1;
+      if (segment.getWritePosition() == 0) {
+        segments.remove(segmentId);
+        Files.delete(segment.getPath());
+      }
+    }
+    nextSequence = maxSequence + 1;
+    activeSegment = createSegment(segmentSize);
+    logger.info(
+        String.format(
+            "Response segment store %s opened with %d segments and %d responses",
+            directory, segmentIds.size(), index.size()));
+  }
+
+  /** Applies the valid records of the segment and returns the highest sequence seen. */
+  private long replay(Segment segment) throws IOException {
+    ByteBuffer buffer = segment.getBuffer().duplicate();
+    long maxSequence = 0;
+    int position = 0;
+    while (position + HEADER_SIZE <= buffer.capacity()) {
+      int payloadLength = buffer.getInt(position);
+      if (payloadLength <= 0 || position + HEADER_SIZE + payloadLength > buffer.capacity()) {
+        break;
+      }
+      byte[] record = new byte[HEADER_SIZE + payloadLength];
+      buffer.position(position);
+      buffer.get(record);
+      if (checksum(record) != ByteBuffer.wrap(record).getInt(4)) {
+        logger.warn(
+            String.format(
+                "Torn record at offset %d of %s, ignoring the rest of the segment",
+                position, segment.getPath()));
+        break;
+      }
+      byte type = record[8];
+      long sequence = ByteBuffer.wrap(record).getLong(9);
+      RecordLocation location =
+          new RecordLocation(segment.getId(), position, record.length, sequence);
+      applyRecord(type, location, record);
+      maxSequence = Math.max(maxSequence, sequence);
+      position += record.length;
+    }
+    segment.setWritePosition(position);
+    return maxSequence;
+  }
+
+  private void applyRecord(byte type, RecordLocation location, byte[] record) throws IOException {
+    DataInputStream payload = payloadStream(record);
+    switch (type) {
+      case RESPONSE_RECORD:
+        indexResponse(decodeKey(payload), location);
+        break;
+      case STUDY_RECORD:
+        if (studyDocument == null || studyDocument.getSequence() < location.getSequence()) {
+          if (studyDocument != null) {
+            markDead(studyDocument);
+          }
+          studyDocument = location;
+        } else {
+          markDead(location);
+        }
+        break;
+      case DELETE_PARTICIPANT_RECORD:
+        applyDelete(payload.readUTF(), location.getSequence());
+        break;
+      case WITHDRAW_PARTICIPANT_RECORD:
+        withdrawnAtSequence.merge(payload.readUTF(), location.getSequence(), Math::max);
+        break;
+      default:
+        logger.warn("Skipping record of unknown type " + type + " in " + directory);
+    }
+  }
+
+  private void indexResponse(ResponseKey key, RecordLocation location) {
+    Long deletedAt = deletedAtSequence.get(key.getParticipantId());
+    if (deletedAt != null && deletedAt > location.getSequence()) {
+      markDead(location);
+      return;
+    }
+    ResponseKey existingKey = keysByDocumentId.get(key.getDocumentId());
+    if (existingKey != null) {
+      RecordLocation existing = index.get(existingKey);
+      if (existing != null && existing.getSequence() > location.getSequence()) {
+        markDead(location);
+        return;
+      }
+      if (existing != null) {
+        index.remove(existingKey);
+        markDead(existing);
+      }
+    }
+    keysByDocumentId.put(key.getDocumentId(), key);
+    index.put(key, location);
+  }
+
+  private int applyDelete(String participantId, long sequence) {
+    deletedAtSequence.merge(participantId, sequence, Math::max);
+    int deleted = 0;
+    Iterator<Map.Entry<ResponseKey, RecordLocation>> entries =
+        participantRange(participantId).entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<ResponseKey, RecordLocation> entry = entries.next();
+      if (entry.getValue().getSequence() < sequence) {
+        entries.remove();
+        keysByDocumentId.remove(entry.getKey().getDocumentId());
+        markDead(entry.getValue());
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  private NavigableMap<ResponseKey, RecordLocation> participantRange(String participantId) {
+    return index.subMap(
+        ResponseKey.lowest(participantId, null, null),
+        true,
+        ResponseKey.highest(participantId, null, null),
+        true);
+  }
+
+  private RecordLocation append(byte type, byte[] payload) throws IOException {
+    byte[] record = encodeRecord(type, nextSequence, payload);
+    if (activeSegment.getRemaining() < record.length) {
+      rollSegment(Math.max(segmentSize, record.length));
+    }
+    RecordLocation location =
+        new RecordLocation(
+            activeSegment.getId(), activeSegment.getWritePosition(), record.length, nextSequence);
+    ByteBuffer buffer = activeSegment.getBuffer().duplicate();
+    buffer.position(activeSegment.getWritePosition());
+    buffer.put(record);
+    activeSegment.setWritePosition(activeSegment.getWritePosition() + record.length);
+    nextSequence++;
+    return location;
+  }
+
+  private void force() {
+    if (forceOnWrite) {
+      activeSegment.getBuffer().force();
+    }
+  }
+
+  private void rollSegment(int capacity) throws IOException {
+    activeSegment.getBuffer().force();
+    activeSegment = createSegment(capacity);
+  }
+
+  private Segment createSegment(int capacity) throws IOException {
+    int segmentId = nextSegmentId++;
+    Segment segment = Segment.create(segmentPath(segmentId), segmentId, capacity);
+    segments.put(segmentId, segment);
+    return segment;
+  }
+
+  private void markDead(RecordLocation location) {
+    Segment segment = segments.get(location.getSegmentId());
+    if (segment != null) {
+      segment.getDeadBytes().addAndGet(location.getLength());
+    }
+  }
+
+  private byte[] read(RecordLocation location) {
+    Segment segment = segments.get(location.getSegmentId());
+    if (segment == null) {
+      return null;
+    }
+    byte[] record = new byte[location.getLength()];
+    ByteBuffer buffer = segment.getBuffer().duplicate();
+    buffer.position(location.getOffset());
+    buffer.get(record);
+    return record;
+  }
+
+  private Map<String, Object> readResponse(ResponseKey key) throws IOException {
+    // A compaction may move the record between the index lookup and the read
+    for (int attempt = 0; attempt < 2; attempt++) {
+      RecordLocation location = index.get(key);
+      if (location == null) {
+        return null;
+      }
+      byte[] record = read(location);
+      if (record != null) {
+        DataInputStream payload = payloadStream(record);
+        decodeKey(payload);
+        Map<String, Object> document = objectMapper.readValue(payload, DOCUMENT_TYPE);
+        Long withdrawnAt = withdrawnAtSequence.get(key.getParticipantId());
+        if (withdrawnAt != null && withdrawnAt > location.getSequence()) {
+          document.put(AppConstants.WITHDRAWAL_STATUS_KEY, true);
+        }
+        return document;
+      }
+    }
+    return null;
+  }
+
+  private Map<String, Object> decodeDocument(byte[] record) throws IOException {
+    if (record == null) {
+      return null;
+    }
+    return objectMapper.readValue(payloadStream(record), DOCUMENT_TYPE);
+  }
+
+  private ResponseKey toKey(String documentId, Map<String, Object> document) {
+    return new ResponseKey(
+        canonical((String) document.get(AppConstants.PARTICIPANT_ID_KEY)),
+        canonical((String) document.get(AppConstants.ACTIVITY_ID_KEY)),
+        canonical((String) document.get(AppConstants.SITE_ID_KEY)),
+        NumberUtils.toLong(String.valueOf(document.get(AppConstants.CREATED_TS_KEY)), 0),
+        documentId);
+  }
+
+  private ResponseKey decodeKey(DataInputStream payload) throws IOException {
+    String documentId = payload.readUTF();
+    String participantId = payload.readUTF();
+    String activityId = payload.readUTF();
+    String siteId = payload.readUTF();
+    long createdTimestamp = payload.readLong();
+    return new ResponseKey(
+        canonical(participantId),
+        canonical(activityId),
+        canonical(siteId),
+        createdTimestamp,
+        documentId);
+  }
+
+  /** Shares the participant, activity and site values between the index entries. */
+  private String canonical(String value) {
+    String nonNull = StringUtils.defaultString(value);
+    synchronized (canonicalValues) {
+      return canonicalValues.computeIfAbsent(nonNull, v -> v);
+    }
+  }
+
+  private Path segmentPath(int segmentId) {
+    return directory.resolve(String.format("segment-%010d.log", segmentId));
+  }
+
+  private static byte[] encodeResponse(ResponseKey key, byte[] document) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(document.length + 128);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(key.getDocumentId());
+    out.writeUTF(key.getParticipantId());
+    out.writeUTF(key.getActivityId());
+    out.writeUTF(key.getSiteId());
+    out.writeLong(key.getCreatedTimestamp());
+    out.write(document);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] encodeParticipant(String participantId) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeUTF(StringUtils.defaultString(participantId));
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static byte[] encodeRecord(byte type, long sequence, byte[] payload) {
+    byte[] record = new byte[HEADER_SIZE + payload.length];
+    ByteBuffer buffer = ByteBuffer.wrap(record);
+    buffer.putInt(payload.length);
+    buffer.putInt(0);
+    buffer.put(type);
+    buffer.putLong(sequence);
+    buffer.put(payload);
+    buffer.putInt(4, checksum(record));
+    return record;
+  }
+
+  /** CRC of the record type, sequence and payload. */
+  private static int checksum(byte[] record) {
+    CRC32 crc = new CRC32();
+    crc.update(record, 8, record.length - 8);
+    return (int) crc.getValue();
+  }
+
+  private static DataInputStream payloadStream(byte[] record) {
+    return new DataInputStream(
+        new ByteArrayInputStream(record, HEADER_SIZE, record.length - HEADER_SIZE));
+  }
+
+  private class DocumentIterator implements Iterator<Map<String, Object>> {
+    private final Iterator<ResponseKey> keys;
+    private Map<String, Object> next;
+
+    private DocumentIterator(Iterator<ResponseKey> keys) {
+      this.keys = keys;
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        while (next == null && keys.hasNext()) {
+          next = readResponse(keys.next());
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return next != null;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Map<String, Object> document = next;
+      next = null;
+      return document;
+    }
+  }
+
+  /** Writes the records kept by a compaction into new segments. */
+  private class CompactionWriter {
+    private final List<Segment> outputs = new ArrayList<>();
+    private Segment output;
+
+    private RecordLocation copy(Segment input, RecordLocation location) throws IOException {
+      byte[] record = new byte[location.getLength()];
+      ByteBuffer buffer = input.getBuffer().duplicate();
+      buffer.position(location.getOffset());
+      buffer.get(record);
+      return write(record, location.getSequence());
+    }
+
+    private void write(byte type, long sequence, byte[] payload) throws IOException {
+      write(encodeRecord(type, sequence, payload), sequence);
+    }
+
+    private RecordLocation write(byte[] record, long sequence) throws IOException {
+      if (output == null || output.getRemaining() < record.length) {
+        int segmentId;
+        synchronized (ResponseSegmentStore.this) {
+          segmentId = nextSegmentId++;
+        }
+        Path compactingPath =
+            directory.resolve(segmentPath(segmentId).getFileName() + COMPACTING_SUFFIX);
+        output = Segment.create(compactingPath, segmentId, Math.max(segmentSize, record.length));
+        outputs.add(output);
+      }
+      RecordLocation location =
+          new RecordLocation(output.getId(), output.getWritePosition(), record.length, sequence);
+      ByteBuffer buffer = output.getBuffer().duplicate();
+      buffer.position(output.getWritePosition());
+      buffer.put(record);
+      output.setWritePosition(output.getWritePosition() + record.length);
+      return location;
+    }
+
+    /** Forces the new segments to disk and gives them their final names. */
+    private List<Segment> finish() throws IOException {
+      for (Segment segment : outputs) {
+        segment.getBuffer().force();
+        Path finalPath = segmentPath(segment.getId());
+        Files.move(segment.getPath(), finalPath, StandardCopyOption.ATOMIC_MOVE);
+        segment.setPath(finalPath);
+      }
+      return outputs;
+    }
+  }
+
+  /** Position of the responses in the index, ordered for range reads by participant. */
+  @Getter
+  @ToString
+  @EqualsAndHashCode
+  static final class ResponseKey implements Comparable<ResponseKey> {
+    private static final String HIGHEST_VALUE = "\uffff";
+
+    private final String participantId;
+    private final String activityId;
+    private final String siteId;
+    private final long createdTimestamp;
+    private final String documentId;
+
+    ResponseKey(
+        String participantId,
+        String activityId,
+        String siteId,
+        long createdTimestamp,
+        String documentId) {
+      this.participantId = participantId;
+      this.activityId = activityId;
+      this.siteId = siteId;
+      this.createdTimestamp = createdTimestamp;
+      this.documentId = documentId;
+    }
+
+    static ResponseKey lowest(String participantId, String activityId, String siteId) {
+      return new ResponseKey(
+          StringUtils.defaultString(participantId),
+          StringUtils.defaultString(activityId),
+          StringUtils.defaultString(siteId),
+          Long.MIN_VALUE,
+          "");
+    }
+
+    static ResponseKey highest(String participantId, String activityId, String siteId) {
+      return new ResponseKey(
+          StringUtils.defaultString(participantId),
+          activityId == null ? HIGHEST_VALUE : activityId,
+          siteId == null ? HIGHEST_VALUE : siteId,
+          Long.MAX_VALUE,
+          HIGHEST_VALUE);
+    }
+
+    @Override
+    public int compareTo(ResponseKey other) {
+      int result = participantId.compareTo(other.participantId);
+      if (result == 0) {
+        result = activityId.compareTo(other.activityId);
+      }
+      if (result == 0) {
+        result = siteId.compareTo(other.siteId);
+      }
+      if (result == 0) {
+        result = Long.compare(createdTimestamp, other.createdTimestamp);
+      }
+      if (result == 0) {
+        result = documentId.compareTo(other.documentId);
+      }
+      return result;
+    }
+  }
+
+  @Getter
+  @ToString
+  static final class RecordLocation {
+    private final int segmentId;
+    private final int offset;
+    private final int length;
+    private final long sequence;
+
+    RecordLocation(int segmentId, int offset, int length, long sequence) {
+      this.segmentId = segmentId;
+      this.offset = offset;
+      this.length = length;
+      this.sequence = sequence;
+    }
+  }
+
+  @Getter
+  private static final class Segment {
+    private final int id;
+    private final MappedByteBuffer buffer;
+    private final AtomicLong deadBytes = new AtomicLong();
+    private volatile Path path;
+    private volatile int writePosition;
+
+    private Segment(int id, Path path, MappedByteBuffer buffer) {
+      this.id = id;
+      this.path = path;
+      this.buffer = buffer;
+    }
+
+    static Segment create(Path path, int id, int capacity) throws IOException {
+      try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+        // Sparse on most file systems, the unused tail of a sealed segment takes no space
+        file.setLength(capacity);
+        return new Segment(
+            id, path, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+      }
+    }
+
+    static Segment open(Path path, int id) throws IOException {
+      try (FileChannel channel = FileChannel.open(path)) {
+        return new Segment(
+            id, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+    }
+
+    int getRemaining() {
+      return buffer.capacity() - writePosition;
+    }
+
+    void setPath(Path path) {
+      this.path = path;
+    }
+
+    void setWritePosition(int writePosition) {
+      this.writePosition = writePosition;
+    }
+  }
+}
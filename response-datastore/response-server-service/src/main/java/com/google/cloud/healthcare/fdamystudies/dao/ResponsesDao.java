@@ -8,8 +8,9 @@
 
 package com.google.cloud.healthcare.fdamystudies.dao;
 
-import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseRows;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.util.Iterator;
 import java.util.Map;
 
 public interface ResponsesDao {
@@ -17,7 +18,12 @@ public interface ResponsesDao {
       String studyCollectionName, String studyId, Map<String, Object> dataToStore)
       throws ProcessResponseException;
 
-  StoredResponseBean getActivityResponseDataForParticipant(
+  /**
+   * Returns the response rows of a participant for an activity. Rows are read from the datastore
+   * page by page as the iterator is consumed, and only responses with a value for the question key
+   * are returned when one is given.
+   */
+  Iterator<ResponseRows> getActivityResponseRowsForParticipant(
       String studyCollectionName,
       String studyId,
       String siteId,
@@ -33,6 +39,17 @@ public interface ResponsesDao {
       Map<String, Object> dataToStoreActivityResults)
       throws ProcessResponseException;
 
+  /**
+   * Stores several activity response documents of one study, keyed by document ID. Writing the
+   * same document ID twice overwrites the earlier document, which makes replays idempotent.
+   */
+  void saveActivityResponseDataBatch(
+      String studyId,
+      String studyCollectionName,
+      String activitiesCollectionName,
+      Map<String, Map<String, Object>> dataToStoreByDocumentId)
+      throws ProcessResponseException;
+
   void deleteActivityResponseDataForParticipant(
       String studyCollectionName,
       String studyId,
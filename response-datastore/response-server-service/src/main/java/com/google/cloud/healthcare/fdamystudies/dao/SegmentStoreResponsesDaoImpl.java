@@ -0,0 +1,271 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseRows;
+import com.google.cloud.healthcare.fdamystudies.common.IdGenerator;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Local response datastore for on-premise deployments, selected with
+ * response.datastore.backend=segment-store. Each study collection is an append-only {@link
+ * ResponseSegmentStore} under response.segment-store.path, compacted in the background once the
+ * share of replaced and deleted records passes response.segment-store.compaction.garbage-ratio.
+ */
+@Repository
+@Primary
+@Qualifier("segmentStoreResponsesDaoImpl")
+@ConditionalOnProperty(name = "response.datastore.backend", havingValue = "segment-store")
+public class SegmentStoreResponsesDaoImpl implements ResponsesDao {
+  @Autowired private ApplicationConfiguration appConfig;
+  @Autowired private ResponseRowsMapper responseRowsMapper;
+  private static final Logger logger = LoggerFactory.getLogger(SegmentStoreResponsesDaoImpl.class);
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final Map<String, ResponseSegmentStore> stores = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService compactionExecutor;
+
+  @PostConstruct
+  public void init() {
+    long interval = appConfig.getSegmentStoreCompactionIntervalMinutes();
+    compactionExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "response-segment-compaction");
+              thread.setDaemon(true);
+              return thread;
+            });
+    compactionExecutor.scheduleWithFixedDelay(
+        this::compactStores, interval, interval, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  public void close() {
+    compactionExecutor.shutdownNow();
+    for (ResponseSegmentStore store : stores.values()) {
+      store.close();
+    }
+  }
+
+  @Override
+  public void saveStudyMetadata(
+      String studyCollectionName, String studyId, Map<String, Object> dataToStore)
+      throws ProcessResponseException {
+    if (studyCollectionName == null || studyId == null || dataToStore == null) {
+      throw new ProcessResponseException(
+          "SegmentStoreResponsesDaoImpl.saveStudyMetadata() "
+              + "- Study Collection is null or dataToStore is null");
+    }
+    try {
+      getStore(studyCollectionName).putStudyDocument(dataToStore);
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  @Override
+  public void saveActivityResponseData(
+      String studyId,
+      String studyCollectionName,
+      String activitiesCollectionName,
+      Map<String, Object> dataToStoreActivityResults)
+      throws ProcessResponseException {
+    saveActivityResponseDataBatch(
+        studyId,
+        studyCollectionName,
+        activitiesCollectionName,
+        Collections.singletonMap(IdGenerator.id(), dataToStoreActivityResults));
+  }
+
+  @Override
+  public void saveActivityResponseDataBatch(
+      String studyId,
+      String studyCollectionName,
+      String activitiesCollectionName,
+      Map<String, Map<String, Object>> dataToStoreByDocumentId)
+      throws ProcessResponseException {
+    if (dataToStoreByDocumentId == null || dataToStoreByDocumentId.isEmpty()) {
+      return;
+    }
+    try {
+      ResponseSegmentStore store = getStore(studyCollectionName);
+      Object studyVersion = null;
+      for (Map<String, Object> dataToStore : dataToStoreByDocumentId.values()) {
+        studyVersion = dataToStore.get(AppConstants.STUDY_VERSION_KEY);
+      }
+      Map<String, Object> studyDocument = store.getStudyDocument();
+      if (studyDocument == null
+          || !Objects.equals(studyVersion, studyDocument.get(AppConstants.STUDY_VERSION_KEY))) {
+        Map<String, Object> studyVersionMap = new HashMap<>();
+        studyVersionMap.put(AppConstants.STUDY_VERSION_KEY, studyVersion);
+        store.putStudyDocument(studyVersionMap);
+      }
+      store.putAll(dataToStoreByDocumentId);
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  @Override
+  public Iterator<ResponseRows> getActivityResponseRowsForParticipant(
+      String studyCollectionName,
+      String studyId,
+      String siteId,
+      String participantId,
+      String activityId,
+      String questionKey)
+      throws ProcessResponseException {
+    try {
+      String lastResponseOnly = appConfig.getLastResponseOnly();
+      boolean latestOnly =
+          !StringUtils.isBlank(lastResponseOnly)
+              && lastResponseOnly.equalsIgnoreCase(AppConstants.TRUE_STR);
+      Iterator<Map<String, Object>> documents =
+          getStore(studyCollectionName).find(participantId, activityId, siteId, latestOnly);
+      return new ResponseRowsIterator(
+          documents, participantId, questionKey, latestOnly ? 1 : Integer.MAX_VALUE);
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  @Override
+  public void deleteActivityResponseDataForParticipant(
+      String studyCollectionName,
+      String studyId,
+      String activitiesCollectionName,
+      String participantId)
+      throws ProcessResponseException {
+    try {
+      int deleted = getStore(studyCollectionName).deleteParticipant(participantId);
+      logger.debug("deleteActivityResponseDataForParticipant() : " + deleted + " responses");
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  @Override
+  public void updateWithdrawalStatusForParticipant(
+      String studyCollectionName, String studyId, String participantId)
+      throws ProcessResponseException {
+    try {
+      int withdrawn = getStore(studyCollectionName).withdrawParticipant(participantId);
+      logger.debug("updateWithdrawalStatusForParticipant() : " + withdrawn + " responses");
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  private ResponseSegmentStore getStore(String studyCollectionName) throws IOException {
+    try {
+      return stores.computeIfAbsent(
+          studyCollectionName,
+          name -> {
+            try {
+              return ResponseSegmentStore.open(
+                  Paths.get(appConfig.getSegmentStorePath(), name),
+                  appConfig.getSegmentStoreSegmentSizeMb() * 1024 * 1024,
+                  appConfig.isSegmentStoreForceOnWrite(),
+                  objectMapper);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private void compactStores() {
+    for (Map.Entry<String, ResponseSegmentStore> entry : stores.entrySet()) {
+      try {
+        if (entry.getValue().getGarbageRatio()
+            >= appConfig.getSegmentStoreCompactionGarbageRatio()) {
+          entry.getValue().compact();
+        }
+      } catch (Exception e) {
+        // The old segments are kept when a compaction fails, nothing is lost
+        logger.error("Could not compact the response segments of " + entry.getKey(), e);
+      }
+    }
+  }
+
+  /** Maps the documents to rows lazily, skipping responses without a value for the question. */
+  private class ResponseRowsIterator implements Iterator<ResponseRows> {
+    private final Iterator<Map<String, Object>> documents;
+    private final String participantId;
+    private final String questionKey;
+    private final int maxRows;
+    private int rowCount;
+    private ResponseRows nextRow;
+
+    private ResponseRowsIterator(
+        Iterator<Map<String, Object>> documents,
+        String participantId,
+        String questionKey,
+        int maxRows) {
+      this.documents = documents;
+      this.participantId = participantId;
+      this.questionKey = questionKey;
+      this.maxRows = maxRows;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (nextRow == null && rowCount < maxRows && documents.hasNext()) {
+        nextRow = responseRowsMapper.toResponseRows(participantId, documents.next(), questionKey);
+      }
+      return nextRow != null;
+    }
+
+    @Override
+    public ResponseRows next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      ResponseRows row = nextRow;
+      nextRow = null;
+      rowCount++;
+      return row;
+    }
+  }
+}
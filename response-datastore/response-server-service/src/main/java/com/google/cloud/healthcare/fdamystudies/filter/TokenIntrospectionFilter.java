@@ -34,6 +34,9 @@ public class TokenIntrospectionFilter extends BaseTokenIntrospectionFilter {
     uriTemplateAndMethods.put(
         String.format("%s/participant/process-response", context.getContextPath()),
         new String[] {HttpMethod.POST.name()});
+    uriTemplateAndMethods.put(
+        String.format("%s/participant/process-response/status", context.getContextPath()),
+        new String[] {HttpMethod.GET.name()});
     uriTemplateAndMethods.put(
         String.format("%s/participant/getresponse", context.getContextPath()),
         new String[] {HttpMethod.GET.name()});
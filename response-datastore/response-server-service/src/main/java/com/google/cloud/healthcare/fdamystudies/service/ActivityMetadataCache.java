@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process cache of the activity metadata fetched from the study datastore. The metadata for a
+ * given (studyId, activityId, activityVersion) is immutable once published, so it is safe to reuse
+ * it across response submissions until the study is republished.
+ *
+ * <p>The cache is bounded by the total number of steps held (including form sub-steps), and
+ * concurrent misses for the same key share a single load. Each cached metadata version also gets
+ * its {@link ActivityMetadataIndex}, built on first use and dropped together with the metadata.
+ */
+@Component
+public class ActivityMetadataCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(ActivityMetadataCache.class);
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  private Cache<ActivityMetadataKey, QuestionnaireActivityStructureBean> cache;
+
+  // Weak keys compare by identity, so an index lives as long as its metadata instance
+  private final LoadingCache<QuestionnaireActivityStructureBean, ActivityMetadataIndex> indexes =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(CacheLoader.from(metadata -> ActivityMetadataIndex.of(metadata.getSteps())));
+
+  @PostConstruct
+  public void init() {
+    cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(appConfig.getActivityMetadataCacheMaxSteps())
+            .weigher(
+                (ActivityMetadataKey key, QuestionnaireActivityStructureBean value) ->
+                    weigh(value))
+            .expireAfterWrite(appConfig.getActivityMetadataCacheTtlMinutes(), TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Returns the cached metadata for the given key, invoking the loader at most once per key when
+   * the entry is absent or expired. A {@code null} result from the loader is returned to the caller
+   * but not cached.
+   */
+  public QuestionnaireActivityStructureBean get(
+      String studyId,
+      String activityId,
+      String activityVersion,
+      Callable<QuestionnaireActivityStructureBean> loader)
+      throws ProcessResponseException {
+    if (!appConfig.isActivityMetadataCacheEnabled()) {
+      return call(loader);
+    }
+
+    ActivityMetadataKey key = new ActivityMetadataKey(studyId, activityId, activityVersion);
+    try {
+      return cache.get(key, loader);
+    } catch (InvalidCacheLoadException e) {
+      // Loader returned null, nothing to cache
+      return null;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ProcessResponseException) {
+        throw (ProcessResponseException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new ProcessResponseException(cause.getMessage());
+    }
+  }
+
+  /**
+   * Returns the question key index of the given metadata, built once per metadata instance.
+   * Metadata served from this cache shares the index across all submissions of that version.
+   */
+  public ActivityMetadataIndex getIndex(QuestionnaireActivityStructureBean metadata) {
+    return indexes.getUnchecked(metadata);
+  }
+
+  /** Evicts all cached activity metadata of the given study, e.g. after a new study version. */
+  public void invalidateStudy(String studyId) {
+    if (StringUtils.isBlank(studyId)) {
+      return;
+    }
+    cache.asMap().keySet().removeIf(key -> studyId.equals(key.getStudyId()));
+    logger.debug("Activity metadata cache invalidated for study " + studyId);
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  private QuestionnaireActivityStructureBean call(
+      Callable<QuestionnaireActivityStructureBean> loader) throws ProcessResponseException {
+    try {
+      return loader.call();
+    } catch (ProcessResponseException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  private static int weigh(QuestionnaireActivityStructureBean value) {
+    return 1 + countSteps(value.getSteps());
+  }
+
+  private static int countSteps(List<QuestionnaireActivityStepsBean> steps) {
+    if (steps == null) {
+      return 0;
+    }
+    int count = steps.size();
+    for (QuestionnaireActivityStepsBean step : steps) {
+      count += countSteps(step.getSteps());
+    }
+    return count;
+  }
+
+  @Getter
+  @ToString
+  @EqualsAndHashCode
+  private static final class ActivityMetadataKey {
+    private final String studyId;
+    private final String activityId;
+    private final String activityVersion;
+
+    private ActivityMetadataKey(String studyId, String activityId, String activityVersion) {
+      this.studyId = studyId;
+      this.activityId = activityId;
+      this.activityVersion = activityVersion;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Question key lookup over the steps of an activity metadata version, built in a single pass so
+ * that the responses of a submission are joined with their metadata without scanning the steps
+ * for every answer. Keys match case-insensitively, as {@link
+ * QuestionnaireActivityStepsBeanPredicate#questionKeyMatch(String)} does.
+ *
+ * <p>Where keys repeat, the index resolves to the step the former scans ended up applying: the last
+ * matching step, and for form sub-steps the last match within the first form that has one.
+ */
+public final class ActivityMetadataIndex {
+
+  private final Map<String, QuestionnaireActivityStepsBean> steps;
+
+  private final Map<String, QuestionnaireActivityStepsBean> formSteps;
+
+  private final QuestionnaireActivityStepsBean dummySumStep;
+
+  private ActivityMetadataIndex(
+      Map<String, QuestionnaireActivityStepsBean> steps,
+      Map<String, QuestionnaireActivityStepsBean> formSteps,
+      QuestionnaireActivityStepsBean dummySumStep) {
+    this.steps = steps;
+    this.formSteps = formSteps;
+    this.dummySumStep = dummySumStep;
+  }
+
+  public static ActivityMetadataIndex of(List<QuestionnaireActivityStepsBean> activitySteps) {
+    if (activitySteps == null) {
+      return new ActivityMetadataIndex(Collections.emptyMap(), Collections.emptyMap(), null);
+    }
+    Map<String, QuestionnaireActivityStepsBean> steps = new HashMap<>(activitySteps.size() * 2);
+    Map<String, QuestionnaireActivityStepsBean> formSteps = new HashMap<>();
+    Map<String, QuestionnaireActivityStepsBean> stepsOfForm = new LinkedHashMap<>();
+    String dummySumKey = normalize(AppConstants.DUMMY_SUM_QUESTION_KEY);
+    int dummySumCount = 0;
+    for (QuestionnaireActivityStepsBean step : activitySteps) {
+      String key = normalize(step.getKey());
+      if (key != null) {
+        steps.put(key, step);
+        if (key.equals(dummySumKey)) {
+          dummySumCount++;
+        }
+      }
+      if (step.getSteps() != null && !step.getSteps().isEmpty()) {
+        stepsOfForm.clear();
+        for (QuestionnaireActivityStepsBean formStep : step.getSteps()) {
+          String formStepKey = normalize(formStep.getKey());
+          if (formStepKey != null) {
+            stepsOfForm.put(formStepKey, formStep);
+          }
+        }
+        for (Map.Entry<String, QuestionnaireActivityStepsBean> entry : stepsOfForm.entrySet()) {
+          formSteps.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    // The dummy sum question is only synthesized when it is defined exactly once
+    return new ActivityMetadataIndex(
+        steps, formSteps, dummySumCount == 1 ? steps.get(dummySumKey) : null);
+  }
+
+  /** Returns the top-level step with the given question key, or null. */
+  public QuestionnaireActivityStepsBean getStep(String questionKey) {
+    String key = normalize(questionKey);
+    return key == null ? null : steps.get(key);
+  }
+
+  /** Returns the form sub-step with the given question key, or null. */
+  public QuestionnaireActivityStepsBean getFormStep(String questionKey) {
+    String key = normalize(questionKey);
+    return key == null ? null : formSteps.get(key);
+  }
+
+  /** Returns the dummy sum question of the activity, or null if the activity has none. */
+  public QuestionnaireActivityStepsBean getDummySumStep() {
+    return dummySumStep;
+  }
+
+  public int size() {
+    return steps.size() + formSteps.size();
+  }
+
+  private static String normalize(String questionKey) {
+    return questionKey == null ? null : questionKey.toLowerCase(Locale.ROOT);
+  }
+}
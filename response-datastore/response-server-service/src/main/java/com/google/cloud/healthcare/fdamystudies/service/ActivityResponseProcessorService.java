@@ -10,9 +10,13 @@ package com.google.cloud.healthcare.fdamystudies.service;
 
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
 import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
-import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseRows;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
 
 public interface ActivityResponseProcessorService {
 
@@ -22,10 +26,32 @@ public interface ActivityResponseProcessorService {
       AuditLogEventRequest auditRequest)
       throws ProcessResponseException, Exception;
 
-  StoredResponseBean getActivityResponseDataForParticipant(
+  /**
+   * Plugs the activity metadata into the response and returns the document to be stored, without
+   * writing it to the responses datastore.
+   */
+  Map<String, Object> prepareActivityResponseDataForParticipant(
+      QuestionnaireActivityStructureBean activityMetadatFromWcp,
+      ActivityResponseBean questionnaireActivityResponseBean,
+      AuditLogEventRequest auditRequest)
+      throws ProcessResponseException, Exception;
+
+  /** Stores prepared response documents of a study in one batch, keyed by document ID. */
+  void saveActivityResponseDataForParticipants(
+      String studyId, Map<String, Map<String, Object>> dataToStoreByDocumentId)
+      throws ProcessResponseException;
+
+  Iterator<ResponseRows> getActivityResponseRowsForParticipant(
       String studyId, String siteId, String participantId, String activityId, String questionKey)
       throws ProcessResponseException;
 
+  /**
+   * Writes the rows as a stored response JSON document while consuming the iterator, and returns
+   * the number of rows written.
+   */
+  int writeStoredResponse(Iterator<ResponseRows> rows, OutputStream outputStream)
+      throws IOException;
+
   void updateWithdrawalStatusForParticipant(String studyId, String participantId)
       throws ProcessResponseException;
 }
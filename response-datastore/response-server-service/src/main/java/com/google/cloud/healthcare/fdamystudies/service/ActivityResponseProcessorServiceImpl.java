@@ -15,12 +15,14 @@ import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.RU
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_METADATA_CONJOINED_WITH_RESPONSE_DATA;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_METADATA_CONJOINING_WITH_RESPONSE_DATA_FAILED;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityMetadataBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityValueGroupBean;
 import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
 import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
-import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseRows;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.common.ResponseServerAuditLogHelper;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
@@ -28,35 +30,34 @@ import com.google.cloud.healthcare.fdamystudies.dao.ResponsesDao;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseDocumentCodec;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import java.beans.BeanInfo;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 import org.apache.commons.collections4.map.HashedMap;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 @Service
 public class ActivityResponseProcessorServiceImpl implements ActivityResponseProcessorService {
-  @Autowired
-  @Qualifier("cloudFirestoreResponsesDaoImpl")
-  private ResponsesDao responsesDao;
+  @Autowired private ResponsesDao responsesDao;
 
   @Autowired private ApplicationConfiguration appConfig;
 
   @Autowired private ResponseServerAuditLogHelper responseServerAuditLogHelper;
 
+  @Autowired private ObjectMapper objectMapper;
+
+  @Autowired private ActivityMetadataCache activityMetadataCache;
+
   private static final Logger logger =
       LoggerFactory.getLogger(ActivityResponseProcessorServiceImpl.class);
 
@@ -68,6 +69,44 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
       throws Exception {
     logger.debug(
         "ActivityResponseProcessorServiceImpl saveActivityResponseDataForParticipant() - starts ");
+    Map<String, Object> dataToStoreActivityResults =
+        prepareActivityResponseDataForParticipant(
+            activityMetadataBeanFromWcp, questionnaireActivityResponseBean, auditRequest);
+
+    String studyId = questionnaireActivityResponseBean.getMetadata().getStudyId();
+    String studyCollectionName = AppUtil.makeStudyCollectionName(studyId);
+    logger.debug("saveActivityResponseData() : \n Study Collection Name: " + studyCollectionName);
+    responsesDao.saveActivityResponseData(
+        studyId,
+        studyCollectionName,
+        AppConstants.ACTIVITIES_COLLECTION_NAME,
+        dataToStoreActivityResults);
+    logger.debug(
+        "ActivityResponseProcessorServiceImpl saveActivityResponseDataForParticipant() - ends ");
+  }
+
+  @Override
+  public void saveActivityResponseDataForParticipants(
+      String studyId, Map<String, Map<String, Object>> dataToStoreByDocumentId)
+      throws ProcessResponseException {
+    if (StringUtils.isBlank(studyId)) {
+      throw new ProcessResponseException(
+          "saveActivityResponseDataForParticipants() method: Study Id argument is null or empty.");
+    }
+    String studyCollectionName = AppUtil.makeStudyCollectionName(studyId);
+    responsesDao.saveActivityResponseDataBatch(
+        studyId,
+        studyCollectionName,
+        AppConstants.ACTIVITIES_COLLECTION_NAME,
+        dataToStoreByDocumentId);
+  }
+
+  @Override
+  public Map<String, Object> prepareActivityResponseDataForParticipant(
+      QuestionnaireActivityStructureBean activityMetadataBeanFromWcp,
+      ActivityResponseBean questionnaireActivityResponseBean,
+      AuditLogEventRequest auditRequest)
+      throws Exception {
     if (activityMetadataBeanFromWcp == null) {
       throw new ProcessResponseException("QuestionnaireActivityStructureBean is null.");
     }
@@ -96,7 +135,8 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     if (activityMetadataResponse
         .getActivityId()
         .equalsIgnoreCase(activityMetadataBeanFromWcp.getMetadata().getActivityId())) {
-      processActivityResponses(questionnaireResponses, questionnaireMetadata);
+      processActivityResponses(
+          questionnaireResponses, activityMetadataCache.getIndex(activityMetadataBeanFromWcp));
       Map<String, String> map = new HashedMap<>();
       map.put(ACTIVITY_TYPE, questionnaireActivityResponseBean.getType());
       map.put(ACTIVITY_ID, activityMetadataBeanFromWcp.getMetadata().getActivityId());
@@ -108,7 +148,8 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
       if (appConfig.getSaveRawResponseData().equalsIgnoreCase(AppConstants.TRUE_STR)) {
         rawResponseData = getRawJsonInputData(questionnaireActivityResponseBean);
       }
-      this.saveActivityResponseData(questionnaireActivityResponseBean, rawResponseData);
+      return this.getActivityResponseDataToStore(
+          questionnaireActivityResponseBean, rawResponseData);
     } else {
       logger.error(
           "saveActivityResponseDataForParticipant() - "
@@ -129,23 +170,45 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
       throw new ProcessResponseException(
           "The activity ID in the response does not match activity ID in the metadata provided.");
     }
-    logger.debug(
-        "ActivityResponseProcessorServiceImpl saveActivityResponseDataForParticipant() - ends ");
   }
 
   @Override
-  public StoredResponseBean getActivityResponseDataForParticipant(
+  public Iterator<ResponseRows> getActivityResponseRowsForParticipant(
       String studyId, String siteId, String participantId, String activityId, String questionKey)
       throws ProcessResponseException {
     if (StringUtils.isBlank(studyId)) {
       throw new ProcessResponseException(
-          "getActivityResponseDataForParticipant() method: Study Id argument is null or empty.");
+          "getActivityResponseRowsForParticipant() method: Study Id argument is null or empty.");
     }
     String studyCollectionName = AppUtil.makeStudyCollectionName(studyId);
-    return responsesDao.getActivityResponseDataForParticipant(
+    return responsesDao.getActivityResponseRowsForParticipant(
         studyCollectionName, studyId, siteId, participantId, activityId, questionKey);
   }
 
+  @Override
+  public int writeStoredResponse(Iterator<ResponseRows> rows, OutputStream outputStream)
+      throws IOException {
+    // Same layout as StoredResponseBean, rows are written as they are read from the datastore
+    int rowCount = 0;
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("schemaName");
+      generator.writeString(AppConstants.RESPONSE_DATA_SCHEMA_NAME_LEGACY);
+      generator.writeEndArray();
+      generator.writeStringField("queryName", AppConstants.RESPONSE_DATA_QUERY_NAME_LEGACY);
+      generator.writeArrayFieldStart("rows");
+      while (rows.hasNext()) {
+        generator.writeObject(rows.next());
+        rowCount++;
+      }
+      generator.writeEndArray();
+      generator.writeNumberField("rowCount", rowCount);
+      generator.writeEndObject();
+    }
+    return rowCount;
+  }
+
   @Override
   public void updateWithdrawalStatusForParticipant(String studyId, String participantId)
       throws ProcessResponseException {
@@ -158,9 +221,10 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     responsesDao.updateWithdrawalStatusForParticipant(studyCollectionName, studyId, participantId);
   }
 
-  private void processActivityResponses(
+  // Package-private for the benchmarks in response-server-benchmarks
+  void processActivityResponses(
       List<QuestionnaireActivityStepsBean> questionnaireResponses,
-      List<QuestionnaireActivityStepsBean> activityMetadataBeanFromWcp) {
+      ActivityMetadataIndex activityMetadataIndex) {
     QuestionnaireActivityStepsBean scoreSumResponseBean = null;
     for (QuestionnaireActivityStepsBean responseBean : questionnaireResponses) {
       if (responseBean.getKey().equals(AppConstants.DUMMY_SUM_QUESTION_KEY)) {
@@ -168,13 +232,13 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
       }
       if (responseBean.getResultType().equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)) {
         ActivityValueGroupBean valueGroupResponse =
-            getValueGroupResponses(activityMetadataBeanFromWcp, responseBean);
+            getValueGroupResponses(activityMetadataIndex, responseBean);
         responseBean.setActvityValueGroup(valueGroupResponse);
         // Remove the value object, as we have plugged in the metadata and added to the
         // ActivityValueGroupBean
         responseBean.setValue(AppConstants.EMPTY_STR);
       } else {
-        plugInMetadataToResponses(activityMetadataBeanFromWcp, responseBean, false);
+        plugInMetadataToResponses(activityMetadataIndex, responseBean, false);
       }
     }
     // We might want to hide the dummy sum question from users with conditional branching,
@@ -182,7 +246,7 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     // to be absent.
     if (scoreSumResponseBean == null) {
       // Try to create a response for the dummy sum question by copying from metadata.
-      scoreSumResponseBean = maybeCreateDummySumResponseFromMetadata(activityMetadataBeanFromWcp);
+      scoreSumResponseBean = maybeCreateDummySumResponseFromMetadata(activityMetadataIndex);
       if (scoreSumResponseBean != null) {
         // If copying is successful, add it to the list of responses.
         questionnaireResponses.add(scoreSumResponseBean);
@@ -198,21 +262,14 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
   // Returns an empty response with metadata copied from the dummy sum question, or
   // null if the dummy sum question is not found in metadata.
   private static QuestionnaireActivityStepsBean maybeCreateDummySumResponseFromMetadata(
-      List<QuestionnaireActivityStepsBean> activityMetadataBeanFromWcp) {
-    List<QuestionnaireActivityStepsBean> metadataMatchList =
-        activityMetadataBeanFromWcp
-            .stream()
-            .filter(
-                QuestionnaireActivityStepsBeanPredicate.questionKeyMatch(
-                    AppConstants.DUMMY_SUM_QUESTION_KEY))
-            .collect(Collectors.<QuestionnaireActivityStepsBean>toList());
+      ActivityMetadataIndex activityMetadataIndex) {
+    QuestionnaireActivityStepsBean metadataMatchBean = activityMetadataIndex.getDummySumStep();
     // Return null if dummy sum question is not found from metadata.
-    if (metadataMatchList == null || metadataMatchList.size() != 1) {
+    if (metadataMatchBean == null) {
       return null;
     }
     // Otherwise, create a new entry and copy contents from metadata.
     QuestionnaireActivityStepsBean responseBean = new QuestionnaireActivityStepsBean();
-    QuestionnaireActivityStepsBean metadataMatchBean = metadataMatchList.get(0);
     responseBean.setResultType(metadataMatchBean.getResultType());
     responseBean.setKey(metadataMatchBean.getKey());
     responseBean.setSkippable(metadataMatchBean.getSkippable());
@@ -241,8 +298,8 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
   }
 
   // Calculates score sum in questionnaireResponses and store it
-  // to the value of scoreSumRespnoseBean.
-  private void calculateScoreSum(
+  // to the value of scoreSumRespnoseBean. Package-private for response-server-benchmarks.
+  void calculateScoreSum(
       List<QuestionnaireActivityStepsBean> questionnaireResponses,
       QuestionnaireActivityStepsBean scoreSumResponseBean) {
     double sum = 0;
@@ -266,7 +323,7 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
   }
 
   private ActivityValueGroupBean getValueGroupResponses(
-      List<QuestionnaireActivityStepsBean> activityMetadataBeanFromWcp,
+      ActivityMetadataIndex activityMetadataIndex,
       QuestionnaireActivityStepsBean responseBean) {
     ActivityValueGroupBean activityValueGroupBeanRet = new ActivityValueGroupBean();
     List<QuestionnaireActivityStepsBean> valueResponseBeanList =
@@ -278,22 +335,18 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
         Object valuObj = valueList.get(i);
         if (valuObj instanceof List) {
           List<HashMap> objListMap = (ArrayList<HashMap>) valuObj;
-          Gson gson = new Gson();
           for (HashMap valueObjMap : objListMap) {
-            String json = gson.toJson(valueObjMap, Map.class);
             QuestionnaireActivityStepsBean valueBean =
-                gson.fromJson(json, QuestionnaireActivityStepsBean.class);
-            plugInMetadataToResponses(activityMetadataBeanFromWcp, valueBean, true);
+                ResponseDocumentCodec.decodeFormStep(valueObjMap);
+            plugInMetadataToResponses(activityMetadataIndex, valueBean, true);
             valueResponseBeanList.add(valueBean);
           }
         } else {
           if (valuObj instanceof Map) {
             Map<String, Object> valueObjMap = (HashMap<String, Object>) valuObj;
-            Gson gson = new Gson();
-            String json = gson.toJson(valueObjMap, Map.class);
             QuestionnaireActivityStepsBean valueBean =
-                gson.fromJson(json, QuestionnaireActivityStepsBean.class);
-            plugInMetadataToResponses(activityMetadataBeanFromWcp, valueBean, true);
+                ResponseDocumentCodec.decodeFormStep(valueObjMap);
+            plugInMetadataToResponses(activityMetadataIndex, valueBean, true);
             valueResponseBeanList.add(valueBean);
           }
         }
@@ -304,56 +357,37 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
   }
 
   private void plugInMetadataToResponses(
-      List<QuestionnaireActivityStepsBean> activityMetadataBeanFromWcp,
+      ActivityMetadataIndex activityMetadataIndex,
       QuestionnaireActivityStepsBean responseBean,
       boolean fromGrouped) {
-    List<QuestionnaireActivityStepsBean> metadataMatchList = null;
-
     String questionKey = responseBean.getKey();
-    if (fromGrouped) {
-      for (QuestionnaireActivityStepsBean stepBean : activityMetadataBeanFromWcp) {
-        List<QuestionnaireActivityStepsBean> stepsBean = stepBean.getSteps();
-        metadataMatchList =
-            stepsBean
-                .stream()
-                .filter(QuestionnaireActivityStepsBeanPredicate.questionKeyMatch(questionKey))
-                .collect(Collectors.<QuestionnaireActivityStepsBean>toList());
-        if (metadataMatchList != null && metadataMatchList.size() > 0) {
-          break;
-        }
-      }
-    } else {
-      metadataMatchList =
-          activityMetadataBeanFromWcp
-              .stream()
-              .filter(QuestionnaireActivityStepsBeanPredicate.questionKeyMatch(questionKey))
-              .collect(Collectors.<QuestionnaireActivityStepsBean>toList());
-    }
-    if (metadataMatchList != null) {
-      for (QuestionnaireActivityStepsBean metadataMatchBean : metadataMatchList) {
-        responseBean.setSkippable(metadataMatchBean.getSkippable());
-        responseBean.setText(metadataMatchBean.getText());
-        responseBean.setTitle(metadataMatchBean.getTitle());
-      }
+    QuestionnaireActivityStepsBean metadataMatchBean =
+        fromGrouped
+            ? activityMetadataIndex.getFormStep(questionKey)
+            : activityMetadataIndex.getStep(questionKey);
+    if (metadataMatchBean != null) {
+      responseBean.setSkippable(metadataMatchBean.getSkippable());
+      responseBean.setText(metadataMatchBean.getText());
+      responseBean.setTitle(metadataMatchBean.getTitle());
     }
   }
 
-  private void saveActivityResponseData(
+  // Package-private for the benchmarks in response-server-benchmarks
+  Map<String, Object> getActivityResponseDataToStore(
       ActivityResponseBean questionnaireActivityResponseBean, String rawResponseData)
       throws Exception {
-    logger.debug("ActivityResponseProcessorServiceImpl saveActivityResponseData() - starts ");
     // Add Timestamp to bean
     questionnaireActivityResponseBean.setCreatedTimestamp(
         String.valueOf(System.currentTimeMillis()));
     Map<String, Object> dataToStoreActivityResults =
-        this.getHashMapForBean(questionnaireActivityResponseBean.getMetadata());
-    dataToStoreActivityResults.remove(AppConstants.DATA_FIELD_KEY);
+        ResponseDocumentCodec.encodeActivityMetadata(
+            questionnaireActivityResponseBean.getMetadata());
 
     List<QuestionnaireActivityStepsBean> questionnaireResponses =
         questionnaireActivityResponseBean.getData().getResults();
     List<Map<String, Object>> stepsList = new ArrayList<Map<String, Object>>();
     for (QuestionnaireActivityStepsBean tmpBean : questionnaireResponses) {
-      Map<String, Object> dataToStoreTemp = getHashMapForBean(tmpBean);
+      Map<String, Object> dataToStoreTemp = ResponseDocumentCodec.encodeStep(tmpBean);
       stepsList.add(dataToStoreTemp);
     }
     dataToStoreActivityResults.put(AppConstants.RESULTS_FIELD_KEY, stepsList);
@@ -364,17 +398,7 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     }
     dataToStoreActivityResults.put(
         AppConstants.CREATED_TS_KEY, questionnaireActivityResponseBean.getCreatedTimestamp());
-
-    String studyId = questionnaireActivityResponseBean.getMetadata().getStudyId();
-
-    String studyCollectionName = AppUtil.makeStudyCollectionName(studyId);
-    logger.debug("saveActivityResponseData() : \n Study Collection Name: " + studyCollectionName);
-    responsesDao.saveActivityResponseData(
-        studyId,
-        studyCollectionName,
-        AppConstants.ACTIVITIES_COLLECTION_NAME,
-        dataToStoreActivityResults);
-    logger.debug("ActivityResponseProcessorServiceImpl saveActivityResponseData() - ends ");
+    return dataToStoreActivityResults;
   }
 
   private Map<String, Object> getMapForParticipantCollection(
@@ -409,80 +433,4 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     Gson gson = new Gson();
     return gson.toJson(argBean);
   }
-
-  private Map<String, Object> getHashMapForBean(Object bean) throws Exception {
-    BeanInfo beanInfo;
-    beanInfo = Introspector.getBeanInfo(bean.getClass());
-    PropertyDescriptor[] propDescriptor = beanInfo.getPropertyDescriptors();
-    Map<String, Object> dataToStore = new HashMap<>();
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    Gson gson = gsonBuilder.create();
-    List<Map<String, Object>> stepsList = new ArrayList<Map<String, Object>>();
-    for (PropertyDescriptor pd : propDescriptor) {
-      String propertyName = pd.getName();
-      if (!propertyName.equals(AppConstants.PROPERTY_NAME_CLASS)) {
-        Method getterMethod = pd.getReadMethod();
-        Object propertyValue = getterMethod.invoke(bean);
-        if (!(propertyValue instanceof String)) {
-          if (propertyValue instanceof ActivityValueGroupBean
-              || propertyValue instanceof ActivityMetadataBean) {
-            dataToStore.put(propertyName, getHashMapForBean(propertyValue));
-          } else if (propertyValue instanceof List) {
-            try {
-              ArrayList<Object> pvalueList = (ArrayList<Object>) propertyValue;
-              for (Object valueObj : pvalueList) {
-                if (valueObj instanceof QuestionnaireActivityStepsBean) {
-                  Map<String, Object> tempMap = getHashMapForBean(valueObj);
-                  stepsList.add(tempMap);
-                } else if (valueObj instanceof String) {
-                  if (valueObj != null) {
-                    Object tmpPropertyValue = dataToStore.get(propertyName);
-                    if (tmpPropertyValue != null) {
-                      String tmpPropertyValueStr = (String) tmpPropertyValue.toString();
-                      if (!StringUtils.isBlank(tmpPropertyValueStr)) {
-                        valueObj = tmpPropertyValueStr + AppConstants.COMMA_STR + valueObj;
-                      }
-                    }
-                    dataToStore.put(propertyName, valueObj);
-                  }
-                } else {
-                  if (valueObj != null) {
-                    propertyValue = gson.toJson(valueObj);
-                    Object tmpPropertyValue = dataToStore.get(propertyName);
-                    if (tmpPropertyValue != null) {
-                      String tmpPropertyValueStr = (String) tmpPropertyValue.toString();
-                      if (!StringUtils.isBlank(tmpPropertyValueStr)) {
-                        propertyValue =
-                            tmpPropertyValueStr + AppConstants.COMMA_STR + propertyValue;
-                      }
-                    }
-                    dataToStore.put(propertyName, propertyValue);
-                  }
-                }
-                if (stepsList != null && !stepsList.isEmpty()) {
-                  dataToStore.put(AppConstants.RESULTS_FIELD_KEY, stepsList);
-                }
-              }
-            } catch (ClassCastException ce) {
-              propertyValue = gson.toJson(propertyValue);
-              dataToStore.put(propertyName, getHashMapForBean(propertyValue));
-            }
-          } else {
-            propertyValue = gson.toJson(propertyValue);
-            dataToStore.put(propertyName, propertyValue);
-          }
-        } else {
-          if (propertyValue != null) {
-            dataToStore.put(propertyName, propertyValue);
-          }
-        }
-        logger.debug(
-            "getHashMapForBean() : \n Property Name: "
-                + propertyName
-                + "\t Property Value : "
-                + propertyValue);
-      }
-    }
-    return dataToStore;
-  }
 }
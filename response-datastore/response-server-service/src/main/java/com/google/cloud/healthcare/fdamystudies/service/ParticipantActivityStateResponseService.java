@@ -11,12 +11,17 @@ package com.google.cloud.healthcare.fdamystudies.service;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivitiesBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityStateRequestBean;
 import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
+import java.util.List;
 
 public interface ParticipantActivityStateResponseService {
 
   void saveParticipantActivities(ActivityStateRequestBean activityStateBean)
       throws ProcessActivityStateException;
 
+  /** Upserts the activity state of several participants in a single transaction. */
+  void saveParticipantActivitiesBatch(List<ActivityStateRequestBean> activityStateBeans)
+      throws ProcessActivityStateException;
+
   ActivitiesBean getParticipantActivities(String studyId, String participantId)
       throws ProcessActivityStateException;
 
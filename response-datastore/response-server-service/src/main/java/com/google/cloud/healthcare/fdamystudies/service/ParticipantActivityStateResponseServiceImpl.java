@@ -17,7 +17,12 @@ import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateEx
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -107,6 +112,53 @@ public class ParticipantActivityStateResponseServiceImpl
     logger.debug("saveParticipantActivities() - Ends ");
   }
 
+  @Override
+  public void saveParticipantActivitiesBatch(List<ActivityStateRequestBean> activityStateBeans)
+      throws ProcessActivityStateException {
+    logger.debug("saveParticipantActivitiesBatch() - Start ");
+    Map<String, Set<String>> participantIdsByStudyId = new LinkedHashMap<>();
+    for (ActivityStateRequestBean activityStateRequestBean : activityStateBeans) {
+      if (activityStateRequestBean.getStudyId() == null
+          || activityStateRequestBean.getParticipantId() == null) {
+        throw new ProcessActivityStateException(
+            "saveParticipantActivitiesBatch() - error. Provided input for"
+                + " studyId or participantId is null ");
+      }
+      participantIdsByStudyId
+          .computeIfAbsent(activityStateRequestBean.getStudyId(), k -> new LinkedHashSet<>())
+          .add(activityStateRequestBean.getParticipantId());
+    }
+
+    // Load the existing rows with one query per study
+    Map<String, List<ParticipantActivitiesEntity>> existingByParticipant = new HashMap<>();
+    for (Map.Entry<String, Set<String>> entry : participantIdsByStudyId.entrySet()) {
+      for (String participantId : entry.getValue()) {
+        existingByParticipant.put(entry.getKey() + ":" + participantId, new ArrayList<>());
+      }
+      for (ParticipantActivitiesEntity existing :
+          participantActivitiesDao.getParticipantActivities(entry.getKey(), entry.getValue())) {
+        existingByParticipant
+            .computeIfAbsent(
+                existing.getStudyId() + ":" + existing.getParticipantId(), k -> new ArrayList<>())
+            .add(existing);
+      }
+    }
+
+    for (ActivityStateRequestBean activityStateRequestBean : activityStateBeans) {
+      this.getConsolidatedParticipantListToUpdate(
+          this.getDtoObject(activityStateRequestBean),
+          existingByParticipant.get(
+              activityStateRequestBean.getStudyId()
+                  + ":"
+                  + activityStateRequestBean.getParticipantId()));
+    }
+
+    List<ParticipantActivitiesEntity> participantActivitiesListToUpdate = new ArrayList<>();
+    existingByParticipant.values().forEach(participantActivitiesListToUpdate::addAll);
+    participantActivitiesDao.saveParticipantActivities(participantActivitiesListToUpdate);
+    logger.debug("saveParticipantActivitiesBatch() - Ends ");
+  }
+
   @Override
   public void deleteParticipantActivites(String studyId, String participantId)
       throws ProcessActivityStateException {
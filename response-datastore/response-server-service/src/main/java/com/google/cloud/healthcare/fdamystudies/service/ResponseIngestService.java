@@ -0,0 +1,30 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseIngestReceiptBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+
+public interface ResponseIngestService {
+
+  boolean isEnabled();
+
+  /**
+   * Durably queues a validated activity response for asynchronous processing. Submitting the same
+   * activity run again returns the receipt of the first submission.
+   */
+  ResponseIngestReceiptBean enqueue(
+      ActivityResponseBean activityResponseBean, String userId, AuditLogEventRequest auditRequest)
+      throws ProcessResponseException;
+
+  /** Returns the receipt of the given user, or null if it is unknown or has expired. */
+  ResponseIngestReceiptBean getReceipt(String receiptId, String userId);
+}
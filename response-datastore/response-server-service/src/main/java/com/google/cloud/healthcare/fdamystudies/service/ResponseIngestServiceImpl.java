@@ -0,0 +1,546 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.ACTIVITY_ID;
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.ACTIVITY_TYPE;
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.ACTIVITY_VERSION;
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.RUN_ID;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_NOT_SAVED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_SAVED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_STATE_SAVED_OR_UPDATED_AFTER_RESPONSE_SUBMISSION;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVTY_METADATA_RETRIEVAL_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVTY_METADATA_RETRIEVED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.DATA_SHARING_CONSENT_VALUE_RETRIEVAL_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.DATA_SHARING_CONSENT_VALUE_RETRIEVED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.WITHDRAWAL_INFORMATION_RETRIEVED;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityStateRequestBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ParticipantActivityBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ParticipantStudyInformation;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseIngestReceiptBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseIngestRecord;
+import com.google.cloud.healthcare.fdamystudies.bean.StudyActivityMetadataRequestBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.IdGenerator;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseIngestStatus;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseServerAuditLogHelper;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.dao.ResponseIngestJournal;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.ErrorCode;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Asynchronous ingest mode for activity responses. Accepted responses are appended to the {@link
+ * ResponseIngestJournal} and drained by a worker pool in micro-batches: response documents of a
+ * batch are written per study with one batched datastore commit, and the participant activity
+ * states with one transaction.
+ *
+ * <p>Responses are deduplicated on (studyId, participantId, activityId, activityRunId) and stored
+ * under a document ID derived from that key, so a replay after a crash, or a resubmission of an
+ * activity run whose receipt failed after its document was written, overwrites instead of
+ * duplicating. Responses without an activityRunId are stored under their receipt ID.
+ */
+@Service
+public class ResponseIngestServiceImpl implements ResponseIngestService {
+
+  private static final Logger logger = LoggerFactory.getLogger(ResponseIngestServiceImpl.class);
+
+  private static final long POLL_TIMEOUT_SECONDS = 1;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private ResponseIngestJournal responseIngestJournal;
+
+  @Autowired private StudyMetadataService studyMetadataService;
+
+  @Autowired private ParticipantStudyInfoService partStudyInfoService;
+
+  @Autowired private ActivityResponseProcessorService activityResponseProcessorService;
+
+  @Autowired
+  private ParticipantActivityStateResponseService participantActivityStateResponseService;
+
+  @Autowired private ResponseServerAuditLogHelper responseServerAuditLogHelper;
+
+  private final Map<String, ResponseIngestRecord> receipts = new ConcurrentHashMap<>();
+
+  private final Map<String, String> receiptIdsByIdempotencyKey = new ConcurrentHashMap<>();
+
+  private final BlockingQueue<ResponseIngestRecord> queue = new LinkedBlockingQueue<>();
+
+  private ExecutorService workers;
+
+  private ScheduledExecutorService retryScheduler;
+
+  private volatile boolean running;
+
+  private volatile long lastPurge = System.currentTimeMillis();
+
+  @PostConstruct
+  public void init() throws IOException {
+    if (isEnabled()) {
+      // Replay responses accepted before the last shutdown
+      start();
+    }
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return appConfig.isResponseIngestAsyncEnabled();
+  }
+
+  @Override
+  public ResponseIngestReceiptBean enqueue(
+      ActivityResponseBean activityResponseBean, String userId, AuditLogEventRequest auditRequest)
+      throws ProcessResponseException {
+    try {
+      if (!running) {
+        start();
+      }
+    } catch (IOException e) {
+      logger.error("Could not open the response ingest journal", e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+
+    String receiptId = IdGenerator.id();
+    String idempotencyKey = getIdempotencyKey(activityResponseBean);
+    if (idempotencyKey != null) {
+      String existingReceiptId = receiptIdsByIdempotencyKey.putIfAbsent(idempotencyKey, receiptId);
+      if (existingReceiptId != null) {
+        logger.debug("Duplicate activity run submitted, returning receipt " + existingReceiptId);
+        ResponseIngestRecord existing = receipts.get(existingReceiptId);
+        return existing != null
+            ? toReceipt(existing)
+            : new ResponseIngestReceiptBean(existingReceiptId, ResponseIngestStatus.ACCEPTED, null);
+      }
+    }
+
+    ResponseIngestRecord record = new ResponseIngestRecord();
+    record.setReceiptId(receiptId);
+    record.setIdempotencyKey(idempotencyKey);
+    record.setStatus(ResponseIngestStatus.ACCEPTED);
+    record.setTimestamp(System.currentTimeMillis());
+    record.setUserId(userId);
+    record.setAuditRequest(auditRequest);
+    record.setActivityResponse(activityResponseBean);
+    try {
+      responseIngestJournal.append(record);
+    } catch (IOException e) {
+      if (idempotencyKey != null) {
+        receiptIdsByIdempotencyKey.remove(idempotencyKey, receiptId);
+      }
+      logger.error("Could not append the response to the ingest journal", e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+    receipts.put(receiptId, record);
+    queue.offer(record);
+    return toReceipt(record);
+  }
+
+  @Override
+  public ResponseIngestReceiptBean getReceipt(String receiptId, String userId) {
+    ResponseIngestRecord record = receipts.get(receiptId);
+    if (record == null || !StringUtils.equals(record.getUserId(), userId)) {
+      return null;
+    }
+    return toReceipt(record);
+  }
+
+  @PreDestroy
+  public synchronized void stop() throws InterruptedException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    retryScheduler.shutdownNow();
+    workers.shutdown();
+    // Whatever is left in the queue stays ACCEPTED in the journal and is replayed on restart
+    if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+      workers.shutdownNow();
+    }
+  }
+
+  private synchronized void start() throws IOException {
+    if (running) {
+      return;
+    }
+    for (ResponseIngestRecord record : responseIngestJournal.open()) {
+      receipts.put(record.getReceiptId(), record);
+      if (record.getIdempotencyKey() != null
+          && record.getStatus() != ResponseIngestStatus.FAILED) {
+        receiptIdsByIdempotencyKey.put(record.getIdempotencyKey(), record.getReceiptId());
+      }
+      if (record.getStatus() == ResponseIngestStatus.ACCEPTED) {
+        queue.offer(record);
+      }
+    }
+
+    running = true;
+    int workerCount = Math.max(1, appConfig.getResponseIngestWorkers());
+    AtomicInteger threadCount = new AtomicInteger();
+    workers =
+        Executors.newFixedThreadPool(
+            workerCount,
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "response-ingest-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    for (int i = 0; i < workerCount; i++) {
+      workers.execute(this::drainQueue);
+    }
+    retryScheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "response-ingest-retry");
+              thread.setDaemon(true);
+              return thread;
+            });
+    logger.info(
+        String.format(
+            "Response ingest started with %d workers, %d responses pending",
+            workerCount, queue.size()));
+  }
+
+  private void drainQueue() {
+    int batchSize = Math.max(1, appConfig.getResponseIngestBatchSize());
+    while (running) {
+      try {
+        ResponseIngestRecord first = queue.poll(POLL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (first == null) {
+          purgeExpiredReceipts();
+          continue;
+        }
+        List<ResponseIngestRecord> batch = new ArrayList<>(batchSize);
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        processBatch(batch);
+        compactJournal();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        // Keep the worker alive, failed records have already been requeued or marked failed
+        logger.error("Unexpected error in response ingest worker", e);
+      }
+    }
+  }
+
+  private void processBatch(List<ResponseIngestRecord> batch) {
+    Map<String, Map<String, Map<String, Object>>> documentsByStudyId = new LinkedHashMap<>();
+    Map<String, List<ResponseIngestRecord>> recordsByStudyId = new HashMap<>();
+    Map<String, ActivityResponseBean> responsesByReceiptId = new HashMap<>();
+
+    for (ResponseIngestRecord record : batch) {
+      // Work on a copy, processing mutates the response and a retry must start from the original
+      ResponseIngestRecord working = responseIngestJournal.copyOf(record);
+      try {
+        Map<String, Object> document = prepareDocument(record, working);
+        if (document != null) {
+          String studyId = working.getActivityResponse().getMetadata().getStudyId();
+          documentsByStudyId
+              .computeIfAbsent(studyId, k -> new LinkedHashMap<>())
+              .put(getDocumentId(record), document);
+          recordsByStudyId.computeIfAbsent(studyId, k -> new ArrayList<>()).add(record);
+          responsesByReceiptId.put(record.getReceiptId(), working.getActivityResponse());
+        }
+      } catch (Exception e) {
+        logger.error("Could not process response " + record.getReceiptId(), e);
+        retryOrFail(record, ErrorCode.EC_707.errorMessage());
+      }
+    }
+
+    List<ResponseIngestRecord> saved = new ArrayList<>();
+    for (Map.Entry<String, Map<String, Map<String, Object>>> entry :
+        documentsByStudyId.entrySet()) {
+      try {
+        activityResponseProcessorService.saveActivityResponseDataForParticipants(
+            entry.getKey(), entry.getValue());
+        saved.addAll(recordsByStudyId.get(entry.getKey()));
+      } catch (Exception e) {
+        logger.error("Could not store responses of study " + entry.getKey(), e);
+        for (ResponseIngestRecord record : recordsByStudyId.get(entry.getKey())) {
+          retryOrFail(record, ErrorCode.EC_704.errorMessage());
+        }
+      }
+    }
+    if (saved.isEmpty()) {
+      return;
+    }
+
+    List<ActivityStateRequestBean> activityStates = new ArrayList<>();
+    for (ResponseIngestRecord record : saved) {
+      activityStates.add(toActivityState(responsesByReceiptId.get(record.getReceiptId())));
+    }
+    try {
+      participantActivityStateResponseService.saveParticipantActivitiesBatch(activityStates);
+    } catch (Exception e) {
+      // The response documents are keyed by activity run, retrying rewrites the same documents
+      logger.error("Could not update participant activity states", e);
+      for (ResponseIngestRecord record : saved) {
+        retryOrFail(record, ErrorCode.EC_714.errorMessage());
+      }
+      return;
+    }
+
+    List<ResponseIngestRecord> processed = new ArrayList<>();
+    for (ResponseIngestRecord record : saved) {
+      processed.add(statusRecord(record, ResponseIngestStatus.PROCESSED, AppConstants.SUCCESS_MSG));
+    }
+    if (appendStatus(processed)) {
+      for (ResponseIngestRecord record : saved) {
+        logProcessedEvents(record, responsesByReceiptId.get(record.getReceiptId()));
+      }
+    }
+  }
+
+  /**
+   * Enriches the response with activity metadata and consent, or returns null after marking the
+   * record failed when it cannot be stored.
+   */
+  private Map<String, Object> prepareDocument(
+      ResponseIngestRecord record, ResponseIngestRecord working) throws Exception {
+    ActivityResponseBean activityResponseBean = working.getActivityResponse();
+    AuditLogEventRequest auditRequest = working.getAuditRequest();
+    String studyId = activityResponseBean.getMetadata().getStudyId();
+    String participantId = activityResponseBean.getParticipantId();
+
+    StudyActivityMetadataRequestBean studyActivityMetadataRequestBean =
+        new StudyActivityMetadataRequestBean();
+    studyActivityMetadataRequestBean.setStudyId(studyId);
+    studyActivityMetadataRequestBean.setActivityId(
+        activityResponseBean.getMetadata().getActivityId());
+    studyActivityMetadataRequestBean.setActivityVersion(
+        activityResponseBean.getMetadata().getVersion());
+    QuestionnaireActivityStructureBean activityMetadatFromWcp =
+        studyMetadataService.getStudyActivityMetadata(
+            activityResponseBean.getApplicationId(),
+            studyActivityMetadataRequestBean,
+            auditRequest);
+    if (activityMetadatFromWcp == null) {
+      responseServerAuditLogHelper.logEvent(
+          ACTIVTY_METADATA_RETRIEVAL_FAILED, auditRequest, getActivityMap(activityResponseBean));
+      fail(record, ErrorCode.EC_705.errorMessage());
+      return null;
+    }
+    responseServerAuditLogHelper.logEvent(
+        ACTIVTY_METADATA_RETRIEVED, auditRequest, getActivityMap(activityResponseBean));
+
+    ParticipantStudyInformation partStudyInfo =
+        partStudyInfoService.getParticipantStudyInfo(studyId, participantId, auditRequest);
+    if (partStudyInfo == null) {
+      responseServerAuditLogHelper.logEvent(
+          DATA_SHARING_CONSENT_VALUE_RETRIEVAL_FAILED, auditRequest);
+      fail(record, ErrorCode.EC_715.errorMessage());
+      return null;
+    }
+    Map<String, String> consentMap = new HashMap<>();
+    consentMap.put("datasharing_consent_value", partStudyInfo.getSharing());
+    responseServerAuditLogHelper.logEvent(
+        DATA_SHARING_CONSENT_VALUE_RETRIEVED, auditRequest, consentMap);
+    activityResponseBean.setSharingConsent(partStudyInfo.getSharing());
+
+    boolean withdrawalStatus = !StringUtils.isBlank(partStudyInfo.getWithdrawal());
+    Map<String, String> withdrawMap = new HashMap<>();
+    withdrawMap.put("withdrawn_status", String.valueOf(withdrawalStatus));
+    responseServerAuditLogHelper.logEvent(
+        WITHDRAWAL_INFORMATION_RETRIEVED, auditRequest, withdrawMap);
+    if (withdrawalStatus) {
+      Map<String, String> notSaveMap = getActivityMap(activityResponseBean);
+      notSaveMap.put("submission_timestamp", activityResponseBean.getCreatedTimestamp());
+      responseServerAuditLogHelper.logEvent(ACTIVITY_RESPONSE_NOT_SAVED, auditRequest, notSaveMap);
+      fail(record, ErrorCode.EC_716.errorMessage());
+      return null;
+    }
+
+    return activityResponseProcessorService.prepareActivityResponseDataForParticipant(
+        activityMetadatFromWcp, activityResponseBean, auditRequest);
+  }
+
+  private void retryOrFail(ResponseIngestRecord record, String message) {
+    int attempts = record.getAttempts() + 1;
+    if (attempts >= appConfig.getResponseIngestMaxAttempts()) {
+      fail(record, message);
+      return;
+    }
+    record.setAttempts(attempts);
+    // Exponential backoff, so that a datastore outage is not retried in a tight loop
+    long delayMillis =
+        Math.min(
+            appConfig.getResponseIngestMaxRetryBackoffMs(),
+            appConfig.getResponseIngestRetryBackoffMs() << Math.min(attempts - 1, 20));
+    try {
+      retryScheduler.schedule(() -> queue.offer(record), delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Shutting down, the record stays ACCEPTED in the journal and is replayed on restart
+      logger.debug("Response ingest is stopping, not retrying " + record.getReceiptId());
+    }
+  }
+
+  private void fail(ResponseIngestRecord record, String message) {
+    List<ResponseIngestRecord> failed = new ArrayList<>();
+    failed.add(statusRecord(record, ResponseIngestStatus.FAILED, message));
+    appendStatus(failed);
+  }
+
+  /** Journals the terminal status records and publishes them, dropping the response payloads. */
+  private boolean appendStatus(List<ResponseIngestRecord> statusRecords) {
+    try {
+      responseIngestJournal.append(statusRecords);
+    } catch (IOException e) {
+      // Records stay ACCEPTED in the journal and are processed again on restart
+      logger.error("Could not append status to the response ingest journal", e);
+      return false;
+    }
+    for (ResponseIngestRecord statusRecord : statusRecords) {
+      receipts.put(statusRecord.getReceiptId(), statusRecord);
+      // A failed activity run can be submitted again
+      if (statusRecord.getStatus() == ResponseIngestStatus.FAILED
+          && statusRecord.getIdempotencyKey() != null) {
+        receiptIdsByIdempotencyKey.remove(
+            statusRecord.getIdempotencyKey(), statusRecord.getReceiptId());
+      }
+    }
+    return true;
+  }
+
+  private ResponseIngestRecord statusRecord(
+      ResponseIngestRecord record, ResponseIngestStatus status, String message) {
+    ResponseIngestRecord statusRecord = new ResponseIngestRecord();
+    statusRecord.setReceiptId(record.getReceiptId());
+    statusRecord.setIdempotencyKey(record.getIdempotencyKey());
+    statusRecord.setUserId(record.getUserId());
+    statusRecord.setStatus(status);
+    statusRecord.setMessage(message);
+    statusRecord.setAttempts(record.getAttempts());
+    statusRecord.setTimestamp(System.currentTimeMillis());
+    return statusRecord;
+  }
+
+  private void purgeExpiredReceipts() {
+    long now = System.currentTimeMillis();
+    if (now - lastPurge < TimeUnit.MINUTES.toMillis(1)) {
+      return;
+    }
+    lastPurge = now;
+    compactJournal();
+    long retentionMillis = TimeUnit.HOURS.toMillis(appConfig.getResponseIngestRetentionHours());
+    receipts
+        .values()
+        .removeIf(
+            record -> {
+              boolean expired =
+                  record.getStatus().isTerminal() && now - record.getTimestamp() > retentionMillis;
+              if (expired && record.getIdempotencyKey() != null) {
+                receiptIdsByIdempotencyKey.remove(
+                    record.getIdempotencyKey(), record.getReceiptId());
+              }
+              return expired;
+            });
+  }
+
+  private void compactJournal() {
+    try {
+      responseIngestJournal.compactIfLarge();
+    } catch (IOException e) {
+      logger.error("Could not compact the response ingest journal", e);
+    }
+  }
+
+  private void logProcessedEvents(
+      ResponseIngestRecord record, ActivityResponseBean activityResponseBean) {
+    AuditLogEventRequest auditRequest = record.getAuditRequest();
+    Map<String, String> activityStateMap = getActivityMap(activityResponseBean);
+    activityStateMap.remove(ACTIVITY_TYPE);
+    activityStateMap.put("activity_state", AppConstants.COMPLETED);
+    responseServerAuditLogHelper.logEvent(
+        ACTIVITY_STATE_SAVED_OR_UPDATED_AFTER_RESPONSE_SUBMISSION, auditRequest, activityStateMap);
+    responseServerAuditLogHelper.logEvent(
+        ACTIVITY_RESPONSE_SAVED, auditRequest, getActivityMap(activityResponseBean));
+  }
+
+  private static ActivityStateRequestBean toActivityState(
+      ActivityResponseBean activityResponseBean) {
+    ActivityStateRequestBean activityStateRequestBean = new ActivityStateRequestBean();
+    activityStateRequestBean.setParticipantId(activityResponseBean.getParticipantId());
+    activityStateRequestBean.setStudyId(activityResponseBean.getMetadata().getStudyId());
+
+    ParticipantActivityBean participantActivityBean = new ParticipantActivityBean();
+    participantActivityBean.setActivityId(activityResponseBean.getMetadata().getActivityId());
+    participantActivityBean.setActivityVersion(activityResponseBean.getMetadata().getVersion());
+    participantActivityBean.setActivityState(AppConstants.COMPLETED);
+    activityStateRequestBean.getActivity().add(participantActivityBean);
+    return activityStateRequestBean;
+  }
+
+  private static Map<String, String> getActivityMap(ActivityResponseBean activityResponseBean) {
+    Map<String, String> map = new HashMap<>();
+    map.put(ACTIVITY_TYPE, activityResponseBean.getType());
+    map.put(ACTIVITY_ID, activityResponseBean.getMetadata().getActivityId());
+    map.put(ACTIVITY_VERSION, activityResponseBean.getMetadata().getVersion());
+    map.put(RUN_ID, activityResponseBean.getMetadata().getActivityRunId());
+    return map;
+  }
+
+  private static String getIdempotencyKey(ActivityResponseBean activityResponseBean) {
+    String activityRunId = activityResponseBean.getMetadata().getActivityRunId();
+    if (StringUtils.isBlank(activityRunId)) {
+      return null;
+    }
+    return String.join(
+        ":",
+        activityResponseBean.getMetadata().getStudyId(),
+        activityResponseBean.getParticipantId(),
+        activityResponseBean.getMetadata().getActivityId(),
+        activityRunId);
+  }
+
+  /** Every submission of an activity run is stored under the same document. */
+  private static String getDocumentId(ResponseIngestRecord record) {
+    if (record.getIdempotencyKey() == null) {
+      return record.getReceiptId();
+    }
+    return UUID.nameUUIDFromBytes(record.getIdempotencyKey().getBytes(StandardCharsets.UTF_8))
+        .toString();
+  }
+
+  private static ResponseIngestReceiptBean toReceipt(ResponseIngestRecord record) {
+    return new ResponseIngestReceiptBean(
+        record.getReceiptId(), record.getStatus(), record.getMessage());
+  }
+}
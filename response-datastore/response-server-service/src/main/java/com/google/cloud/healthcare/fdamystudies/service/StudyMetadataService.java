@@ -13,13 +13,10 @@ import com.google.cloud.healthcare.fdamystudies.bean.StudyActivityMetadataReques
 import com.google.cloud.healthcare.fdamystudies.bean.StudyMetadataBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
-import java.beans.IntrospectionException;
-import java.lang.reflect.InvocationTargetException;
 
 public interface StudyMetadataService {
   public void saveStudyMetadata(StudyMetadataBean studyMetadataBean)
-      throws ProcessResponseException, IntrospectionException, IllegalAccessException,
-          IllegalArgumentException, InvocationTargetException;
+      throws ProcessResponseException;
 
   QuestionnaireActivityStructureBean getStudyActivityMetadata(
       String applicationId,
@@ -19,20 +19,13 @@ import com.google.cloud.healthcare.fdamystudies.mapper.AuditEventMapper;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
-import java.beans.BeanInfo;
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseDocumentCodec;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -46,43 +39,23 @@ import org.springframework.web.util.UriComponentsBuilder;
 public class StudyMetadataServiceImpl implements StudyMetadataService {
   @Autowired private RestTemplate restTemplate;
   @Autowired private ApplicationConfiguration appConfig;
+  @Autowired private ActivityMetadataCache activityMetadataCache;
 
-  @Autowired
-  @Qualifier("cloudFirestoreResponsesDaoImpl")
-  private ResponsesDao responsesDao;
+  @Autowired private ResponsesDao responsesDao;
 
   private static Logger logger = LoggerFactory.getLogger(StudyMetadataServiceImpl.class);
 
   @Override
   public void saveStudyMetadata(StudyMetadataBean studyMetadataBean)
-      throws ProcessResponseException, IntrospectionException, IllegalAccessException,
-          IllegalArgumentException, InvocationTargetException {
-
-    BeanInfo beanInfo;
-    beanInfo = Introspector.getBeanInfo(studyMetadataBean.getClass());
-    PropertyDescriptor[] propDescriptor = beanInfo.getPropertyDescriptors();
-    Map<String, Object> dataToStore = new HashMap<>();
-    for (PropertyDescriptor pd : propDescriptor) {
-      String propertyName = pd.getName();
-      if (!propertyName.equals("class")) {
-        Method getterMethod = pd.getReadMethod();
-        Object propertyValue = getterMethod.invoke(studyMetadataBean);
-        if (propertyValue == null) {
-          propertyValue = AppConstants.EMPTY_STR;
-        }
-        logger.debug(
-            "saveStudyMetadata() : \n Property Name: "
-                + propertyName
-                + "\t Propert Value : "
-                + propertyValue);
-        dataToStore.put(propertyName, propertyValue);
-      }
-    }
+      throws ProcessResponseException {
+    Map<String, Object> dataToStore = ResponseDocumentCodec.encodeStudyMetadata(studyMetadataBean);
     String studyCollectionName = AppUtil.makeStudyCollectionName(studyMetadataBean.getStudyId());
 
     logger.info("saveStudyMetadata() : \n Study Collection Name: " + studyCollectionName);
     responsesDao.saveStudyMetadata(
         studyCollectionName, studyMetadataBean.getStudyId(), dataToStore);
+    // A new study version may republish activities, drop any cached metadata for the study
+    activityMetadataCache.invalidateStudy(studyMetadataBean.getStudyId());
     logger.debug(
         "saveStudyMetadata() : \n Study Collection Name: "
             + studyCollectionName
@@ -96,6 +69,23 @@ public class StudyMetadataServiceImpl implements StudyMetadataService {
       AuditLogEventRequest auditRequest)
       throws ProcessResponseException {
     logger.debug("StudyMetadataServiceImpl getStudyActivityMetadata() - starts ");
+    QuestionnaireActivityStructureBean retQuestionnaireActivityStructureBean =
+        activityMetadataCache.get(
+            studyActivityMetadataRequestBean.getStudyId(),
+            studyActivityMetadataRequestBean.getActivityId(),
+            studyActivityMetadataRequestBean.getActivityVersion(),
+            () ->
+                fetchStudyActivityMetadata(
+                    applicationId, studyActivityMetadataRequestBean, auditRequest));
+    logger.debug("StudyMetadataServiceImpl getStudyActivityMetadata() - ends");
+    return retQuestionnaireActivityStructureBean;
+  }
+
+  private QuestionnaireActivityStructureBean fetchStudyActivityMetadata(
+      String applicationId,
+      StudyActivityMetadataRequestBean studyActivityMetadataRequestBean,
+      AuditLogEventRequest auditRequest)
+      throws ProcessResponseException {
     HttpHeaders headers = null;
 
     ResponseEntity<?> responseEntity = null;
@@ -122,10 +112,7 @@ public class StudyMetadataServiceImpl implements StudyMetadataService {
             QuestionnaireActivityMetaDataBean.class);
     QuestionnaireActivityMetaDataBean metadataParentBean =
         (QuestionnaireActivityMetaDataBean) responseEntity.getBody();
-    QuestionnaireActivityStructureBean retQuestionnaireActivityStructureBean =
-        metadataParentBean.getActivity();
-    logger.debug("StudyMetadataServiceImpl getStudyActivityMetadata() - ends");
-    return retQuestionnaireActivityStructureBean;
+    return metadataParentBean.getActivity();
   }
 
   private String getWcpAuthorizationHeader() throws ProcessResponseException {
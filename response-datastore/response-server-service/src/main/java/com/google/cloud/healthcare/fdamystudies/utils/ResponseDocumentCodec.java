@@ -0,0 +1,458 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityMetadataBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityValueGroupBean;
+import com.google.cloud.healthcare.fdamystudies.bean.DestinationBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.bean.StudyMetadataBean;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Converts the response and study metadata beans to the documents stored in the responses
+ * datastore, field by field and without bean introspection. The document shape is the one the
+ * former reflective conversion produced, as stored documents are read back by field name:
+ *
+ * <ul>
+ *   <li>String properties are stored as they are, null properties as the string "null"
+ *   <li>Boolean, number and map properties are stored as their JSON text
+ *   <li>Nested value groups and activity metadata are stored as nested documents
+ *   <li>Steps found in list properties are collected under "results", the other list items are
+ *       joined with a comma, as their JSON text unless they are strings
+ * </ul>
+ *
+ * Study metadata documents hold every property as a string, null properties as an empty string.
+ */
+public final class ResponseDocumentCodec {
+
+  // Only used for map and other values with no bean behind them, never for the beans themselves
+  private static final Gson GSON = new Gson();
+
+  private static final String NULL_STR = "null";
+
+  private ResponseDocumentCodec() {}
+
+  public static Map<String, Object> encodeActivityMetadata(ActivityMetadataBean metadata) {
+    Map<String, Object> document = new HashMap<>(16);
+    putString(document, "activityId", metadata.getActivityId());
+    putString(document, "activityRunId", metadata.getActivityRunId());
+    putString(document, "activityType", metadata.getActivityType());
+    putString(document, "endDate", metadata.getEndDate());
+    putString(document, "lastModified", metadata.getLastModified());
+    putString(document, "name", metadata.getName());
+    putString(document, "startDate", metadata.getStartDate());
+    putString(document, "studyId", metadata.getStudyId());
+    putString(document, "studyVersion", metadata.getStudyVersion());
+    putString(document, "version", metadata.getVersion());
+    return document;
+  }
+
+  public static ActivityMetadataBean decodeActivityMetadata(Map<String, Object> document) {
+    ActivityMetadataBean metadata = new ActivityMetadataBean();
+    metadata.setActivityId(getString(document, "activityId"));
+    metadata.setActivityRunId(getString(document, "activityRunId"));
+    metadata.setActivityType(getString(document, "activityType"));
+    metadata.setEndDate(getString(document, "endDate"));
+    metadata.setLastModified(getString(document, "lastModified"));
+    metadata.setName(getString(document, "name"));
+    metadata.setStartDate(getString(document, "startDate"));
+    metadata.setStudyId(getString(document, "studyId"));
+    metadata.setStudyVersion(getString(document, "studyVersion"));
+    metadata.setVersion(getString(document, "version"));
+    return metadata;
+  }
+
+  public static Map<String, Object> encodeStep(QuestionnaireActivityStepsBean step) {
+    Map<String, Object> document = new HashMap<>(32);
+    ActivityValueGroupBean valueGroup = step.getActvityValueGroup();
+    document.put(
+        "actvityValueGroup", valueGroup == null ? NULL_STR : encodeValueGroup(valueGroup));
+    List<Map<String, Object>> results =
+        putList(document, "destinations", step.getDestinations(), null);
+    putString(document, "endTime", step.getEndTime());
+    document.put("format", toJson(step.getFormat()));
+    putString(document, "groupName", step.getGroupName());
+    putString(document, "healthDataKey", step.getHealthDataKey());
+    putString(document, "key", step.getKey());
+    results = putList(document, "options", step.getOptions(), results);
+    document.put("repeatable", toJson(step.getRepeatable()));
+    putString(document, "repeatableText", step.getRepeatableText());
+    putString(document, "resultType", step.getResultType());
+    document.put("skippable", toJson(step.getSkippable()));
+    document.put("skipped", toJson(step.getSkipped()));
+    putString(document, "startTime", step.getStartTime());
+    results = putList(document, "steps", step.getSteps(), results);
+    putString(document, "text", step.getText());
+    putString(document, "title", step.getTitle());
+    putString(document, "type", step.getType());
+    results = putValue(document, "value", step.getValue(), results);
+    if (results != null) {
+      document.put(AppConstants.RESULTS_FIELD_KEY, results);
+    }
+    return document;
+  }
+
+  public static Map<String, Object> encodeValueGroup(ActivityValueGroupBean valueGroup) {
+    Map<String, Object> document = new HashMap<>(4);
+    List<Map<String, Object>> results =
+        putList(document, "valueGroup", valueGroup.getValueGroup(), null);
+    if (results != null) {
+      document.put(AppConstants.RESULTS_FIELD_KEY, results);
+    }
+    return document;
+  }
+
+  /**
+   * Reads a form step answer as sent by the mobile apps into a step bean. Values end up with the
+   * types a round trip through Gson gives them, numbers in untyped values become doubles. Answers
+   * with properties of an unexpected type take that round trip, so they fail the same way too.
+   */
+  public static QuestionnaireActivityStepsBean decodeFormStep(Map<?, ?> answer) {
+    if (!isPlainFormStep(answer)) {
+      return GSON.fromJson(GSON.toJson(answer, Map.class), QuestionnaireActivityStepsBean.class);
+    }
+    QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+    for (Map.Entry<?, ?> entry : answer.entrySet()) {
+      Object value = entry.getValue();
+      if (value == null) {
+        // Gson leaves out null map values, the property keeps its default
+        continue;
+      }
+      switch (String.valueOf(entry.getKey())) {
+        case "type":
+          step.setType(asString(value));
+          break;
+        case "resultType":
+          step.setResultType(asString(value));
+          break;
+        case "key":
+          step.setKey(asString(value));
+          break;
+        case "title":
+          step.setTitle(asString(value));
+          break;
+        case "text":
+          step.setText(asString(value));
+          break;
+        case "skippable":
+          step.setSkippable(asBoolean(value));
+          break;
+        case "skipped":
+          step.setSkipped(asBoolean(value));
+          break;
+        case "groupName":
+          step.setGroupName(asString(value));
+          break;
+        case "repeatable":
+          step.setRepeatable(asBoolean(value));
+          break;
+        case "repeatableText":
+          step.setRepeatableText(asString(value));
+          break;
+        case "healthDataKey":
+          step.setHealthDataKey(asString(value));
+          break;
+        case "format":
+          step.setFormat(asMap((Map<?, ?>) value));
+          break;
+        case "options":
+          List<String> options = new ArrayList<>();
+          for (Object option : (List<?>) value) {
+            options.add(option == null ? null : asString(option));
+          }
+          step.setOptions(options);
+          break;
+        case "startTime":
+          step.setStartTime(asString(value));
+          break;
+        case "endTime":
+          step.setEndTime(asString(value));
+          break;
+        case "value":
+          step.setValue(asObject(value));
+          break;
+        default:
+          // Not a step property, ignored like Gson does
+      }
+    }
+    return step;
+  }
+
+  public static Map<String, Object> encodeStudyMetadata(StudyMetadataBean studyMetadata) {
+    Map<String, Object> document = new HashMap<>(32);
+    putStudyString(document, "appDescription", studyMetadata.getAppDescription());
+    putStudyString(document, "appId", studyMetadata.getAppId());
+    putStudyString(document, "appName", studyMetadata.getAppName());
+    putStudyString(document, "contactEmail", studyMetadata.getContactEmail());
+    putStudyString(document, "logoImageUrl", studyMetadata.getLogoImageUrl());
+    putStudyString(document, "studyCategory", studyMetadata.getStudyCategory());
+    putStudyString(document, "studyEnrolling", studyMetadata.getStudyEnrolling());
+    putStudyString(document, "studyId", studyMetadata.getStudyId());
+    putStudyString(document, "studySponsor", studyMetadata.getStudySponsor());
+    putStudyString(document, "studyStatus", studyMetadata.getStudyStatus());
+    putStudyString(document, "studyTagline", studyMetadata.getStudyTagline());
+    putStudyString(document, "studyTitle", studyMetadata.getStudyTitle());
+    putStudyString(document, "studyType", studyMetadata.getStudyType());
+    putStudyString(document, "studyVersion", studyMetadata.getStudyVersion());
+    return document;
+  }
+
+  public static StudyMetadataBean decodeStudyMetadata(Map<String, Object> document) {
+    StudyMetadataBean studyMetadata = new StudyMetadataBean();
+    studyMetadata.setAppDescription(getString(document, "appDescription"));
+    studyMetadata.setAppId(getString(document, "appId"));
+    studyMetadata.setAppName(getString(document, "appName"));
+    studyMetadata.setContactEmail(getString(document, "contactEmail"));
+    studyMetadata.setLogoImageUrl(getString(document, "logoImageUrl"));
+    studyMetadata.setStudyCategory(getString(document, "studyCategory"));
+    studyMetadata.setStudyEnrolling(getString(document, "studyEnrolling"));
+    studyMetadata.setStudyId(getString(document, "studyId"));
+    studyMetadata.setStudySponsor(getString(document, "studySponsor"));
+    studyMetadata.setStudyStatus(getString(document, "studyStatus"));
+    studyMetadata.setStudyTagline(getString(document, "studyTagline"));
+    studyMetadata.setStudyTitle(getString(document, "studyTitle"));
+    studyMetadata.setStudyType(getString(document, "studyType"));
+    studyMetadata.setStudyVersion(getString(document, "studyVersion"));
+    return studyMetadata;
+  }
+
+  private static void putString(Map<String, Object> document, String name, String value) {
+    document.put(name, value == null ? NULL_STR : value);
+  }
+
+  private static void putStudyString(Map<String, Object> document, String name, String value) {
+    document.put(name, value == null ? AppConstants.EMPTY_STR : value);
+  }
+
+  private static String getString(Map<String, Object> document, String name) {
+    Object value = document.get(name);
+    return value == null ? null : value.toString();
+  }
+
+  private static List<Map<String, Object>> putValue(
+      Map<String, Object> document,
+      String name,
+      Object value,
+      List<Map<String, Object>> results) {
+    if (value instanceof String) {
+      document.put(name, value);
+    } else if (value instanceof List) {
+      return putList(document, name, (List<?>) value, results);
+    } else if (value instanceof ActivityValueGroupBean) {
+      document.put(name, encodeValueGroup((ActivityValueGroupBean) value));
+    } else if (value instanceof ActivityMetadataBean) {
+      document.put(name, encodeActivityMetadata((ActivityMetadataBean) value));
+    } else {
+      document.put(name, toJson(value));
+    }
+    return results;
+  }
+
+  /**
+   * Collects the steps of the list into results, created on the first one, and joins the other
+   * items under the property name. Empty lists leave the property out.
+   */
+  private static List<Map<String, Object>> putList(
+      Map<String, Object> document,
+      String name,
+      List<?> items,
+      List<Map<String, Object>> results) {
+    if (items == null) {
+      document.put(name, NULL_STR);
+      return results;
+    }
+    for (Object item : items) {
+      if (item instanceof QuestionnaireActivityStepsBean) {
+        if (results == null) {
+          results = new ArrayList<>();
+        }
+        results.add(encodeStep((QuestionnaireActivityStepsBean) item));
+      } else if (item != null) {
+        String text = item instanceof String ? (String) item : toJson(item);
+        Object joined = document.get(name);
+        if (joined != null && !StringUtils.isBlank(joined.toString())) {
+          text = joined + AppConstants.COMMA_STR + text;
+        }
+        document.put(name, text);
+      }
+    }
+    return results;
+  }
+
+  /** JSON text of a value as Gson writes it. */
+  private static String toJson(Object value) {
+    if (value == null) {
+      return NULL_STR;
+    } else if (value instanceof Boolean || value instanceof Integer || value instanceof Long) {
+      return value.toString();
+    } else if (value instanceof Double && Double.isFinite((Double) value)) {
+      return value.toString();
+    } else if (value instanceof DestinationBean) {
+      return toJson((DestinationBean) value);
+    }
+    return GSON.toJson(value);
+  }
+
+  private static String toJson(DestinationBean destination) {
+    StringWriter json = new StringWriter(64);
+    try (JsonWriter writer = new JsonWriter(json)) {
+      // Gson writes the fields in declaration order and leaves out nulls
+      writer.setHtmlSafe(true);
+      writer.setSerializeNulls(false);
+      writer.beginObject();
+      writer.name("condition").value(destination.getCondition());
+      writer.name("operator").value(destination.getOperator());
+      writer.name("destination").value(destination.getDestination());
+      writer.endObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return json.toString();
+  }
+
+  private static boolean isPlainFormStep(Map<?, ?> answer) {
+    for (Map.Entry<?, ?> entry : answer.entrySet()) {
+      Object value = entry.getValue();
+      if (value == null) {
+        continue;
+      }
+      switch (String.valueOf(entry.getKey())) {
+        case "skippable":
+        case "skipped":
+        case "repeatable":
+          if (!(value instanceof Boolean || value instanceof String)) {
+            return false;
+          }
+          break;
+        case "format":
+          if (!(value instanceof Map) || !isPlainValue(value)) {
+            return false;
+          }
+          break;
+        case "options":
+          if (!(value instanceof List)) {
+            return false;
+          }
+          for (Object option : (List<?>) value) {
+            if (option != null && !isScalar(option)) {
+              return false;
+            }
+          }
+          break;
+        case "value":
+          if (!isPlainValue(value)) {
+            return false;
+          }
+          break;
+        case "destinations":
+        case "steps":
+        case "actvityValueGroup":
+          return false;
+        default:
+          // String properties, and properties ignored on decoding
+          if (!isScalar(value) && isStringProperty(String.valueOf(entry.getKey()))) {
+            return false;
+          }
+      }
+    }
+    return true;
+  }
+
+  private static boolean isStringProperty(String name) {
+    switch (name) {
+      case "type":
+      case "resultType":
+      case "key":
+      case "title":
+      case "text":
+      case "groupName":
+      case "repeatableText":
+      case "healthDataKey":
+      case "startTime":
+      case "endTime":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isScalar(Object value) {
+    return value instanceof String || value instanceof Boolean || isFiniteNumber(value);
+  }
+
+  private static boolean isFiniteNumber(Object value) {
+    return (value instanceof Integer || value instanceof Long || value instanceof Double)
+        && Double.isFinite(((Number) value).doubleValue());
+  }
+
+  private static boolean isPlainValue(Object value) {
+    if (value == null || isScalar(value)) {
+      return true;
+    } else if (value instanceof List) {
+      for (Object item : (List<?>) value) {
+        if (!isPlainValue(item)) {
+          return false;
+        }
+      }
+      return true;
+    } else if (value instanceof Map) {
+      for (Object item : ((Map<?, ?>) value).values()) {
+        if (!isPlainValue(item)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private static String asString(Object value) {
+    return value instanceof String ? (String) value : value.toString();
+  }
+
+  private static Boolean asBoolean(Object value) {
+    return value instanceof Boolean ? (Boolean) value : Boolean.valueOf((String) value);
+  }
+
+  private static Object asObject(Object value) {
+    if (value instanceof Number) {
+      return Double.valueOf(value.toString());
+    } else if (value instanceof List) {
+      List<Object> items = new ArrayList<>(((List<?>) value).size());
+      for (Object item : (List<?>) value) {
+        items.add(item == null ? null : asObject(item));
+      }
+      return items;
+    } else if (value instanceof Map) {
+      return asMap((Map<?, ?>) value);
+    }
+    return value;
+  }
+
+  private static Map<String, Object> asMap(Map<?, ?> value) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    for (Map.Entry<?, ?> entry : value.entrySet()) {
+      if (entry.getValue() != null) {
+        map.put(String.valueOf(entry.getKey()), asObject(entry.getValue()));
+      }
+    }
+    return map;
+  }
+}
@@ -42,15 +42,23 @@ import static com.google.cloud.healthcare.fdamystudies.utils.Constants.VALID_USE
 import static com.google.cloud.healthcare.fdamystudies.utils.ErrorCode.EC_701;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
@@ -60,17 +68,26 @@ import com.google.cloud.healthcare.fdamystudies.common.ApiEndpoint;
 import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
 import com.google.cloud.healthcare.fdamystudies.common.IdGenerator;
 import com.google.cloud.healthcare.fdamystudies.common.JsonUtils;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseIngestStatus;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
 import com.google.cloud.healthcare.fdamystudies.dao.CloudFirestoreResponsesDaoImpl;
+import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
 import com.google.cloud.healthcare.fdamystudies.helper.TestDataHelper;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantActivitiesRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantInfoRepository;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantInfoEntity;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityMetadataCache;
+import com.google.cloud.healthcare.fdamystudies.service.ParticipantActivityStateResponseService;
 import com.google.cloud.healthcare.fdamystudies.utils.Constants;
 import com.google.cloud.healthcare.fdamystudies.utils.TestUtils;
+import com.jayway.jsonpath.JsonPath;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.collections4.map.HashedMap;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -81,7 +98,9 @@ import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MvcResult;
 
 public class ProcessActivityResponseControllerTest extends BaseMockIT {
@@ -102,12 +121,20 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
   @Captor ArgumentCaptor<String> questionKeyCaptor;
   @Captor ArgumentCaptor<String> activityCollectionNameCaptor;
   @Captor ArgumentCaptor<Map<String, Object>> dataToStoreCaptor;
+  @Captor ArgumentCaptor<Map<String, Map<String, Object>>> documentsCaptor;
 
   @Autowired private ParticipantActivitiesRepository participantActivitiesRepository;
 
+  @Autowired private ActivityMetadataCache activityMetadataCache;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @SpyBean private ParticipantActivityStateResponseService activityStateResponseService;
+
   @BeforeEach
   public void setUp() {
     participantBo = testDataHelper.saveParticipant();
+    activityMetadataCache.invalidateAll();
   }
 
   @Test
@@ -207,6 +234,146 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
         ACTIVITY_STATE_SAVED_OR_UPDATED_AFTER_RESPONSE_SUBMISSION);
   }
 
+  @Test
+  public void shouldFetchActivityMetadataOnceForRepeatedSubmissions() throws Exception {
+    ActivityResponseBean activityResponseBean = setActivityResponseBean();
+    activityResponseBean.getMetadata().setStudyVersion(STUDY_VERSION);
+    activityResponseBean.getMetadata().setActivityRunId("1");
+
+    HttpHeaders headers = TestUtils.newHeadersUser();
+    for (int i = 0; i < 2; i++) {
+      mockMvc
+          .perform(
+              post(ApiEndpoint.PROCESS_ACTIVITY_RESPONSE.getPath())
+                  .contextPath(getContextPath())
+                  .content(JsonUtils.asJsonString(activityResponseBean))
+                  .headers(headers))
+          .andDo(print())
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.message", is(SUCCESS)));
+    }
+
+    verify(
+        1,
+        getRequestedFor(
+            urlEqualTo(
+                "/study-datastore/activity?studyId=ASignature01"
+                    + "&activityId=Activity&activityVersion=1.0")));
+    assertEquals(1, activityMetadataCache.size());
+  }
+
+  @Test
+  public void shouldProcessActivityResponseAsynchronously() throws Exception {
+    ReflectionTestUtils.setField(appConfig, "responseIngestAsyncEnabled", true);
+    try {
+      ActivityResponseBean activityResponseBean = setActivityResponseBean();
+      activityResponseBean.getMetadata().setStudyVersion(STUDY_VERSION);
+      activityResponseBean.getMetadata().setActivityRunId("3");
+
+      // Step-1 submit the response, it is acknowledged with a receipt
+      HttpHeaders headers = TestUtils.newHeadersUser();
+      MvcResult result =
+          mockMvc
+              .perform(
+                  post(ApiEndpoint.PROCESS_ACTIVITY_RESPONSE.getPath())
+                      .contextPath(getContextPath())
+                      .content(JsonUtils.asJsonString(activityResponseBean))
+                      .headers(headers))
+              .andDo(print())
+              .andExpect(status().isAccepted())
+              .andExpect(jsonPath("$.status", is(ResponseIngestStatus.ACCEPTED.name())))
+              .andReturn();
+      String receiptId =
+          JsonPath.read(result.getResponse().getContentAsString(), "$.receiptId");
+
+      // Step-2 resubmitting the same activity run returns the same receipt
+      mockMvc
+          .perform(
+              post(ApiEndpoint.PROCESS_ACTIVITY_RESPONSE.getPath())
+                  .contextPath(getContextPath())
+                  .content(JsonUtils.asJsonString(activityResponseBean))
+                  .headers(headers))
+          .andDo(print())
+          .andExpect(status().isAccepted())
+          .andExpect(jsonPath("$.receiptId", is(receiptId)));
+
+      // Step-3 poll the receipt until the ingest worker has processed it
+      assertEquals(
+          ResponseIngestStatus.PROCESSED.name(),
+          awaitReceiptStatus(receiptId, headers, ResponseIngestStatus.PROCESSED));
+
+      // Step-4 verify saved values
+      verify(responsesDaoMock)
+          .saveActivityResponseDataBatch(
+              eq(STUDY_ID_VALUE),
+              eq(STUDY_COLLECTION_NAME_VALUE),
+              eq(ACTIVITY_COLLECTION_NAME_VALUE),
+              any());
+      List<ParticipantActivitiesEntity> participantActivitiesList =
+          participantActivitiesRepository.findByStudyIdAndParticipantId(
+              STUDY_ID_VALUE, participantBo.getParticipantId());
+      assertEquals(1, participantActivitiesList.size());
+    } finally {
+      ReflectionTestUtils.setField(appConfig, "responseIngestAsyncEnabled", false);
+    }
+  }
+
+  @Test
+  public void shouldOverwriteDocumentWhenFailedActivityRunIsResubmitted() throws Exception {
+    ReflectionTestUtils.setField(appConfig, "responseIngestAsyncEnabled", true);
+    try {
+      ActivityResponseBean activityResponseBean = setActivityResponseBean();
+      activityResponseBean.getMetadata().setStudyVersion(STUDY_VERSION);
+      activityResponseBean.getMetadata().setActivityRunId("4");
+
+      // Step-1 the response document is written but the activity state update keeps failing
+      doThrow(new ProcessActivityStateException("activity state not saved"))
+          .when(activityStateResponseService)
+          .saveParticipantActivitiesBatch(any());
+      HttpHeaders headers = TestUtils.newHeadersUser();
+      String receiptId = submitAsynchronously(activityResponseBean, headers);
+      assertEquals(
+          ResponseIngestStatus.FAILED.name(),
+          awaitReceiptStatus(receiptId, headers, ResponseIngestStatus.FAILED));
+
+      // Step-2 the failed activity run is submitted again and processed
+      doCallRealMethod().when(activityStateResponseService).saveParticipantActivitiesBatch(any());
+      String resubmittedReceiptId = submitAsynchronously(activityResponseBean, headers);
+      assertNotEquals(receiptId, resubmittedReceiptId);
+      assertEquals(
+          ResponseIngestStatus.PROCESSED.name(),
+          awaitReceiptStatus(resubmittedReceiptId, headers, ResponseIngestStatus.PROCESSED));
+
+      // Step-3 verify every write of the activity run went to the same document
+      verify(responsesDaoMock, atLeast(2))
+          .saveActivityResponseDataBatch(
+              eq(STUDY_ID_VALUE),
+              eq(STUDY_COLLECTION_NAME_VALUE),
+              eq(ACTIVITY_COLLECTION_NAME_VALUE),
+              documentsCaptor.capture());
+      Set<String> documentIds = new HashSet<>();
+      for (Map<String, Map<String, Object>> documents : documentsCaptor.getAllValues()) {
+        documentIds.addAll(documents.keySet());
+      }
+      assertEquals(1, documentIds.size());
+    } finally {
+      ReflectionTestUtils.setField(appConfig, "responseIngestAsyncEnabled", false);
+    }
+  }
+
+  @Test
+  public void shouldReturnNotFoundForUnknownReceipt() throws Exception {
+    HttpHeaders headers = TestUtils.newHeadersUser();
+    mockMvc
+        .perform(
+            get(ApiEndpoint.PROCESS_ACTIVITY_RESPONSE_STATUS.getPath())
+                .contextPath(getContextPath())
+                .headers(headers)
+                .queryParam("receiptId", IdGenerator.id()))
+        .andDo(print())
+        .andExpect(status().isNotFound());
+  }
+
   @Test
   public void shouldReturnBadRequestForEmptyInputsOfProccessActivityResponse() throws Exception {
     ActivityResponseBean activityResponseBean = new ActivityResponseBean();
@@ -256,17 +423,17 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
     StoredResponseBean storedResponseBean =
         getObjectMapper().readValue(inputJsonContent, StoredResponseBean.class);
 
-    // Step-1 getActivityResponseDataForParticipant
-    when(responsesDaoMock.getActivityResponseDataForParticipant(
+    // Step-1 getActivityResponseRowsForParticipant
+    when(responsesDaoMock.getActivityResponseRowsForParticipant(
             STUDY_COLLECTION_NAME_VALUE,
             STUDY_ID_VALUE,
             SITE_ID_VALUE,
             participantBo.getParticipantId(),
             ACTIVITY_ID_VALUE,
             QUESTION_KEY_VALUE))
-        .thenReturn(storedResponseBean);
+        .thenReturn(storedResponseBean.getRows().iterator());
 
-    // Step-2 call API to details to Get process activity response
+    // Step-2 call API to details to Get process activity response, the rows are streamed
     HttpHeaders headers = TestUtils.newHeadersUser();
     MvcResult result =
         mockMvc
@@ -281,6 +448,11 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
                     .queryParam(PARTICIPANT_TOKEN_IDENTIFIER_KEY, participantBo.getTokenId())
                     .queryParam("activityId", ACTIVITY_ID_VALUE)
                     .queryParam("questionKey", QUESTION_KEY_VALUE))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    result =
+        mockMvc
+            .perform(asyncDispatch(result))
             .andDo(print())
             .andExpect(status().isOk())
             .andReturn();
@@ -289,7 +461,7 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
     JSONAssert.assertEquals(inputJsonContent, actualResponse, JSONCompareMode.NON_EXTENSIBLE);
 
     verify(responsesDaoMock)
-        .getActivityResponseDataForParticipant(
+        .getActivityResponseRowsForParticipant(
             studyCollectionNameCaptor.capture(),
             studyIdCaptor.capture(),
             siteIdCaptor.capture(),
@@ -318,6 +490,38 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
     verifyAuditEventCall(auditEventMap, READ_OPERATION_FOR_RESPONSE_DATA_SUCCEEDED);
   }
 
+  @Test
+  public void shouldReturnEmptyBodyWhenNoActivityResponseFound() throws Exception {
+    when(responsesDaoMock.getActivityResponseRowsForParticipant(
+            STUDY_COLLECTION_NAME_VALUE,
+            STUDY_ID_VALUE,
+            SITE_ID_VALUE,
+            participantBo.getParticipantId(),
+            ACTIVITY_ID_VALUE,
+            QUESTION_KEY_VALUE))
+        .thenReturn(Collections.emptyIterator());
+
+    HttpHeaders headers = TestUtils.newHeadersUser();
+    MvcResult result =
+        mockMvc
+            .perform(
+                get(ApiEndpoint.GET_PROCESS_ACTIVITY_RESPONSE.getPath())
+                    .contextPath(getContextPath())
+                    .headers(headers)
+                    .queryParam("appId", "appId")
+                    .queryParam("studyId", STUDY_ID_VALUE)
+                    .queryParam("siteId", SITE_ID_VALUE)
+                    .queryParam("participantId", participantBo.getParticipantId())
+                    .queryParam(PARTICIPANT_TOKEN_IDENTIFIER_KEY, participantBo.getTokenId())
+                    .queryParam("activityId", ACTIVITY_ID_VALUE)
+                    .queryParam("questionKey", QUESTION_KEY_VALUE))
+            .andDo(print())
+            .andExpect(status().isOk())
+            .andReturn();
+
+    assertTrue(result.getResponse().getContentAsString().isEmpty());
+  }
+
   @Test
   public void shouldReturnBadRequestsGetActivityResponse() throws Exception {
     HttpHeaders headers = TestUtils.newHeadersUser();
@@ -425,6 +629,41 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
     participantBoRepository.deleteAll();
   }
 
+  private String submitAsynchronously(
+      ActivityResponseBean activityResponseBean, HttpHeaders headers) throws Exception {
+    MvcResult result =
+        mockMvc
+            .perform(
+                post(ApiEndpoint.PROCESS_ACTIVITY_RESPONSE.getPath())
+                    .contextPath(getContextPath())
+                    .content(JsonUtils.asJsonString(activityResponseBean))
+                    .headers(headers))
+            .andDo(print())
+            .andExpect(status().isAccepted())
+            .andReturn();
+    return JsonPath.read(result.getResponse().getContentAsString(), "$.receiptId");
+  }
+
+  /** Polls the receipt until it has the expected status and returns the last status read. */
+  private String awaitReceiptStatus(
+      String receiptId, HttpHeaders headers, ResponseIngestStatus expected) throws Exception {
+    String status = null;
+    for (int i = 0; i < 50 && !expected.name().equals(status); i++) {
+      Thread.sleep(100);
+      MvcResult statusResult =
+          mockMvc
+              .perform(
+                  get(ApiEndpoint.PROCESS_ACTIVITY_RESPONSE_STATUS.getPath())
+                      .contextPath(getContextPath())
+                      .headers(headers)
+                      .queryParam("receiptId", receiptId))
+              .andExpect(status().isOk())
+              .andReturn();
+      status = JsonPath.read(statusResult.getResponse().getContentAsString(), "$.status");
+    }
+    return status;
+  }
+
   private ActivityResponseBean setActivityResponseBean() {
     ActivityResponseBean activityResponseBean = new ActivityResponseBean();
     activityResponseBean.setApplicationId("UNCSTAND001");
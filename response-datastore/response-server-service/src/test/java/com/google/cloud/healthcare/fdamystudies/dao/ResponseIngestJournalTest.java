@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ResponseIngestRecord;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseIngestStatus;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ResponseIngestJournalTest {
+
+  @TempDir Path directory;
+
+  private ResponseIngestJournal journal;
+
+  @AfterEach
+  public void close() throws IOException {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
+  @Test
+  public void shouldCompactJournalToLatestStateOfRetainedReceipts() throws IOException {
+    journal = open(1);
+    journal.append(accepted("r1", System.currentTimeMillis()));
+    journal.append(accepted("r2", System.currentTimeMillis()));
+    journal.append(accepted("r3", System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+    journal.append(
+        Arrays.asList(
+            status("r1", ResponseIngestStatus.PROCESSED, System.currentTimeMillis()),
+            status(
+                "r3",
+                ResponseIngestStatus.FAILED,
+                System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2))));
+    long size = Files.size(journalPath());
+
+    // the processed payload and the receipt past the retention period are dropped
+    journal.compactIfLarge();
+    assertEquals(2, Files.readAllLines(journalPath()).size());
+    assertTrue(Files.size(journalPath()) < size);
+    assertFalse(Files.exists(directory.resolve("journal.log.compact")));
+  }
+
+  @Test
+  public void shouldAppendToCompactedJournal() throws IOException {
+    journal = open(1);
+    journal.append(accepted("r1", System.currentTimeMillis()));
+    journal.append(accepted("r2", System.currentTimeMillis()));
+    journal.append(status("r1", ResponseIngestStatus.PROCESSED, System.currentTimeMillis()));
+    journal.compactIfLarge();
+    journal.append(status("r2", ResponseIngestStatus.FAILED, System.currentTimeMillis()));
+    journal.close();
+
+    journal = newJournal(Long.MAX_VALUE);
+    Map<String, ResponseIngestRecord> replayed = byReceiptId(journal.open());
+    assertEquals(2, replayed.size());
+    assertEquals(ResponseIngestStatus.PROCESSED, replayed.get("r1").getStatus());
+    assertNull(replayed.get("r1").getActivityResponse());
+    assertEquals(ResponseIngestStatus.FAILED, replayed.get("r2").getStatus());
+    assertEquals("study:participant:activity:r2", replayed.get("r2").getIdempotencyKey());
+  }
+
+  @Test
+  public void shouldKeepPayloadOfAcceptedReceipts() throws IOException {
+    journal = open(1);
+    journal.append(accepted("r1", System.currentTimeMillis()));
+    journal.compactIfLarge();
+    journal.close();
+
+    journal = newJournal(Long.MAX_VALUE);
+    List<ResponseIngestRecord> replayed = journal.open();
+    assertEquals(1, replayed.size());
+    assertEquals(ResponseIngestStatus.ACCEPTED, replayed.get(0).getStatus());
+    assertNotNull(replayed.get(0).getActivityResponse());
+    assertEquals("participant", replayed.get(0).getActivityResponse().getParticipantId());
+  }
+
+  private ResponseIngestJournal open(long compactBytes) throws IOException {
+    ResponseIngestJournal responseIngestJournal = newJournal(compactBytes);
+    responseIngestJournal.open();
+    return responseIngestJournal;
+  }
+
+  private ResponseIngestJournal newJournal(long compactBytes) {
+    ApplicationConfiguration appConfig = new ApplicationConfiguration();
+    ReflectionTestUtils.setField(
+        appConfig, "responseIngestJournalPath", journalPath().toString());
+    ReflectionTestUtils.setField(appConfig, "responseIngestRetentionHours", 1L);
+    ReflectionTestUtils.setField(appConfig, "responseIngestJournalCompactBytes", compactBytes);
+    ResponseIngestJournal responseIngestJournal = new ResponseIngestJournal();
+    ReflectionTestUtils.setField(responseIngestJournal, "appConfig", appConfig);
+    return responseIngestJournal;
+  }
+
+  private Path journalPath() {
+    return directory.resolve("journal.log");
+  }
+
+  private static ResponseIngestRecord accepted(String receiptId, long timestamp) {
+    ActivityResponseBean activityResponse = new ActivityResponseBean();
+    activityResponse.setParticipantId("participant");
+    ResponseIngestRecord record = status(receiptId, ResponseIngestStatus.ACCEPTED, timestamp);
+    record.setActivityResponse(activityResponse);
+    return record;
+  }
+
+  private static ResponseIngestRecord status(
+      String receiptId, ResponseIngestStatus status, long timestamp) {
+    ResponseIngestRecord record = new ResponseIngestRecord();
+    record.setReceiptId(receiptId);
+    record.setIdempotencyKey("study:participant:activity:" + receiptId);
+    record.setStatus(status);
+    record.setTimestamp(timestamp);
+    return record;
+  }
+
+  private static Map<String, ResponseIngestRecord> byReceiptId(
+      List<ResponseIngestRecord> records) {
+    Map<String, ResponseIngestRecord> recordsByReceiptId = new LinkedHashMap<>();
+    for (ResponseIngestRecord record : records) {
+      recordsByReceiptId.put(record.getReceiptId(), record);
+    }
+    return recordsByReceiptId;
+  }
+}
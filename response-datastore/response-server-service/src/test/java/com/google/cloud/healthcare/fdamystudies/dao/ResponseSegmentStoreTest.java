@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ResponseSegmentStoreTest {
+
+  private static final int SEGMENT_SIZE = 4096;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @TempDir Path directory;
+
+  @Test
+  public void shouldReturnResponsesInCreatedTimestampOrder() throws IOException {
+    ResponseSegmentStore store = open();
+    store.put("d1", response("p1", 100, "first"));
+    store.put("d2", response("p1", 300, "third"));
+    store.put("d3", response("p1", 200, "second"));
+    store.put("d4", response("p2", 150, "other"));
+
+    assertEquals(Arrays.asList("first", "second", "third"), values(store, "p1", false));
+    assertEquals(Arrays.asList("third", "second", "first"), values(store, "p1", true));
+
+    // Same document ID replaces the earlier version
+    store.put("d2", response("p1", 50, "replaced"));
+    assertEquals(Arrays.asList("replaced", "first", "second"), values(store, "p1", false));
+  }
+
+  @Test
+  public void shouldApplyWithdrawalAndDeletionToEarlierResponsesOnly() throws IOException {
+    ResponseSegmentStore store = open();
+    store.put("d1", response("p1", 100, "before"));
+    store.put("d2", response("p2", 100, "deleted"));
+
+    assertEquals(1, store.withdrawParticipant("p1"));
+    assertEquals(1, store.deleteParticipant("p2"));
+    store.put("d3", response("p1", 200, "after"));
+    store.put("d4", response("p2", 200, "new"));
+
+    assertEquals(Arrays.asList("before:withdrawn", "after"), values(store, "p1", false));
+    assertEquals(Collections.singletonList("new"), values(store, "p2", false));
+  }
+
+  @Test
+  public void shouldCountNewlyWithdrawnResponsesOnly() throws IOException {
+    ResponseSegmentStore store = open();
+    store.put("d1", response("p1", 100, "first"));
+    store.put("d2", response("p1", 200, "second"));
+
+    assertEquals(2, store.withdrawParticipant("p1"));
+    assertEquals(0, store.withdrawParticipant("p1"));
+    store.put("d3", response("p1", 300, "third"));
+    assertEquals(1, store.withdrawParticipant("p1"));
+  }
+
+  @Test
+  public void shouldRecoverFromSegmentsAndIgnoreTornRecord() throws IOException {
+    ResponseSegmentStore store = open();
+    Map<String, Object> studyDocument = new HashMap<>();
+    studyDocument.put(AppConstants.STUDY_VERSION_KEY, "1.0");
+    store.putStudyDocument(studyDocument);
+    store.put("d1", response("p1", 100, "kept"));
+    store.put("d2", response("p2", 100, "deleted"));
+    store.withdrawParticipant("p1");
+    store.deleteParticipant("p2");
+    store.close();
+    writeTornRecord();
+
+    ResponseSegmentStore recovered = open();
+    assertEquals(Collections.singletonList("kept:withdrawn"), values(recovered, "p1", false));
+    assertEquals(Collections.emptyList(), values(recovered, "p2", false));
+    assertEquals("1.0", recovered.getStudyDocument().get(AppConstants.STUDY_VERSION_KEY));
+
+    recovered.put("d3", response("p1", 200, "next"));
+    assertEquals(Arrays.asList("kept:withdrawn", "next"), values(recovered, "p1", false));
+  }
+
+  @Test
+  public void shouldReclaimReplacedResponsesOnCompaction() throws IOException {
+    ResponseSegmentStore store = open();
+    for (int i = 0; i < 200; i++) {
+      store.put("d" + (i % 10), response("p1", i, "v" + i));
+    }
+    store.deleteParticipant("p2");
+    int segmentsBefore = store.getSegmentCount();
+
+    store.compact();
+
+    assertEquals(0, store.getGarbageRatio(), 0);
+    assertEquals(10, values(store, "p1", false).size());
+    assertEquals("v199", values(store, "p1", true).get(0));
+    assertEquals(true, store.getSegmentCount() < segmentsBefore);
+
+    store.close();
+    ResponseSegmentStore recovered = open();
+    assertEquals(values(store, "p1", false), values(recovered, "p1", false));
+  }
+
+  private ResponseSegmentStore open() throws IOException {
+    return ResponseSegmentStore.open(directory, SEGMENT_SIZE, false, objectMapper);
+  }
+
+  private static Map<String, Object> response(String participantId, long timestamp, String value) {
+    Map<String, Object> response = new HashMap<>();
+    response.put(AppConstants.PARTICIPANT_ID_KEY, participantId);
+    response.put(AppConstants.ACTIVITY_ID_KEY, "activity");
+    response.put(AppConstants.SITE_ID_KEY, "site");
+    response.put(AppConstants.CREATED_TS_KEY, String.valueOf(timestamp));
+    response.put(AppConstants.VALUE_KEY_STR, value);
+    return response;
+  }
+
+  private static List<String> values(
+      ResponseSegmentStore store, String participantId, boolean latestFirst) {
+    List<String> values = new ArrayList<>();
+    Iterator<Map<String, Object>> documents =
+        store.find(participantId, "activity", "site", latestFirst);
+    while (documents.hasNext()) {
+      Map<String, Object> document = documents.next();
+      String value = (String) document.get(AppConstants.VALUE_KEY_STR);
+      values.add(
+          Boolean.TRUE.equals(document.get(AppConstants.WITHDRAWAL_STATUS_KEY))
+              ? value + ":withdrawn"
+              : value);
+    }
+    return values;
+  }
+
+  /** Simulates a crash in the middle of an append to the last segment. */
+  private void writeTornRecord() throws IOException {
+    Path lastSegment;
+    try (Stream<Path> files = Files.list(directory)) {
+      List<Path> segments = files.sorted().collect(Collectors.toList());
+      lastSegment = segments.get(segments.size() - 1);
+    }
+    try (FileChannel channel =
+        FileChannel.open(lastSegment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      int position = 0;
+      while (buffer.getInt(position) != 0) {
+        position += 17 + buffer.getInt(position);
+      }
+      buffer.putInt(position, 20);
+      buffer.putInt(position + 4, 12345);
+      buffer.force();
+    }
+  }
+}
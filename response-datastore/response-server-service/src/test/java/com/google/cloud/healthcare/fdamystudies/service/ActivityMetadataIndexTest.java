@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class ActivityMetadataIndexTest {
+
+  @Test
+  public void shouldResolveKeysLikeTheQuestionKeyPredicate() {
+    QuestionnaireActivityStepsBean first = step("Question1");
+    QuestionnaireActivityStepsBean duplicate = step("question1");
+    QuestionnaireActivityStepsBean other = step("question2");
+
+    ActivityMetadataIndex index = ActivityMetadataIndex.of(Arrays.asList(first, duplicate, other));
+
+    assertSame(duplicate, index.getStep("QUESTION1"));
+    assertSame(other, index.getStep("question2"));
+    assertNull(index.getStep("question3"));
+    assertNull(index.getStep(null));
+    assertNull(index.getFormStep("question2"));
+  }
+
+  @Test
+  public void shouldResolveFormStepsToTheFirstFormWithAMatch() {
+    QuestionnaireActivityStepsBean firstFormStep = step("formQuestion");
+    QuestionnaireActivityStepsBean firstFormDuplicate = step("FormQuestion");
+    QuestionnaireActivityStepsBean secondFormStep = step("formQuestion");
+    QuestionnaireActivityStepsBean firstForm = step("form1");
+    firstForm.setSteps(Arrays.asList(firstFormStep, firstFormDuplicate));
+    QuestionnaireActivityStepsBean secondForm = step("form2");
+    secondForm.setSteps(Arrays.asList(secondFormStep, step("lastQuestion")));
+
+    ActivityMetadataIndex index = ActivityMetadataIndex.of(Arrays.asList(firstForm, secondForm));
+
+    assertSame(firstFormDuplicate, index.getFormStep("formquestion"));
+    assertSame(secondForm.getSteps().get(1), index.getFormStep("lastQuestion"));
+    assertNull(index.getStep("formQuestion"));
+  }
+
+  @Test
+  public void shouldOnlyKeepADummySumQuestionDefinedOnce() {
+    QuestionnaireActivityStepsBean dummySum = step(AppConstants.DUMMY_SUM_QUESTION_KEY);
+
+    assertSame(
+        dummySum, ActivityMetadataIndex.of(Arrays.asList(step("q1"), dummySum)).getDummySumStep());
+    assertNull(
+        ActivityMetadataIndex.of(
+                Arrays.asList(dummySum, step(AppConstants.DUMMY_SUM_QUESTION_KEY.toLowerCase())))
+            .getDummySumStep());
+    assertNull(ActivityMetadataIndex.of(Arrays.asList(step("q1"))).getDummySumStep());
+    assertNull(ActivityMetadataIndex.of(null).getDummySumStep());
+  }
+
+  private static QuestionnaireActivityStepsBean step(String key) {
+    QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+    step.setKey(key);
+    step.setTitle("Title of " + key);
+    return step;
+  }
+}
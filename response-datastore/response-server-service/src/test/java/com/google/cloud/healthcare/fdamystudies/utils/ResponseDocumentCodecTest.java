@@ -0,0 +1,174 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityMetadataBean;
+import com.google.cloud.healthcare.fdamystudies.bean.DestinationBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.bean.StudyMetadataBean;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class ResponseDocumentCodecTest {
+
+  @Test
+  public void shouldEncodeActivityMetadata() {
+    ActivityMetadataBean metadata = new ActivityMetadataBean();
+    metadata.setStudyId("StudyID01");
+    metadata.setActivityId("Activity01");
+    metadata.setVersion("1.0");
+    metadata.setName(null);
+
+    Map<String, Object> document = ResponseDocumentCodec.encodeActivityMetadata(metadata);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("activityId", "Activity01");
+    expected.put("activityRunId", "");
+    expected.put("activityType", "");
+    expected.put("endDate", "");
+    expected.put("lastModified", "");
+    expected.put("name", "null");
+    expected.put("startDate", "");
+    expected.put("studyId", "StudyID01");
+    expected.put("studyVersion", "");
+    expected.put("version", "1.0");
+    assertEquals(expected, document);
+
+    metadata.setName("Activity");
+    assertEquals(
+        ResponseDocumentCodec.encodeActivityMetadata(metadata),
+        ResponseDocumentCodec.encodeActivityMetadata(
+            ResponseDocumentCodec.decodeActivityMetadata(
+                ResponseDocumentCodec.encodeActivityMetadata(metadata))));
+  }
+
+  @Test
+  public void shouldEncodeStep() {
+    DestinationBean destination = new DestinationBean();
+    destination.setCondition("a=b");
+    destination.setOperator(null);
+    destination.setDestination("q2");
+    QuestionnaireActivityStepsBean step =
+        step("q1", "textChoice", new ArrayList<>(Arrays.asList("Choice 1", 2)));
+    step.setDestinations(new ArrayList<>(Collections.singletonList(destination)));
+    step.getFormat().put("max", 10);
+    step.setOptions(new ArrayList<>(Arrays.asList("", "o2", "o3")));
+    step.setSkippable(true);
+    step.setSkipped(null);
+
+    Map<String, Object> document = ResponseDocumentCodec.encodeStep(step);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("actvityValueGroup", new HashMap<>());
+    expected.put("destinations", "{\"condition\":\"a\\u003db\",\"destination\":\"q2\"}");
+    expected.put("endTime", "");
+    expected.put("format", "{\"max\":10}");
+    expected.put("groupName", "");
+    expected.put("healthDataKey", "");
+    expected.put("key", "q1");
+    expected.put("options", "o2,o3");
+    expected.put("repeatable", "null");
+    expected.put("repeatableText", "");
+    expected.put("resultType", "textChoice");
+    expected.put("skippable", "true");
+    expected.put("skipped", "null");
+    expected.put("startTime", "");
+    expected.put("text", "");
+    expected.put("title", "");
+    expected.put("type", "");
+    expected.put("value", "Choice 1,2");
+    assertEquals(expected, document);
+  }
+
+  @Test
+  public void shouldCollectNestedStepsUnderResults() {
+    QuestionnaireActivityStepsBean form = step("form1", "grouped", "");
+    form.getActvityValueGroup().getValueGroup().add(step("q1", "scale", 3.0));
+    form.getActvityValueGroup().getValueGroup().add(step("q2", "text", "Answer"));
+    form.getSteps().add(step("q3", "numeric", null));
+
+    Map<String, Object> document = ResponseDocumentCodec.encodeStep(form);
+
+    assertEquals("", document.get("value"));
+    List<?> results = (List<?>) document.get("results");
+    assertEquals(1, results.size());
+    assertEquals("null", ((Map<?, ?>) results.get(0)).get("value"));
+    Map<?, ?> valueGroup = (Map<?, ?>) document.get("actvityValueGroup");
+    assertEquals(Collections.singleton("results"), valueGroup.keySet());
+    List<?> groupResults = (List<?>) valueGroup.get("results");
+    assertEquals("3.0", ((Map<?, ?>) groupResults.get(0)).get("value"));
+    assertEquals("Answer", ((Map<?, ?>) groupResults.get(1)).get("value"));
+  }
+
+  @Test
+  public void shouldDecodeFormStepLikeGson() {
+    Map<String, Object> answer = new LinkedHashMap<>();
+    answer.put("key", "q1");
+    answer.put("resultType", "scale");
+    answer.put("skipped", "false");
+    answer.put("title", 2);
+    answer.put("startTime", null);
+    answer.put("value", new ArrayList<>(Arrays.asList(1, "a", null)));
+    answer.put("unknown", true);
+
+    QuestionnaireActivityStepsBean step = ResponseDocumentCodec.decodeFormStep(answer);
+
+    Gson gson = new Gson();
+    QuestionnaireActivityStepsBean expected =
+        gson.fromJson(gson.toJson(answer, Map.class), QuestionnaireActivityStepsBean.class);
+    assertEquals(
+        ResponseDocumentCodec.encodeStep(expected), ResponseDocumentCodec.encodeStep(step));
+    assertEquals(Arrays.asList(1.0, "a", null), step.getValue());
+    assertEquals(Boolean.FALSE, step.getSkipped());
+    assertEquals("2", step.getTitle());
+    assertEquals("", step.getStartTime());
+
+    answer.put("skipped", 1);
+    assertThrows(JsonSyntaxException.class, () -> ResponseDocumentCodec.decodeFormStep(answer));
+  }
+
+  @Test
+  public void shouldEncodeStudyMetadata() {
+    StudyMetadataBean studyMetadata = new StudyMetadataBean();
+    studyMetadata.setStudyId("StudyID01");
+    studyMetadata.setStudyVersion("1.1");
+    studyMetadata.setAppId("APP01");
+
+    Map<String, Object> document = ResponseDocumentCodec.encodeStudyMetadata(studyMetadata);
+
+    assertEquals(14, document.size());
+    assertEquals("StudyID01", document.get("studyId"));
+    assertEquals("1.1", document.get("studyVersion"));
+    assertEquals("APP01", document.get("appId"));
+    assertEquals("", document.get("contactEmail"));
+    assertEquals(
+        document,
+        ResponseDocumentCodec.encodeStudyMetadata(
+            ResponseDocumentCodec.decodeStudyMetadata(document)));
+  }
+
+  private static QuestionnaireActivityStepsBean step(String key, String resultType, Object value) {
+    QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+    step.setKey(key);
+    step.setResultType(resultType);
+    step.setValue(value);
+    return step;
+  }
+}